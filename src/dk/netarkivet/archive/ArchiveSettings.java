@@ -127,6 +127,36 @@ public class ArchiveSettings {
      */
     public static String BITARCHIVE_BATCH_JOB_TIMEOUT
             = "settings.archive.bitarchive.batchMessageTimeout";
+
+    /**
+     * <b>settings.archive.bitarchive.maxRunningBatchJobs</b>: <br>
+     * The maximum number of batch jobs a bitarchive runs at the same time.
+     * Further jobs are queued. If larger than one, one of them is reserved
+     * for jobs processing only named files, e.g. checksum jobs for single
+     * files.
+     */
+    public static String BITARCHIVE_MAX_RUNNING_BATCH_JOBS
+            = "settings.archive.bitarchive.maxRunningBatchJobs";
+
+    /**
+     * <b>settings.archive.bitarchive.scrubberBytesPerSecond</b>: <br>
+     * The maximum number of bytes per second read by the bitarchive when
+     * verifying the stored checksums of its files in the background.
+     * Checksum requests are answered from the stored checksums, so this is
+     * how damaged files are discovered. 0 disables the verification.
+     * Default is 10485760 (10 MB).
+     */
+    public static String BITARCHIVE_SCRUBBER_BYTES_PER_SECOND
+            = "settings.archive.bitarchive.scrubberBytesPerSecond";
+
+    /**
+     * <b>settings.archive.bitarchive.scrubberPause</b>: <br>
+     * The time in milliseconds the bitarchive waits before each pass over
+     * its files to verify the stored checksums. Default is 3600000 (one
+     * hour).
+     */
+    public static String BITARCHIVE_SCRUBBER_PAUSE
+            = "settings.archive.bitarchive.scrubberPause";
    
     /**
      * <b>settings.archive.bitarchive.thisCredentials</b>: <br>
@@ -31,6 +31,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -77,6 +79,12 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
  * archive. Batch execution is sent to the bitarchive replica(s), since batch 
  * cannot be executed on checksum replicas. Correction operations are typically 
  * only allowed on one replica.
+ *
+ * Messages about different files are handled concurrently. The store of a
+ * file, and the replies from the replicas about it, are handled while holding
+ * the lock for the file, which is one of a fixed number of locks picked by
+ * the hash of the filename. Fetching checksum results from the replicas is
+ * done without holding any lock.
  */
 public class ArcRepository implements CleanupIF {
     /** The log.*/
@@ -98,16 +106,27 @@ public class ArcRepository implements CleanupIF {
      */
     private ArcRepositoryServer arcReposhandler;
 
+    /** The number of locks the files are distributed among. */
+    private static final int FILE_LOCK_COUNT = 64;
+
+    /**
+     * The locks for the files. All changes to the store state of a file are
+     * made while holding the lock returned by fileLock() for the file.
+     */
+    private final Object[] fileLocks = new Object[FILE_LOCK_COUNT];
+
     /**
      * A Map of a Replica and their corresponding ReplicaClient.
      * From this Map the relevant channels can be found.
+     * Only changed on construction and cleanup.
      */
     private final Map<Replica, ReplicaClient> connectedReplicas =
         new HashMap<Replica, ReplicaClient>();
 
     /**
      * Map from MessageId to arcfiles for which there are outstanding checksum
-     * jobs.
+     * jobs. Guarded by itself, so a checksum request is registered before
+     * the reply to it can be looked up.
      */
     private final Map<String, String> outstandingChecksumFiles =
         new HashMap<String, String>();
@@ -117,14 +136,14 @@ public class ArcRepository implements CleanupIF {
      * reference while a store operation is in process.
      */
     private final Map<String, RemoteFile> outstandingRemoteFiles =
-        new HashMap<String, RemoteFile>();
+        new ConcurrentHashMap<String, RemoteFile>();
 
     /**
      * Map from bitarchive names to Map from filenames to the number of times a
      * file has been attempted uploaded to the the bitarchive.
      */
-    private final Map<String, Map<String, Integer>> uploadRetries =
-        new HashMap<String, Map<String, Integer>>();
+    private final ConcurrentMap<String, Map<String, Integer>> uploadRetries =
+        new ConcurrentHashMap<String, Map<String, Integer>>();
 
     /**
      * Constructor for the ArcRepository. Connects the ArcRepository to all
@@ -139,6 +158,9 @@ public class ArcRepository implements CleanupIF {
     protected ArcRepository() throws IOFailure, IllegalState {
         //UpdateableAdminData Throws IOFailure
         this.ad = AdminFactory.getInstance();
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
         this.arcReposhandler = new ArcRepositoryServer(this);
 
         initialiseReplicaClients();
@@ -218,6 +240,17 @@ public class ArcRepository implements CleanupIF {
         }
     }
 
+    /**
+     * Get the lock guarding the store state of a file.
+     *
+     * @param filename The name of the file.
+     * @return The lock for the file, shared with other files.
+     */
+    private Object fileLock(String filename) {
+        return fileLocks[(filename.hashCode() & Integer.MAX_VALUE)
+                         % fileLocks.length];
+    }
+
     /**
      * Stores a file in all known replicas. It sends out a upload message to 
      * all replicas. 
@@ -227,12 +260,27 @@ public class ArcRepository implements CleanupIF {
      * @throws IOFailure If file couldn't be stored.
      * @throws ArgumentNotValid If a input parameter is null.
      */
-    public synchronized void store(RemoteFile rf, StoreMessage replyInfo)
+    public void store(RemoteFile rf, StoreMessage replyInfo)
             throws IOFailure, ArgumentNotValid {
         ArgumentNotValid.checkNotNull(rf, "rf");
         ArgumentNotValid.checkNotNull(replyInfo, "replyInfo");
 
         final String filename = rf.getName();
+        synchronized (fileLock(filename)) {
+            store(filename, rf, replyInfo);
+        }
+    }
+
+    /**
+     * Stores a file in all known replicas. Called with the lock for the file
+     * held.
+     *
+     * @param filename The name of the file.
+     * @param rf The remotefile to be stored.
+     * @param replyInfo A StoreMessage used to reply with success or failure.
+     */
+    private void store(String filename, RemoteFile rf,
+            StoreMessage replyInfo) {
         log.info("Store started: '" + filename + "'");
 
         // Record, that store of this filename is in progress
@@ -272,13 +320,14 @@ public class ArcRepository implements CleanupIF {
 
     /**
      * Initiate uploading of file to a specific replica. The corresponding
-     * upload record in admin data is created.
+     * upload record in admin data is created. Called with the lock for the
+     * file held.
      *
      * @param rf Remotefile to upload to replica.
      * @param replicaClient The replica client to upload to.
      * @param replica The replica where RemoteFile is to be stored.
      */
-    private synchronized void startUpload(RemoteFile rf,
+    private void startUpload(RemoteFile rf,
             ReplicaClient replicaClient, Replica replica) {
         final String filename = rf.getName();
         log.debug("Upload started of file '" + filename + "' to replica '"
@@ -338,11 +387,13 @@ public class ArcRepository implements CleanupIF {
             ReplicaClient replicaClient) {
         NetarkivetMessage msg;
         
-        // Retrieve the checksum of the file.
-        msg = replicaClient.sendGetChecksumMessage(Channels.getTheRepos(), 
-                filename);
-
-        outstandingChecksumFiles.put(msg.getID(), filename);
+        // Retrieve the checksum of the file. The message id is only known
+        // when the message is sent, so hold the lock until it is registered.
+        synchronized (outstandingChecksumFiles) {
+            msg = replicaClient.sendGetChecksumMessage(Channels.getTheRepos(),
+                    filename);
+            outstandingChecksumFiles.put(msg.getID(), filename);
+        }
         log.debug("Checksum job message submitted for file '" + filename 
                 + "' with message id: '" + msg.getID() + "'");
     }
@@ -352,11 +403,12 @@ public class ArcRepository implements CleanupIF {
      * file we are currently processing, and send the reply if it is. We reply
      * only when there is an outstanding message to reply to, and a) The file is
      * reported complete in all replicas or b) No replica has outstanding
-     * reply messages AND some replica has reported failure.
+     * reply messages AND some replica has reported failure. Called with the
+     * lock for the file held.
      *
      * @param arcFileName The arcfile we consider replying to.
      */
-    private synchronized void considerReplyingOnStore(String arcFileName) {
+    private void considerReplyingOnStore(String arcFileName) {
         if (ad.hasReplyInfo(arcFileName)) {
             if (isStoreCompleted(arcFileName)) {
                 replyOK(arcFileName, ad.removeReplyInfo(arcFileName));
@@ -373,7 +425,7 @@ public class ArcRepository implements CleanupIF {
      * @param arcFileName The file for which we are replying.
      * @param msg The message to reply to.
      */
-    private synchronized void replyOK(String arcFileName, StoreMessage msg) {
+    private void replyOK(String arcFileName, StoreMessage msg) {
         outstandingRemoteFiles.remove(arcFileName);
         clearRetries(arcFileName);
         log.info("Store OK: '" + arcFileName + "'");
@@ -387,7 +439,7 @@ public class ArcRepository implements CleanupIF {
      * @param arcFileName The file for which we are replying.
      * @param msg The message to reply to.
      */
-    private synchronized void replyNotOK(String arcFileName, StoreMessage msg) {
+    private void replyNotOK(String arcFileName, StoreMessage msg) {
         outstandingRemoteFiles.remove(arcFileName);
         clearRetries(arcFileName);
         msg.setNotOk("Failure while trying to store ARC file: " + arcFileName);
@@ -522,16 +574,18 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg an UploadMessage.
      */
-    public synchronized void onUpload(UploadMessage msg) {
+    public void onUpload(UploadMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         log.debug("Received upload reply: " + msg.toString());
 
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
 
-        if (msg.isOk()) {
-            processDataUploaded(msg.getArcfileName(), repChannelName);
-        } else {
-            processUploadFailed(msg.getArcfileName(), repChannelName);
+        synchronized (fileLock(msg.getArcfileName())) {
+            if (msg.isOk()) {
+                processDataUploaded(msg.getArcfileName(), repChannelName);
+            } else {
+                processUploadFailed(msg.getArcfileName(), repChannelName);
+            }
         }
     }
 
@@ -544,13 +598,14 @@ public class ArcRepository implements CleanupIF {
      * <br/><il>3. Check if store operation is completed and update admin data 
      * if so.</il><br/>
      * </ol>
+     * Called with the lock for the file held.
      *
      * @param arcfileName The arcfile that was uploaded.
      * @param replicaChannelName The name of the identification channel for 
      * the replica that uploaded it (THE_BAMON for bitarchive and THE_CR for
      * checksum).
      */
-    private synchronized void processDataUploaded(String arcfileName,
+    private void processDataUploaded(String arcfileName,
             String replicaChannelName) {
         log.debug("Data uploaded '" + arcfileName + "' ," + replicaChannelName);
         ad.setState(arcfileName, replicaChannelName,
@@ -565,7 +620,8 @@ public class ArcRepository implements CleanupIF {
 
     /**
      * Update admin data with the information that upload to a replica failed.
-     * The replica record is set to UPLOAD_FAILED.
+     * The replica record is set to UPLOAD_FAILED. Called with the lock for the
+     * file held.
      *
      * @param arcfileName The file that resulted in an upload failure.
      * @param replicaChannelName The name of the idenfiticaiton channel for 
@@ -589,22 +645,23 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg a BatchReplyMessage.
      */
-    public synchronized void onBatchReply(BatchReplyMessage msg) {
+    public void onBatchReply(BatchReplyMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         log.debug("BatchReplyMessage received: '" + msg + "'");
         
-        if (!outstandingChecksumFiles.containsKey(msg.getReplyOfId())) {
-            // Message was NOT expected
-            log.warn("Received batchreply message with unknown originating "
-                    + "ID " + msg.getReplyOfId() + "\n" + msg.toString()
-                    + "\n. Known IDs are: "
-                    + outstandingChecksumFiles.keySet().toString());
-            return;
+        String arcfileName;
+        synchronized (outstandingChecksumFiles) {
+            if (!outstandingChecksumFiles.containsKey(msg.getReplyOfId())) {
+                // Message was NOT expected
+                log.warn("Received batchreply message with unknown "
+                        + "originating ID " + msg.getReplyOfId() + "\n"
+                        + msg.toString() + "\n. Known IDs are: "
+                        + outstandingChecksumFiles.keySet().toString());
+                return;
+            }
+            arcfileName = outstandingChecksumFiles.remove(msg.getReplyOfId());
         }
 
-        String arcfileName = outstandingChecksumFiles
-                .remove(msg.getReplyOfId());
-
         // Check incoming message
         if (!msg.isOk()) {
             //Checksum job has ended with errors, but can contain checksum 
@@ -615,7 +672,7 @@ public class ArcRepository implements CleanupIF {
                             + "\nTrying to process anyway.");
         }
 
-        // Parse results
+        // Parse results, without holding any lock
         // if legal result is found it is placed in reportedChecksum
         // if illegal or errors occurs reportedChecksum is set to ""
         RemoteFile checksumResFile = msg.getResultFile();
@@ -666,10 +723,12 @@ public class ArcRepository implements CleanupIF {
         }
 
         // Process result
-        String orgCheckSum = ad.getCheckSum(arcfileName);
         String repChannel = resolveReplicaChannel(msg.getReplyTo().getName());
-        processCheckSum(arcfileName, repChannel, orgCheckSum,
-                reportedChecksum, msg.isOk() && checksumReadOk);
+        synchronized (fileLock(arcfileName)) {
+            String orgCheckSum = ad.getCheckSum(arcfileName);
+            processCheckSum(arcfileName, repChannel, orgCheckSum,
+                    reportedChecksum, msg.isOk() && checksumReadOk);
+        }
     }
     
     /**
@@ -677,23 +736,25 @@ public class ArcRepository implements CleanupIF {
      * 
      * @param msg The message containing the checksum of a specific file.
      */
-    public synchronized void onChecksumReply(GetChecksumMessage msg) {
+    public void onChecksumReply(GetChecksumMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         
         log.debug("Received the reply to a GetChecksumMessage with ID: '" 
                 + msg.getID() + "'");
         
-        // handle the case when unwanted reply.
-        if(!outstandingChecksumFiles.containsKey(msg.getID())) {
-            log.warn("Received GetChecksumMessage with unknown originating "
-                    + "ID " + msg.getReplyOfId() + "\n" + msg.toString()
-                    + "\n. Known IDs are: "
-                    + outstandingChecksumFiles.keySet().toString());
-            return;
+        String arcfileName;
+        synchronized (outstandingChecksumFiles) {
+            // handle the case when unwanted reply.
+            if (!outstandingChecksumFiles.containsKey(msg.getID())) {
+                log.warn("Received GetChecksumMessage with unknown "
+                        + "originating ID " + msg.getReplyOfId() + "\n"
+                        + msg.toString() + "\n. Known IDs are: "
+                        + outstandingChecksumFiles.keySet().toString());
+                return;
+            }
+            arcfileName = outstandingChecksumFiles.remove(msg.getID());
         }
         
-        String arcfileName = outstandingChecksumFiles.remove(msg.getID());
-        
         // Check incoming message
         if (!msg.isOk()) {
             //Checksum job has ended with errors, but can contain checksum 
@@ -716,14 +777,16 @@ public class ArcRepository implements CleanupIF {
         boolean checksumReadOk = true;
         
         // process the checksum.
-        String orgChecksum = ad.getCheckSum(arcfileName);
-        if(orgChecksum == null) {
-            throw new IllegalState("The admin checksum for file '" 
-                    + arcfileName + "' is null. Should never happen.");
-        }
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
-        processCheckSum(arcfileName, repChannelName, orgChecksum,
-                reportedChecksum, checksumReadOk);
+        synchronized (fileLock(arcfileName)) {
+            String orgChecksum = ad.getCheckSum(arcfileName);
+            if (orgChecksum == null) {
+                throw new IllegalState("The admin checksum for file '"
+                        + arcfileName + "' is null. Should never happen.");
+            }
+            processCheckSum(arcfileName, repChannelName, orgChecksum,
+                    reportedChecksum, checksumReadOk);
+        }
     }
 
     /**
@@ -830,6 +893,7 @@ public class ArcRepository implements CleanupIF {
      * part of a store operation for the file. Verify that the checksum is
      * correct, update the BitArchiveStoreState state.
      * Invariant: upload-state is changed or retry count is increased.
+     * Called with the lock for the file held.
      *
      * @param arcFileName
      *            The file being stored.
@@ -843,7 +907,7 @@ public class ArcRepository implements CleanupIF {
      * @param checksumReadOk
      *            Tells whether the checksum was read ok by batch job.
      */
-    private synchronized void processCheckSum(String arcFileName,
+    private void processCheckSum(String arcFileName,
             String replicaChannelName, String orgChecksum,
             String reportedChecksum,
             boolean checksumReadOk) {
@@ -976,8 +1040,9 @@ public class ArcRepository implements CleanupIF {
         Map<String, Integer> replicaRetries = uploadRetries
                 .get(replicaChannelName);
         if (replicaRetries == null) {
-            replicaRetries = new HashMap<String, Integer>();
-            uploadRetries.put(replicaChannelName, replicaRetries);
+            uploadRetries.putIfAbsent(replicaChannelName,
+                    new ConcurrentHashMap<String, Integer>());
+            replicaRetries = uploadRetries.get(replicaChannelName);
         }
 
         Integer retryCount = replicaRetries.get(arcfileName);
@@ -995,9 +1060,7 @@ public class ArcRepository implements CleanupIF {
      * @param arcfileName The name of a given ARC file
      */
     private void clearRetries(String arcfileName) {
-        for (String replicaChannelName : uploadRetries.keySet()) {
-            Map<String, Integer> baretries = uploadRetries.get(
-                    replicaChannelName);
+        for (Map<String, Integer> baretries : uploadRetries.values()) {
             baretries.remove(arcfileName);
         }
     }
@@ -1015,7 +1078,18 @@ public class ArcRepository implements CleanupIF {
      * @param msg an AdminDataMessage object
      */
     public void updateAdminData(AdminDataMessage msg) {
+        synchronized (fileLock(msg.getFileName())) {
+            updateAdminDataForFile(msg);
+        }
+    }
 
+    /**
+     * Change admin data entry for the file of an AdminDataMessage. Called
+     * with the lock for the file held.
+     *
+     * @param msg an AdminDataMessage object
+     */
+    private void updateAdminDataForFile(AdminDataMessage msg) {
         if (!ad.hasEntry(msg.getFileName())) {
             throw new ArgumentNotValid("No admin entry exists for the file '"
                     + msg.getFileName() + "'");
@@ -33,11 +33,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -81,9 +81,11 @@ public abstract class AdminData {
     private static final String OLD_VERSION_NUMBER = "0.3";
     /**
      * Map containing a mapping from arcfilename to ArcRepositoryEntry.
+     * Entries of different files are read and changed concurrently by the
+     * ArcRepository.
      */
     protected Map<String, ArcRepositoryEntry> storeEntries
-            = new HashMap<String, ArcRepositoryEntry>();
+            = new ConcurrentHashMap<String, ArcRepositoryEntry>();
     /**
      * General delimiter.
      * TODO add constants class where these constants are placed.
@@ -28,10 +28,16 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
+import org.apache.commons.logging.LogFactory;
+
 import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.SettingsFactory;
 
 /**
@@ -85,4 +91,61 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      * @return The name of a JDBC driver class
      */
     public abstract String getDriverClassName();
+
+    /**
+     * Create a temporary table for the entries of a checksum list or a file
+     * list from a replica, indexed on the filename. The table must be
+     * disposed of with dropReplicaFileStagingTable. The table has two
+     * columns
+     * filename varchar(300)
+     * checksum varchar(300)
+     * The rows in the table must survive commits.
+     *
+     * @param c The DB connection to use. The table is only visible through
+     * this connection.
+     * @return The name of the created table.
+     * @throws SQLException If there is a problem creating the table.
+     */
+    public abstract String getReplicaFileStagingTable(Connection c)
+            throws SQLException;
+
+    /**
+     * Get the statement which updates the replicafileinfo entries of a
+     * replica with the checksums in a table created with
+     * getReplicaFileStagingTable. Only the entries for files in the table are
+     * updated. The statement sets checksum to the checksum in the table, and
+     * takes the following parameters in order:
+     * upload_status, filelist_status, checksum_status, checksum_checkdatetime,
+     * filelist_checkdatetime and replica_id.
+     *
+     * @param tableName The name of the temporary table.
+     * @return The SQL statement.
+     */
+    public abstract String getUpdateChecksumsFromStagingTableSql(
+            String tableName);
+
+    /**
+     * Dispose of a temporary table created with getReplicaFileStagingTable.
+     * This can be expected to be called from within a finally clause, so it
+     * mustn't throw exceptions.
+     *
+     * @param c The DB connection to use.
+     * @param tableName The name of the temporary table.
+     */
+    public void dropReplicaFileStagingTable(Connection c, String tableName) {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement("DROP TABLE " + tableName);
+            s.execute();
+            c.commit();
+        } catch (SQLException e) {
+            LogFactory.getLog(DBSpecifics.class).warn(
+                    "Couldn't drop temporary table " + tableName + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
 }
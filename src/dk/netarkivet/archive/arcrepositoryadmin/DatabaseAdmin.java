@@ -25,6 +25,7 @@
  */
 package dk.netarkivet.archive.arcrepositoryadmin;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -48,9 +49,10 @@ public final class DatabaseAdmin implements Admin {
     private ReplicaCacheDatabase database;
     /** The current instance of this class, to avoid multiple instantiations.*/
     private static DatabaseAdmin instance;
-    /** Administration of store messages. */
-    private Map<String, StoreMessage> storeEntries = 
-        new HashMap<String, StoreMessage>();
+    /** Administration of store messages. Used by the ArcRepository for
+     * several files at a time. */
+    private Map<String, StoreMessage> storeEntries =
+        Collections.synchronizedMap(new HashMap<String, StoreMessage>());
     
     /**
      * Constructor.
@@ -26,9 +26,16 @@
 
 package dk.netarkivet.archive.arcrepositoryadmin;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
 /**
  * Derby-specific implementation of DB methods.
  *
@@ -40,4 +47,55 @@ import org.apache.commons.logging.LogFactory;
 public abstract class DerbySpecifics extends DBSpecifics {
     /** The log.*/
     protected Log log = LogFactory.getLog(DerbySpecifics.class);
+
+    /** Used for making the names of the staging tables unique. */
+    private static final AtomicLong stagingTableCount = new AtomicLong();
+
+    /**
+     * Create a table for the entries of a checksum list or a file list from
+     * a replica. Derby does not allow indices on temporary tables, so an
+     * ordinary table with a unique name is used.
+     *
+     * @param c The DB connection to use.
+     * @return The name of the created table.
+     * @throws SQLException If there is a problem creating the table.
+     * @see DBSpecifics#getReplicaFileStagingTable(Connection)
+     */
+    public String getReplicaFileStagingTable(Connection c)
+            throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        String tableName = "replicafilestaging" + System.currentTimeMillis()
+                + "_" + stagingTableCount.incrementAndGet();
+        PreparedStatement s = c.prepareStatement("CREATE TABLE " + tableName
+                + " ( filename varchar(300), checksum varchar(300) )");
+        s.execute();
+        s.close();
+        s = c.prepareStatement("CREATE INDEX " + tableName + "index ON "
+                + tableName + " (filename)");
+        s.execute();
+        s.close();
+        c.commit();
+        return tableName;
+    }
+
+    /**
+     * Derby does not support joins in UPDATE statements, so the checksum is
+     * found with a correlated subquery.
+     *
+     * @param tableName The name of the temporary table.
+     * @return The SQL statement.
+     * @see DBSpecifics#getUpdateChecksumsFromStagingTableSql(String)
+     */
+    public String getUpdateChecksumsFromStagingTableSql(String tableName) {
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        String stagedFile = "FROM " + tableName + " s, file f "
+                + "WHERE f.file_id = replicafileinfo.file_id "
+                + "AND f.filename = s.filename";
+        return "UPDATE replicafileinfo SET checksum = "
+                + "( SELECT MAX(s.checksum) " + stagedFile + " ), "
+                + "upload_status = ?, filelist_status = ?, checksum_status = ?, "
+                + "checksum_checkdatetime = ?, filelist_checkdatetime = ? "
+                + "WHERE replica_id = ? AND EXISTS ( SELECT 1 " + stagedFile
+                + " )";
+    }
 }
@@ -27,11 +27,13 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 
 public class MySQLSpecifics extends DBSpecifics {
@@ -57,4 +59,39 @@ public class MySQLSpecifics extends DBSpecifics {
         return "com.mysql.jdbc.Driver";
     }
 
+    /**
+     * Temporary tables are only visible to the connection creating them, so
+     * a fixed name is used. A table left behind on the connection by a
+     * failed drop is dropped first.
+     *
+     * @see DBSpecifics#getReplicaFileStagingTable(Connection)
+     */
+    @Override
+    public String getReplicaFileStagingTable(Connection c)
+            throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        PreparedStatement s = c.prepareStatement(
+                "DROP TEMPORARY TABLE IF EXISTS replicafilestaging");
+        s.execute();
+        s.close();
+        s = c.prepareStatement(
+                "CREATE TEMPORARY TABLE replicafilestaging "
+                + "( filename varchar(300), checksum varchar(300), "
+                + "INDEX replicafilestagingindex (filename) )");
+        s.execute();
+        s.close();
+        c.commit();
+        return "replicafilestaging";
+    }
+
+    @Override
+    public String getUpdateChecksumsFromStagingTableSql(String tableName) {
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        return "UPDATE replicafileinfo r, file f, " + tableName + " s "
+                + "SET r.checksum = s.checksum, r.upload_status = ?, "
+                + "r.filelist_status = ?, r.checksum_status = ?, "
+                + "r.checksum_checkdatetime = ?, r.filelist_checkdatetime = ? "
+                + "WHERE r.replica_id = ? AND f.file_id = r.file_id "
+                + "AND f.filename = s.filename";
+    }
 }
@@ -27,11 +27,13 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 
 public class PostgreSQLSpecifics extends DBSpecifics {
@@ -66,4 +68,44 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         return "org.postgresql.Driver";
     }
 
+    /**
+     * Temporary tables are only visible to the connection creating them, so
+     * a fixed name is used. A table left behind on the connection by a
+     * failed drop is dropped first, together with its index.
+     *
+     * @see DBSpecifics#getReplicaFileStagingTable(Connection)
+     */
+    @Override
+    public String getReplicaFileStagingTable(Connection c)
+            throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        PreparedStatement s = c.prepareStatement(
+                "DROP TABLE IF EXISTS replicafilestaging");
+        s.execute();
+        s.close();
+        s = c.prepareStatement(
+                "CREATE TEMPORARY TABLE replicafilestaging "
+                + "( filename varchar(300), checksum varchar(300) ) "
+                + "ON COMMIT PRESERVE ROWS");
+        s.execute();
+        s.close();
+        s = c.prepareStatement("CREATE INDEX replicafilestagingindex "
+                + "ON replicafilestaging (filename)");
+        s.execute();
+        s.close();
+        c.commit();
+        return "replicafilestaging";
+    }
+
+    @Override
+    public String getUpdateChecksumsFromStagingTableSql(String tableName) {
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        return "UPDATE replicafileinfo SET checksum = s.checksum, "
+                + "upload_status = ?, filelist_status = ?, checksum_status = ?, "
+                + "checksum_checkdatetime = ?, filelist_checkdatetime = ? "
+                + "FROM " + tableName + " s, file f "
+                + "WHERE replicafileinfo.replica_id = ? "
+                + "AND f.file_id = replicafileinfo.file_id "
+                + "AND f.filename = s.filename";
+    }
 }
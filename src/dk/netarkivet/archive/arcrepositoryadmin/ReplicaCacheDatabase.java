@@ -812,6 +812,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
      * <br/> - filelist_checkdatetime = now.
      * <br/> - checksum_checkdatetime = now.
      *
+     * The entries are loaded into a temporary table, and the database is
+     * updated with a few statements over the whole table.
+     *
      * @param checksumOutputFile The output of a checksum job in a file
      * @param replica The replica this checksum job is for.
      */
@@ -828,10 +831,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 checksumOutputFile.getName() + ".sorted");
         FileUtils.sortFile(checksumOutputFile, sortedResult);
         final long datasize = FileUtils.countLines(sortedResult);
-               
-        Set<Long> missingReplicaRFIs = null;
+
         Connection con = ArchiveDBConnection.get();
-        LineIterator lineIterator = null;
+        String tableName = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -845,97 +847,40 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             log.info("Starting processing of " + datasize
                     + " checksum entries for replica " + replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should the datastructure
-            // (missingReplicaRFIs) be disk-bound in some way, or optimized
-            // in some way, e.g. using it.unimi.dsi.fastutil.longs.LongArrayList 
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(
-                    replica.getId(), con);
-
-            // Initialize the String iterator
-            lineIterator = new LineIterator(new FileReader(sortedResult));
-            
-            String lastFilename = "";
-            String lastChecksum = "";
-
-            int i = 0;
-            while (lineIterator.hasNext()) {
-                String line = lineIterator.next(); 
-                // log that it is in progress every so often.
-                if((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed checksum list entry number " + i
-                            + " for replica " + replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
-                }
-                i++;
-
-                // parse the input.
-                final KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
-                final String filename = entry.getKey();
-                final String checksum = entry.getValue();
-
-                // check for duplicates
-                if(filename.equals(lastFilename)) {
-                    // if different checksums, then
-                    if(!checksum.equals(lastChecksum)) {
-                        // log and send notification
-                        String errMsg = "Unidentical duplicates of file '"
-                                + filename + "' with the checksums '" + lastChecksum
-                                + "' and '" + checksum + "'. First instance used.";
-                        log.warn(errMsg);
-                        NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
-                    } else {
-                        // log about duplicate identical
-                        log.debug("Duplicates of the file '" + filename + "' found "
-                                + "with the same checksum '" + checksum + "'.");
-                    }
-
-                    // avoid overhead of inserting duplicates twice.
-                    continue;
-                }
-
-                // set these value to be the old values in next iteration.
-                lastFilename = filename;
-                lastChecksum = checksum;
-
-                // Process the current (filename + checksum) combo for this replica
-                // Remove the returned replicafileinfo guid from the missing entries.
-                missingReplicaRFIs.remove( 
-                        ReplicaCacheHelpers.processChecksumline(filename, checksum, 
-                        replica, con));
-            } 
-        } catch (IOException e) {
-            throw new IOFailure("Unable to read checksum entries from file", e);
-        } finally {
-            ArchiveDBConnection.release(con);
-            LineIterator.closeQuietly(lineIterator);
-        }
-        
-        con = ArchiveDBConnection.get();
-        try {
-        // go through the not found replicafileinfo for this replica to change
-        // their filelist_status to missing.
-        if(missingReplicaRFIs.size() > 0) {
-            log.warn("Found " + missingReplicaRFIs.size() + " missing files "
-                    + "for replica '" + replica + "'.");
-            for (long rfi : missingReplicaRFIs) {
-                // set the replicafileinfo in the database to missing.
-                ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(
-                        rfi, con);
+            tableName = DBSpecifics.getInstance().getReplicaFileStagingTable(
+                    con);
+            stageSortedEntries(sortedResult, tableName, true, replica, con);
+
+            ReplicaCacheHelpers.insertStagedFilesIntoDB(tableName, con);
+            int updated = ReplicaCacheHelpers
+                    .updateReplicaFileInfoChecksumsFromStaging(tableName,
+                            replica, con);
+            log.debug("Updated " + updated + " checksums for replica '"
+                    + replica + "'.");
+
+            // change the filelist_status to missing for the files not found.
+            int missing = ReplicaCacheHelpers
+                    .updateReplicaFileInfoMissingFromStaging(tableName,
+                            replica, con);
+            if (missing > 0) {
+                log.warn("Found " + missing + " missing files "
+                        + "for replica '" + replica + "'.");
             }
-        }
 
-        // update the checksum updated date for this replica.
-        ReplicaCacheHelpers.updateChecksumDateForReplica(replica, con);
-        ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
+            // update the checksum updated date for this replica.
+            ReplicaCacheHelpers.updateChecksumDateForReplica(replica, con);
+            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
 
-        log.info("Finished processing of " + datasize
-                + " checksum entries for replica " + replica.getId());
+            log.info("Finished processing of " + datasize
+                    + " checksum entries for replica " + replica.getId());
+        } catch (SQLException e) {
+            throw new IOFailure("Unable to stage the checksum entries for "
+                    + "replica '" + replica + "'", e);
         } finally {
+            if (tableName != null) {
+                DBSpecifics.getInstance().dropReplicaFileStagingTable(con,
+                        tableName);
+            }
             ArchiveDBConnection.release(con);
         }
     }
@@ -956,6 +901,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
      * <br/> - filelist_status = missing.
      * <br/> - filelist_checkdatetime = now.
      *
+     * The filenames are loaded into a temporary table, and the database is
+     * updated with a few statements over the whole table.
+     *
      * @param filelistFile The list of filenames either parsed from a FilelistJob
      * or the result from a GetAllFilenamesMessage.
      * @param replica The replica, which the FilelistBatchjob has run upon.
@@ -975,8 +923,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         final long datasize = FileUtils.countLines(sortedResult);
         
         Connection con = ArchiveDBConnection.get();
-        Set<Long> missingReplicaRFIs = null;
-        LineIterator lineIterator = null;
+        String tableName = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -990,69 +937,132 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             log.info("Starting processing of " + datasize 
                     + " filelist entries for replica " + replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should this datastructure
-            // (missingReplicaRFIs) be disk-bound in some way.
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(
-                    replica.getId(), con);
+            tableName = DBSpecifics.getInstance().getReplicaFileStagingTable(
+                    con);
+            stageSortedEntries(sortedResult, tableName, false, replica, con);
+
+            ReplicaCacheHelpers.insertStagedFilesIntoDB(tableName, con);
+            int updated = ReplicaCacheHelpers
+                    .updateReplicaFileInfoFilelistFromStaging(tableName,
+                            replica, con);
+            log.debug("Updated the filelist status of " + updated
+                    + " files for replica '" + replica + "'.");
+
+            // change the filelist_status to missing for the files not found.
+            int missing = ReplicaCacheHelpers
+                    .updateReplicaFileInfoMissingFromStaging(tableName,
+                            replica, con);
+            if (missing > 0) {
+                log.warn("Found " + missing + " missing files "
+                        + "for replica '" + replica + "'.");
+            }
+            // Update the date for filelist update for this replica.
+            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
+        } catch (SQLException e) {
+            throw new IOFailure("Unable to stage the filelist entries for "
+                    + "replica '" + replica + "'", e);
+        } finally {
+            if (tableName != null) {
+                DBSpecifics.getInstance().dropReplicaFileStagingTable(con,
+                        tableName);
+            }
+            ArchiveDBConnection.release(con);
+        }
+    }
+
+    /**
+     * Insert the entries of a sorted checksum list or file list into a
+     * staging table. Only the first entry for each filename is inserted.
+     * Duplicates are logged, and a notification is sent if the checksums of
+     * duplicates differ.
+     *
+     * @param sortedFile The sorted list.
+     * @param tableName A table created with
+     * DBSpecifics.getReplicaFileStagingTable.
+     * @param withChecksums Whether the list is the output of a checksum job,
+     * or just a list of filenames.
+     * @param replica The replica the list is from.
+     * @param con The connection the table was created with.
+     * @throws SQLException If the entries cannot be inserted.
+     * @throws IOFailure If the list cannot be read.
+     */
+    private void stageSortedEntries(File sortedFile, String tableName,
+            boolean withChecksums, Replica replica, Connection con)
+            throws SQLException, IOFailure {
+        PreparedStatement statement = null;
+        LineIterator lineIterator = null;
+        try {
+            statement = con.prepareStatement("INSERT INTO " + tableName
+                    + " (filename, checksum) VALUES ( ?, ? )");
+            lineIterator = new LineIterator(new FileReader(sortedFile));
 
-            // Initialize String iterator
-            lineIterator = new LineIterator(new FileReader(sortedResult));            
-            
-            String lastFileName = "";
+            String lastFilename = "";
+            String lastChecksum = "";
             int i = 0;
             while (lineIterator.hasNext()) {
-                String file = lineIterator.next(); 
-                // log that it is in progress every so often.
-                if((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed file list entry number " + i
-                            + " for replica " + replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
+                String line = lineIterator.next();
+                final String filename;
+                final String checksum;
+                if (withChecksums) {
+                    // parse the input.
+                    final KeyValuePair<String, String> entry
+                            = ChecksumJob.parseLine(line);
+                    filename = entry.getKey();
+                    checksum = entry.getValue();
+                } else {
+                    filename = line;
+                    checksum = null;
                 }
-                i++;
 
-                // handle duplicates.
-                if(file.equals(lastFileName)) {
-                    log.warn("There have been found multiple files with the name '"
-                            + file + "'");
+                // check for duplicates
+                if (filename.equals(lastFilename)) {
+                    if (!withChecksums) {
+                        log.warn("There have been found multiple files with "
+                                + "the name '" + filename + "'");
+                    } else if (!checksum.equals(lastChecksum)) {
+                        // log and send notification
+                        String errMsg = "Unidentical duplicates of file '"
+                                + filename + "' with the checksums '"
+                                + lastChecksum + "' and '" + checksum
+                                + "'. First instance used.";
+                        log.warn(errMsg);
+                        NotificationsFactory.getInstance().notify(errMsg,
+                                NotificationType.WARNING);
+                    } else {
+                        // log about duplicate identical
+                        log.debug("Duplicates of the file '" + filename
+                                + "' found with the same checksum '"
+                                + checksum + "'.");
+                    }
+
+                    // avoid overhead of inserting duplicates twice.
                     continue;
                 }
-                
-                lastFileName = file;
-                // Add information for one file, and remove the ReplicaRFI from the
-                // set of missing ones.
-                missingReplicaRFIs.remove(
-                        ReplicaCacheHelpers.addFileInformation(file, replica, con)
-                        );
+
+                // set these value to be the old values in next iteration.
+                lastFilename = filename;
+                lastChecksum = checksum;
+
+                statement.setString(1, filename);
+                statement.setString(2, checksum);
+                statement.addBatch();
+                i++;
+                // send the entries every so often, and log the progress.
+                if ((i % LOGGING_ENTRY_INTERVAL) == 0) {
+                    statement.executeBatch();
+                    log.info("Staged list entry number " + i
+                            + " for replica " + replica);
+                }
             }
+            statement.executeBatch();
+            con.commit();
+            log.debug("Staged " + i + " list entries for replica " + replica);
         } catch (IOException e) {
-            throw new IOFailure("Unable to read the filenames from file", e);
+            throw new IOFailure("Unable to read the list entries from file", e);
         } finally {
-            ArchiveDBConnection.release(con);
+            DBUtils.closeStatementIfOpen(statement);
             LineIterator.closeQuietly(lineIterator);
         }
-        
-        con = ArchiveDBConnection.get();
-        try {
-            // go through the not found replicafileinfo for this replica to change
-            // their filelist_status to missing.
-            if(missingReplicaRFIs.size() > 0) {
-                log.warn("Found " + missingReplicaRFIs.size() + " missing files "
-                        + "for replica '" + replica + "'.");
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
-            }
-            // Update the date for filelist update for this replica.
-            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
-        } finally {
-            ArchiveDBConnection.release(con);
-        }
     }
 
     /**
@@ -344,22 +344,6 @@ public final class ReplicaCacheHelpers {
         }
     }
 
-    /**
-     * Method for retrieving the list of all the replicafileinfo_guids for a
-     * specific replica.
-     *
-     * @param replicaId The id for the replica to contain the files.
-     * @param con An open connection to the archiveDatabase.
-     * @return The list of all the replicafileinfo_guid.
-     */
-    protected static Set<Long> retrieveReplicaFileInfoGuidsForReplica(
-            String replicaId, Connection con) {
-        // sql for retrieving the replicafileinfo_guids for the replica.
-        final String sql = "SELECT replicafileinfo_guid FROM replicafileinfo WHERE "
-                + "replica_id = ? ORDER BY replicafileinfo_guid";
-        return DBUtils.selectLongSet(con, sql, replicaId);
-    }
-
     /**
      * Method for retrieving the replica type for a specific replica.
      *
@@ -1232,100 +1216,165 @@ public final class ReplicaCacheHelpers {
     }
     
     /**
-     * Add information about one file in a given replica.
-     * @param file The name of a file
-     * @param replica A replica
-     * @param con An open connection to the ArchiveDatabase
-     * @return the ReplicaFileInfo ID for the given filename and replica 
-     * in the database
+     * Create the entries in the file table and the replicafileinfo table
+     * which are missing for the files in a staging table.
+     * The new replicafileinfo entries are created as by
+     * createReplicaFileInfoEntriesInDB.
+     *
+     * @param tableName A table created with
+     * DBSpecifics.getReplicaFileStagingTable.
+     * @param con An open connection to the archive database. The same
+     * connection the table was created with.
+     * @throws IOFailure If the entries cannot be created.
      */
-    protected static long addFileInformation(String file, Replica replica, 
-            Connection con) {
-        // retrieve the file_id for the file.
-        long fileId = ReplicaCacheHelpers.retrieveIdForFile(file, con);
-        // If not found, log and create the file in the database.
-        if (fileId < 0) {
-            log.info("The file '" + file + "' was not found in the "
-                    + "database. Thus creating entry for the file.");
-            // insert the file and retrieve its file_id.
-            fileId = ReplicaCacheHelpers.insertFileIntoDB(file, con);
-        }
+    protected static void insertStagedFilesIntoDB(String tableName,
+            Connection con) throws IOFailure {
+        PreparedStatement statement = null;
+        try {
+            statement = con.prepareStatement("INSERT INTO file (filename) "
+                    + "SELECT s.filename FROM " + tableName + " s "
+                    + "WHERE NOT EXISTS ( SELECT 1 FROM file f "
+                    + "WHERE f.filename = s.filename )");
+            int files = statement.executeUpdate();
+            statement.close();
+            if (files > 0) {
+                log.info("Inserted " + files + " new files into the database.");
+            }
 
-        // retrieve the replicafileinfo_guid for this entry.
-        long rfiId = ReplicaCacheHelpers.retrieveReplicaFileInfoGuid(
-                fileId, replica.getId(), con);
-        // if not found log and create the replicafileinfo in the database.
-        if (rfiId < 0) {
-            log.warn("Cannot find the file '" + file + "' for "
-                    + "replica '" + replica.getId() + "'. Thus creating "
-                    + "missing entry before updating.");
-            ReplicaCacheHelpers.createReplicaFileInfoEntriesInDB(fileId, con);
+            statement = con.prepareStatement("INSERT INTO replicafileinfo "
+                    + "(file_id, replica_id, filelist_status, "
+                    + "checksum_status, upload_status ) "
+                    + "SELECT f.file_id, r.replica_id, "
+                    + FileListStatus.NO_FILELIST_STATUS.ordinal() + ", "
+                    + ChecksumStatus.UNKNOWN.ordinal() + ", "
+                    + ReplicaStoreState.UNKNOWN_UPLOAD_STATE.ordinal() + " "
+                    + "FROM " + tableName + " s, file f, replica r "
+                    + "WHERE f.filename = s.filename "
+                    + "AND NOT EXISTS ( SELECT 1 FROM replicafileinfo i "
+                    + "WHERE i.file_id = f.file_id "
+                    + "AND i.replica_id = r.replica_id )");
+            int rfis = statement.executeUpdate();
+            con.commit();
+            if (rfis > 0) {
+                log.info("Inserted " + rfis + " new replicafileinfo entries "
+                        + "into the database.");
+            }
+        } catch (SQLException e) {
+            String msg = "Cannot add the staged files to the database.";
+            log.warn(msg);
+            throw new IOFailure(msg, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
         }
-
-        // update the replicafileinfo of this file:
-        // filelist_checkdate, filelist_status, upload_status
-        ReplicaCacheHelpers.updateReplicaFileInfoFilelist(rfiId, con);
-        
-        return rfiId;
     }
 
     /**
-     * Process checksum information about one file in a given replica.
-     * and update the database accordingly.
-     * @param filename The name of a file
-     * @param checksum The checksum of that file.
-     * @param replica A replica
-     * @param con An open connection to the ArchiveDatabase
-     * @return the ReplicaFileInfo ID for the given filename and replica 
-     * in the database
+     * Update the replicafileinfo entries of a replica for the files with a
+     * checksum in a staging table, as by updateReplicaFileInfoChecksum.
+     *
+     * @param tableName A table created with
+     * DBSpecifics.getReplicaFileStagingTable.
+     * @param rep The replica the checksums are from.
+     * @param con An open connection to the archive database. The same
+     * connection the table was created with.
+     * @return The number of entries updated.
+     * @throws IOFailure If the entries cannot be updated.
      */
-    public static long processChecksumline(String filename, String checksum,
-            Replica replica, Connection con) {
-        
-            // The ID for the file.
-            long fileid = -1;
-
-            // If the file is not within DB, then insert it.
-            int count = DBUtils.selectIntValue(con, 
-                        "SELECT COUNT(*) FROM file WHERE filename = ?", 
-                        filename);
-
-            if (count == 0) {
-                log.info("Inserting the file '" + filename + "' into the "
-                        + "database.");
-                fileid = ReplicaCacheHelpers.insertFileIntoDB(filename, con);
-            } else {
-                fileid = ReplicaCacheHelpers.retrieveIdForFile(filename, con);
-            }
-
-            // If the file does not already exists in the database, create it
-            // and retrieve the new ID.
-            if (fileid < 0) {
-                log.warn("Inserting the file '" + filename + "' into the "
-                        + "database, again: This should never happen!!!");
-                fileid = ReplicaCacheHelpers.insertFileIntoDB(filename, con);
-            }
-
-            // Retrieve the replicafileinfo for the file at the replica.
-            long rfiId = ReplicaCacheHelpers.retrieveReplicaFileInfoGuid(
-                    fileid, replica.getId(), con);
-
-            // Check if there already is an entry in the replicafileinfo table.
-            // rfiId is negative if no entry was found.
-            if (rfiId < 0) {
-                // insert the file into the table.
-                ReplicaCacheHelpers.createReplicaFileInfoEntriesInDB(
-                        fileid, con);
-                log.info("Inserted file '" + filename + "' for replica '"
-                        + replica.toString() + "' into replicafileinfo.");
-            }
+    protected static int updateReplicaFileInfoChecksumsFromStaging(
+            String tableName, Replica rep, Connection con) throws IOFailure {
+        PreparedStatement statement = null;
+        try {
+            Date now = new Date(Calendar.getInstance().getTimeInMillis());
+            statement = DBUtils.prepareStatement(con,
+                    DBSpecifics.getInstance()
+                            .getUpdateChecksumsFromStagingTableSql(tableName),
+                    ReplicaStoreState.UPLOAD_COMPLETED.ordinal(),
+                    FileListStatus.OK.ordinal(),
+                    ChecksumStatus.UNKNOWN.ordinal(), now, now, rep.getId());
+            int updated = statement.executeUpdate();
+            con.commit();
+            return updated;
+        } catch (SQLException e) {
+            String msg = "Problems updating the replicafileinfo.";
+            log.warn(msg);
+            throw new IOFailure(msg, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
 
-            // Update this table
-            ReplicaCacheHelpers.updateReplicaFileInfoChecksum(
-                    rfiId, checksum, con);
-            log.trace("Updated file '" + filename + "' for replica '"
-                    + replica.toString() + "' into replicafileinfo.");
+    /**
+     * Update the replicafileinfo entries of a replica for the files in a
+     * staging table, as by updateReplicaFileInfoFilelist.
+     *
+     * @param tableName A table created with
+     * DBSpecifics.getReplicaFileStagingTable.
+     * @param rep The replica the filelist is from.
+     * @param con An open connection to the archive database. The same
+     * connection the table was created with.
+     * @return The number of entries updated.
+     * @throws IOFailure If the entries cannot be updated.
+     */
+    protected static int updateReplicaFileInfoFilelistFromStaging(
+            String tableName, Replica rep, Connection con) throws IOFailure {
+        PreparedStatement statement = null;
+        try {
+            Date now = new Date(Calendar.getInstance().getTimeInMillis());
+            statement = DBUtils.prepareStatement(con,
+                    "UPDATE replicafileinfo SET filelist_status = ?, "
+                    + "filelist_checkdatetime = ? WHERE replica_id = ? "
+                    + "AND EXISTS ( SELECT 1 FROM " + tableName + " s, file f "
+                    + "WHERE f.file_id = replicafileinfo.file_id "
+                    + "AND f.filename = s.filename )",
+                    FileListStatus.OK.ordinal(), now, rep.getId());
+            int updated = statement.executeUpdate();
+            con.commit();
+            return updated;
+        } catch (SQLException e) {
+            String msg = "Problems updating the replicafileinfo.";
+            log.warn(msg);
+            throw new IOFailure(msg, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
 
-            return rfiId;
+    /**
+     * Update the replicafileinfo entries of a replica for the files which
+     * are not in a staging table, as by
+     * updateReplicaFileInfoMissingFromFilelist.
+     *
+     * @param tableName A table created with
+     * DBSpecifics.getReplicaFileStagingTable.
+     * @param rep The replica the list of files is from.
+     * @param con An open connection to the archive database. The same
+     * connection the table was created with.
+     * @return The number of entries set to missing.
+     * @throws IOFailure If the entries cannot be updated.
+     */
+    protected static int updateReplicaFileInfoMissingFromStaging(
+            String tableName, Replica rep, Connection con) throws IOFailure {
+        PreparedStatement statement = null;
+        try {
+            Date now = new Date(Calendar.getInstance().getTimeInMillis());
+            statement = DBUtils.prepareStatement(con,
+                    "UPDATE replicafileinfo SET filelist_status = ?, "
+                    + "filelist_checkdatetime = ?, upload_status = ? "
+                    + "WHERE replica_id = ? "
+                    + "AND NOT EXISTS ( SELECT 1 FROM " + tableName + " s, "
+                    + "file f WHERE f.file_id = replicafileinfo.file_id "
+                    + "AND f.filename = s.filename )",
+                    FileListStatus.MISSING.ordinal(), now,
+                    ReplicaStoreState.UPLOAD_FAILED.ordinal(), rep.getId());
+            int updated = statement.executeUpdate();
+            con.commit();
+            return updated;
+        } catch (SQLException e) {
+            String msg = "Problems updating the replicafileinfo.";
+            log.warn(msg);
+            throw new IOFailure(msg, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
     }
 }
@@ -56,6 +56,9 @@ import dk.netarkivet.common.exceptions.UnknownID;
  * If the admindata file on start-up is the oldversion,
  * the admindata file is migrated to the new version.
  *
+ * The methods changing the admin data are synchronized, as the ArcRepository
+ * changes the entries of different files concurrently.
+ *
  * @deprecated Use the database instance instead, DatabaseAdmin. 
  */
 @Deprecated
@@ -114,7 +117,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @param checksum  The Checksum for this file
      * @param persistNow Shall we persist this entry now?
      */
-    public void addEntry(String filename, StoreMessage replyInfo,
+    public synchronized void addEntry(String filename, StoreMessage replyInfo,
                          String checksum,
                          boolean persistNow) {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
@@ -136,7 +139,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @param replyInfo   A StoreMessage object related to this filename.
      * @throws UnknownID if no info has been registered for the filename.
      */
-    public void setReplyInfo(String fileName, StoreMessage replyInfo)
+    public synchronized void setReplyInfo(String fileName, StoreMessage replyInfo)
             throws UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         ArgumentNotValid.checkNotNull(replyInfo, "replyInfo");
@@ -156,7 +159,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @throws UnknownID If the filename is not known.
      *         or no replyInfo is associated with arcfileName.
      */
-    public StoreMessage removeReplyInfo(String fileName)
+    public synchronized StoreMessage removeReplyInfo(String fileName)
             throws UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         if (!hasEntry(fileName)) {
@@ -179,7 +182,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @throws UnknownID If the file does not have a store entry.
      * @throws ArgumentNotValid If the arguments are null or empty
      */
-    public void setState(String fileName, String replicaID,
+    public synchronized void setState(String fileName, String replicaID,
             ReplicaStoreState state) throws UnknownID, ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         ArgumentNotValid.checkNotNullOrEmpty(replicaID, "String replicaID");
@@ -210,7 +213,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
      * @throws ArgumentNotValid If the arcfileName or the checksum is either 
      * null or the empty string.
      */
-    public void setCheckSum(String fileName, String checkSum) 
+    public synchronized void setCheckSum(String fileName, String checkSum) 
             throws ArgumentNotValid, UnknownID {
         ArgumentNotValid.checkNotNullOrEmpty(fileName, "String fileName");
         ArgumentNotValid.checkNotNullOrEmpty(checkSum, "String checkSum");
@@ -326,7 +329,7 @@ public class UpdateableAdminData extends AdminData implements Admin {
     }
 
     /** Makes sure all data is written to disk. */
-    public void close() {
+    public synchronized void close() {
         if (instance != null) {
             write(); // This rewrites all admindata onto disk
         }
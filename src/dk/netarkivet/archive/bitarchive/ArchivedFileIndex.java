@@ -0,0 +1,469 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Date:        $Date$
+ * Author:      $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 
+ *  USA
+ */
+
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A compact index of the files in the archive directories, from filename to
+ * the archive directory holding the file.
+ * <p>
+ * A bitarchive may hold millions of files, so each entry is only the UTF-8
+ * bytes of the filename and the number of its directory, kept in arrays
+ * sorted by filename. Files with a given prefix are found with a binary
+ * search. New files are added to a small sorted buffer, which is merged
+ * into the index in one pass when it is full, so adding a file does not
+ * move all the entries. Removing a single file moves the entries after it,
+ * and listing a directory is merged into the index in one pass.
+ * <p>
+ * If a file is in more than one directory, the directory given first to the
+ * index wins, like a search through the directories in that order would.
+ * Only one directory is kept for each file, so when a file is gone from
+ * that directory, the caller must look for it in the other directories.
+ * <p>
+ * The index is thread safe. Lookups may run at the same time, changes are
+ * done one at a time.
+ */
+final class ArchivedFileIndex {
+    /** The encoding of the filenames. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    /** The number of entries there is room for initially. */
+    private static final int INITIAL_CAPACITY = 16;
+    /** The number of new files buffered before they are merged into the
+     * index. */
+    private static final int BUFFER_CAPACITY = 1024;
+
+    /** Orders filenames by their unsigned bytes. */
+    private static final Comparator<byte[]> NAME_ORDER
+            = new Comparator<byte[]>() {
+                public int compare(byte[] a, byte[] b) {
+                    return compareNames(a, b);
+                }
+            };
+
+    /** The archive directories, in the order they were first given. */
+    private final List<File> dirs = new ArrayList<File>();
+    /** The sorted filenames. Only the first size are used. */
+    private byte[][] names = new byte[INITIAL_CAPACITY][];
+    /** The number in dirs of the directory holding each file. */
+    private short[] dirNumbers = new short[INITIAL_CAPACITY];
+    /** The number of files in the index, apart from the buffer. */
+    private int size;
+    /** The sorted names of new files not yet merged into names. No name is
+     * in both. */
+    private byte[][] bufferNames = new byte[BUFFER_CAPACITY][];
+    /** The number in dirs of the directory holding each buffered file. */
+    private short[] bufferDirNumbers = new short[BUFFER_CAPACITY];
+    /** The number of buffered files. */
+    private int bufferSize;
+    /** Guards all the fields above. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Find the directory holding a file.
+     *
+     * @param filename A filename.
+     * @return The directory, or null if the file is not in the index.
+     * @throws ArgumentNotValid If filename is null.
+     */
+    File get(String filename) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        lock.readLock().lock();
+        try {
+            byte[] name = filename.getBytes(CHARSET);
+            int i = find(names, size, name);
+            if (i >= 0) {
+                return dirs.get(dirNumbers[i]);
+            }
+            i = find(bufferNames, bufferSize, name);
+            return i >= 0 ? dirs.get(bufferDirNumbers[i]) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a file to the index, unless it is already indexed in a directory
+     * given before this one.
+     *
+     * @param filename The filename.
+     * @param dir The directory holding the file.
+     * @throws ArgumentNotValid If filename or dir is null.
+     */
+    void put(String filename, File dir) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        lock.writeLock().lock();
+        try {
+            short dirNumber = getDirNumber(dir);
+            byte[] name = filename.getBytes(CHARSET);
+            int i = find(names, size, name);
+            if (i >= 0) {
+                if (dirNumber < dirNumbers[i]) {
+                    dirNumbers[i] = dirNumber;
+                }
+                return;
+            }
+            i = find(bufferNames, bufferSize, name);
+            if (i >= 0) {
+                if (dirNumber < bufferDirNumbers[i]) {
+                    bufferDirNumbers[i] = dirNumber;
+                }
+                return;
+            }
+            i = -(i + 1);
+            System.arraycopy(bufferNames, i, bufferNames, i + 1,
+                             bufferSize - i);
+            System.arraycopy(bufferDirNumbers, i, bufferDirNumbers, i + 1,
+                             bufferSize - i);
+            bufferNames[i] = name;
+            bufferDirNumbers[i] = dirNumber;
+            bufferSize++;
+            if (bufferSize == BUFFER_CAPACITY) {
+                flush();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a file from the index, if it is indexed in the given directory.
+     *
+     * @param filename The filename.
+     * @param dir The directory that held the file.
+     * @throws ArgumentNotValid If filename or dir is null.
+     */
+    void remove(String filename, File dir) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        lock.writeLock().lock();
+        try {
+            byte[] name = filename.getBytes(CHARSET);
+            int i = find(names, size, name);
+            if (i >= 0 && dirs.get(dirNumbers[i]).equals(dir)) {
+                System.arraycopy(names, i + 1, names, i, size - i - 1);
+                System.arraycopy(dirNumbers, i + 1, dirNumbers, i,
+                                 size - i - 1);
+                names[--size] = null;
+            }
+            i = find(bufferNames, bufferSize, name);
+            if (i >= 0 && dirs.get(bufferDirNumbers[i]).equals(dir)) {
+                System.arraycopy(bufferNames, i + 1, bufferNames, i,
+                                 bufferSize - i - 1);
+                System.arraycopy(bufferDirNumbers, i + 1, bufferDirNumbers,
+                                 i, bufferSize - i - 1);
+                bufferNames[--bufferSize] = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the files indexed in a directory with the files listed in it.
+     * Files also in a directory given before this one stay indexed there.
+     * Files indexed in this directory but gone from it are removed, and
+     * returned so the caller can look for them in the other directories.
+     *
+     * @param dir The directory.
+     * @param filenames The names of the files in the directory.
+     * @return The names of the files removed from the index.
+     * @throws ArgumentNotValid If dir or filenames is null.
+     */
+    List<String> update(File dir, Collection<String> filenames) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        ArgumentNotValid.checkNotNull(filenames,
+                                      "Collection<String> filenames");
+        byte[][] listed = new byte[filenames.size()][];
+        int count = 0;
+        for (String filename : filenames) {
+            listed[count++] = filename.getBytes(CHARSET);
+        }
+        Arrays.sort(listed, NAME_ORDER);
+        List<String> removed = new ArrayList<String>();
+        lock.writeLock().lock();
+        try {
+            flush();
+            short dirNumber = getDirNumber(dir);
+            byte[][] newNames = new byte[Math.max(INITIAL_CAPACITY,
+                    size + listed.length)][];
+            short[] newDirNumbers = new short[newNames.length];
+            int newSize = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < listed.length) {
+                int cmp = i == size ? 1 : j == listed.length ? -1
+                        : compareNames(names[i], listed[j]);
+                if (cmp < 0) {
+                    // Only indexed. Keep it, unless it is gone from dir.
+                    if (dirNumbers[i] != dirNumber) {
+                        newNames[newSize] = names[i];
+                        newDirNumbers[newSize++] = dirNumbers[i];
+                    } else {
+                        removed.add(new String(names[i], CHARSET));
+                    }
+                    i++;
+                } else if (cmp > 0) {
+                    newNames[newSize] = listed[j++];
+                    newDirNumbers[newSize++] = dirNumber;
+                } else {
+                    newNames[newSize] = names[i];
+                    newDirNumbers[newSize++] = (short) Math.min(
+                            dirNumbers[i], dirNumber);
+                    i++;
+                    j++;
+                }
+            }
+            names = newNames;
+            dirNumbers = newDirNumbers;
+            size = newSize;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    /**
+     * Get the indexed files whose names start with a prefix.
+     *
+     * @param prefix The prefix, or the empty string for all files.
+     * @return The filenames and the directories holding them, sorted by
+     * filename.
+     * @throws ArgumentNotValid If prefix is null.
+     */
+    List<Map.Entry<String, File>> getEntries(String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        byte[] prefixBytes = prefix.getBytes(CHARSET);
+        lock.readLock().lock();
+        try {
+            int i = find(names, size, prefixBytes);
+            if (i < 0) {
+                i = -(i + 1);
+            }
+            int j = find(bufferNames, bufferSize, prefixBytes);
+            if (j < 0) {
+                j = -(j + 1);
+            }
+            List<Map.Entry<String, File>> entries
+                    = new ArrayList<Map.Entry<String, File>>();
+            // Merge the matching files of the index and the buffer
+            while (true) {
+                boolean inIndex = i < size
+                        && startsWith(names[i], prefixBytes);
+                boolean inBuffer = j < bufferSize
+                        && startsWith(bufferNames[j], prefixBytes);
+                if (inIndex && (!inBuffer
+                        || compareNames(names[i], bufferNames[j]) < 0)) {
+                    entries.add(makeEntry(names[i], dirNumbers[i]));
+                    i++;
+                } else if (inBuffer) {
+                    entries.add(makeEntry(bufferNames[j],
+                                          bufferDirNumbers[j]));
+                    j++;
+                } else {
+                    return entries;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of files in the index.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size + bufferSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Remove all files and directories from the index. */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            dirs.clear();
+            names = new byte[INITIAL_CAPACITY][];
+            dirNumbers = new short[INITIAL_CAPACITY];
+            size = 0;
+            bufferNames = new byte[BUFFER_CAPACITY][];
+            bufferDirNumbers = new short[BUFFER_CAPACITY];
+            bufferSize = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of a directory, adding it if it is new. Must be called
+     * with the write lock held.
+     *
+     * @param dir A directory.
+     * @return The number of the directory.
+     * @throws ArgumentNotValid If there are too many directories.
+     */
+    private short getDirNumber(File dir) {
+        int dirNumber = dirs.indexOf(dir);
+        if (dirNumber < 0) {
+            if (dirs.size() > Short.MAX_VALUE) {
+                throw new ArgumentNotValid("Cannot index more than "
+                        + (Short.MAX_VALUE + 1) + " directories");
+            }
+            dirNumber = dirs.size();
+            dirs.add(dir);
+        }
+        return (short) dirNumber;
+    }
+
+    /**
+     * Merge the buffered files into the index, from the end so no entry is
+     * moved more than once. Must be called with the write lock held.
+     */
+    private void flush() {
+        ensureCapacity(size + bufferSize);
+        int i = size - 1;
+        int j = bufferSize - 1;
+        for (int k = size + bufferSize - 1; j >= 0; k--) {
+            if (i >= 0 && compareNames(names[i], bufferNames[j]) > 0) {
+                names[k] = names[i];
+                dirNumbers[k] = dirNumbers[i--];
+            } else {
+                names[k] = bufferNames[j];
+                dirNumbers[k] = bufferDirNumbers[j];
+                bufferNames[j--] = null;
+            }
+        }
+        size += bufferSize;
+        bufferSize = 0;
+    }
+
+    /**
+     * Make an entry for the result of getEntries.
+     *
+     * @param name A filename.
+     * @param dirNumber The number of the directory holding the file.
+     * @return The entry.
+     */
+    private Map.Entry<String, File> makeEntry(byte[] name, short dirNumber) {
+        return new AbstractMap.SimpleImmutableEntry<String, File>(
+                new String(name, CHARSET), dirs.get(dirNumber));
+    }
+
+    /**
+     * Make room for a number of entries. Must be called with the write lock
+     * held.
+     *
+     * @param capacity The number of entries.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > names.length) {
+            int newCapacity = Math.max(capacity,
+                                       names.length + names.length / 2);
+            names = Arrays.copyOf(names, newCapacity);
+            dirNumbers = Arrays.copyOf(dirNumbers, newCapacity);
+        }
+    }
+
+    /**
+     * Find a filename in sorted names. Must be called with a lock held.
+     *
+     * @param sorted The sorted names.
+     * @param count The number of names used in sorted.
+     * @param name The filename.
+     * @return The position of the name, or (-(insertion point) - 1) if it is
+     * not there, like {@link Arrays#binarySearch(Object[], Object)}.
+     */
+    private static int find(byte[][] sorted, int count, byte[] name) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareNames(sorted[mid], name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Compare two filenames by their unsigned bytes, which sorts UTF-8 like
+     * the Unicode code points.
+     *
+     * @param a A filename.
+     * @param b Another filename.
+     * @return A negative number, zero or a positive number as a is less
+     * than, equal to, or greater than b.
+     */
+    private static int compareNames(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * @param name A filename.
+     * @param prefix A prefix.
+     * @return true if the name starts with the prefix.
+     */
+    private static boolean startsWith(byte[] name, byte[] prefix) {
+        if (name.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (name[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
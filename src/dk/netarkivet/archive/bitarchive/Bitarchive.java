@@ -29,7 +29,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +40,8 @@ import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
 import org.archive.io.ArchiveRecord;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.distribute.AbstractRemoteFile;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -45,14 +50,22 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
  * The central class in the bit archive. Implements the API: upload(), get(),
  * correct(), batch(). A bit archive is expected to not know about any other bit
- * archives, and is not considered responsible for making MD5 checksums.
+ * archives.
+ *
+ * The MD5 checksums of uploaded files are calculated during upload and kept
+ * in a ChecksumStore in each archive directory, so checksum jobs need not
+ * read the files. A ChecksumScrubber rereads the files in the background to
+ * discover damaged files.
  */
 public class Bitarchive {
     /**
@@ -60,6 +73,17 @@ public class Bitarchive {
      */
     private BitarchiveAdmin admin;
 
+    /**
+     * The checksum stores of the archive directories, by directory.
+     */
+    private final Map<File, ChecksumStore> checksumStores
+            = new HashMap<File, ChecksumStore>();
+
+    /**
+     * The scrubber, or null if scrubbing is disabled.
+     */
+    private ChecksumScrubber scrubber;
+
     /**
      * Logging output place.
      */
@@ -79,6 +103,13 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        long scrubberRate = Settings.getLong(
+                ArchiveSettings.BITARCHIVE_SCRUBBER_BYTES_PER_SECOND);
+        if (scrubberRate > 0) {
+            scrubber = new ChecksumScrubber(this, admin, scrubberRate,
+                    Settings.getLong(ArchiveSettings.BITARCHIVE_SCRUBBER_PAUSE));
+            scrubber.start();
+        }
     }
 
     /**
@@ -86,6 +117,10 @@ public class Bitarchive {
      * data and log data are flushed.
      */
     public void close() {
+        if (scrubber != null) {
+            scrubber.stopScrubbing();
+            scrubber = null;
+        }
         admin.close();
         instance = null;
     }
@@ -218,11 +253,15 @@ public class Bitarchive {
      *             if there was problems writing to the RemoteFile
      * @return A localBatchStatus
      */
-    public BatchStatus batch(String bitarchiveAppId, final FileBatchJob job) 
+    public BatchStatus batch(String bitarchiveAppId, FileBatchJob job) 
             throws ArgumentNotValid, IOFailure {
         ArgumentNotValid.checkNotNullOrEmpty(
                 bitarchiveAppId, "String bitarchiveAppId");
         ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
+        if (job.getClass() == ChecksumJob.class) {
+            // Use the stored checksums instead of reading the files
+            job = new StoredChecksumJob((ChecksumJob) job, this);
+        }
         log.info("Starting batch job on bitarchive application with id '"
                 + bitarchiveAppId + "': '" + job.getClass().getName() 
                 + "', on filename-pattern: '" + job.getFilenamePattern() + "'");
@@ -292,6 +331,7 @@ public class Bitarchive {
         File tempDestination = admin.getTemporaryPath(fileName, 
                 arcfile.getSize());
         File destination = null;
+        String checksum;
         try {
             //The file is first copied to a temporary destination on the same
             //mount. The reason for this is to eliminate that there are files
@@ -300,7 +340,17 @@ public class Bitarchive {
             //the file is uploaded. It also means that we do not need to clean 
             //up in the file directory, in case of failure - only the temporary 
             //destination needs clean up.
-            arcfile.copyTo(tempDestination);
+            //The checksum is calculated while copying, so the file need not
+            //be read again to answer checksum requests.
+            if (arcfile instanceof AbstractRemoteFile) {
+                MessageDigest md5 = ChecksumCalculator.getMessageDigest(
+                        ChecksumCalculator.MD5);
+                ((AbstractRemoteFile) arcfile).copyTo(tempDestination, md5);
+                checksum = ChecksumCalculator.toHex(md5.digest());
+            } else {
+                arcfile.copyTo(tempDestination);
+                checksum = ChecksumCalculator.calculateMd5(tempDestination);
+            }
             //Note that the move operation is a constant time operation within
             //the same mount
             destination = admin.moveToStorage(tempDestination);
@@ -311,6 +361,14 @@ public class Bitarchive {
             }
             throw new IOFailure("Can't copy file into archive: " + fileName, e);
         }
+        try {
+            getChecksumStore(destination).putChecksum(destination, checksum);
+        } catch (Exception e) {
+            // The file is stored, and the checksum is calculated again when
+            // asked for.
+            log.warn("Could not store the checksum of '" + destination
+                     + "'", e);
+        }
         return destination;
     }
 
@@ -335,6 +393,47 @@ public class Bitarchive {
         return path;
     }
 
+    /**
+     * Get the MD5 checksum of a file in the archive. The stored checksum is
+     * used if the file has not changed since it was stored. Otherwise the
+     * checksum is calculated and stored.
+     *
+     * @param file A file in the archive.
+     * @return The checksum of the file.
+     * @throws ArgumentNotValid If file is null.
+     * @throws IOFailure If the checksum cannot be calculated.
+     */
+    public String getChecksum(File file) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ChecksumStore store = getChecksumStore(file);
+        String checksum = store.getChecksum(file);
+        if (checksum == null) {
+            checksum = ChecksumCalculator.calculateMd5(file);
+            store.putChecksum(file, checksum);
+        }
+        return checksum;
+    }
+
+    /**
+     * Get the checksum store for a file in the archive. The store is loaded
+     * the first time it is needed.
+     *
+     * @param file A file in the FILE_DIRECTORY_NAME directory of an archive
+     * directory.
+     * @return The store of the archive directory.
+     */
+    ChecksumStore getChecksumStore(File file) {
+        File basedir = file.getAbsoluteFile().getParentFile().getParentFile();
+        synchronized (checksumStores) {
+            ChecksumStore store = checksumStores.get(basedir);
+            if (store == null) {
+                store = new ChecksumStore(basedir);
+                checksumStores.put(basedir, store);
+            }
+            return store;
+        }
+    }
+
     /**
      * Get the one instance of the bitarchive.
      *
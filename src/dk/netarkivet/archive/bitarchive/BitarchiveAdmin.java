@@ -30,7 +30,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,19 +57,22 @@ public final class BitarchiveAdmin {
     private final Log log = LogFactory.getLog(getClass().getName());
 
     /**
-     * Map containing the archive directories and their files. The file must
-     * be the CanonicalFile (use getCanonicalFile() before access).
+     * Index of the archived files, from filename to the archive directory
+     * holding the file. The archive directories are the CanonicalFiles from
+     * archiveTime, given to the index in the order of the settings. The
+     * index is sorted, so files with a given prefix can be found without
+     * looking at all files.
      */
-    private Map<File, List<String>> archivedFiles = Collections
-            .synchronizedMap(new LinkedHashMap<File, List<String>>());
-    
+    private final ArchivedFileIndex fileIndex = new ArchivedFileIndex();
+
     /**
-     * Map containing the time for the latest update of the filelist for each
-     * archive directory. The file must be the CanonicalFile 
+     * Map containing the archive directories, in the order given by the
+     * settings, and the time for the latest update of the filelist for each
+     * archive directory. The file must be the CanonicalFile
      * (use getCanonicalFile() before access).
      */
-    private Map<File, Long> archiveTime
-            = Collections.synchronizedMap(new HashMap<File, Long>());
+    private Map<File, Long> archiveTime = Collections
+            .synchronizedMap(new LinkedHashMap<File, Long>());
 
     /**
      * Singleton instance.
@@ -150,11 +152,9 @@ public final class BitarchiveAdmin {
                 // Ensure that 'atticdir' exists. If it doesn't, it is created
                 ApplicationUtils.dirMustExist(atticdir);
 
-                // initialise the variables archivedFiles and archiveTime
-                archivedFiles.put(basedir, 
-                        new ArrayList<String>());
+                // initialise the archiveTime and the index of the files
                 archiveTime.put(basedir, 0L);
-                updateFileList(basedir);
+                int filesInDir = indexFiles(basedir);
 
                 final Long bytesUsedInDir = calculateBytesUsed(basedir);
                 log.info("Using bit archive directorys {'"
@@ -165,7 +165,7 @@ public final class BitarchiveAdmin {
                         + bytesUsedInDir + " bytes of content and "
                         + FileUtils.getBytesFree(basedir) + " bytes free. "
                         + "Current number of files archived: " 
-                        + archivedFiles.get(basedir).size());
+                        + filesInDir);
             }
         } catch (IOException e) {
             throw new IOFailure("Could not retrieve Canonical files.", e);
@@ -178,7 +178,7 @@ public final class BitarchiveAdmin {
      * the stored filelist is updated with the latest changes.  
      */
     public synchronized void verifyFilelistUpToDate() {
-        for(File basedir : archivedFiles.keySet()) {
+        for(File basedir : archiveTime.keySet()) {
             File filedir = new File(basedir, Constants.FILE_DIRECTORY_NAME);
             long lastModified = filedir.lastModified(); 
             if(archiveTime.get(basedir) < lastModified) {
@@ -194,13 +194,13 @@ public final class BitarchiveAdmin {
      * @param basedir The basedir to update the filelist for.
      * @throws ArgumentNotValid If basedir is null or if it not a proper 
      * directory.
-     * @throws UnknownID If the basedir cannot be found both the archivedFiles 
-     * map or the archiveTime map.
+     * @throws UnknownID If the basedir is not one of the known archive
+     * directories.
      * @throws IOFailure If it is not possible to retrieve the canonical file 
      * for the basedir.
      */
-    public void updateFileList(File basedir) throws ArgumentNotValid, 
-            UnknownID, IOFailure {
+    public synchronized void updateFileList(File basedir)
+            throws ArgumentNotValid, UnknownID, IOFailure {
         ArgumentNotValid.checkNotNull(basedir, "File basedir");
         // ensure that it is the CanonicalFile for the directory.
         try {
@@ -213,20 +213,32 @@ public final class BitarchiveAdmin {
             throw new ArgumentNotValid("The directory '" + basedir.getPath()
                     + " is not a proper directory.");
         }
-        if(!archivedFiles.containsKey(basedir) 
-                || !archiveTime.containsKey(basedir)) {
+        if(!archiveTime.containsKey(basedir)) {
             throw new UnknownID("The directory '" + basedir + "' is not known "
                     + "by the settings. Known directories are: " 
-                    + archivedFiles.keySet());
+                    + archiveTime.keySet());
         }
-        
+        indexFiles(basedir);
+    }
+
+    /**
+     * Replace the entries in the file index for a given basedir with the
+     * files currently in the basedir.
+     *
+     * @param basedir The canonical basedir, which must be known.
+     * @return The number of files in the basedir.
+     * @throws UnknownID If the basedir is not a proper archive directory.
+     */
+    private synchronized int indexFiles(File basedir) throws UnknownID {
         log.debug("Updating the filelist for '" + basedir + "'.");      
         File filedir = new File(basedir, Constants.FILE_DIRECTORY_NAME);
         if(!checkArchiveDir(filedir)) {
             throw new UnknownID("The directory '" + filedir + "' is not an "
                     + " archive directory.");
         }
-        
+        // Read the time before listing, so changes during the listing are
+        // picked up by the next check.
+        long lastModified = filedir.lastModified();
         String[] dirContent = filedir.list();
         List<String> filenames = new ArrayList<String>(dirContent.length);
         for(String file : dirContent) {
@@ -238,8 +250,31 @@ public final class BitarchiveAdmin {
                         + filedir.getPath() + " is not a proper file.");
             }
         }
-        archivedFiles.put(basedir, filenames);
-        archiveTime.put(basedir, filedir.lastModified());
+        // Files gone from this basedir may still be in another one
+        for (String removed : fileIndex.update(basedir, filenames)) {
+            indexFromArchiveDirs(removed);
+        }
+        archiveTime.put(basedir, lastModified);
+        return filenames.size();
+    }
+
+    /**
+     * Look for a file in the archive directories, in the order of the
+     * settings, and add it to the file index if it is found.
+     *
+     * @param arcFileName The name of the file.
+     * @return The archive directory holding the file, or null if it is in
+     * none of them.
+     */
+    private synchronized File indexFromArchiveDirs(String arcFileName) {
+        for (File basedir : archiveTime.keySet()) {
+            File filedir = new File(basedir, Constants.FILE_DIRECTORY_NAME);
+            if (new File(filedir, arcFileName).isFile()) {
+                fileIndex.put(arcFileName, basedir);
+                return basedir;
+            }
+        }
+        return null;
     }
     
     /**
@@ -250,7 +285,7 @@ public final class BitarchiveAdmin {
      *         of space left, otherwise false.
      */
     public boolean hasEnoughSpace() {
-        for (File dir : archivedFiles.keySet()) {
+        for (File dir : archiveTime.keySet()) {
             if (checkArchiveDir(dir)
                 && FileUtils.getBytesFree(dir) > minSpaceLeft) {
                 return true;
@@ -276,7 +311,7 @@ public final class BitarchiveAdmin {
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "arcFile");
         ArgumentNotValid.checkNotNegative(requestedSize, "requestedSize");
 
-        for (File dir : archivedFiles.keySet()) {
+        for (File dir : archiveTime.keySet()) {
             long bytesFreeInDir = FileUtils.getBytesFree(dir);
             // TODO If it turns out that it has not enough space for
             // this file, it should resend the Upload message
@@ -297,7 +332,7 @@ public final class BitarchiveAdmin {
                           + bytesFreeInDir + " left");
             }
         }
-        String errMsg = "No space left in dirs: " + archivedFiles.keySet()
+        String errMsg = "No space left in dirs: " + archiveTime.keySet()
                         + ", to store file '" + arcFileName
                         + "' of size " + requestedSize;
 
@@ -358,15 +393,51 @@ public final class BitarchiveAdmin {
         File storagePath = new File(archivedir, 
                 Constants.FILE_DIRECTORY_NAME);
         File storageFile = new File(storagePath, arcFileName);
-        if (!tempLocation.renameTo(storageFile)) {
-            throw new IOFailure("Could not move '" + tempLocation.getPath()
-                                + "' to '" + storageFile.getPath() + "'");
+        synchronized (this) {
+            // Only the new file needs to be added to the index, unless
+            // the directory has changed since it was last listed.
+            Long listedTime = archiveTime.get(archivedir);
+            boolean upToDate = listedTime != null
+                    && listedTime >= storagePath.lastModified();
+            if (!tempLocation.renameTo(storageFile)) {
+                throw new IOFailure("Could not move '"
+                                    + tempLocation.getPath() + "' to '"
+                                    + storageFile.getPath() + "'");
+            }
+            fileIndex.put(arcFileName, archivedir);
+            if (upToDate) {
+                archiveTime.put(archivedir, storagePath.lastModified());
+            } else {
+                updateFileList(archivedir);
+            }
         }
-        // Update the filelist for the directory with this new file.
-        updateFileList(archivedir);
         return storageFile;
     }
 
+    /**
+     * Moves a file in the archive to the attic, and removes it from the
+     * list of archived files.
+     *
+     * @param existingFile A file in the archive.
+     * @return The location of the file in the attic.
+     * @throws ArgumentNotValid If existingFile is null or not in the archive.
+     * @throws IOFailure If the file cannot be moved.
+     */
+    public File moveToAttic(File existingFile) throws ArgumentNotValid,
+            IOFailure {
+        File moveTo = getAtticPath(existingFile);
+        File archivedir = moveTo.getParentFile().getParentFile();
+        synchronized (this) {
+            if (!existingFile.renameTo(moveTo)) {
+                throw new IOFailure("Failed to move the file:" + existingFile
+                                    + "to attic");
+            }
+            fileIndex.remove(moveTo.getName(), archivedir);
+            indexFromArchiveDirs(moveTo.getName());
+        }
+        return moveTo;
+    }
+
     /** 
      * Checks whether a directory is one of the known bitarchive directories.
      *
@@ -380,7 +451,7 @@ public final class BitarchiveAdmin {
             throws ArgumentNotValid, IOFailure {
         ArgumentNotValid.checkNotNull(theDir, "File theDir");
         try {
-            return archivedFiles.containsKey(theDir.getCanonicalFile());
+            return archiveTime.containsKey(theDir.getCanonicalFile());
         } catch (IOException e) {
             throw new IOFailure("Could not retrieve the canonical file for '"
                     + theDir + "'.", e);
@@ -422,20 +493,36 @@ public final class BitarchiveAdmin {
     public File[] getFiles() {
         // Ensure that the filelist is up to date.
         verifyFilelistUpToDate();
+        Map<File, File> liveDirs = getLiveArchiveDirs();
         List<File> files = new ArrayList<File>();
-        for (File archivePath : archivedFiles.keySet()) {
-            File archiveDir = new File(archivePath, 
-                    Constants.FILE_DIRECTORY_NAME);
-            if (checkArchiveDir(archiveDir)) {
-                List<String> filesHere = archivedFiles.get(archivePath);
-                for (String filename : filesHere) {
-                    files.add(new File(archiveDir, filename));
-                }
+        for (Map.Entry<String, File> entry : fileIndex.getEntries("")) {
+            File archiveDir = liveDirs.get(entry.getValue());
+            if (archiveDir != null) {
+                files.add(new File(archiveDir, entry.getKey()));
             }
         }
         return files.toArray(new File[files.size()]);
     }
 
+    /**
+     * Find the archive directories that can currently be used.
+     *
+     * @return Map from the usable basedirs to their file directories.
+     */
+    private Map<File, File> getLiveArchiveDirs() {
+        Map<File, File> liveDirs = new LinkedHashMap<File, File>();
+        synchronized (archiveTime) {
+            for (File archivePath : archiveTime.keySet()) {
+                File archiveDir = new File(archivePath,
+                        Constants.FILE_DIRECTORY_NAME);
+                if (checkArchiveDir(archiveDir)) {
+                    liveDirs.put(archivePath, archiveDir);
+                }
+            }
+        }
+        return liveDirs;
+    }
+
     /** Return an array of all files in this archive that match a given
      * regular expression on the filename.
      *
@@ -448,21 +535,82 @@ public final class BitarchiveAdmin {
         ArgumentNotValid.checkNotNull(regexp, "Pattern regexp");
         // Ensure that the filelist is up to date.
         verifyFilelistUpToDate();
+        Map<File, File> liveDirs = getLiveArchiveDirs();
+        // Only the files starting with the literal prefix of the regular
+        // expression can match it.
+        String prefix = getLiteralPrefix(regexp);
         List<File> files = new ArrayList<File>();
-        for (File archivePath : archivedFiles.keySet()) {
-            File archiveDir = new File(archivePath, 
-                    Constants.FILE_DIRECTORY_NAME);
-            if (checkArchiveDir(archiveDir)) {
-                for(String filename : archivedFiles.get(archivePath)) {
-                    if(regexp.matcher(filename).matches()) {
-                        files.add(new File(archiveDir, filename));
-                    }
-                }
+        for (Map.Entry<String, File> entry : fileIndex.getEntries(prefix)) {
+            String filename = entry.getKey();
+            File archiveDir = liveDirs.get(entry.getValue());
+            if (archiveDir != null && regexp.matcher(filename).matches()) {
+                files.add(new File(archiveDir, filename));
             }
         }
         return files.toArray(new File[files.size()]);
     }
 
+    /**
+     * Find a prefix that all strings matched by a regular expression must
+     * start with. The prefix is the literal characters at the start of the
+     * expression, which may be empty.
+     *
+     * @param regexp A regular expression matching whole strings.
+     * @return A prefix of all strings matched by the regular expression.
+     */
+    static String getLiteralPrefix(Pattern regexp) {
+        String expression = regexp.pattern();
+        if (regexp.flags() != 0 || expression.indexOf('|') >= 0) {
+            return "";
+        }
+        StringBuilder prefix = new StringBuilder();
+        int start = expression.startsWith("^") ? 1 : 0;
+        for (int i = start; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '?' || c == '*' || c == '{') {
+                // The previous character is optional
+                if (prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            if (c == '\\') {
+                // Escaped punctuation is literal, other escapes are classes
+                // or constructs.
+                if (i + 1 < expression.length()
+                        && !Character.isLetterOrDigit(expression.charAt(i + 1))
+                        && !optionalAt(expression, i + 2)) {
+                    prefix.append(expression.charAt(i + 1));
+                    i++;
+                    continue;
+                }
+                break;
+            }
+            if (".[]()+^$".indexOf(c) >= 0) {
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Check whether the character before a position in a regular
+     * expression is made optional by a quantifier at the position.
+     *
+     * @param expression A regular expression.
+     * @param i A position in the expression.
+     * @return true if there is a quantifier allowing zero repetitions at
+     * the position.
+     */
+    private static boolean optionalAt(String expression, int i) {
+        if (i >= expression.length()) {
+            return false;
+        }
+        char c = expression.charAt(i);
+        return c == '?' || c == '*' || c == '{';
+    }
+
     /**
      * Return the path that a given arc file can be found in.
      *
@@ -472,16 +620,24 @@ public final class BitarchiveAdmin {
      */
     public BitarchiveARCFile lookup(String arcFileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "arcFileName");
-        verifyFilelistUpToDate();
-        for (File archivePath : archivedFiles.keySet()) {
-            File archiveDir = new File(archivePath,
-                                       Constants.FILE_DIRECTORY_NAME);
-            if (checkArchiveDir(archiveDir)) {
-                File archiveFile = new File(archiveDir, arcFileName);
-                if (archiveFile.exists()) {
-                    return new BitarchiveARCFile(arcFileName, archiveFile);
-                }
+        File archivePath = fileIndex.get(arcFileName);
+        if (archivePath != null) {
+            File archiveFile = new File(new File(archivePath,
+                    Constants.FILE_DIRECTORY_NAME), arcFileName);
+            if (archiveFile.exists()) {
+                return new BitarchiveARCFile(arcFileName, archiveFile);
             }
+            log.debug("The indexed file '" + archiveFile + "' has been "
+                      + "removed");
+            fileIndex.remove(arcFileName, archivePath);
+        }
+        // The file may have been added outside the bitarchive, or also be
+        // in another archive directory
+        archivePath = indexFromArchiveDirs(arcFileName);
+        if (archivePath != null) {
+            return new BitarchiveARCFile(arcFileName, new File(new File(
+                    archivePath, Constants.FILE_DIRECTORY_NAME),
+                    arcFileName));
         }
         // the arcfile named "arcFileName" does not exist in this bitarchive.
         log.trace("The arcfile named '" + arcFileName 
@@ -571,7 +727,7 @@ public final class BitarchiveAdmin {
      * Currently has no data to store.
      */
     public void close() {
-        archivedFiles.clear();
+        fileIndex.clear();
         archiveTime.clear();
         instance = null;
     }
@@ -0,0 +1,212 @@
+/* File:       $Id$
+ * Revision:   $Revision$
+ * Author:     $Author$
+ * Date:       $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+
+/**
+ * Rereads the files of the bitarchive in the background, and compares their
+ * checksums with the checksums in the checksum stores. Since checksum
+ * requests are answered from the stores, this is what discovers files that
+ * have been damaged on disk.
+ *
+ * Files are read at a limited rate, and there is a pause between each pass
+ * over the archive. A file which no longer has the stored checksum is
+ * reported, and the store is updated so checksum requests give the actual
+ * checksum of the file.
+ */
+class ChecksumScrubber extends Thread {
+    /** The logger for this class. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The size of the buffer used for reading files. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The bitarchive with the checksum stores. */
+    private final Bitarchive bitarchive;
+    /** The administration of the files in the bitarchive. */
+    private final BitarchiveAdmin admin;
+    /** The maximum number of bytes read per second. */
+    private final long bytesPerSecond;
+    /** The pause before each pass over the archive, in milliseconds. */
+    private final long pause;
+    /** Set when the scrubber should stop. */
+    private volatile boolean stopped;
+
+    /**
+     * Create a scrubber. It is started with start().
+     *
+     * @param bitarchive The bitarchive with the checksum stores.
+     * @param admin The administration of the files in the bitarchive.
+     * @param bytesPerSecond The maximum number of bytes read per second.
+     * @param pause The pause before each pass over the archive, in
+     * milliseconds.
+     * @throws ArgumentNotValid if bitarchive or admin is null, bytesPerSecond
+     * is not positive, or pause is negative.
+     */
+    ChecksumScrubber(Bitarchive bitarchive, BitarchiveAdmin admin,
+            long bytesPerSecond, long pause) {
+        super("ChecksumScrubber");
+        ArgumentNotValid.checkNotNull(bitarchive, "Bitarchive bitarchive");
+        ArgumentNotValid.checkNotNull(admin, "BitarchiveAdmin admin");
+        ArgumentNotValid.checkPositive(bytesPerSecond, "long bytesPerSecond");
+        ArgumentNotValid.checkNotNegative(pause, "long pause");
+        this.bitarchive = bitarchive;
+        this.admin = admin;
+        this.bytesPerSecond = bytesPerSecond;
+        this.pause = pause;
+        setDaemon(true);
+    }
+
+    /**
+     * Scrub the archive until stopped.
+     */
+    public void run() {
+        try {
+            while (!stopped) {
+                Thread.sleep(pause);
+                log.info("Starting checksum scrubbing of the bitarchive");
+                int files = 0;
+                for (File file : admin.getFiles()) {
+                    if (stopped) {
+                        return;
+                    }
+                    try {
+                        scrub(file);
+                        files++;
+                    } catch (IOFailure e) {
+                        log.warn("Could not scrub the file '" + file + "'", e);
+                    }
+                }
+                log.info("Finished checksum scrubbing of " + files
+                         + " files in the bitarchive");
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Stop the scrubber, and wait for it to finish.
+     */
+    void stopScrubbing() {
+        stopped = true;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for the scrubber to stop", e);
+        }
+    }
+
+    /**
+     * Read a file and compare its checksum with the stored checksum. If no
+     * checksum is stored, the calculated checksum is stored. If the checksum
+     * differs, it is reported and stored.
+     *
+     * @param file A file in the archive.
+     * @return true if the file had the stored checksum or no checksum was
+     * stored, false if the checksum differed.
+     * @throws IOFailure if the file cannot be read.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean scrub(File file) throws InterruptedException {
+        ChecksumStore store = bitarchive.getChecksumStore(file);
+        String stored = store.getChecksum(file);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        String actual = calculateMd5(file);
+        if (file.length() != size || file.lastModified() != lastModified) {
+            log.debug("The file '" + file + "' changed while being scrubbed");
+            return true;
+        }
+        if (stored == null) {
+            store.putChecksum(file, actual);
+            return true;
+        }
+        if (!stored.equals(actual)) {
+            String errMsg = "The file '" + file + "' has the checksum '"
+                    + actual + "', but was stored with the checksum '"
+                    + stored + "'";
+            log.error(errMsg);
+            NotificationsFactory.getInstance().notify(errMsg,
+                    NotificationType.ERROR);
+            store.putChecksum(file, actual);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the MD5 of a file, reading no more than bytesPerSecond bytes
+     * per second.
+     *
+     * @param file The file.
+     * @return The checksum.
+     * @throws IOFailure if the file cannot be read.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private String calculateMd5(File file) throws InterruptedException {
+        MessageDigest md = ChecksumCalculator.getMessageDigest(
+                ChecksumCalculator.MD5);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.currentTimeMillis();
+        long read = 0;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int bytes;
+                while ((bytes = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, bytes);
+                    read += bytes;
+                    long wait = read * 1000 / bytesPerSecond
+                            - (System.currentTimeMillis() - start);
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read the file '" + file + "'", e);
+        }
+        return ChecksumCalculator.toHex(md.digest());
+    }
+}
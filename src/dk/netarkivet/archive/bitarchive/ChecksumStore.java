@@ -0,0 +1,434 @@
+/* File:       $Id$
+ * Revision:   $Revision$
+ * Author:     $Author$
+ * Date:       $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.archive.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * The MD5 checksums of the files in one bitarchive directory, kept in files
+ * in the directory.
+ *
+ * A checksum is only valid as long as the file has the size and the
+ * modification time it had when the checksum was calculated. Checksums are
+ * kept as lines of the form
+ * <b>filename</b>##<b>checksum</b>##<b>size</b>##<b>lastModified</b>.
+ * <p>
+ * A directory may hold millions of files, so the checksums are not all
+ * kept in memory. They are kept in a file sorted by filename, which is
+ * searched with a binary search. New checksums are appended to a log file
+ * and kept in memory until there are MAX_LOGGED_CHECKSUMS of them. Then
+ * they are merged into the sorted file, leaving out superseded lines and
+ * lines for files no longer in the archive. The store is also merged when
+ * it is loaded.
+ */
+public class ChecksumStore {
+    /** The name of the sorted file holding the checksums in the
+     * directory. */
+    public static final String CHECKSUM_FILE_NAME = "checksums";
+    /** The name of the file logging the checksums not yet merged into the
+     * sorted file. */
+    public static final String CHECKSUM_LOG_FILE_NAME = "checksums.log";
+    /** The number of logged checksums that are merged into the sorted
+     * file. */
+    static final int MAX_LOGGED_CHECKSUMS = 10000;
+    /** The encoding of the sorted file. */
+    private static final String ENCODING = "UTF-8";
+    /** The number of bytes read at a time when searching the sorted
+     * file. */
+    private static final int READ_SIZE = 512;
+
+    /** The logger for this class. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The checksum of a file, and the state of the file at the time. */
+    private static class Entry {
+        /** The MD5 checksum. */
+        final String checksum;
+        /** The size of the file. */
+        final long size;
+        /** The modification time of the file. */
+        final long lastModified;
+
+        /**
+         * Create an entry.
+         * @param checksum The MD5 checksum.
+         * @param size The size of the file.
+         * @param lastModified The modification time of the file.
+         */
+        Entry(String checksum, long size, long lastModified) {
+            this.checksum = checksum;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Check whether the checksum still applies to a file.
+         * @param file The file.
+         * @return true if the file has the size and modification time it
+         * had when the checksum was made.
+         */
+        boolean matches(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    /** The directory with the files, i.e. the FILE_DIRECTORY_NAME
+     * directory. */
+    private final File filedir;
+    /** The sorted file the checksums are kept in. */
+    private final File storeFile;
+    /** The log of checksums not yet in storeFile. */
+    private final File logFile;
+    /** The checksums in logFile by filename. Guarded by this. */
+    private final Map<String, Entry> logged = new HashMap<String, Entry>();
+
+    /**
+     * Load the checksums for the files of a bitarchive directory.
+     *
+     * @param basedir A bitarchive directory, with a FILE_DIRECTORY_NAME
+     * subdirectory.
+     * @throws ArgumentNotValid if basedir is null.
+     * @throws IOFailure if the store cannot be read or written.
+     */
+    public ChecksumStore(File basedir) {
+        ArgumentNotValid.checkNotNull(basedir, "File basedir");
+        filedir = new File(basedir, Constants.FILE_DIRECTORY_NAME);
+        storeFile = new File(basedir, CHECKSUM_FILE_NAME);
+        logFile = new File(basedir, CHECKSUM_LOG_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Read the log file, and merge it into the sorted file.
+     */
+    private synchronized void load() {
+        if (!logFile.exists()) {
+            if (storeFile.exists()) {
+                merge();
+            }
+            return;
+        }
+        for (String line : FileUtils.readListFromFile(logFile)) {
+            String[] parts = line.split(ChecksumJob.STRING_FILENAME_SEPARATOR);
+            Entry entry = parseEntry(parts);
+            if (entry == null) {
+                log.warn("Ignoring bad line '" + line + "' in checksum log '"
+                         + logFile + "'");
+            } else {
+                logged.put(parts[0], entry);
+            }
+        }
+        merge();
+    }
+
+    /**
+     * Get the stored checksum of a file.
+     *
+     * @param file A file in the directory of this store.
+     * @return The checksum, or null if no checksum is stored or the file has
+     * changed since it was stored.
+     * @throws ArgumentNotValid if file is null.
+     * @throws IOFailure if the store cannot be read.
+     */
+    public synchronized String getChecksum(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        Entry entry = logged.get(file.getName());
+        if (entry == null) {
+            entry = find(file.getName());
+        }
+        if (entry == null || !entry.matches(file)) {
+            return null;
+        }
+        return entry.checksum;
+    }
+
+    /**
+     * Store the checksum of a file in its current state.
+     *
+     * @param file A file in the directory of this store.
+     * @param checksum The MD5 checksum of the file.
+     * @throws ArgumentNotValid if file is null or checksum is null or empty.
+     * @throws IOFailure if the checksums cannot be merged into the sorted
+     * file.
+     */
+    public synchronized void putChecksum(File file, String checksum) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        Entry entry = new Entry(checksum, file.length(), file.lastModified());
+        logged.put(file.getName(), entry);
+        FileUtils.appendToFile(logFile, makeLine(file.getName(), entry));
+        if (logged.size() >= MAX_LOGGED_CHECKSUMS) {
+            merge();
+        }
+    }
+
+    /**
+     * Merge the logged checksums into the sorted file, and empty the log.
+     * Lines for files no longer in the archive are left out. If this is
+     * interrupted, the log is merged again on the next load.
+     *
+     * @throws IOFailure if the sorted file cannot be written.
+     */
+    synchronized void merge() {
+        TreeMap<String, Entry> sortedLog = new TreeMap<String, Entry>(logged);
+        File newStoreFile = new File(storeFile.getParentFile(),
+                CHECKSUM_FILE_NAME + ".new");
+        int lines = 0;
+        try {
+            BufferedReader in = null;
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(newStoreFile), ENCODING));
+            try {
+                if (storeFile.exists()) {
+                    in = new BufferedReader(new InputStreamReader(
+                            new FileInputStream(storeFile), ENCODING));
+                }
+                String line = in == null ? null : in.readLine();
+                while (line != null || !sortedLog.isEmpty()) {
+                    String name = line == null ? null : getName(line);
+                    Map.Entry<String, Entry> next = sortedLog.firstEntry();
+                    if (name == null
+                        || (next != null && next.getKey().compareTo(name) <= 0)) {
+                        sortedLog.remove(next.getKey());
+                        if (next.getKey().equals(name)) {
+                            // The logged checksum supersedes the line
+                            line = in.readLine();
+                        }
+                        lines += writeIfArchived(out, next.getKey(),
+                                makeLine(next.getKey(), next.getValue()));
+                    } else {
+                        lines += writeIfArchived(out, name, line);
+                        line = in.readLine();
+                    }
+                }
+            } finally {
+                out.close();
+                if (in != null) {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            FileUtils.remove(newStoreFile);
+            throw new IOFailure("Could not merge the checksum log '"
+                                + logFile + "' into '" + storeFile + "'", e);
+        }
+        FileUtils.remove(storeFile);
+        FileUtils.moveFile(newStoreFile, storeFile);
+        FileUtils.remove(logFile);
+        log.info("Merged " + logged.size() + " logged checksums into '"
+                 + storeFile + "', which now has " + lines + " checksums");
+        logged.clear();
+    }
+
+    /**
+     * Write a line for a file, if the file is still in the archive.
+     * @param out The writer.
+     * @param filename The name of the file.
+     * @param line The line.
+     * @return 1 if the line was written, otherwise 0.
+     * @throws IOException if the line cannot be written.
+     */
+    private int writeIfArchived(BufferedWriter out, String filename,
+                                String line) throws IOException {
+        if (!new File(filedir, filename).isFile()) {
+            return 0;
+        }
+        out.write(line);
+        out.newLine();
+        return 1;
+    }
+
+    /**
+     * Find the checksum of a file in the sorted file with a binary search.
+     *
+     * @param filename The name of the file.
+     * @return The checksum, or null if there is none.
+     * @throws IOFailure if the sorted file cannot be read.
+     */
+    private Entry find(String filename) {
+        if (!storeFile.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(storeFile, "r");
+            try {
+                // Lines starting before low have smaller names, lines
+                // starting at or after high do not.
+                long low = 0;
+                long high = raf.length();
+                while (low < high) {
+                    long mid = (low + high) >>> 1;
+                    long start = mid == 0 ? 0 : skipLine(raf, mid - 1);
+                    if (start >= high) {
+                        high = mid;
+                        continue;
+                    }
+                    String line = readLine(raf, start);
+                    if (getName(line).compareTo(filename) < 0) {
+                        low = raf.getFilePointer();
+                    } else {
+                        high = mid;
+                    }
+                }
+                if (low >= raf.length()) {
+                    return null;
+                }
+                String[] parts = readLine(raf, low).split(
+                        ChecksumJob.STRING_FILENAME_SEPARATOR);
+                if (!parts[0].equals(filename)) {
+                    return null;
+                }
+                return parseEntry(parts);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read the checksum store '"
+                                + storeFile + "'", e);
+        }
+    }
+
+    /**
+     * Find the start of the line after a position.
+     * @param raf The file.
+     * @param pos A position in the file.
+     * @return The position after the first newline at or after pos, or the
+     * length of the file if there is none.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long skipLine(RandomAccessFile raf, long pos)
+            throws IOException {
+        byte[] buffer = new byte[READ_SIZE];
+        raf.seek(pos);
+        int read;
+        while ((read = raf.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return pos;
+    }
+
+    /**
+     * Read a line of the sorted file. Afterwards the file pointer is at the
+     * start of the next line.
+     * @param raf The file.
+     * @param start The start of the line.
+     * @return The line, without the line terminator.
+     * @throws IOException if the file cannot be read.
+     */
+    private static String readLine(RandomAccessFile raf, long start)
+            throws IOException {
+        long end = skipLine(raf, start);
+        byte[] bytes = new byte[(int) (end - start)];
+        raf.seek(start);
+        raf.readFully(bytes);
+        int length = bytes.length;
+        while (length > 0 && (bytes[length - 1] == '\n'
+                              || bytes[length - 1] == '\r')) {
+            length--;
+        }
+        return decode(bytes, length);
+    }
+
+    /**
+     * Decode the start of an array of bytes from the sorted file.
+     * @param bytes The bytes.
+     * @param length The number of bytes to decode.
+     * @return The string.
+     */
+    private static String decode(byte[] bytes, int length) {
+        try {
+            return new String(bytes, 0, length, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IOFailure("The encoding " + ENCODING
+                                + " is not supported", e);
+        }
+    }
+
+    /**
+     * Get the filename of a line.
+     * @param line A line of the store.
+     * @return The filename.
+     */
+    private static String getName(String line) {
+        int end = line.indexOf(ChecksumJob.STRING_FILENAME_SEPARATOR);
+        return end < 0 ? line : line.substring(0, end);
+    }
+
+    /**
+     * Parse the fields of a line.
+     * @param parts The fields of the line.
+     * @return The entry, or null if the line is not valid.
+     */
+    private static Entry parseEntry(String[] parts) {
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new Entry(parts[1], Long.parseLong(parts[2]),
+                             Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Make a line for the store.
+     * @param filename The name of the file.
+     * @param entry The checksum of the file.
+     * @return The line.
+     */
+    private static String makeLine(String filename, Entry entry) {
+        return ChecksumJob.makeLine(filename, entry.checksum)
+                + ChecksumJob.STRING_FILENAME_SEPARATOR + entry.size
+                + ChecksumJob.STRING_FILENAME_SEPARATOR + entry.lastModified;
+    }
+}
@@ -0,0 +1,89 @@
+/* File:       $Id$
+ * Revision:   $Revision$
+ * Author:     $Author$
+ * Date:       $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * A ChecksumJob which takes the checksums from the checksum stores of the
+ * bitarchive, and only reads the files which have no valid stored checksum.
+ * The bitarchive runs it in place of a plain ChecksumJob.
+ */
+class StoredChecksumJob extends ChecksumJob {
+    /** The bitarchive with the checksum stores. */
+    private final transient Bitarchive bitarchive;
+
+    /**
+     * Make a job processing the same files as a given ChecksumJob.
+     *
+     * @param job The ChecksumJob to replace.
+     * @param bitarchive The bitarchive with the checksum stores.
+     * @throws ArgumentNotValid if an argument is null.
+     */
+    StoredChecksumJob(ChecksumJob job, Bitarchive bitarchive) {
+        ArgumentNotValid.checkNotNull(job, "ChecksumJob job");
+        ArgumentNotValid.checkNotNull(bitarchive, "Bitarchive bitarchive");
+        this.bitarchive = bitarchive;
+        processOnlyFilesMatching(job.getFilenamePattern().pattern());
+        setBatchJobTimeout(job.getBatchJobTimeout());
+    }
+
+    /**
+     * Writes the stored checksum for the file, calculating and storing it if
+     * necessary.
+     *
+     * @param file The file to process.
+     * @param os The outputStream to write the result to
+     * @return false, if errors occurred while processing the file
+     * @see ChecksumJob#processFile(File, OutputStream)
+     */
+    public boolean processFile(File file, OutputStream os) {
+        ArgumentNotValid.checkNotNull(file, "file");
+        try {
+            os.write((makeLine(file.getName(), bitarchive.getChecksum(file))
+                    + "\n").getBytes());
+        } catch (Exception e) {
+            log.warn("Checksumming of file " + file.getName()
+                    + " failed: ", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The checksum stores are thread safe.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+}
@@ -0,0 +1,472 @@
+/* File:     $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 
+ *  USA
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.NetarkivetException;
+import dk.netarkivet.common.management.SingleMBeanObject;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Runs the batch jobs of a bitarchive on a fixed number of worker threads.
+ *
+ * Jobs that only process named files, like the checksum jobs made for
+ * GetChecksumMessages, are interactive and run before bulk jobs that
+ * process many files. One worker is reserved for interactive jobs, so they
+ * don't wait for long bulk jobs to finish. Within each class, the queued
+ * jobs are taken in turn from each requester, so one requester sending
+ * many jobs cannot hold back the jobs of others.
+ *
+ * While running a job, a worker thread is named "Batch-" followed by the
+ * id of the job.
+ */
+public class BatchScheduler implements BatchSchedulerMBean {
+    /** The logger for this class. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** Matches the filename patterns of jobs that process only named files,
+     * as made by FileBatchJob.processOnlyFilesNamed(). */
+    private static final Pattern NAMED_FILES = Pattern.compile(
+            "\\(?\\\\Q((?!\\\\E).)*\\\\E(\\|\\\\Q((?!\\\\E).)*\\\\E)*\\)?");
+
+    /** A queued or running job. */
+    private static class Job {
+        /** The id of the job. */
+        final String id;
+        /** Who requested the job. */
+        final String requester;
+        /** Whether this job is interactive. */
+        final boolean interactive;
+        /** The job itself. */
+        final Runnable task;
+        /** When the job was queued. */
+        final long queuedTime = System.currentTimeMillis();
+        /** When the job was started. */
+        long startTime;
+        /** The thread running the job. */
+        Thread thread;
+
+        /**
+         * Create a job.
+         * @param id The id of the job.
+         * @param requester Who requested the job.
+         * @param interactive Whether this job is interactive.
+         * @param task The job itself.
+         */
+        Job(String id, String requester, boolean interactive, Runnable task) {
+            this.id = id;
+            this.requester = requester;
+            this.interactive = interactive;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Jobs of one priority class, queued per requester.
+     */
+    private static class FairQueue {
+        /** The queued jobs of each requester, in the order the requesters
+         * get their turn. */
+        private final LinkedHashMap<String, LinkedList<Job>> queues
+                = new LinkedHashMap<String, LinkedList<Job>>();
+        /** The number of jobs queued. */
+        private int size;
+
+        /** @param job The job to add. */
+        void add(Job job) {
+            LinkedList<Job> queue = queues.get(job.requester);
+            if (queue == null) {
+                queue = new LinkedList<Job>();
+                queues.put(job.requester, queue);
+            }
+            queue.add(job);
+            size++;
+        }
+
+        /**
+         * Take the first job of the requester whose turn it is, and give
+         * the turn to the next requester.
+         * @return The job, or null if there are none.
+         */
+        Job poll() {
+            Iterator<Map.Entry<String, LinkedList<Job>>> it
+                    = queues.entrySet().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, LinkedList<Job>> first = it.next();
+            it.remove();
+            Job job = first.getValue().removeFirst();
+            if (!first.getValue().isEmpty()) {
+                // Requeue at the end
+                queues.put(first.getKey(), first.getValue());
+            }
+            size--;
+            return job;
+        }
+
+        /**
+         * Remove a job.
+         * @param id The id of the job.
+         * @return The job, or null if it is not in this queue.
+         */
+        Job remove(String id) {
+            for (Iterator<LinkedList<Job>> it = queues.values().iterator();
+                    it.hasNext();) {
+                LinkedList<Job> queue = it.next();
+                for (Iterator<Job> jobs = queue.iterator(); jobs.hasNext();) {
+                    Job job = jobs.next();
+                    if (job.id.equals(id)) {
+                        jobs.remove();
+                        if (queue.isEmpty()) {
+                            it.remove();
+                        }
+                        size--;
+                        return job;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /** @return The time the oldest job in the queue was queued, or
+         * Long.MAX_VALUE if the queue is empty. */
+        long oldestQueuedTime() {
+            long oldest = Long.MAX_VALUE;
+            for (LinkedList<Job> queue : queues.values()) {
+                oldest = Math.min(oldest, queue.getFirst().queuedTime);
+            }
+            return oldest;
+        }
+    }
+
+    /** The maximum number of jobs running. */
+    private final int maxRunning;
+    /** The maximum number of bulk jobs running. */
+    private final int maxRunningBulk;
+    /** The queued interactive jobs. Guarded by this. */
+    private final FairQueue interactiveQueue = new FairQueue();
+    /** The queued bulk jobs. Guarded by this. */
+    private final FairQueue bulkQueue = new FairQueue();
+    /** The running jobs by id. Guarded by this. */
+    private final Map<String, Job> running = new HashMap<String, Job>();
+    /** The number of running bulk jobs. Guarded by this. */
+    private int runningBulk;
+    /** The number of finished jobs. Guarded by this. */
+    private long completed;
+    /** The number of cancelled jobs. Guarded by this. */
+    private long cancelled;
+    /** The worker threads. */
+    private final List<Thread> workers = new ArrayList<Thread>();
+    /** Set when the scheduler is shut down. Guarded by this. */
+    private boolean shutdown;
+    /** The registered MBean, or null. */
+    private SingleMBeanObject<BatchSchedulerMBean> mBean;
+
+    /**
+     * Create a scheduler and start its worker threads.
+     *
+     * @param maxRunning The maximum number of jobs running at a time.
+     * @throws ArgumentNotValid if maxRunning is not positive.
+     */
+    public BatchScheduler(int maxRunning) {
+        ArgumentNotValid.checkPositive(maxRunning, "int maxRunning");
+        this.maxRunning = maxRunning;
+        this.maxRunningBulk = Math.max(1, maxRunning - 1);
+        for (int i = 0; i < maxRunning; i++) {
+            Thread worker = new Thread("BatchWorker-" + i) {
+                public void run() {
+                    work();
+                }
+            };
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Check whether a job only processes named files, and should run
+     * before jobs processing many files.
+     *
+     * @param job A batch job.
+     * @return true if the job only processes named files.
+     * @throws ArgumentNotValid if job is null.
+     */
+    public static boolean isInteractive(FileBatchJob job) {
+        ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
+        return NAMED_FILES.matcher(job.getFilenamePattern().pattern())
+                .matches();
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param id The id of the job, used for cancelling it.
+     * @param requester Who requested the job. Jobs from different
+     * requesters are taken in turn.
+     * @param interactive Whether the job should run before bulk jobs.
+     * @param task The job.
+     * @throws ArgumentNotValid if an argument is null or empty.
+     */
+    public synchronized void submit(String id, String requester,
+            boolean interactive, Runnable task) {
+        ArgumentNotValid.checkNotNullOrEmpty(id, "String id");
+        ArgumentNotValid.checkNotNull(requester, "String requester");
+        ArgumentNotValid.checkNotNull(task, "Runnable task");
+        Job job = new Job(id, requester, interactive, task);
+        if (interactive) {
+            interactiveQueue.add(job);
+        } else {
+            bulkQueue.add(job);
+        }
+        log.debug("Queued " + (interactive ? "interactive" : "bulk")
+                  + " batch job '" + id + "' from '" + requester + "', "
+                  + running.size() + " jobs running");
+        notifyAll();
+    }
+
+    /**
+     * Remove a job that has not been started from the queue.
+     *
+     * @param id The id of the job.
+     * @return The removed job, or null if it is running or unknown.
+     */
+    public synchronized Runnable cancel(String id) {
+        Job job = interactiveQueue.remove(id);
+        if (job == null) {
+            job = bulkQueue.remove(id);
+        }
+        if (job == null) {
+            return null;
+        }
+        cancelled++;
+        return job.task;
+    }
+
+    /**
+     * Get the thread running a job.
+     *
+     * @param id The id of the job.
+     * @return The thread, or null if the job is not running.
+     */
+    public synchronized Thread getRunningThread(String id) {
+        Job job = running.get(id);
+        return job == null ? null : job.thread;
+    }
+
+    /**
+     * Interrupt a running job. The job is only interrupted if it is still
+     * running, so the worker thread is never interrupted while running
+     * another job.
+     *
+     * @param id The id of the job.
+     * @return true if the job was running and has been interrupted, false
+     * if it is not running.
+     */
+    public synchronized boolean terminate(String id) {
+        Job job = running.get(id);
+        if (job == null) {
+            return false;
+        }
+        job.thread.interrupt();
+        return true;
+    }
+
+    /**
+     * Stop the workers. Running jobs are interrupted, and queued jobs are
+     * dropped.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        unregisterMBean();
+    }
+
+    /**
+     * Register the statistics of this scheduler as an MBean. Failure to do
+     * so is logged, but otherwise ignored.
+     */
+    public void registerMBean() {
+        try {
+            SingleMBeanObject<BatchSchedulerMBean> bean
+                    = new SingleMBeanObject<BatchSchedulerMBean>(
+                            "dk.netarkivet.archive.bitarchive", this,
+                            BatchSchedulerMBean.class,
+                            ManagementFactory.getPlatformMBeanServer());
+            bean.getNameProperties().put("name", "BatchScheduler");
+            bean.register();
+            mBean = bean;
+        } catch (NetarkivetException e) {
+            log.warn("Unable to register the batch scheduler MBean", e);
+        }
+    }
+
+    /**
+     * Unregister the MBean, if registered.
+     */
+    private void unregisterMBean() {
+        if (mBean != null) {
+            try {
+                mBean.unregister();
+            } catch (NetarkivetException e) {
+                log.warn("Unable to unregister the batch scheduler MBean", e);
+            }
+            mBean = null;
+        }
+    }
+
+    /**
+     * Take the next job that may run now, waiting until there is one.
+     *
+     * @return The job, or null if the scheduler is shut down.
+     */
+    private synchronized Job take() {
+        while (!shutdown) {
+            Job job = interactiveQueue.poll();
+            if (job == null && runningBulk < maxRunningBulk) {
+                job = bulkQueue.poll();
+                if (job != null) {
+                    runningBulk++;
+                }
+            }
+            if (job != null) {
+                job.thread = Thread.currentThread();
+                job.startTime = System.currentTimeMillis();
+                running.put(job.id, job);
+                return job;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // Checks for shutdown
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mark a job as finished.
+     *
+     * @param job The job.
+     */
+    private synchronized void finished(Job job) {
+        running.remove(job.id);
+        if (!job.interactive) {
+            runningBulk--;
+        }
+        completed++;
+        notifyAll();
+    }
+
+    /**
+     * Run jobs until the scheduler is shut down.
+     */
+    private void work() {
+        String idleName = Thread.currentThread().getName();
+        for (Job job = take(); job != null; job = take()) {
+            Thread.currentThread().setName("Batch-" + job.id);
+            try {
+                job.task.run();
+            } catch (Throwable e) {
+                log.warn("Batch job '" + job.id + "' failed", e);
+            } finally {
+                Thread.currentThread().setName(idleName);
+                finished(job);
+                // Don't let an interruption of this job affect the next
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /** @see BatchSchedulerMBean#getMaxRunningJobs() */
+    public int getMaxRunningJobs() {
+        return maxRunning;
+    }
+
+    /** @see BatchSchedulerMBean#getRunningJobs() */
+    public synchronized int getRunningJobs() {
+        return running.size();
+    }
+
+    /** @see BatchSchedulerMBean#getQueuedInteractiveJobs() */
+    public synchronized int getQueuedInteractiveJobs() {
+        return interactiveQueue.size;
+    }
+
+    /** @see BatchSchedulerMBean#getQueuedBulkJobs() */
+    public synchronized int getQueuedBulkJobs() {
+        return bulkQueue.size;
+    }
+
+    /** @see BatchSchedulerMBean#getLongestRunningTime() */
+    public synchronized long getLongestRunningTime() {
+        long now = System.currentTimeMillis();
+        long longest = 0;
+        for (Job job : running.values()) {
+            longest = Math.max(longest, now - job.startTime);
+        }
+        return longest;
+    }
+
+    /** @see BatchSchedulerMBean#getLongestQueuedTime() */
+    public synchronized long getLongestQueuedTime() {
+        long oldest = Math.min(interactiveQueue.oldestQueuedTime(),
+                               bulkQueue.oldestQueuedTime());
+        if (oldest == Long.MAX_VALUE) {
+            return 0;
+        }
+        return System.currentTimeMillis() - oldest;
+    }
+
+    /** @see BatchSchedulerMBean#getCompletedJobs() */
+    public synchronized long getCompletedJobs() {
+        return completed;
+    }
+
+    /** @see BatchSchedulerMBean#getCancelledJobs() */
+    public synchronized long getCancelledJobs() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,73 @@
+/* File:     $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 
+ *  USA
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+/**
+ * Statistics of the batch jobs queued and running in a bitarchive.
+ */
+public interface BatchSchedulerMBean {
+    /**
+     * @return The maximum number of batch jobs running at the same time.
+     */
+    int getMaxRunningJobs();
+
+    /**
+     * @return The number of batch jobs running now.
+     */
+    int getRunningJobs();
+
+    /**
+     * @return The number of queued jobs processing only named files.
+     */
+    int getQueuedInteractiveJobs();
+
+    /**
+     * @return The number of queued jobs processing many files.
+     */
+    int getQueuedBulkJobs();
+
+    /**
+     * @return The time in milliseconds the longest running job has run, or
+     * 0 if no jobs are running.
+     */
+    long getLongestRunningTime();
+
+    /**
+     * @return The time in milliseconds the oldest queued job has waited, or
+     * 0 if no jobs are queued.
+     */
+    long getLongestQueuedTime();
+
+    /**
+     * @return The number of jobs that have finished since startup.
+     */
+    long getCompletedJobs();
+
+    /**
+     * @return The number of queued jobs that have been cancelled.
+     */
+    long getCancelledJobs();
+}
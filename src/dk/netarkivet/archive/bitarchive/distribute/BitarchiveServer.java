@@ -27,9 +27,6 @@ package dk.netarkivet.archive.bitarchive.distribute;
 
 import java.io.File;
 import java.io.PrintStream;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Timer;
 
 import dk.netarkivet.common.utils.LoggingOutputStream;
@@ -49,6 +46,8 @@ import dk.netarkivet.common.distribute.NullRemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.BatchTermination;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.ChecksumCalculator;
@@ -118,9 +117,9 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
     private ChannelID baMon;
     
     /**
-     * Map between running batchjob processes and their message id.
+     * Runs the batchjobs on a bounded number of threads.
      */
-    public Map<String, Thread> batchProcesses;
+    private BatchScheduler batchScheduler;
 
     /**
      * Returns the unique instance of this class
@@ -190,9 +189,10 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
                     + "to " + anyBa.getName());
         }
         
-        // create map for batchjobs
-        batchProcesses = Collections.synchronizedMap(new HashMap<String, 
-                Thread>());
+        // create the scheduler for batchjobs
+        batchScheduler = new BatchScheduler(Settings.getInt(
+                ArchiveSettings.BITARCHIVE_MAX_RUNNING_BATCH_JOBS));
+        batchScheduler.registerMBean();
 
         // Create and start the heartbeat sender
         Timer timer = new Timer(true);
@@ -246,6 +246,10 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
             heartBeatSender.cancel();
             heartBeatSender = null;
         }
+        if (batchScheduler != null) {
+            batchScheduler.shutdown();
+            batchScheduler = null;
+        }
         instance = null;
     }
 
@@ -386,12 +390,12 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
             }
 
             log.debug("Checksums matched - preparing to move and return file");
-            File moveTo = baa.getAtticPath(foundFile);
-            if (!foundFile.renameTo(moveTo)) {
-                final String message = "Failed to move the file:" + foundFile
-                        + "to attic";
-                log.warn(message);
-                msg.setNotOk(message);
+            File moveTo;
+            try {
+                moveTo = baa.moveToAttic(foundFile);
+            } catch (IOFailure e) {
+                log.warn(e.getMessage());
+                msg.setNotOk(e.getMessage());
                 return;
             }
             msg.setFile(moveTo);
@@ -410,7 +414,9 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
     }
 
     /**
-     * Process a batch job and send the result back to the client.
+     * Queue a batch job, which will send the result back to the client when
+     * it has been run. Jobs processing only named files are run before
+     * jobs processing many files, see {@link BatchScheduler}.
      *
      * @param msg a container for batch jobs
      * @throws ArgumentNotValid If the BatchMessage is null.
@@ -418,76 +424,106 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
     @Override
     public void visit(final BatchMessage msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "BatchMessage msg");
-        Thread batchThread = new Thread("Batch-" + msg.getID()) {
-            @Override
-            public void run() {
-                try {
-                    // TODO Possibly tell batch something that will let
-                    //  it create more comprehensible file names.
-                    // Run the batch job on all files on this machine
-                    BatchStatus batchStatus = ba.batch(bitarchiveAppId,
-                                                       msg.getJob());
-
-                    // Create the message which will contain the reply
-                    BatchEndedMessage resultMessage
-                            = new BatchEndedMessage(baMon, msg.getID(),
-                                                    batchStatus);
-
-                    // Update informational fields in reply message
-                    if (batchStatus.getFilesFailed().size() > 0) {
-                        resultMessage.setNotOk(
-                                "Batch job failed on "
-                                + batchStatus.getFilesFailed().size()
-                                + " files.");
-                    }
-
-                    // Send the reply
-                    con.send(resultMessage);
-                    log.debug("Submitted result message for batch job: "
-                             + msg.getID());
-                } catch (Throwable e) {
-                    log.warn("Batch processing failed for message '"
-                            + msg + "'", e);
-                    BatchEndedMessage failMessage
-                            = new BatchEndedMessage(
-                                    baMon, bitarchiveAppId,
-                                    msg.getID(), new NullRemoteFile());
-                    failMessage.setNotOk(e);
-                    
-                    con.send(failMessage);
-                    log.debug("Submitted failure message for batch job: "
-                             + msg.getID());
-                } finally {
-                    // remove from map
-                    batchProcesses.remove(msg.getBatchID());
+        // The bitarchive doesn't know who asked the monitor for the job,
+        // so jobs are queued fairly by the kind of job.
+        batchScheduler.submit(msg.getBatchID(),
+                msg.getJob().getClass().getName(),
+                BatchScheduler.isInteractive(msg.getJob()),
+                new BatchTask(msg));
+    }
+
+    /**
+     * Runs a batch job and sends the result to the monitor.
+     */
+    private class BatchTask implements Runnable {
+        /** The message with the batch job. */
+        private final BatchMessage msg;
+
+        /**
+         * Create a task for a batch job.
+         * @param msg The message with the batch job.
+         */
+        BatchTask(BatchMessage msg) {
+            this.msg = msg;
+        }
+
+        /**
+         * Run the batch job on all files on this machine, and send the
+         * result to the monitor.
+         */
+        public void run() {
+            try {
+                // TODO Possibly tell batch something that will let
+                //  it create more comprehensible file names.
+                // Run the batch job on all files on this machine
+                BatchStatus batchStatus = ba.batch(bitarchiveAppId,
+                                                   msg.getJob());
+
+                // Create the message which will contain the reply
+                BatchEndedMessage resultMessage
+                        = new BatchEndedMessage(baMon, msg.getID(),
+                                                batchStatus);
+
+                // Update informational fields in reply message
+                if (batchStatus.getFilesFailed().size() > 0) {
+                    resultMessage.setNotOk(
+                            "Batch job failed on "
+                            + batchStatus.getFilesFailed().size()
+                            + " files.");
                 }
+
+                // Send the reply
+                con.send(resultMessage);
+                log.debug("Submitted result message for batch job: "
+                         + msg.getID());
+            } catch (Throwable e) {
+                log.warn("Batch processing failed for message '"
+                        + msg + "'", e);
+                sendFailure(e);
             }
-        };
-        batchProcesses.put(msg.getBatchID(), batchThread);
-        batchThread.start();
+        }
+
+        /**
+         * Tell the monitor that the batch job failed.
+         * @param e The reason.
+         */
+        void sendFailure(Throwable e) {
+            BatchEndedMessage failMessage
+                    = new BatchEndedMessage(
+                            baMon, bitarchiveAppId,
+                            msg.getID(), new NullRemoteFile());
+            failMessage.setNotOk(e);
+
+            con.send(failMessage);
+            log.debug("Submitted failure message for batch job: "
+                     + msg.getID());
+        }
     }
-    
+
     public void visit(BatchTerminationMessage msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "BatchTerminationMessage msg");
         log.info("Received BatchTerminationMessage: " + msg);
 
         try {
-            Thread t = batchProcesses.get(msg.getTerminateID());
-
-            // check whether the batchjob is still running.
-            if(t == null) {
+            // a batchjob that has not been started is just removed.
+            Runnable queued = batchScheduler.cancel(msg.getTerminateID());
+            if (queued != null) {
+                log.info("The batchjob with ID '" + msg.getTerminateID()
+                        + "' was removed from the queue before running.");
+                ((BatchTask) queued).sendFailure(new BatchTermination(
+                        "The batchjob '" + msg.getTerminateID()
+                        + "' was terminated before it was started."));
+                return;
+            }
+            // try to interrupt, if the batchjob is still running.
+            if (!batchScheduler.terminate(msg.getTerminateID())) {
                 log.info("The batchjob with ID '" + msg.getTerminateID() 
                         + "' cannot be found, and must have terminated "
                         + "by it self.");
                 return;
             }
             
-            // try to interrupt.
-            if(t.isAlive()) {
-                t.interrupt();
-            }
-            
-            // wait one second, before verifying whether it is dead.
+            // wait one second, before verifying whether it has stopped.
             synchronized(this) {
                 try {
                     this.wait(1000);
@@ -496,10 +532,13 @@ public class BitarchiveServer extends ArchiveMessageHandler implements
                 }
             }
             
-            // Verify that is dead, or log that it might have a problem. 
-            if(t.isAlive()) {
-                log.error("The thread '" + t + "' should have been terminated,"
-                        + " but it is apparently still alive.");
+            // Verify that it has stopped, or log that it might have a
+            // problem. The worker thread lives on to run other batchjobs.
+            if (batchScheduler.getRunningThread(msg.getTerminateID())
+                    != null) {
+                log.error("The batchjob with ID '" + msg.getTerminateID()
+                        + "' should have been terminated, but it is "
+                        + "apparently still running.");
             } else {
                 log.info("The batchjob with ID '" + msg.getTerminateID()
                         + "' has successfully been terminated!");
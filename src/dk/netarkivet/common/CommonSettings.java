@@ -85,6 +85,16 @@ public class CommonSettings {
      * reconnect to the broker.
      * */
     public static String JMS_BROKER_RETRIES = "settings.common.jms.retries";
+
+    /**
+     * <b>settings.common.jms.sessionsPerQueue</b>: <br>
+     * The number of sessions each listener on a queue gets. Each session
+     * handles one message at a time, so with more than one session the
+     * listener must be able to handle messages concurrently. Listeners on
+     * topics always get one session. The default is 1.
+     * */
+    public static String JMS_SESSIONS_PER_QUEUE
+            = "settings.common.jms.sessionsPerQueue";
     
     /**
      * <b>settings.common.http.port</b>: <br>
@@ -124,6 +134,25 @@ public class CommonSettings {
     public static String BATCH_DEFAULT_TIMEOUT =
         "settings.common.batch.defaultBatchTimeout";
 
+    /**
+     * <b>settings.common.batch.maxThreads</b>: <br/>
+     * The maximum number of threads used to run a batchjob that allows
+     * its files to be processed in parallel, see
+     * FileBatchJob#isThreadSafe(). The value 1 processes all files one at a
+     * time.
+     */
+    public static String BATCH_MAX_THREADS =
+        "settings.common.batch.maxThreads";
+
+    /**
+     * <b>settings.common.batch.threadsPerDevice</b>: <br/>
+     * The maximum number of files processed at the same time from each
+     * directory (i.e. each bitarchive mount), when a batchjob is run in
+     * parallel.
+     */
+    public static String BATCH_THREADS_PER_DEVICE =
+        "settings.common.batch.threadsPerDevice";
+
     /**
      * <b>settings.common.monitorregistryClient.class</b>: <br>
      * Which class to use for monitor registry. Must implement the interface
@@ -29,6 +29,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Calendar;
 
 import org.apache.commons.logging.Log;
@@ -104,6 +106,20 @@ public abstract class AbstractRemoteFile implements RemoteFile {
      * @throws IOFailure on I/O trouble writing remote file to destination.
      */
     public void copyTo(File destFile) {
+        copyTo(destFile, null);
+    }
+
+    /** Copy this remote file to the given file, updating a digest with the
+     * data written, so the file need not be read again to get its checksum.
+     * The digest is reset before each attempt, so after the copy it covers
+     * exactly the contents of destFile.
+     * @param destFile The file to write the remote file to.
+     * @param digest The digest to update, or null for none.
+     * @throws ArgumentNotValid on null destFile, or parent to destfile is not
+     * a writeable directory, or destfile exists and cannot be overwritten.
+     * @throws IOFailure on I/O trouble writing remote file to destination.
+     */
+    public void copyTo(File destFile, MessageDigest digest) {
         ArgumentNotValid.checkNotNull(destFile, "File destFile");
         destFile = destFile.getAbsoluteFile();
         if ((!destFile.isFile() || !destFile.canWrite())
@@ -123,7 +139,12 @@ public abstract class AbstractRemoteFile implements RemoteFile {
                 try {
                     try {
                         fos = new FileOutputStream(destFile);
-                        appendTo(fos);
+                        if (digest != null) {
+                            digest.reset();
+                            appendTo(new DigestOutputStream(fos, digest));
+                        } else {
+                            appendTo(fos);
+                        }
                         success = true;
                     } finally {
                         if (fos != null) {
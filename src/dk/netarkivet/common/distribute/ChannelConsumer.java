@@ -0,0 +1,179 @@
+/* $Id$
+ * $Date$
+ * $Revision$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.common.distribute;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The consumers of one listener on a channel. Each consumer has a session of
+ * its own, so messages to different channels are handled concurrently, and a
+ * queue with more than one consumer has that many messages handled at a
+ * time. Closing this closes the consumers and their sessions.
+ */
+class ChannelConsumer implements MessageConsumer {
+    /** The sessions of the consumers. */
+    private final List<Session> sessions;
+    /** The consumers, one in each session. */
+    private final List<MessageConsumer> consumers;
+    /** The statistics of the channel. */
+    private final ChannelStatistics statistics;
+    /** The listener set on the consumers, or null. */
+    private MessageListener listener;
+
+    /**
+     * Create the consumers of a channel, each in a session of its own.
+     *
+     * @param sessions The sessions to create the consumers in. These are
+     * closed when the consumers are closed, and also if the consumers cannot
+     * be created.
+     * @param statistics The statistics to record handled messages in.
+     * @param channel The channel to consume from.
+     * @throws ArgumentNotValid if an argument is null, or there are no
+     * sessions.
+     * @throws JMSException if a consumer cannot be created.
+     */
+    ChannelConsumer(List<Session> sessions, ChannelStatistics statistics,
+                    Destination channel) throws JMSException {
+        ArgumentNotValid.checkNotNullOrEmpty(sessions, "List sessions");
+        ArgumentNotValid.checkNotNull(statistics,
+                                      "ChannelStatistics statistics");
+        ArgumentNotValid.checkNotNull(channel, "Destination channel");
+        this.sessions = new ArrayList<Session>(sessions);
+        this.statistics = statistics;
+        consumers = new ArrayList<MessageConsumer>(sessions.size());
+        try {
+            for (Session session : sessions) {
+                consumers.add(session.createConsumer(channel));
+            }
+        } catch (JMSException e) {
+            closeSessions();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The listener set on the consumers, not the listener measuring
+     * it.
+     * @see MessageConsumer#getMessageListener()
+     */
+    public synchronized MessageListener getMessageListener() {
+        return listener;
+    }
+
+    /**
+     * Set the listener on all consumers, recording the messages handled in
+     * the statistics of the channel. Setting the listener already set does
+     * nothing.
+     *
+     * @param messageListener The listener.
+     * @throws JMSException if the listener cannot be set.
+     * @see MessageConsumer#setMessageListener(MessageListener)
+     */
+    public synchronized void setMessageListener(
+            MessageListener messageListener) throws JMSException {
+        if (messageListener == listener) {
+            return;
+        }
+        listener = messageListener;
+        for (MessageConsumer consumer : consumers) {
+            consumer.setMessageListener(messageListener == null
+                    ? null : statistics.measure(messageListener));
+        }
+    }
+
+    /** @see MessageConsumer#getMessageSelector() */
+    public String getMessageSelector() throws JMSException {
+        return consumers.get(0).getMessageSelector();
+    }
+
+    /** @see MessageConsumer#receive() */
+    public Message receive() throws JMSException {
+        return consumers.get(0).receive();
+    }
+
+    /** @see MessageConsumer#receive(long) */
+    public Message receive(long timeout) throws JMSException {
+        return consumers.get(0).receive(timeout);
+    }
+
+    /** @see MessageConsumer#receiveNoWait() */
+    public Message receiveNoWait() throws JMSException {
+        return consumers.get(0).receiveNoWait();
+    }
+
+    /**
+     * Close the consumers and their sessions. All are closed, even if
+     * closing some of them fails.
+     *
+     * @throws JMSException if closing any of them failed.
+     */
+    public synchronized void close() throws JMSException {
+        JMSException failure = null;
+        for (MessageConsumer consumer : consumers) {
+            try {
+                consumer.close();
+            } catch (JMSException e) {
+                failure = e;
+            }
+        }
+        listener = null;
+        try {
+            closeSessions();
+        } catch (JMSException e) {
+            failure = e;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Close all the sessions, even if closing some of them fails.
+     *
+     * @throws JMSException if closing any of them failed.
+     */
+    private void closeSessions() throws JMSException {
+        JMSException failure = null;
+        for (Session session : sessions) {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/* $Id$
+ * $Date$
+ * $Revision$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.common.distribute;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Counts the messages sent to and received from a channel, and the time
+ * spent on them. The JMSConnection keeps one for each channel it uses, and
+ * exposes it as an MBean.
+ */
+class ChannelStatistics implements ChannelStatisticsMBean {
+    /** The name of the channel. */
+    private final String channelName;
+    /** The number of handled messages. */
+    private final AtomicLong received = new AtomicLong();
+    /** The number of messages where the listener failed. */
+    private final AtomicLong failed = new AtomicLong();
+    /** The number of messages being handled now. */
+    private final AtomicInteger active = new AtomicInteger();
+    /** The total time spent handling messages, in milliseconds. */
+    private final AtomicLong handlingTime = new AtomicLong();
+    /** The longest time spent handling a message, in milliseconds. */
+    private final AtomicLong maxHandlingTime = new AtomicLong();
+    /** The number of sent messages. */
+    private final AtomicLong sent = new AtomicLong();
+    /** The total time spent sending messages, in milliseconds. */
+    private final AtomicLong sendTime = new AtomicLong();
+
+    /**
+     * Create statistics for a channel.
+     *
+     * @param channelName The name of the channel.
+     * @throws ArgumentNotValid if channelName is null or empty.
+     */
+    ChannelStatistics(String channelName) {
+        ArgumentNotValid.checkNotNullOrEmpty(channelName, "String channelName");
+        this.channelName = channelName;
+    }
+
+    /**
+     * Make a listener which passes messages on to the given listener, and
+     * records the time spent on each of them.
+     *
+     * @param ml The listener to measure.
+     * @return The measuring listener.
+     * @throws ArgumentNotValid if ml is null.
+     */
+    MeasuredListener measure(MessageListener ml) {
+        ArgumentNotValid.checkNotNull(ml, "MessageListener ml");
+        return new MeasuredListener(ml);
+    }
+
+    /**
+     * A listener passing messages on to another listener, recording the
+     * time spent on each of them in the statistics.
+     */
+    class MeasuredListener implements MessageListener {
+        /** The listener handling the messages. */
+        private final MessageListener listener;
+
+        /**
+         * Create a measuring listener.
+         *
+         * @param listener The listener handling the messages.
+         */
+        private MeasuredListener(MessageListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return The listener handling the messages.
+         */
+        MessageListener getListener() {
+            return listener;
+        }
+
+        /**
+         * Pass the message on to the listener, and record the time spent.
+         *
+         * @param message The message.
+         */
+        public void onMessage(Message message) {
+            active.incrementAndGet();
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                listener.onMessage(message);
+                success = true;
+            } finally {
+                active.decrementAndGet();
+                messageHandled(System.currentTimeMillis() - start, success);
+            }
+        }
+
+        /**
+         * The same as the listener handling the messages, since it is used
+         * in the keys of the consumers.
+         *
+         * @return The string representation of the listener.
+         */
+        public String toString() {
+            return listener.toString();
+        }
+    }
+
+    /**
+     * Record that a message has been handled.
+     *
+     * @param millis The time spent handling it.
+     * @param success Whether the listener handled it without exceptions.
+     */
+    private void messageHandled(long millis, boolean success) {
+        received.incrementAndGet();
+        if (!success) {
+            failed.incrementAndGet();
+        }
+        handlingTime.addAndGet(millis);
+        long max = maxHandlingTime.get();
+        while (millis > max && !maxHandlingTime.compareAndSet(max, millis)) {
+            max = maxHandlingTime.get();
+        }
+    }
+
+    /**
+     * Record that a message has been sent.
+     *
+     * @param millis The time spent sending it.
+     */
+    void messageSent(long millis) {
+        sent.incrementAndGet();
+        sendTime.addAndGet(millis);
+    }
+
+    /** @see ChannelStatisticsMBean#getChannelName() */
+    public String getChannelName() {
+        return channelName;
+    }
+
+    /** @see ChannelStatisticsMBean#getReceivedMessages() */
+    public long getReceivedMessages() {
+        return received.get();
+    }
+
+    /** @see ChannelStatisticsMBean#getFailedMessages() */
+    public long getFailedMessages() {
+        return failed.get();
+    }
+
+    /** @see ChannelStatisticsMBean#getActiveHandlers() */
+    public int getActiveHandlers() {
+        return active.get();
+    }
+
+    /** @see ChannelStatisticsMBean#getAverageHandlingTime() */
+    public long getAverageHandlingTime() {
+        long count = received.get();
+        return count == 0 ? 0 : handlingTime.get() / count;
+    }
+
+    /** @see ChannelStatisticsMBean#getMaxHandlingTime() */
+    public long getMaxHandlingTime() {
+        return maxHandlingTime.get();
+    }
+
+    /** @see ChannelStatisticsMBean#getSentMessages() */
+    public long getSentMessages() {
+        return sent.get();
+    }
+
+    /** @see ChannelStatisticsMBean#getAverageSendTime() */
+    public long getAverageSendTime() {
+        long count = sent.get();
+        return count == 0 ? 0 : sendTime.get() / count;
+    }
+
+    /** @see ChannelStatisticsMBean#reset() */
+    public void reset() {
+        received.set(0);
+        failed.set(0);
+        handlingTime.set(0);
+        maxHandlingTime.set(0);
+        sent.set(0);
+        sendTime.set(0);
+    }
+}
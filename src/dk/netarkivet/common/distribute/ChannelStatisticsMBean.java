@@ -0,0 +1,78 @@
+/* $Id$
+ * $Date$
+ * $Revision$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.common.distribute;
+
+/**
+ * Statistics of the messages sent to and received from one JMS channel by
+ * this application.
+ */
+public interface ChannelStatisticsMBean {
+    /**
+     * @return The name of the channel.
+     */
+    String getChannelName();
+
+    /**
+     * @return The number of messages handled by the listeners on the channel.
+     */
+    long getReceivedMessages();
+
+    /**
+     * @return The number of messages where the listener threw an exception.
+     */
+    long getFailedMessages();
+
+    /**
+     * @return The number of messages being handled now.
+     */
+    int getActiveHandlers();
+
+    /**
+     * @return The average time in milliseconds spent handling a message, or
+     * 0 if no messages have been handled.
+     */
+    long getAverageHandlingTime();
+
+    /**
+     * @return The longest time in milliseconds spent handling a message.
+     */
+    long getMaxHandlingTime();
+
+    /**
+     * @return The number of messages sent to the channel.
+     */
+    long getSentMessages();
+
+    /**
+     * @return The average time in milliseconds spent sending a message, or 0
+     * if no messages have been sent.
+     */
+    long getAverageSendTime();
+
+    /**
+     * Start counting from zero again.
+     */
+    void reset();
+}
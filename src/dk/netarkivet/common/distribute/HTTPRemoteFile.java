@@ -33,10 +33,12 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.ChecksumCalculator;
@@ -146,17 +148,19 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
         return HTTPRemoteFileRegistry.getInstance();
     }
 
-    /** Copy this remote file to the given file.
+    /** Copy this remote file to the given file, updating a digest with the
+     * data written.
      * If the file resides on the current machine, remote file transfer is done
      * locally. Otherwise, the remote file is transferred over http.
      * If the file is not set to be able to be transferred multiple times, it is
      * cleaned up after the transfer.
      * @param destFile The file to write the remote file to.
+     * @param digest The digest to update, or null for none.
      * @throws ArgumentNotValid on null destFile, or parent to destfile is not
      * a writeable directory, or destfile exists and cannot be overwritten.
      * @throws IOFailure on I/O trouble writing remote file to destination.
      */
-    public void copyTo(File destFile) {
+    public void copyTo(File destFile, MessageDigest digest) {
         ArgumentNotValid.checkNotNull(destFile, "File destFile");
         destFile = destFile.getAbsoluteFile();
         if ((!destFile.isFile() || !destFile.canWrite())
@@ -169,11 +173,38 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
         if (isLocal() && fileDeletable && !multipleDownloads && !useChecksums) {
             if (file.renameTo(destFile)) {
                     cleanup();
+                if (digest != null) {
+                    // Nothing was copied, so the file is read once here.
+                    digest.reset();
+                    updateDigest(destFile, digest);
+                }
                 return;
             }
             //if rename fails we fall back to normal usage.
         }
-        super.copyTo(destFile);
+        super.copyTo(destFile, digest);
+    }
+
+    /** Update a digest with the contents of a file.
+     * @param f The file.
+     * @param digest The digest to update.
+     * @throws IOFailure if the file cannot be read.
+     */
+    private static void updateDigest(File f, MessageDigest digest) {
+        try {
+            InputStream in = new DigestInputStream(new FileInputStream(f),
+                                                   digest);
+            try {
+                byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
+                while (in.read(buffer) != -1) {
+                    // Only the digest is needed
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read '" + f + "'", e);
+        }
     }
 
     /** Get an input stream representing the remote file.
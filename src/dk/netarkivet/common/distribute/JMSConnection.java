@@ -24,9 +24,12 @@
  */
 package dk.netarkivet.common.distribute;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.jms.Connection;
@@ -47,7 +50,9 @@ import javax.jms.Session;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.NetarkivetException;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.Settings;
@@ -56,12 +61,21 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * Handles the communication with a JMS broker. Note on Thread-safety: the
- * methods and fields of JMSConnection are not accessed by multiple threads
- * (though JMSConnection itself creates threads). Thus no synchronization is
- * needed on methods and fields of JMSConnection. A shutdown hook is also added,
+ * Handles the communication with a JMS broker. A shutdown hook is added,
  * which closes the connection. Class JMSConnection is now also a
- * exceptionhandler for the JMS Connections
+ * exceptionhandler for the JMS Connections.
+ *
+ * Each listener on a channel gets a session of its own, so messages on
+ * different channels are handled concurrently. Listeners on queues may get
+ * more than one session, see {@link CommonSettings#JMS_SESSIONS_PER_QUEUE}.
+ * Messages are sent through sessions separate from the listeners, one for
+ * each destination channel. The messages sent and handled on each channel
+ * are counted in a {@link ChannelStatisticsMBean}.
+ *
+ * Note on Thread-safety: Listeners are added and removed, and messages
+ * sent, under the read lock of connectionLock, while connecting and
+ * reconnecting happens under the write lock. JMS sessions are not thread
+ * safe, so each producer is used by one thread at a time.
  */
 public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     /** The log. */
@@ -80,17 +94,18 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     /** The JMS Connection. */
     protected Connection connection;
 
-    /**
-     * The Session handling messages sent to / received from the NetarchiveSuite
-     * queues and topics.
-     */
-    protected Session session;
-    
     /** Map for caching message producers. */
     protected final Map<String, MessageProducer> producers
             = Collections.synchronizedMap(
             new HashMap<String, MessageProducer>());
 
+    /**
+     * The sessions of the message producers, by channel name. Each producer
+     * has a session of its own.
+     */
+    private final Map<String, Session> producerSessions
+            = Collections.synchronizedMap(new HashMap<String, Session>());
+
     /**
      * Map for caching message consumers (topic-subscribers and
      * queue-receivers).
@@ -115,6 +130,17 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     protected final ReentrantReadWriteLock connectionLock
             = new ReentrantReadWriteLock();
 
+    /**
+     * The statistics of the channels used, by channel name. These are kept
+     * when reconnecting.
+     */
+    private final Map<String, ChannelStatistics> statistics
+            = new HashMap<String, ChannelStatistics>();
+
+    /** The registered MBeans of the statistics. Guarded by statistics. */
+    private final List<SingleMBeanObject<ChannelStatisticsMBean>> mBeans
+            = new ArrayList<SingleMBeanObject<ChannelStatisticsMBean>>();
+
     /** Shutdown hook that closes the JMS connection. */
     protected Thread closeHook;
     /**
@@ -334,6 +360,7 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             closeConnection();
             //Clear list of listeners
             listeners.clear();
+            unregisterStatistics();
             instance = null;
             log.info("Cleanup finished");
         } finally {
@@ -357,9 +384,61 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             }
         }
         connection = null;
-        session = null;
         consumers.clear();
         producers.clear();
+        producerSessions.clear();
+    }
+
+    /**
+     * Get the statistics of a channel, creating them and registering them as
+     * an MBean if they do not exist. Failure to register is logged, but
+     * otherwise ignored.
+     *
+     * @param channelName The name of the channel.
+     *
+     * @return The statistics of the channel.
+     */
+    private ChannelStatistics getStatistics(String channelName) {
+        synchronized (statistics) {
+            ChannelStatistics channelStatistics = statistics.get(channelName);
+            if (channelStatistics == null) {
+                channelStatistics = new ChannelStatistics(channelName);
+                statistics.put(channelName, channelStatistics);
+                try {
+                    SingleMBeanObject<ChannelStatisticsMBean> bean
+                            = new SingleMBeanObject<ChannelStatisticsMBean>(
+                                    "dk.netarkivet.common.distribute",
+                                    channelStatistics,
+                                    ChannelStatisticsMBean.class,
+                                    ManagementFactory.getPlatformMBeanServer());
+                    bean.getNameProperties().put("name", "JMSChannel");
+                    bean.getNameProperties().put("jmschannel", channelName);
+                    bean.register();
+                    mBeans.add(bean);
+                } catch (NetarkivetException e) {
+                    log.warn("Unable to register statistics MBean for channel "
+                             + channelName, e);
+                }
+            }
+            return channelStatistics;
+        }
+    }
+
+    /**
+     * Unregister the MBeans of the statistics, and forget the statistics.
+     */
+    private void unregisterStatistics() {
+        synchronized (statistics) {
+            for (SingleMBeanObject<ChannelStatisticsMBean> bean : mBeans) {
+                try {
+                    bean.unregister();
+                } catch (NetarkivetException e) {
+                    log.warn("Unable to unregister statistics MBean", e);
+                }
+            }
+            mBeans.clear();
+            statistics.clear();
+        }
     }
 
     /**
@@ -501,6 +580,8 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
 
     /**
      * Helper method for getting the right producer for a queue or topic.
+     * Each producer is created in a session of its own, so sending to
+     * different channels can happen concurrently.
      *
      * @param queueName The name of the channel
      *
@@ -512,30 +593,43 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     private MessageProducer getProducer(String queueName) throws JMSException {
         // Check if producer is in cache
         // If it is not, it is created and stored in cache:
-        MessageProducer producer = producers.get(queueName);
-        if (producer == null) {
-            producer = getSession().createProducer(getDestination(queueName));
-            producers.put(queueName, producer);
+        synchronized (producers) {
+            MessageProducer producer = producers.get(queueName);
+            if (producer == null) {
+                Session producerSession = createSession();
+                try {
+                    producer = producerSession.createProducer(
+                            getDestination(queueName));
+                } catch (JMSException e) {
+                    producerSession.close();
+                    throw e;
+                }
+                producerSessions.put(queueName, producerSession);
+                producers.put(queueName, producer);
+            }
+            return producer;
         }
-        return producer;
     }
 
     /**
-     * Get the session. Will try reconnecting if session is null.
+     * Create a new session on the connection. Will try reconnecting if there
+     * is no connection.
      *
      * @return The session.
      *
-     * @throws IOFailure if no session is available, and reconnect does not
+     * @throws IOFailure if no connection is available, and reconnect does not
      *                   help.
+     * @throws JMSException If the session cannot be created.
      */
-    private Session getSession() {
-        if (session == null) {
+    private Session createSession() throws JMSException {
+        if (connection == null) {
             reconnect();
         }
-        if (session == null) {
-            throw new IOFailure("Session not available");
+        Connection currentConnection = connection;
+        if (currentConnection == null) {
+            throw new IOFailure("Connection not available");
         }
-        return session;
+        return currentConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
     }
 
     /**
@@ -546,21 +640,41 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
      * @param ml          The message listener to add as listener to the
      *                    channel
      *
-     * @return The producer for that channel. A new one is created, if none
-     *         exists.
+     * @return The consumer for that channel and listener. A new one is
+     *         created, if none exists. It has a session of its own, or
+     *         several for queues if so configured.
      *
-     * @throws JMSException If a new producer cannot be created.
+     * @throws JMSException If a new consumer cannot be created.
      */
     private MessageConsumer getConsumer(String channelName, MessageListener ml)
             throws JMSException {
         String key = getConsumerKey(channelName, ml);
-        MessageConsumer consumer = consumers.get(key);
-        if (consumer == null) {
-            consumer = getSession().createConsumer(getDestination(channelName));
-            consumers.put(key, consumer);
-            listeners.put(key, ml);
+        synchronized (consumers) {
+            MessageConsumer consumer = consumers.get(key);
+            if (consumer == null) {
+                // Every session on a topic would receive each message
+                int sessionCount = Channels.isTopic(channelName)
+                        ? 1 : Settings.getInt(
+                                CommonSettings.JMS_SESSIONS_PER_QUEUE);
+                List<Session> sessions = new ArrayList<Session>(sessionCount);
+                try {
+                    for (int i = 0; i < sessionCount; i++) {
+                        sessions.add(createSession());
+                    }
+                } catch (JMSException e) {
+                    for (Session session : sessions) {
+                        session.close();
+                    }
+                    throw e;
+                }
+                consumer = new ChannelConsumer(sessions,
+                        getStatistics(channelName),
+                        getDestination(channelName));
+                consumers.put(key, consumer);
+                listeners.put(key, ml);
+            }
+            return consumer;
         }
-        return consumer;
     }
 
     /**
@@ -590,15 +704,15 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Helper method to establish one Connection and associated Session.
+     * Helper method to establish the Connection. The sessions are created
+     * when producers and consumers are needed.
      *
      * @throws JMSException If some JMS error occurred during the creation of
-     *                      the required JMS connection and session
+     *                      the required JMS connection
      */
     private void establishConnectionAndSession() throws JMSException {
-        // Establish a queue connection and a session
+        // Establish a queue connection
         connection = getConnectionFactory().createConnection();
-        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
         connection.setExceptionListener(this);
         connection.start();
     }
@@ -614,24 +728,33 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
      */
     private void doSend(NetarkivetMessage msg, ChannelID to)
             throws JMSException {
+        long start = System.currentTimeMillis();
         connectionLock.readLock().lock();
         try {
-            ObjectMessage message = getSession().createObjectMessage(msg);
-            synchronized (msg) {
-                getProducer(to.getName()).send(message);
-                // Note: Id is only updated if the message does not already have
-                // an id. This ensures that resent messages keep the same ID
-                // TODO Is it always OK for resent messages to keep the same ID
-                
-                // FIXME Solution for NAS-2043 doesn't work; rolled back
-                //String randomID = UUID.randomUUID().toString();
-                //msg.updateId(randomID);
-                msg.updateId(message.getJMSMessageID());
-                
+            MessageProducer producer = getProducer(to.getName());
+            // The session of a producer may only be used by one thread
+            synchronized (producer) {
+                ObjectMessage message = producerSessions.get(to.getName())
+                        .createObjectMessage(msg);
+                synchronized (msg) {
+                    producer.send(message);
+                    // Note: Id is only updated if the message does not
+                    // already have an id. This ensures that resent messages
+                    // keep the same ID
+                    // TODO Is it always OK for resent messages to keep the
+                    // same ID
+
+                    // FIXME Solution for NAS-2043 doesn't work; rolled back
+                    //String randomID = UUID.randomUUID().toString();
+                    //msg.updateId(randomID);
+                    msg.updateId(message.getJMSMessageID());
+                }
             }
         } finally {
             connectionLock.readLock().unlock();
         }
+        getStatistics(to.getName()).messageSent(
+                System.currentTimeMillis() - start);
         log.trace("Sent message '" + msg.toString() + "'");
     }
 
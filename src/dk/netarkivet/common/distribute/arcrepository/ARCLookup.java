@@ -147,14 +147,7 @@ public class ARCLookup {
     public ResultStream lookup(URI uri) {
         ArgumentNotValid.checkNotNull(uri, "uri");
         boolean containsHeader = true;
-        // the URI.getSchemeSpecificPart() carries out the url-decoding
-        ARCKey key = luceneLookup(uri.getScheme() + ":" 
-                + uri.getSchemeSpecificPart());
-        if (key == null) {
-            // the URI.getRawSchemeSpecificPart() returns the uri in non-decoded form
-            key = luceneLookup(uri.getScheme() + ":" 
-                    + uri.getRawSchemeSpecificPart());
-        }
+        ARCKey key = lookupKey(uri);
         
         if (key == null && tryToLookupUriAsFtp) {
             log.debug("Url not found with the schema '" + uri.getScheme()
@@ -195,6 +188,29 @@ public class ARCLookup {
         }
     }
 
+    /** Look up a given URI in the index and return where its record is.
+     * Like lookup(), the url-decoded URI is tried before the non-decoded
+     * one, but other schemas are not tried.
+     *
+     * @param uri The URI to find in the archive.
+     * @return The file and offset of the record of the URI, or null if the
+     * URI is not in the archive.
+     * @throws ArgumentNotValid If uri is null.
+     * @throws IOFailure if no index is set or Lucene gives problems.
+     */
+    public ARCKey lookupKey(URI uri) {
+        ArgumentNotValid.checkNotNull(uri, "uri");
+        // the URI.getSchemeSpecificPart() carries out the url-decoding
+        ARCKey key = luceneLookup(uri.getScheme() + ":"
+                + uri.getSchemeSpecificPart());
+        if (key == null) {
+            // the URI.getRawSchemeSpecificPart() returns the uri in non-decoded form
+            key = luceneLookup(uri.getScheme() + ":"
+                    + uri.getRawSchemeSpecificPart());
+        }
+        return key;
+    }
+
     /** Looks up a URI in our lucene index and extracts a key.
      *
      * @param uri A URI to look for.
@@ -175,6 +175,15 @@ public class BitarchiveRecord implements Serializable {
         return length;
     }
 
+    /**
+     * Returns whether the data is stored in a RemoteFile, and so can only be
+     * retrieved once.
+     * @return true if the data is stored in a RemoteFile.
+     */
+    public boolean isStoredAsRemoteFile() {
+        return isStoredAsRemoteFile;
+    }
+
     /**
      * Retrieve the data in the record.
      * If data is in RemoteFile, this operation deletes the RemoteFile.
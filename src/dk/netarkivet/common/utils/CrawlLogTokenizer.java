@@ -0,0 +1,516 @@
+/* File:             $Id$
+ * Revision:         $Revision$
+ * Author:           $Author$
+ * Date:             $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Reads the lines of a Heritrix crawl.log and splits them into fields,
+ * without making Strings of the lines or the fields.
+ *
+ * The fields of a line are separated by whitespace, as with
+ * <code>line.split("\\s+", 12)</code>: The last field, the annotations,
+ * is the rest of the line. Whitespace before the first field and after the
+ * last field is ignored. Lines end with LF or CRLF.
+ *
+ * The fields of the current line can be compared, parsed as numbers and
+ * searched in place. Only the fields asked for as Strings are decoded
+ * (as UTF-8). The tokenizer is not thread safe.
+ */
+public class CrawlLogTokenizer {
+    /** The maximum number of fields of a line. */
+    public static final int MAX_FIELDS = 12;
+    /** The field with the timestamp. */
+    public static final int TIMESTAMP_FIELD = 0;
+    /** The field with the fetch status code. */
+    public static final int STATUS_FIELD = 1;
+    /** The field with the size of the document. */
+    public static final int SIZE_FIELD = 2;
+    /** The field with the URL. */
+    public static final int URL_FIELD = 3;
+    /** The field with the discovery path. */
+    public static final int DISCOVERY_PATH_FIELD = 4;
+    /** The field with the URL the URL was discovered from. */
+    public static final int REFERRER_FIELD = 5;
+    /** The field with the mimetype. */
+    public static final int MIMETYPE_FIELD = 6;
+    /** The field with the number of the thread fetching the URL. */
+    public static final int THREAD_FIELD = 7;
+    /** The field with the fetch timestamp and duration. */
+    public static final int FETCH_TIME_FIELD = 8;
+    /** The field with the content digest. */
+    public static final int DIGEST_FIELD = 9;
+    /** The field with the seed (source tag). */
+    public static final int SEED_FIELD = 10;
+    /** The field with the comma separated annotations. */
+    public static final int ANNOTATIONS_FIELD = 11;
+
+    /** The number of digits a long can always hold. */
+    private static final int MAX_SAFE_DIGITS = 18;
+
+    /** The stream the crawl.log is read from. */
+    private final InputStream in;
+    /** The buffer holding the current line and what is read after it. */
+    private byte[] buffer = new byte[Constants.IO_BUFFER_SIZE * 4];
+    /** The position in the buffer of the first byte not read as a line. */
+    private int position;
+    /** The number of bytes in the buffer. */
+    private int limit;
+    /** The offset in the stream of the first byte of the buffer. */
+    private long bufferOffset;
+    /** Whether the end of the stream has been reached. */
+    private boolean endOfStream;
+
+    /** The position in the buffer of the current line. */
+    private int lineStart;
+    /** The position in the buffer after the current line. */
+    private int lineEnd;
+    /** The number of fields of the current line. */
+    private int fieldCount;
+    /** The positions in the buffer of the fields of the current line. */
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    /** The positions in the buffer after the fields of the current line. */
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+
+    /**
+     * Make a tokenizer of a crawl.log. The stream is not closed by the
+     * tokenizer.
+     *
+     * @param in The crawl.log.
+     * @throws ArgumentNotValid if in is null.
+     */
+    public CrawlLogTokenizer(InputStream in) {
+        ArgumentNotValid.checkNotNull(in, "InputStream in");
+        this.in = in;
+    }
+
+    /**
+     * Read the next line of the crawl.log, and split it into fields.
+     *
+     * @return false if there are no more lines, true otherwise.
+     * @throws IOException If reading the crawl.log fails.
+     */
+    public boolean next() throws IOException {
+        if (!readLine()) {
+            fieldCount = 0;
+            lineStart = lineEnd;
+            return false;
+        }
+        if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+        tokenize();
+        return true;
+    }
+
+    /**
+     * Find the next line in the buffer, reading more of the stream as
+     * needed.
+     *
+     * @return false if there are no more lines, true otherwise.
+     * @throws IOException If reading the crawl.log fails.
+     */
+    private boolean readLine() throws IOException {
+        int searchFrom = position;
+        while (true) {
+            for (int i = searchFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (endOfStream) {
+                if (position < limit) {
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            searchFrom = limit - position;
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                bufferOffset += position;
+                limit -= position;
+                position = 0;
+            } else if (limit == buffer.length) {
+                byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, limit);
+                buffer = larger;
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Split the current line into fields.
+     */
+    private void tokenize() {
+        fieldCount = 0;
+        int i = lineStart;
+        while (fieldCount < MAX_FIELDS) {
+            while (i < lineEnd && isWhitespace(buffer[i])) {
+                i++;
+            }
+            if (i == lineEnd) {
+                break;
+            }
+            fieldStarts[fieldCount] = i;
+            if (fieldCount == MAX_FIELDS - 1) {
+                i = lineEnd;
+                while (isWhitespace(buffer[i - 1])) {
+                    i--;
+                }
+            } else {
+                while (i < lineEnd && !isWhitespace(buffer[i])) {
+                    i++;
+                }
+            }
+            fieldEnds[fieldCount] = i;
+            fieldCount++;
+        }
+    }
+
+    /**
+     * @param b A byte.
+     * @return Whether the byte is whitespace, as matched by the regexp \s.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\u000B'
+               || b == '\f' || b == '\r';
+    }
+
+    /**
+     * @return The number of fields of the current line.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return The offset in the crawl.log of the current line.
+     */
+    public long getLineOffset() {
+        return bufferOffset + lineStart;
+    }
+
+    /**
+     * @return The length in bytes of the current line, without the line
+     * separator.
+     */
+    public int getLineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * @return The current line, without the line separator.
+     */
+    public String getLine() {
+        return decode(lineStart, lineEnd);
+    }
+
+    /**
+     * Write the current line to a stream, followed by a newline.
+     *
+     * @param out The stream.
+     * @throws IOException If writing fails.
+     */
+    public void writeLine(OutputStream out) throws IOException {
+        out.write(buffer, lineStart, lineEnd - lineStart);
+        out.write('\n');
+    }
+
+    /**
+     * @param field The index of a field of the current line.
+     * @return The length in bytes of the field.
+     * @throws ArgumentNotValid if the line has no such field.
+     */
+    public int getFieldLength(int field) {
+        checkField(field);
+        return fieldEnds[field] - fieldStarts[field];
+    }
+
+    /**
+     * @param field The index of a field of the current line.
+     * @return The field.
+     * @throws ArgumentNotValid if the line has no such field.
+     */
+    public String getField(int field) {
+        checkField(field);
+        return decode(fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * @param field The index of a field of the current line.
+     * @param beginIndex The offset in the field of the first byte.
+     * @param endIndex The offset in the field after the last byte.
+     * @return The part of the field.
+     * @throws ArgumentNotValid if the line has no such field, or the
+     * offsets are not within the field.
+     */
+    public String getField(int field, int beginIndex, int endIndex) {
+        checkField(field);
+        ArgumentNotValid.checkNotNegative(beginIndex, "int beginIndex");
+        if (endIndex < beginIndex
+            || endIndex > fieldEnds[field] - fieldStarts[field]) {
+            throw new ArgumentNotValid("The end index " + endIndex
+                    + " is not within field " + field + " from "
+                    + beginIndex);
+        }
+        return decode(fieldStarts[field] + beginIndex,
+                fieldStarts[field] + endIndex);
+    }
+
+    /**
+     * Check whether a field of the current line is some ASCII text.
+     *
+     * @param field The index of a field of the current line.
+     * @param text ASCII text.
+     * @return Whether the field is the text.
+     * @throws ArgumentNotValid if the line has no such field, or text is
+     * null.
+     */
+    public boolean fieldEquals(int field, String text) {
+        checkField(field);
+        ArgumentNotValid.checkNotNull(text, "String text");
+        return fieldEnds[field] - fieldStarts[field] == text.length()
+               && regionMatches(fieldStarts[field], text);
+    }
+
+    /**
+     * Find some ASCII text in a field of the current line.
+     *
+     * @param field The index of a field of the current line.
+     * @param text ASCII text.
+     * @param fromIndex The offset in the field to search from.
+     * @return The offset in the field of the text, or -1 if the text is not
+     * found.
+     * @throws ArgumentNotValid if the line has no such field, or text is
+     * null.
+     */
+    public int indexOf(int field, String text, int fromIndex) {
+        checkField(field);
+        ArgumentNotValid.checkNotNull(text, "String text");
+        int start = fieldStarts[field];
+        int last = fieldEnds[field] - text.length();
+        for (int i = start + Math.max(fromIndex, 0); i <= last; i++) {
+            if (regionMatches(i, text)) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a field of the current line as a decimal number.
+     *
+     * @param field The index of a field of the current line.
+     * @return The number.
+     * @throws ArgumentNotValid if the line has no such field.
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public long getFieldAsLong(int field) {
+        checkField(field);
+        return parseLong(fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Get the value of an annotation of the current line. The annotations
+     * are the comma separated parts of the last field.
+     *
+     * @param prefix The start of the annotation, e.g. "content-size:".
+     * @return The rest of the first annotation starting with the prefix, or
+     * null if there is no such annotation.
+     * @throws ArgumentNotValid if prefix is null.
+     */
+    public String getAnnotation(String prefix) {
+        int start = findAnnotation(prefix, false);
+        if (start < 0) {
+            return null;
+        }
+        return decode(start + prefix.length(), annotationEnd(start));
+    }
+
+    /**
+     * Parse the value of an annotation of the current line as a decimal
+     * number.
+     *
+     * @param prefix The start of the annotation, e.g. "content-size:".
+     * @param defaultValue The value if there is no such annotation.
+     * @return The number after the prefix in the first annotation starting
+     * with the prefix, or defaultValue if there is no such annotation.
+     * @throws ArgumentNotValid if prefix is null.
+     * @throws NumberFormatException if the value is not a number.
+     */
+    public long getAnnotationAsLong(String prefix, long defaultValue) {
+        int start = findAnnotation(prefix, false);
+        if (start < 0) {
+            return defaultValue;
+        }
+        return parseLong(start + prefix.length(), annotationEnd(start));
+    }
+
+    /**
+     * Check whether the current line has an annotation.
+     *
+     * @param annotation An annotation, e.g. "Q:group-max-all-kb".
+     * @return Whether the line has the annotation.
+     * @throws ArgumentNotValid if annotation is null.
+     */
+    public boolean hasAnnotation(String annotation) {
+        return findAnnotation(annotation, true) >= 0;
+    }
+
+    /**
+     * Find an annotation of the current line.
+     *
+     * @param text The annotation, or the start of it.
+     * @param whole Whether the annotation should be the whole text.
+     * @return The position in the buffer of the annotation, or -1 if it is
+     * not found.
+     * @throws ArgumentNotValid if text is null.
+     */
+    private int findAnnotation(String text, boolean whole) {
+        ArgumentNotValid.checkNotNull(text, "String text");
+        if (fieldCount <= ANNOTATIONS_FIELD) {
+            return -1;
+        }
+        int i = fieldStarts[ANNOTATIONS_FIELD];
+        int end = fieldEnds[ANNOTATIONS_FIELD];
+        while (i < end) {
+            while (i < end && isWhitespace(buffer[i])) {
+                i++;
+            }
+            int annotationEnd = annotationEnd(i);
+            if (annotationEnd - i >= text.length() && regionMatches(i, text)
+                && (!whole || annotationEnd - i == text.length())) {
+                return i;
+            }
+            i = annotationEnd;
+            while (i < end && buffer[i] != ',') {
+                i++;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param start The position in the buffer of an annotation.
+     * @return The position in the buffer after the annotation, without
+     * trailing whitespace.
+     */
+    private int annotationEnd(int start) {
+        int end = start;
+        while (end < fieldEnds[ANNOTATIONS_FIELD] && buffer[end] != ',') {
+            end++;
+        }
+        while (end > start && isWhitespace(buffer[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @param start A position in the buffer.
+     * @param text ASCII text.
+     * @return Whether the buffer holds the text at the position. There
+     * must be room for the text in the buffer.
+     */
+    private boolean regionMatches(int start, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer[start + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse part of the buffer as a decimal number.
+     *
+     * @param start The position in the buffer of the number.
+     * @param end The position in the buffer after the number.
+     * @return The number.
+     * @throws NumberFormatException if the bytes are not a number.
+     */
+    private long parseLong(int start, int end) {
+        boolean signed = start < end
+                         && (buffer[start] == '-' || buffer[start] == '+');
+        int digits = signed ? start + 1 : start;
+        if (digits == end || end - digits > MAX_SAFE_DIGITS) {
+            return Long.parseLong(decode(start, end));
+        }
+        long result = 0L;
+        for (int i = digits; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \""
+                        + decode(start, end) + "\"");
+            }
+            result = result * 10 + digit;
+        }
+        return buffer[start] == '-' ? -result : result;
+    }
+
+    /**
+     * @param field The index of a field.
+     * @throws ArgumentNotValid if the current line has no such field.
+     */
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new ArgumentNotValid("The line has " + fieldCount
+                    + " fields, and no field " + field);
+        }
+    }
+
+    /**
+     * @param start A position in the buffer.
+     * @param end A later position in the buffer.
+     * @return The bytes between the positions, decoded as UTF-8.
+     */
+    private String decode(int start, int end) {
+        try {
+            return new String(buffer, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOFailure("UTF-8 is not supported", e);
+        }
+    }
+}
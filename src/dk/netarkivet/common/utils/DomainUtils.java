@@ -26,8 +26,11 @@
 package dk.netarkivet.common.utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -48,9 +51,12 @@ public final class DomainUtils {
     public static final String DOMAINNAME_CHAR_REGEX_STRING
             = "[^\\0000-,.-/:-@\\[-`{-\\0177]+";
 
+    /** The TLDs read from settings, without the prefix ".". */
+    private static final List<String> TLDS = readTlds();
+
     /** A string for a regexp recognising a TLD read from settings. */
     public static final String TLD_REGEX_STRING = "\\.(" + StringUtils.conjoin(
-            "|", readTlds()) + ")";
+            "|", quote(TLDS)) + ")";
 
     /**
      * Regexp for matching a valid domain, that is a single domainnamepart
@@ -62,13 +68,21 @@ public final class DomainUtils {
                               + TLD_REGEX_STRING
                               + ")$");
 
-    /**
-     * A regular expression matching hostnames, and remembering the hostname
-     * in group 1 and the domain in group 2.
-     */
-    private static final Pattern HOSTNAME_REGEX = Pattern.compile(
-            "^(|.*?\\.)(" + DOMAINNAME_CHAR_REGEX_STRING + "+"
-            + TLD_REGEX_STRING + ")");
+    /** Matcher for a single domain name part. */
+    private static final Pattern DOMAINNAME_PART_MATCHER
+            = Pattern.compile(DOMAINNAME_CHAR_REGEX_STRING);
+
+    /** The TLDs from settings as a trie of their parts, last part first. */
+    private static final TldNode TLD_TRIE = buildTldTrie(TLDS);
+
+    /** The maximum number of hostnames in the cache of domain names. */
+    private static final int HOSTNAME_CACHE_SIZE = 10000;
+    /** Value in the cache for hostnames without a valid domain. */
+    private static final String NO_DOMAIN = "";
+    /** Cache of the domain names of recently seen hostnames. The cache is
+     * emptied when it becomes full. */
+    private static final ConcurrentMap<String, String> HOSTNAME_CACHE
+            = new ConcurrentHashMap<String, String>();
 
     /** Utility class, do not initialise. */
     private DomainUtils() {}
@@ -90,11 +104,47 @@ public final class DomainUtils {
                 log.warn("Invalid tld '" + tld + "', ignoring");
                 continue;
             }
-            tlds.add(Pattern.quote(tld));
+            tlds.add(tld);
         }
         return tlds;
     }
 
+    /** Helper method for quoting TLDs for use in a regexp.
+     * @param tlds The TLDs
+     * @return The TLDs quoted as regexps.
+     */
+    private static List<String> quote(List<String> tlds) {
+        List<String> quoted = new ArrayList<String>(tlds.size());
+        for (String tld : tlds) {
+            quoted.add(Pattern.quote(tld));
+        }
+        return quoted;
+    }
+
+    /** Helper method for building the trie of TLDs. Each TLD is added with
+     * its last part nearest the root, so a hostname can be looked up from
+     * its end.
+     * @param tlds The TLDs.
+     * @return The root of the trie.
+     */
+    private static TldNode buildTldTrie(List<String> tlds) {
+        TldNode root = new TldNode();
+        for (String tld : tlds) {
+            TldNode node = root;
+            String[] parts = tld.split("\\.");
+            for (int i = parts.length - 1; i >= 0; i--) {
+                TldNode child = node.children.get(parts[i]);
+                if (child == null) {
+                    child = new TldNode();
+                    node.children.put(parts[i], child);
+                }
+                node = child;
+            }
+            node.isTld = true;
+        }
+        return root;
+    }
+
     /** Check if a given domainName is valid domain. A valid domain is an IP 
      * address or a domain name part followed by a TLD as defined in settings.
      * @param domainName A name of a domain (netarkivet.dk)
@@ -102,7 +152,12 @@ public final class DomainUtils {
      */
     public static boolean isValidDomainName(String domainName) {
         ArgumentNotValid.checkNotNull(domainName, "String domainName");
-        return VALID_DOMAIN_MATCHER.matcher(domainName).matches();
+        int dot = domainName.indexOf('.');
+        if (dot > 0 && isTld(domainName, dot + 1)
+            && isDomainNamePart(domainName, 0, dot)) {
+            return true;
+        }
+        return Constants.IP_KEY_REGEXP.matcher(domainName).matches();
     }
 
     /** Return a domain name.
@@ -121,20 +176,89 @@ public final class DomainUtils {
      */
     public static String domainNameFromHostname(String hostname) {
         ArgumentNotValid.checkNotNull(hostname, "String hostname");
-        String result = hostname;
+        String result = HOSTNAME_CACHE.get(hostname);
+        if (result == null) {
+            result = lookupDomainName(hostname);
+            if (HOSTNAME_CACHE.size() >= HOSTNAME_CACHE_SIZE) {
+                HOSTNAME_CACHE.clear();
+            }
+            HOSTNAME_CACHE.put(hostname, result == null ? NO_DOMAIN : result);
+        } else if (result == NO_DOMAIN) {
+            result = null;
+        }
+        return result;
+    }
+
+    /** Find the domain name of a hostname, as described in
+     * domainNameFromHostname. The domain is the longest postfix of the
+     * hostname consisting of a hostnamepart and a TLD. It is found by
+     * looking up the parts of the hostname in the TLD trie from the end.
+     *
+     * @param hostname A hostname or IP address.
+     * @return A domain name or IP address, or null if no valid domain
+     * could be obtained from the given hostname.
+     */
+    private static String lookupDomainName(String hostname) {
         // IP addresses are kept as-is, others are trimmed down.
-        if (!Constants.IP_KEY_REGEXP.matcher(hostname)
-                .matches()) {
-            Matcher matcher = HOSTNAME_REGEX.matcher(hostname);
-            if (matcher.matches()) {
-                result = matcher.group(2);
+        if (Constants.IP_KEY_REGEXP.matcher(hostname).matches()) {
+            return hostname;
+        }
+        int domainStart = -1;
+        TldNode node = TLD_TRIE;
+        int end = hostname.length();
+        int dot = hostname.lastIndexOf('.', end - 1);
+        while (dot >= 0) {
+            node = node.children.get(hostname.substring(dot + 1, end));
+            if (node == null) {
+                break;
             }
+            int partStart = hostname.lastIndexOf('.', dot - 1) + 1;
+            if (node.isTld && isDomainNamePart(hostname, partStart, dot)) {
+                domainStart = partStart;
+            }
+            end = dot;
+            dot = hostname.lastIndexOf('.', end - 1);
+        }
+        if (domainStart >= 0) {
+            return hostname.substring(domainStart);
         }
-        if (isValidDomainName(result)) {
-            return result;
+        if (isValidDomainName(hostname)) {
+            return hostname;
         }
         return null;
     }
+
+    /** Check whether the end of a string is a TLD from settings.
+     * @param s A string
+     * @param start The index where the TLD should start.
+     * @return true if the string from start is a TLD.
+     */
+    private static boolean isTld(String s, int start) {
+        TldNode node = TLD_TRIE;
+        int end = s.length();
+        while (node != null) {
+            int dot = s.lastIndexOf('.', end - 1);
+            if (dot < start) {
+                node = node.children.get(s.substring(start, end));
+                return node != null && node.isTld;
+            }
+            node = node.children.get(s.substring(dot + 1, end));
+            end = dot;
+        }
+        return false;
+    }
+
+    /** Check whether a part of a string is a single valid domain name part.
+     * @param s A string
+     * @param start The start of the part.
+     * @param end The end of the part.
+     * @return true if the characters from start to end are valid in a
+     * domain name, and there is at least one of them.
+     */
+    private static boolean isDomainNamePart(String s, int start, int end) {
+        return start < end && DOMAINNAME_PART_MATCHER.matcher(
+                s.subSequence(start, end)).matches();
+    }
     
     /** Reduce a hostname to a more readable form.
      *
@@ -148,4 +272,13 @@ public final class DomainUtils {
         String[] split = hostname.split("\\.", 2);
         return split[0];
     }
+
+    /** A node in the trie of TLDs. */
+    private static final class TldNode {
+        /** The nodes of the next TLD parts, by part. */
+        private final Map<String, TldNode> children
+                = new HashMap<String, TldNode>();
+        /** Whether the parts leading to this node form a TLD. */
+        private boolean isTld;
+    }
 }
@@ -29,6 +29,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -48,6 +51,12 @@ import dk.netarkivet.common.exceptions.UnknownID;
  * multiple files can be separated by {@link File#pathSeparator}, that is ':' on
  * linux and ';' on windows; or if that property is not set, the default
  * location is {@link #DEFAULT_SETTINGS_FILEPATH}.
+ *
+ * Values read from the xml files are remembered until the settings are
+ * changed by {@link #set}, {@link #reload()} or
+ * {@link #addDefaultClasspathSettings}, so repeated reads of a setting are
+ * map lookups. Classes that keep values derived from settings can register a
+ * {@link SettingsReloadListener} to be told when the settings are reloaded.
  */
 public class Settings {
 
@@ -64,6 +73,29 @@ public class Settings {
      * initialised through the method Collections.synchronizedList().
      */
     private static final List<SimpleXml> defaultClasspathSettingsXmlList;
+
+    /** Marks a key without a value in the remembered values. */
+    private static final String NO_VALUE = new String();
+    /** Marks a key without values in the remembered lists of values. */
+    private static final String[] NO_VALUES = new String[0];
+
+    /**
+     * The values read from the xml files by get(), by key. Replaced by an
+     * empty map whenever the xml data changes.
+     */
+    private static volatile ConcurrentMap<String, String> values
+            = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The values read from the xml files by getAll(), by key. Replaced by an
+     * empty map whenever the xml data changes.
+     */
+    private static volatile ConcurrentMap<String, String[]> lists
+            = new ConcurrentHashMap<String, String[]>();
+
+    /** The listeners told when the settings are reloaded. */
+    private static final List<SettingsReloadListener> reloadListeners
+            = new CopyOnWriteArrayList<SettingsReloadListener>();
     
     static {
     	// All static initialization in one place
@@ -149,7 +181,28 @@ public class Settings {
             return val;
         }
 
-        // Key not in System.properties try loaded data instead
+        // Key not in System.properties try the values read before
+        ConcurrentMap<String, String> knownValues = values;
+        val = knownValues.get(key);
+        if (val == null) {
+            val = readValue(key);
+            knownValues.put(key, val);
+        }
+        if (val == NO_VALUE) {
+            throw new UnknownID("No match for key '" + key + "' in settings");
+        }
+        return val;
+    }
+
+    /**
+     * Read a setting from the xml data, first from the loaded settings xml
+     * files and then from the default settings files from classpath.
+     *
+     * @param key name of the setting to retrieve
+     *
+     * @return the value, or NO_VALUE if no setting loaded matches key
+     */
+    private static String readValue(String key) {
         synchronized (fileSettingsXmlList) {
             for (SimpleXml settingsXml : fileSettingsXmlList) {
                 if (settingsXml.hasKey(key)) {
@@ -166,7 +219,7 @@ public class Settings {
                 }
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return NO_VALUE;
     }
 
     /**
@@ -303,6 +356,30 @@ public class Settings {
             log.debug("value for key found in property:" + val);
             return new String[]{val};
         }
+
+        // Key not in System.properties try the values read before
+        ConcurrentMap<String, String[]> knownLists = lists;
+        String[] result = knownLists.get(key);
+        if (result == null) {
+            result = readValues(key);
+            knownLists.put(key, result);
+        }
+        if (result == NO_VALUES) {
+            throw new UnknownID("No match for key '" + key + "' in settings");
+        }
+        return result.clone();
+    }
+
+    /**
+     * Read a list of settings from the xml data, first from the loaded
+     * settings xml files and then from the default settings files from
+     * classpath.
+     *
+     * @param key name of the setting to retrieve
+     *
+     * @return the values, or NO_VALUES if no setting loaded matches key
+     */
+    private static String[] readValues(String key) {
         if (fileSettingsXmlList.isEmpty()) {
             log.warn("The list of loaded data settings is empty."
                      + "Is this OK?");
@@ -334,7 +411,7 @@ public class Settings {
                 return result.toArray(new String[result.size()]);
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return NO_VALUES;
     }
 
     /**
@@ -364,6 +441,37 @@ public class Settings {
         } else {
             simpleXml.add(key, values);
         }
+        forgetValues();
+    }
+
+    /**
+     * Forget the values read from the xml data, after the data has changed.
+     */
+    private static void forgetValues() {
+        values = new ConcurrentHashMap<String, String>();
+        lists = new ConcurrentHashMap<String, String[]>();
+    }
+
+    /**
+     * Register a listener to be told whenever the settings are reloaded.
+     *
+     * @param listener The listener.
+     *
+     * @throws ArgumentNotValid if listener is null
+     */
+    public static void addReloadListener(SettingsReloadListener listener) {
+        ArgumentNotValid.checkNotNull(listener,
+                "SettingsReloadListener listener");
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener when the settings are reloaded.
+     *
+     * @param listener A listener registered with addReloadListener.
+     */
+    public static void removeReloadListener(SettingsReloadListener listener) {
+        reloadListeners.remove(listener);
     }
 
     /**
@@ -416,6 +524,15 @@ public class Settings {
             fileSettingsXmlList.clear();
             fileSettingsXmlList.addAll(simpleXmlList);
         }
+        forgetValues();
+        for (SettingsReloadListener listener : reloadListeners) {
+            try {
+                listener.settingsReloaded();
+            } catch (RuntimeException e) {
+                log.warn("Settings reload listener '" + listener
+                         + "' failed", e);
+            }
+        }
     }
 
     /**
@@ -433,6 +550,7 @@ public class Settings {
                 .getResourceAsStream(defaultClasspathSettingsPath);
         if (stream != null) {
             defaultClasspathSettingsXmlList.add(new SimpleXml(stream));
+            forgetValues();
         } else {
             log.warn("Unable to read the settings file represented by path: '"
                      + defaultClasspathSettingsPath + "'");
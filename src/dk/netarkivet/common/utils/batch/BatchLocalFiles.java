@@ -25,10 +25,25 @@
 
 package dk.netarkivet.common.utils.batch;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,12 +51,19 @@ import org.apache.commons.logging.LogFactory;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.BatchTermination;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 
 /**
  * Class for running FileBatchJobs on a set of local files. The constructor
  * takes an array of files to be processed and the run() method takes a
  * FileBatchJob and applies it to each file in turn.
+ *
+ * Jobs that are thread safe (see {@link FileBatchJob#isThreadSafe()}) are
+ * run on several threads, with a limited number of threads reading from
+ * each directory at a time. Each thread writes to its own temporary
+ * file, and the output is copied to the result in the order of the files.
  */
 public class BatchLocalFiles {
     /** The list of files to run batch jobs on. */
@@ -55,6 +77,10 @@ public class BatchLocalFiles {
     private long lastLoggingDate = 0;
     /** The time when the batchjob was started.*/
     private long startTime = 0;
+    /** The number of files looked at, used for logging. */
+    private final AtomicInteger fileCount = new AtomicInteger();
+    /** The size of the buffer used when copying output of parallel jobs. */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     /**
      * Given an array of files, constructs a BatchLocalFiles instance
@@ -86,43 +112,21 @@ public class BatchLocalFiles {
         // Initialise the job:
         job.noOfFilesProcessed = 0;
         job.filesFailed = new HashSet<File>();
+        fileCount.set(0);
         try {
             job.initialize(os);
-            // count the files (used for logging).
-            int fileCount = 0;
-            // the time in milliseconds between the status logging
-            long logInterval = Settings.getLong(
-                    CommonSettings.BATCH_LOGGING_INTERVAL);
             // get the time for starting the batchjob (used for logging).
             startTime = new Date().getTime();
-            //Process each file:
-            for (File file : files) {
-                fileCount++;
-                if (job.getFilenamePattern().matcher(file.getName())
-                        .matches()) {
-                    long currentTime = new Date().getTime();
-                    // perform logging if necessary.
-                    if(lastLoggingDate + logInterval < currentTime) {
-                        log.info("The batchjob '" + job.getClass() 
-                                + "' has run for " 
-                                + (currentTime-startTime)/1000 + " seconds and"
-                                + " has reached file '" + file.getName() 
-                                + "', which is number " + fileCount + " out of "
-                                + files.length);
-                        // set that we have just logged.
-                        lastLoggingDate = currentTime;
+            int maxThreads = Settings.getInt(CommonSettings.BATCH_MAX_THREADS);
+            if (job.isThreadSafe() && maxThreads > 1 && files.length > 1) {
+                runParallel(job, os, maxThreads);
+            } else {
+                //Process each file:
+                for (File file : files) {
+                    if (selectFile(job, file)) {
+                        processFile(job, file, os);
                     }
-                    processFile(job, file, os);
-                }
-                
-                // check whether the batchjob should stop. 
-                if(Thread.currentThread().isInterrupted()) {
-                    // log and throw an error (not exception, they are caught!)
-                    String errMsg = "The batchjob '" + job.toString() 
-                            + "' has been interrupted and will terminate!";
-                    log.warn(errMsg);
-                    // TODO make new exception to thrown instead.
-                    throw new BatchTermination(errMsg);
+                    checkInterrupted(job);
                 }
             }
         } catch (Exception e) {
@@ -153,6 +157,369 @@ public class BatchLocalFiles {
         }
     }
 
+    /**
+     * Check whether the job should process a file, and log the progress of
+     * the job if it is time to do so.
+     *
+     * @param job The job being run.
+     * @param file The next file in the list of files.
+     * @return true if the job should process the file.
+     */
+    private boolean selectFile(FileBatchJob job, File file) {
+        int number = fileCount.incrementAndGet();
+        if (!job.getFilenamePattern().matcher(file.getName()).matches()) {
+            return false;
+        }
+        long currentTime = new Date().getTime();
+        // the time in milliseconds between the status logging
+        long logInterval = Settings.getLong(
+                CommonSettings.BATCH_LOGGING_INTERVAL);
+        synchronized (this) {
+            // perform logging if necessary.
+            if(lastLoggingDate + logInterval < currentTime) {
+                log.info("The batchjob '" + job.getClass()
+                        + "' has run for "
+                        + (currentTime-startTime)/1000 + " seconds and"
+                        + " has reached file '" + file.getName()
+                        + "', which is number " + number + " out of "
+                        + files.length);
+                // set that we have just logged.
+                lastLoggingDate = currentTime;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the job by throwing BatchTermination, if the current thread has
+     * been interrupted.
+     *
+     * @param job The job being run.
+     * @throws BatchTermination if the current thread has been interrupted.
+     */
+    private void checkInterrupted(FileBatchJob job) throws BatchTermination {
+        // check whether the batchjob should stop.
+        if(Thread.currentThread().isInterrupted()) {
+            // log and throw an error (not exception, they are caught!)
+            String errMsg = "The batchjob '" + job.toString()
+                    + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            // TODO make new exception to thrown instead.
+            throw new BatchTermination(errMsg);
+        }
+    }
+
+    /**
+     * Run a thread safe job on the files using several threads. The files
+     * are grouped by directory, and at most
+     * {@link CommonSettings#BATCH_THREADS_PER_DEVICE} threads process files
+     * from the same directory. Each thread writes its output to its own
+     * temporary file, and afterwards the output of each file is copied to
+     * the OutputStream in the order of the files.
+     *
+     * @param job The job to run.
+     * @param os The OutputStream to which output data is written.
+     * @param maxThreads The maximum number of threads to use.
+     * @throws BatchTermination if the job is interrupted.
+     * @throws IOFailure if the output could not be written.
+     */
+    private void runParallel(final FileBatchJob job, OutputStream os,
+            int maxThreads) {
+        int threadsPerDevice = Math.max(1, Settings.getInt(
+                CommonSettings.BATCH_THREADS_PER_DEVICE));
+        // Group the files by directory, keeping their position in the list
+        Map<File, List<Integer>> devices
+                = new LinkedHashMap<File, List<Integer>>();
+        for (int i = 0; i < files.length; i++) {
+            File dir = files[i].getAbsoluteFile().getParentFile();
+            List<Integer> filesOnDevice = devices.get(dir);
+            if (filesOnDevice == null) {
+                filesOnDevice = new ArrayList<Integer>();
+                devices.put(dir, filesOnDevice);
+            }
+            filesOnDevice.add(i);
+        }
+        // Where the output of each file was written by the workers.
+        final int[] outputWorker = new int[files.length];
+        final long[] outputStart = new long[files.length];
+        final long[] outputEnd = new long[files.length];
+        List<OutputWorker> workers = new ArrayList<OutputWorker>();
+        // Start the workers of each device in turn, so all devices are used
+        // even if there are more devices than threads.
+        Map<File, AtomicInteger> nextFiles
+                = new LinkedHashMap<File, AtomicInteger>();
+        for (File dir : devices.keySet()) {
+            nextFiles.put(dir, new AtomicInteger());
+        }
+        for (int w = 0; w < threadsPerDevice; w++) {
+            for (Map.Entry<File, List<Integer>> device : devices.entrySet()) {
+                if (w < device.getValue().size()) {
+                    workers.add(new OutputWorker(workers.size(), job,
+                            device.getValue(), nextFiles.get(device.getKey()),
+                            outputWorker, outputStart, outputEnd));
+                }
+            }
+        }
+        FileUtils.createDir(FileUtils.getTempDir());
+        List<FileBatchJob.ExceptionOccurrence> jobExceptions = job.exceptions;
+        job.exceptions = Collections.synchronizedList(jobExceptions);
+        int threads = Math.min(maxThreads, workers.size());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        try {
+            log.debug("Running the batchjob '" + job.getClass() + "' on "
+                    + threads + " threads over " + devices.size()
+                    + " directories");
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (OutputWorker worker : workers) {
+                results.add(executor.submit(worker));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    checkInterrupted(job);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof BatchTermination) {
+                        throw (BatchTermination) e.getCause();
+                    }
+                    throw new IOFailure("Error running batchjob '"
+                            + job.getClass() + "'", e.getCause());
+                }
+            }
+            checkInterrupted(job);
+            mergeOutput(workers, outputWorker, outputStart, outputEnd, os);
+        } finally {
+            executor.shutdownNow();
+            // Wait for interrupted workers before removing their files.
+            // The interrupt flag of a terminated job must be cleared first,
+            // or the wait returns at once.
+            boolean interrupted = Thread.interrupted();
+            boolean terminated = false;
+            while (!terminated) {
+                try {
+                    terminated = executor.awaitTermination(Long.MAX_VALUE,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (OutputWorker worker : workers) {
+                worker.close();
+                if (worker.outputFile != null) {
+                    FileUtils.remove(worker.outputFile);
+                }
+            }
+            job.exceptions = jobExceptions;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Copy the output of the workers to the result, file by file in the
+     * order of the files.
+     *
+     * @param workers The workers that have processed the files.
+     * @param outputWorker The worker each file was processed by.
+     * @param outputStart Where the output of each file starts.
+     * @param outputEnd Where the output of each file ends.
+     * @param os The OutputStream to which output data is written.
+     * @throws IOFailure if the output could not be copied.
+     */
+    private void mergeOutput(List<OutputWorker> workers, int[] outputWorker,
+            long[] outputStart, long[] outputEnd, OutputStream os) {
+        List<RandomAccessFile> outputs = new ArrayList<RandomAccessFile>();
+        try {
+            for (OutputWorker worker : workers) {
+                worker.close();
+                if (worker.outputFile != null) {
+                    outputs.add(new RandomAccessFile(worker.outputFile, "r"));
+                } else {
+                    // Never started, so no file refers to this worker
+                    outputs.add(null);
+                }
+            }
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (int i = 0; i < files.length; i++) {
+                long remaining = outputEnd[i] - outputStart[i];
+                if (remaining <= 0) {
+                    continue;
+                }
+                RandomAccessFile output = outputs.get(outputWorker[i]);
+                output.seek(outputStart[i]);
+                while (remaining > 0) {
+                    int read = output.read(buffer, 0,
+                            (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOFailure("Output of file '" + files[i]
+                                + "' ended prematurely");
+                    }
+                    os.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Error merging the output of the batchjob",
+                    e);
+        } finally {
+            for (RandomAccessFile output : outputs) {
+                if (output == null) {
+                    continue;
+                }
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    log.debug("Error closing batch output", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the files of one directory that are not taken by other
+     * workers, writing the output to a temporary file.
+     */
+    private class OutputWorker implements Runnable {
+        /** The number of this worker. */
+        private final int number;
+        /** The job to run. */
+        private final FileBatchJob job;
+        /** The positions of the files in the directory of this worker. */
+        private final List<Integer> filesOnDevice;
+        /** The next file in filesOnDevice, shared by the workers of the
+         * directory. */
+        private final AtomicInteger next;
+        /** Where to note the worker that processed each file. */
+        private final int[] outputWorker;
+        /** Where to note the start of the output of each file. */
+        private final long[] outputStart;
+        /** Where to note the end of the output of each file. */
+        private final long[] outputEnd;
+        /** The file the output is written to, created when the worker
+         * starts. */
+        private File outputFile;
+        /** The stream to outputFile, created when the worker starts. */
+        private CountingOutputStream output;
+
+        /**
+         * Create a worker.
+         *
+         * @param number The number of this worker.
+         * @param job The job to run.
+         * @param filesOnDevice The positions of the files in a directory.
+         * @param next The next file in filesOnDevice, shared by the workers
+         * of the directory.
+         * @param outputWorker Where to note the worker of each file.
+         * @param outputStart Where to note the start of the output.
+         * @param outputEnd Where to note the end of the output.
+         */
+        OutputWorker(int number, FileBatchJob job,
+                List<Integer> filesOnDevice, AtomicInteger next,
+                int[] outputWorker, long[] outputStart, long[] outputEnd) {
+            this.number = number;
+            this.job = job;
+            this.filesOnDevice = filesOnDevice;
+            this.outputWorker = outputWorker;
+            this.outputStart = outputStart;
+            this.outputEnd = outputEnd;
+            this.next = next;
+        }
+
+        /**
+         * Process files until there are no more in the directory, or the
+         * thread is interrupted.
+         */
+        public void run() {
+            try {
+                outputFile = File.createTempFile("batch", ".out",
+                        FileUtils.getTempDir());
+                output = new CountingOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(outputFile)));
+            } catch (IOException e) {
+                throw new IOFailure("Unable to write to '" + outputFile + "'",
+                        e);
+            }
+            for (int i = next.getAndIncrement(); i < filesOnDevice.size();
+                    i = next.getAndIncrement()) {
+                int position = filesOnDevice.get(i);
+                File file = files[position];
+                if (selectFile(job, file)) {
+                    outputWorker[position] = number;
+                    outputStart[position] = output.getCount();
+                    processFile(job, file, output);
+                    outputEnd[position] = output.getCount();
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Close the output of this worker.
+         */
+        void close() {
+            if (output != null) {
+                try {
+                    output.close();
+                    output = null;
+                } catch (IOException e) {
+                    throw new IOFailure("Unable to write to '" + outputFile
+                            + "'", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * An OutputStream that counts the bytes written to it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        /** The stream written to. */
+        private final OutputStream out;
+        /** The number of bytes written. */
+        private long count;
+
+        /**
+         * Create a counting stream.
+         *
+         * @param out The stream to write to.
+         */
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        /** @return The number of bytes written. */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
     /** Process a single file.
      *
      * @param job The job that does the processing
@@ -173,9 +540,11 @@ public class BatchLocalFiles {
             log.warn("Exception while processing file " + file
                      + " with job " + job, e);
         }
-        job.noOfFilesProcessed++;
-        if (!success) {
-            job.filesFailed.add(file);
+        synchronized (job) {
+            job.noOfFilesProcessed++;
+            if (!success) {
+                job.filesFailed.add(file);
+            }
         }
     }
 }
\ No newline at end of file
@@ -104,6 +104,18 @@ public class ChecksumJob extends FileBatchJob {
     public void finish(OutputStream os) {
     }
 
+    /**
+     * Checksumming files doesn't change the job, so files can be checksummed
+     * in parallel. Subclasses must declare this themselves.
+     *
+     * @return true for this class, false for subclasses.
+     * @see FileBatchJob#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return getClass() == ChecksumJob.class;
+    }
+
     /** Create a line in checksum job format from a filename and a checksum.
      *
      * @param filename A filename (no path)
@@ -111,6 +111,20 @@ public abstract class FileBatchJob implements Serializable {
      */
     public abstract void finish(OutputStream os);
 
+    /**
+     * Whether processFile() may be called for several files at the same
+     * time, from different threads and with a separate OutputStream for
+     * each file. The output for each file is still written to the result
+     * in the order the files would otherwise have been processed.
+     * Jobs that return true must not change shared state in processFile(),
+     * except through addException().
+     *
+     * @return false, override to allow parallel processing.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
 
     /** Mark the job to process only the specified files.  This will
      * override any previous setting of which files to process.
@@ -40,6 +40,9 @@ import dk.netarkivet.common.exceptions.IOFailure;
 
 /** Performs a binary search through .cdx files for a given prefix string.
  * Currently only handles a single .cdx file.
+ *
+ * The search is done through a {@link CDXBlockIndex} of the file. Only if
+ * the file changes while being indexed, the file itself is binary searched.
  * */
 public class BinSearch {
     /** The logger. */
@@ -72,6 +75,10 @@ public class BinSearch {
      * matching the prefix in the file.
      */
     public static Iterable<String> getLinesInFile(File file, String prefix) {
+        CDXBlockIndex index = CDXBlockIndex.getIndex(file);
+        if (index != null) {
+            return index.getLinesWithPrefix(prefix);
+        }
         try {
             RandomAccessFile in = null;
             try {
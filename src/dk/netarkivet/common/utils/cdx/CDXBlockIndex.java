@@ -0,0 +1,755 @@
+/* File:     $Id$
+ * Revision: $Revision$
+ * Date:     $Date$
+ * Author:   $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A sparse index over a sorted CDX file, holding the key and byte offset of
+ * every {@link #LINES_PER_BLOCK}th line. A prefix lookup is then one binary
+ * search in memory followed by a sequential read of the file from the start
+ * of the right block, done through memory mapped windows and compared byte by
+ * byte with the prefix.
+ * <p>
+ * The key of a line is the line up to the first whitespace or control
+ * character, at most {@link #MAX_KEY_LENGTH} bytes. Lines are assumed to be
+ * sorted by unsigned byte values, as done by the Unix sort command with
+ * LC_ALL=C. Lines are decoded as ISO-8859-1, like
+ * {@link RandomAccessFile#readLine()} does.
+ * <p>
+ * The index is stored in a sidecar file, so the CDX file is only read once.
+ * For CDX files of at least {@link #minSidecarFileSize} bytes, the sidecar
+ * file is next to the CDX file, named like the CDX file with the suffix
+ * {@link #INDEX_SUFFIX}. The sidecars of smaller files, and of files in
+ * directories that cannot be written, are kept in the cache directory
+ * instead. The sidecar file records the length and modification time of the
+ * CDX file, and is rebuilt when these no longer match. An index is only
+ * built by one thread at a time.
+ */
+public class CDXBlockIndex {
+    /** The logger. */
+    private static final Log log =
+            LogFactory.getLog(CDXBlockIndex.class.getName());
+
+    /** The suffix of the sidecar index files. */
+    public static final String INDEX_SUFFIX = ".blockindex";
+    /** Number of lines between two index entries. */
+    static final int LINES_PER_BLOCK = 1024;
+    /** The maximal number of bytes in an index key. */
+    static final int MAX_KEY_LENGTH = 256;
+    /** Identifies the sidecar file format. */
+    private static final int FORMAT_VERSION = 1;
+    /** Size of the memory mapped windows used when reading the CDX file. */
+    private static final int WINDOW_SIZE = 1024 * 1024;
+    /** The size of the smallest CDX files which get a sidecar file next to
+     * them. Not final, so tests can lower it. */
+    private static long minSidecarFileSize = 64L * 1024L * 1024L;
+    /** Number of indexes kept in memory. */
+    private static final int MAX_CACHED_INDEXES = 100;
+    /** The name of the directory in the cache directory holding the sidecar
+     * files that cannot be kept next to their CDX files. */
+    private static final String CACHE_NAME = "cdxindex";
+
+    /** The indexes used recently, by canonical CDX file. */
+    private static final Map<File, CDXBlockIndex> indexes =
+            new LinkedHashMap<File, CDXBlockIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<File, CDXBlockIndex> eldest) {
+                    return size() > MAX_CACHED_INDEXES;
+                }
+            };
+    /** The locks of the indexes being read or built, by canonical CDX file.
+     * Guarded by indexes. */
+    private static final Map<File, Object> buildLocks =
+            new HashMap<File, Object>();
+
+    /** The indexed CDX file. */
+    private final File file;
+    /** The length of the CDX file when indexed. */
+    private final long fileLength;
+    /** The modification time of the CDX file when indexed. */
+    private final long lastModified;
+    /** The offset of the first line of each block. */
+    private final long[] offsets;
+    /** The key of the first line of each block. */
+    private final byte[][] keys;
+
+    /**
+     * Create an index from its contents.
+     *
+     * @param file The indexed file.
+     * @param fileLength The length of the file when indexed.
+     * @param lastModified The modification time of the file when indexed.
+     * @param offsets Offsets of the first line of each block.
+     * @param keys Keys of the first line of each block.
+     */
+    private CDXBlockIndex(File file, long fileLength, long lastModified,
+                          long[] offsets, byte[][] keys) {
+        this.file = file;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.offsets = offsets;
+        this.keys = keys;
+    }
+
+    /**
+     * Get the index for a sorted CDX file. The index is taken from memory,
+     * read from the sidecar file, or built by reading the CDX file once, in
+     * that order of preference. Threads getting the index of the same file
+     * at the same time wait for the one reading or building it.
+     *
+     * @param cdxFile A sorted CDX file.
+     * @return The index of the file, or null if the file changed while being
+     * indexed.
+     * @throws ArgumentNotValid If cdxFile is null.
+     * @throws IOFailure If the CDX file cannot be read.
+     */
+    public static CDXBlockIndex getIndex(File cdxFile) {
+        ArgumentNotValid.checkNotNull(cdxFile, "File cdxFile");
+        File key;
+        try {
+            key = cdxFile.getCanonicalFile();
+        } catch (IOException e) {
+            throw new IOFailure("Could not resolve '" + cdxFile + "'", e);
+        }
+        Object lock;
+        synchronized (indexes) {
+            CDXBlockIndex index = getCurrentIndex(key);
+            if (index != null) {
+                return index;
+            }
+            lock = buildLocks.get(key);
+            if (lock == null) {
+                lock = new Object();
+                buildLocks.put(key, lock);
+            }
+        }
+        try {
+            synchronized (lock) {
+                synchronized (indexes) {
+                    CDXBlockIndex index = getCurrentIndex(key);
+                    if (index != null) {
+                        return index;
+                    }
+                }
+                CDXBlockIndex index = readSidecar(key);
+                if (index == null) {
+                    index = build(key);
+                    if (index == null) {
+                        return null;
+                    }
+                    writeSidecar(index);
+                }
+                synchronized (indexes) {
+                    indexes.put(key, index);
+                }
+                return index;
+            }
+        } finally {
+            synchronized (indexes) {
+                if (buildLocks.get(key) == lock) {
+                    buildLocks.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the index of a file from memory, if it is up to date. Must be
+     * called with the lock on indexes held.
+     *
+     * @param key The canonical CDX file.
+     * @return The index, or null if there is no up-to-date index in memory.
+     */
+    private static CDXBlockIndex getCurrentIndex(File key) {
+        CDXBlockIndex index = indexes.get(key);
+        if (index != null && index.isCurrent()) {
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the indexed file has not changed since indexing.
+     */
+    private boolean isCurrent() {
+        return file.length() == fileLength
+               && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Get the sidecar file next to a CDX file.
+     *
+     * @param cdxFile A CDX file.
+     * @return The file the index of cdxFile is stored in, if it is stored
+     * next to it.
+     */
+    static File getSidecarFile(File cdxFile) {
+        return new File(cdxFile.getParentFile(),
+                        cdxFile.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Get the sidecar file of a CDX file in the cache directory. The name
+     * includes a checksum of the path of the CDX file, so files with the
+     * same name in different directories get different sidecar files.
+     *
+     * @param cdxFile A canonical CDX file.
+     * @return The file the index of cdxFile is stored in, if it is stored
+     * in the cache directory.
+     */
+    static File getCachedSidecarFile(File cdxFile) {
+        File dir = new File(Settings.get(CommonSettings.CACHE_DIR),
+                            CACHE_NAME);
+        String checksum;
+        try {
+            checksum = ChecksumCalculator.calculateMd5(
+                    cdxFile.getPath().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IOFailure("UTF-8 is not supported", e);
+        }
+        return new File(dir, cdxFile.getName() + "-" + checksum
+                             + INDEX_SUFFIX);
+    }
+
+    /**
+     * Get the sidecar files an index of a CDX file may be stored in, in
+     * order of preference.
+     *
+     * @param cdxFile A canonical CDX file.
+     * @return The sidecar files.
+     */
+    private static File[] getSidecarFiles(File cdxFile) {
+        if (cdxFile.length() >= minSidecarFileSize) {
+            return new File[] {getSidecarFile(cdxFile),
+                               getCachedSidecarFile(cdxFile)};
+        } else {
+            return new File[] {getCachedSidecarFile(cdxFile)};
+        }
+    }
+
+    /**
+     * Read the index of a file from its sidecar file.
+     *
+     * @param cdxFile The CDX file.
+     * @return The index, or null if there is no up-to-date sidecar file.
+     */
+    private static CDXBlockIndex readSidecar(File cdxFile) {
+        for (File sidecar : getSidecarFiles(cdxFile)) {
+            CDXBlockIndex index = readSidecar(cdxFile, sidecar);
+            if (index != null) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the index of a file from a sidecar file.
+     *
+     * @param cdxFile The CDX file.
+     * @param sidecar The sidecar file.
+     * @return The index, or null if the sidecar file does not exist or is
+     * not up to date.
+     */
+    private static CDXBlockIndex readSidecar(File cdxFile, File sidecar) {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sidecar)));
+            try {
+                if (in.readInt() != FORMAT_VERSION
+                    || in.readLong() != cdxFile.length()
+                    || in.readLong() != cdxFile.lastModified()) {
+                    log.debug("Ignoring outdated index '" + sidecar + "'");
+                    return null;
+                }
+                int count = in.readInt();
+                long[] offsets = new long[count];
+                byte[][] keys = new byte[count][];
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = in.readLong();
+                    keys[i] = new byte[in.readUnsignedShort()];
+                    in.readFully(keys[i]);
+                }
+                return new CDXBlockIndex(cdxFile, cdxFile.length(),
+                                         cdxFile.lastModified(),
+                                         offsets, keys);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Could not read index '" + sidecar + "', rebuilding", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write an index to the first sidecar file of the indexed file that can
+     * be written. Failures are logged, since the index can still be used from
+     * memory.
+     *
+     * @param index The index to write.
+     */
+    private static void writeSidecar(CDXBlockIndex index) {
+        for (File sidecar : getSidecarFiles(index.file)) {
+            if (writeSidecar(index, sidecar)) {
+                return;
+            }
+        }
+        log.warn("Could not store the index of '" + index.file
+                 + "', keeping it in memory only");
+    }
+
+    /**
+     * Write an index to a sidecar file.
+     *
+     * @param index The index to write.
+     * @param sidecar The sidecar file.
+     * @return true if the index was written.
+     */
+    private static boolean writeSidecar(CDXBlockIndex index, File sidecar) {
+        File tmpFile = new File(sidecar.getParentFile(),
+                                sidecar.getName() + ".tmp");
+        try {
+            FileUtils.createDir(sidecar.getParentFile());
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(index.fileLength);
+                out.writeLong(index.lastModified);
+                out.writeInt(index.offsets.length);
+                for (int i = 0; i < index.offsets.length; i++) {
+                    out.writeLong(index.offsets[i]);
+                    out.writeShort(index.keys[i].length);
+                    out.write(index.keys[i]);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(sidecar)) {
+                sidecar.delete();
+                if (!tmpFile.renameTo(sidecar)) {
+                    log.debug("Could not move index to '" + sidecar + "'");
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.debug("Could not write index '" + sidecar + "'", e);
+            return false;
+        } catch (PermissionDenied e) {
+            log.debug("Could not write index '" + sidecar + "'", e);
+            return false;
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Build the index of a file by reading it once.
+     *
+     * @param cdxFile The file to index.
+     * @return The index, or null if the file changed while being indexed.
+     * @throws IOFailure If the file cannot be read.
+     */
+    private static CDXBlockIndex build(File cdxFile) {
+        long length = cdxFile.length();
+        long lastModified = cdxFile.lastModified();
+        List<Long> offsets = new ArrayList<Long>();
+        List<byte[]> keys = new ArrayList<byte[]>();
+        try {
+            InputStream in = new FileInputStream(cdxFile);
+            try {
+                byte[] buffer = new byte[WINDOW_SIZE];
+                byte[] key = new byte[MAX_KEY_LENGTH];
+                int keyLength = 0;
+                boolean inKey = true;
+                boolean atLineStart = true;
+                long lineNumber = 0;
+                long pos = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    for (int i = 0; i < read; i++, pos++) {
+                        byte b = buffer[i];
+                        if (atLineStart) {
+                            atLineStart = false;
+                            inKey = lineNumber % LINES_PER_BLOCK == 0;
+                            if (inKey) {
+                                offsets.add(pos);
+                                keyLength = 0;
+                            }
+                        }
+                        if (b == '\n') {
+                            if (inKey) {
+                                keys.add(Arrays.copyOf(key, keyLength));
+                                inKey = false;
+                            }
+                            atLineStart = true;
+                            lineNumber++;
+                        } else if (inKey) {
+                            if ((b & 0xff) > ' ' && keyLength < MAX_KEY_LENGTH) {
+                                key[keyLength++] = b;
+                            } else {
+                                keys.add(Arrays.copyOf(key, keyLength));
+                                inKey = false;
+                            }
+                        }
+                    }
+                }
+                if (inKey) {
+                    // Last line without newline
+                    keys.add(Arrays.copyOf(key, keyLength));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            String message = "IOException reading file '" + cdxFile + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        if (cdxFile.length() != length
+            || cdxFile.lastModified() != lastModified) {
+            log.debug("'" + cdxFile + "' changed while being indexed");
+            return null;
+        }
+        long[] offsetArray = new long[offsets.size()];
+        for (int i = 0; i < offsetArray.length; i++) {
+            offsetArray[i] = offsets.get(i);
+        }
+        log.debug("Indexed '" + cdxFile + "' with " + offsetArray.length
+                  + " blocks");
+        return new CDXBlockIndex(cdxFile, length, lastModified, offsetArray,
+                                 keys.toArray(new byte[keys.size()][]));
+    }
+
+    /**
+     * Compare two byte arrays as unsigned bytes, where a proper prefix is
+     * smaller than the longer array.
+     *
+     * @param a The first array.
+     * @param b The second array.
+     * @return A negative number, zero or a positive number as a is less
+     * than, equal to, or greater than b.
+     */
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * @param key A key.
+     * @param prefix A prefix.
+     * @return true if the key is a prefix of the given prefix.
+     */
+    private static boolean isPrefixOf(byte[] key, byte[] prefix) {
+        if (key.length > prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the offset to start reading from when looking for lines starting
+     * with a prefix. This is the start of the last block whose first line is
+     * known to sort before all lines with the prefix. A key that is a prefix
+     * of the wanted prefix doesn't tell whether the line it was taken from
+     * sorts before or after the wanted lines, so such blocks are skipped.
+     *
+     * @param prefix The prefix to search for.
+     * @return The offset of a line not later than the first matching line.
+     */
+    long getStartOffset(byte[] prefix) {
+        int low = 0;
+        int high = keys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareBytes(keys[mid], prefix) < 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        while (found >= 0 && isPrefixOf(keys[found], prefix)) {
+            found--;
+        }
+        return found < 0 ? 0 : offsets[found];
+    }
+
+    /**
+     * Get the lines in the indexed file starting with a prefix.
+     *
+     * @param prefix The prefix, which is encoded as ISO-8859-1.
+     * @return The lines starting with the prefix in file order, read lazily.
+     */
+    public Iterable<String> getLinesWithPrefix(String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        final byte[] prefixBytes;
+        try {
+            prefixBytes = prefix.getBytes("ISO-8859-1");
+        } catch (IOException e) {
+            throw new IOFailure("ISO-8859-1 not supported", e);
+        }
+        final long start = getStartOffset(prefixBytes);
+        return new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return new PrefixIterator(prefixBytes, start);
+            }
+        };
+    }
+
+    /**
+     * Iterates over the lines starting with a prefix, reading the file
+     * through memory mapped windows. Lines before the matching lines are
+     * skipped, and iteration stops at the first line after them. The file is
+     * only kept open while mapping a window.
+     */
+    private class PrefixIterator implements Iterator<String> {
+        /** The prefix of all returned lines. */
+        private final byte[] prefix;
+        /** The current window of the file. */
+        private MappedByteBuffer window;
+        /** The file offset of the start of the window. */
+        private long windowStart;
+        /** The position in the window of the next line to read. */
+        private int lineStart;
+        /** The next matching line, if read. */
+        private String nextLine;
+        /** Whether a line after the matching lines has been seen. */
+        private boolean finished;
+
+        /**
+         * Create an iterator.
+         *
+         * @param prefix The prefix of all lines returned.
+         * @param start The offset to start reading from.
+         */
+        PrefixIterator(byte[] prefix, long start) {
+            this.prefix = prefix;
+            this.windowStart = start;
+            this.finished = start >= fileLength;
+        }
+
+        /**
+         * Check whether there is a next matching line, reading it if
+         * necessary.
+         *
+         * @return True if there is a next line.
+         * @throws IOFailure If the file cannot be read.
+         */
+        public boolean hasNext() {
+            while (nextLine == null && !finished) {
+                int lineEnd = findLineEnd();
+                if (lineEnd < 0) {
+                    // No more lines
+                    finished = true;
+                    break;
+                }
+                int cmp = comparePrefix(lineStart, lineEnd);
+                if (cmp == 0) {
+                    nextLine = decode(lineStart, lineEnd);
+                } else if (cmp > 0) {
+                    finished = true;
+                }
+                lineStart = lineEnd + 1;
+            }
+            if (finished) {
+                window = null;
+            }
+            return nextLine != null;
+        }
+
+        /**
+         * Find the end of the line starting at lineStart in the window,
+         * mapping a new window starting with the line if the line isn't
+         * contained in the current one.
+         *
+         * @return The position of the newline ending the line or the end of
+         * the file, or -1 if there are no more lines.
+         */
+        private int findLineEnd() {
+            int size = WINDOW_SIZE;
+            while (true) {
+                if (window != null) {
+                    for (int i = lineStart; i < window.limit(); i++) {
+                        if (window.get(i) == '\n') {
+                            return i;
+                        }
+                    }
+                    if (windowStart + window.limit() >= fileLength) {
+                        // The last line has no newline
+                        return lineStart < window.limit()
+                               ? window.limit() : -1;
+                    }
+                    if (lineStart == 0) {
+                        // Line longer than the window
+                        size = window.limit() * 2;
+                    }
+                }
+                windowStart += window == null ? 0 : lineStart;
+                lineStart = 0;
+                if (windowStart >= fileLength) {
+                    return -1;
+                }
+                window = map(windowStart,
+                             (int) Math.min(size, fileLength - windowStart));
+            }
+        }
+
+        /**
+         * Map a part of the file.
+         *
+         * @param position The file offset to map from.
+         * @param size The number of bytes to map.
+         * @return The mapped window.
+         * @throws IOFailure If the file cannot be mapped.
+         */
+        private MappedByteBuffer map(long position, int size) {
+            try {
+                RandomAccessFile in = new RandomAccessFile(file, "r");
+                try {
+                    return in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                               position, size);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                String message = "IOException reading file '" + file + "'";
+                log.warn(message, e);
+                throw new IOFailure(message, e);
+            }
+        }
+
+        /**
+         * Compare the start of a line to the prefix.
+         *
+         * @param start The start of the line in the window.
+         * @param end The end of the line in the window.
+         * @return A result equivalent to String.compareTo, but only for the
+         * prefix.
+         */
+        private int comparePrefix(int start, int end) {
+            int length = Math.min(prefix.length, end - start);
+            for (int i = 0; i < length; i++) {
+                int diff = (window.get(start + i) & 0xff)
+                           - (prefix[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - prefix.length;
+        }
+
+        /**
+         * Decode a line as ISO-8859-1, leaving out a trailing carriage
+         * return.
+         *
+         * @param start The start of the line in the window.
+         * @param end The end of the line in the window.
+         * @return The line.
+         */
+        private String decode(int start, int end) {
+            if (end > start && window.get(end - 1) == '\r') {
+                end--;
+            }
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (window.get(start + i) & 0xff);
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Return the next matching line.
+         *
+         * @return Next line.
+         * @throws NoSuchElementException If there are no more lines.
+         */
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = nextLine;
+            nextLine = null;
+            return line;
+        }
+
+        /** This iterator doesn't support remove.
+         * @throws UnsupportedOperationException*/
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -28,7 +28,9 @@ package dk.netarkivet.common.utils.cdx;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -113,8 +115,6 @@ public class CDXUtils {
                                        + archiveFileDirectory
                                        + "' is not a writable directory");
         }
-        Map<File, Exception> exceptions
-                = new HashMap<File, Exception>();
         File[] filesToProcess = archiveFileDirectory.listFiles(
                 archiveProfile.filename_filter);
         if (filesToProcess.length == 0) {
@@ -125,7 +125,36 @@ public class CDXUtils {
                     + " related arcfiles to process in the archive dir '" 
                     + archiveFileDirectory.getAbsolutePath() + "'.");
         } 
-        for (File arcfile : filesToProcess) {
+        generateCDX(Arrays.asList(filesToProcess), cdxFileDirectory);
+    }
+
+    /**
+     * Applies createCDXRecord() to the given ARC/WARC files, creating one CDX
+     * file per ARC/WARC file.
+     * Note, any exceptions during index generation are logged at level FINE
+     * but otherwise ignored.
+     * Exceptions creating any cdx file are logged at level WARNING but
+     * otherwise ignored.
+     * CDX files are named as the ARC/WARC files with ".cdx" appended.
+     *
+     * @param archiveFiles The archive files to generate index for
+     * @param cdxFileDirectory A directory to generate CDX files in
+     * @throws ArgumentNotValid if any argument is null, or if
+     * cdxFileDirectory is not an existing, writable directory.
+     */
+    public static void generateCDX(List<File> archiveFiles,
+            File cdxFileDirectory) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(archiveFiles, "List<File> archiveFiles");
+        ArgumentNotValid.checkNotNull(cdxFileDirectory,
+                                      "File cdxFileDirectory");
+        if (!cdxFileDirectory.isDirectory() || !cdxFileDirectory.canWrite()) {
+            throw new ArgumentNotValid("The directory for cdx files '"
+                                       + cdxFileDirectory
+                                       + "' is not a writable directory");
+        }
+        Map<File, Exception> exceptions
+                = new HashMap<File, Exception>();
+        for (File arcfile : archiveFiles) {
             File cdxfile = new File(cdxFileDirectory, arcfile.getName()
                     + FileUtils.CDX_EXTENSION);
             try {
@@ -301,6 +301,34 @@ public class HarvesterSettings {
     public static String HARVEST_CONTROLLER_OLDJOBSDIR
             = "settings.harvester.harvesting.oldjobsDir";
 
+    /**
+     * <b>settings.harvester.harvesting.uploadWindow</b>: <br> The maximum
+     * number of ARC/WARC files from a job being uploaded to the archive at
+     * the same time. The default is 4.
+     */
+    public static String HARVEST_CONTROLLER_UPLOAD_WINDOW
+            = "settings.harvester.harvesting.uploadWindow";
+
+    /**
+     * <b>settings.harvester.harvesting.postProcessing.threads</b>: <br> The
+     * number of threads post-processing finished crawls, i.e. generating
+     * CDX and metadata and uploading the files. The default is 1.
+     */
+    public static String HARVEST_CONTROLLER_POSTPROCESSING_THREADS
+            = "settings.harvester.harvesting.postProcessing.threads";
+
+    /**
+     * <b>settings.harvester.harvesting.postProcessing.maxPendingJobs</b>:
+     * <br> The maximum number of finished crawls waiting for or undergoing
+     * post-processing while the harvester takes a new job. The crawl
+     * directories of these jobs stay on disk until they are uploaded, so
+     * with a higher value the serverDir must have room for more jobs. With
+     * 0 the harvester waits for the post-processing of a job before taking
+     * the next. The default is 1.
+     */
+    public static String HARVEST_CONTROLLER_POSTPROCESSING_MAX_PENDING_JOBS
+            = "settings.harvester.harvesting.postProcessing.maxPendingJobs";
+
     /**
      * <b>settings.harvester.harvesting.channel</b>: <br> Harvest channel to take
      * jobs from. This is the default channel assigned to the harvest controller.
@@ -815,6 +843,24 @@ public class HarvesterSettings {
     public static String INDEXSERVER_INDEXING_LOOKFORDATAINOTHERBITARCHIVEREPLICAS
         = "settings.harvester.indexserver.lookfordataInAllBitarchiveReplicas";
 
+    /**
+     * <b>settings.harvester.indexserver.metadatajobsperbatch</b>: <br>
+     * Setting for how many jobs the metadata is fetched for by each batch
+     * job, when the metadata of several jobs is needed for an index.
+     * The default is 100.
+     */
+    public static String INDEXSERVER_INDEXING_METADATA_JOBS_PER_BATCH
+        = "settings.harvester.indexserver.metadatajobsperbatch";
+
+    /**
+     * <b>settings.harvester.indexserver.metadatabatchthreads</b>: <br>
+     * Setting for how many of the batch jobs fetching the metadata of
+     * several jobs are run at a time.
+     * The default is 4.
+     */
+    public static String INDEXSERVER_INDEXING_METADATA_BATCH_THREADS
+        = "settings.harvester.indexserver.metadatabatchthreads";
+
     
     /***************************/
     /* Viewerproxy - settings. */
@@ -843,10 +889,40 @@ public class HarvesterSettings {
      */
     public static String MAXIMUM_OBJECT_IN_BROWSER = "settings.harvester.viewerproxy.maxSizeInBrowser";
 
+    /**
+     * <b>settings.harvester.viewerproxy.recordCacheSize</b>: <br>
+     * The maximum number of bytes of archive records kept in memory by the
+     * ViewerProxy. When an HTML page is shown, the records of the pages and
+     * embedded objects it links to are fetched into this cache, so they are
+     * ready when the browser asks for them. The records used least recently
+     * are removed from the cache when it grows larger. If 0, no records are
+     * cached or fetched in advance. The default is 50000000.
+     */
+    public static String VIEWERPROXY_RECORD_CACHE_SIZE
+        = "settings.harvester.viewerproxy.recordCacheSize";
+
+    /**
+     * <b>settings.harvester.viewerproxy.prefetchThreads</b>: <br>
+     * The number of archive records the ViewerProxy fetches at the same time
+     * for its record cache. The default is 10.
+     */
+    public static String VIEWERPROXY_PREFETCH_THREADS
+        = "settings.harvester.viewerproxy.prefetchThreads";
+
     /**
      * The maximum length (in lines) of crawllog to be displayed in a browser window.
      */
     public static String MAX_CRAWLLOG_IN_BROWSER = "settings.harvester.webinterface.maxCrawlLogInBrowser";
+
+    /**
+     * <b>settings.harvester.webinterface.qaCacheSize</b>: <br>
+     * The maximum number of bytes used for caching the file lists, metadata
+     * CDX and crawl logs of jobs shown by the QA pages. The jobs used least
+     * recently are removed from the cache when it grows larger.
+     * The cache is kept in a subdirectory of settings.common.cacheDir.
+     * The default is 1000000000.
+     */
+    public static String QA_CACHE_SIZE = "settings.harvester.webinterface.qaCacheSize";
     
 }
 
@@ -197,6 +197,20 @@ public abstract class DomainDAO implements Iterable<Domain> {
      */
     public abstract Iterator<Domain> getAllDomainsInSnapshotHarvestOrder();
 
+    /**
+     * Gets the default configurations of all domains that are not aliases,
+     * in the order expected by snapshot harvest job generation, that is
+     * ordered by template name, then byte limit (descending), then domain
+     * name. The configurations are read a number at a time while iterating,
+     * without reading the domains, and only have what is needed for
+     * harvesting them.
+     *
+     * @return Iterator of the default configurations of all domains that
+     * are not aliases
+     */
+    public abstract Iterator<DomainConfiguration>
+            getDefaultConfigurationsInSnapshotHarvestOrder();
+
     /**
      * Reset the singleton.  Only for use in tests!
      * TODO remove this, no test methods in business classes!
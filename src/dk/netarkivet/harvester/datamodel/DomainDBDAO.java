@@ -39,9 +39,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -78,6 +80,12 @@ public class DomainDBDAO extends DomainDAO {
     /** The log. */
     private static final Log log = LogFactory.getLog(DomainDBDAO.class);
 
+    /**
+     * The number of domain configurations read with each set of queries
+     * when reading the configurations for a snapshot harvest.
+     */
+    private static final int CONFIGURATIONS_READ_AT_A_TIME = 1000;
+
     /**
      * Creates a database-based implementation of the DomainDAO. Will check that
      * all schemas have correct versions, and update the ones that haven't.
@@ -1337,6 +1345,267 @@ public class DomainDBDAO extends DomainDAO {
         }
     }
 
+    @Override
+    public Iterator<DomainConfiguration>
+            getDefaultConfigurationsInSnapshotHarvestOrder() {
+        final List<Long> configIds = new ArrayList<Long>();
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            // Note: maxbytes are ordered with largest first for symmetry
+            // with HarvestDefinition.CompareConfigDesc
+            s = c.prepareStatement("SELECT configurations.config_id,"
+                    + " domains.name,"
+                    + " (SELECT name FROM domains AS aliasdomains"
+                    + "  WHERE aliasdomains.domain_id = domains.alias),"
+                    + " domains.lastaliasupdate"
+                    + " FROM domains, configurations, ordertemplates"
+                    + " WHERE domains.defaultconfig=configurations.config_id"
+                    + " AND configurations.template_id"
+                    + "=ordertemplates.template_id"
+                    + " ORDER BY" + " ordertemplates.name,"
+                    + " configurations.maxbytes DESC," + " domains.name");
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                String alias = res.getString(3);
+                if (alias == null
+                    || new AliasInfo(res.getString(2), alias,
+                            DBUtils.getDateMaybeNull(res, 4)).isExpired()) {
+                    configIds.add(res.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOFailure("SQL Error while reading the snapshot "
+                    + "harvest configurations\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(c);
+        }
+        log.debug("Found " + configIds.size() + " default configurations "
+                + "for snapshot harvesting");
+
+        return new Iterator<DomainConfiguration>() {
+            /** The index in configIds of the next configuration to read. */
+            private int nextToRead = 0;
+            /** The configurations read, but not yet returned. */
+            private Iterator<DomainConfiguration> configs =
+                    Collections.<DomainConfiguration>emptyList().iterator();
+
+            public boolean hasNext() {
+                while (!configs.hasNext() && nextToRead < configIds.size()) {
+                    int end = Math.min(configIds.size(),
+                            nextToRead + CONFIGURATIONS_READ_AT_A_TIME);
+                    configs = readDomainConfigurations(
+                            configIds.subList(nextToRead, end)).iterator();
+                    nextToRead = end;
+                }
+                return configs.hasNext();
+            }
+
+            public DomainConfiguration next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException(
+                            "No more configurations");
+                }
+                return configs.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException(
+                        "Configurations cannot be removed");
+            }
+        };
+    }
+
+    /**
+     * Read a number of domain configurations with a fixed number of
+     * queries, rather than reading the domains of the configurations.
+     * The configurations only have the seedlists, passwords, crawlertraps
+     * and history used for harvesting them, and the history only contains
+     * the harvests of the configurations themselves.
+     *
+     * @param configIds The IDs of the configurations to read.
+     * @return The configurations in the order of the IDs. Configurations
+     * that no longer exist are left out.
+     * @throws IOFailure if the configurations cannot be read.
+     */
+    private List<DomainConfiguration> readDomainConfigurations(
+            List<Long> configIds) {
+        String ids = StringUtils.conjoin(",", configIds);
+        Map<Long, List<SeedList>> seedlists =
+                new HashMap<Long, List<SeedList>>();
+        Map<Long, List<Password>> passwords =
+                new HashMap<Long, List<Password>>();
+        Map<Long, DomainHistory> histories = new HashMap<Long, DomainHistory>();
+        Map<Long, DomainConfiguration> configs =
+                new HashMap<Long, DomainConfiguration>();
+        Connection c = HarvestDBConnection.get();
+        Statement s = null;
+        try {
+            s = c.createStatement();
+            ResultSet res = s.executeQuery(
+                    "SELECT seedlists.seedlist_id, seedlists.name,"
+                    + " seedlists.comments, seedlists.seeds,"
+                    + " config_seedlists.config_id"
+                    + " FROM seedlists, config_seedlists"
+                    + " WHERE config_seedlists.config_id IN (" + ids + ")"
+                    + " AND config_seedlists.seedlist_id"
+                    + " = seedlists.seedlist_id");
+            while (res.next()) {
+                Long configId = res.getLong(5);
+                if (!seedlists.containsKey(configId)) {
+                    seedlists.put(configId, new ArrayList<SeedList>());
+                }
+                seedlists.get(configId).add(getSeedListFromResultset(res));
+            }
+
+            res = s.executeQuery("SELECT passwords.password_id,"
+                    + " passwords.name, passwords.comments, passwords.url,"
+                    + " passwords.realm, passwords.username,"
+                    + " passwords.password, config_passwords.config_id"
+                    + " FROM passwords, config_passwords"
+                    + " WHERE config_passwords.config_id IN (" + ids + ")"
+                    + " AND config_passwords.password_id"
+                    + " = passwords.password_id");
+            while (res.next()) {
+                Long configId = res.getLong(8);
+                final Password pwd = new Password(res.getString(2),
+                        res.getString(3), res.getString(4), res.getString(5),
+                        res.getString(6), res.getString(7));
+                pwd.setID(res.getLong(1));
+                if (!passwords.containsKey(configId)) {
+                    passwords.put(configId, new ArrayList<Password>());
+                }
+                passwords.get(configId).add(pwd);
+            }
+
+            res = s.executeQuery("SELECT historyinfo.historyinfo_id,"
+                    + " historyinfo.stopreason, historyinfo.objectcount,"
+                    + " historyinfo.bytecount, configurations.name,"
+                    + " historyinfo.job_id, historyinfo.harvest_id,"
+                    + " historyinfo.harvest_time, domains.name,"
+                    + " historyinfo.config_id"
+                    + " FROM historyinfo, configurations, domains"
+                    + " WHERE historyinfo.config_id IN (" + ids + ")"
+                    + " AND historyinfo.config_id = configurations.config_id"
+                    + " AND configurations.domain_id = domains.domain_id");
+            while (res.next()) {
+                Long configId = res.getLong(10);
+                if (!histories.containsKey(configId)) {
+                    histories.put(configId, new DomainHistory());
+                }
+                histories.get(configId).addHarvestInfo(
+                        getHarvestInfoFromResultset(res, res.getString(9)));
+            }
+
+            res = s.executeQuery("SELECT configurations.config_id,"
+                    + " configurations.name, configurations.comments,"
+                    + " ordertemplates.name, configurations.maxobjects,"
+                    + " configurations.maxrate, configurations.maxbytes,"
+                    + " domains.name, domains.crawlertraps"
+                    + " FROM configurations, ordertemplates, domains"
+                    + " WHERE configurations.config_id IN (" + ids + ")"
+                    + " AND configurations.template_id"
+                    + " = ordertemplates.template_id"
+                    + " AND configurations.domain_id = domains.domain_id");
+            while (res.next()) {
+                Long configId = res.getLong(1);
+                String configName = res.getString(2);
+                String domainName = res.getString(8);
+                if (!seedlists.containsKey(configId)) {
+                    String message = "Configuration " + configName
+                            + " of domain '" + domainName
+                            + "' has no seedlists";
+                    log.warn(message);
+                    throw new IOFailure(message);
+                }
+                DomainHistory history = histories.get(configId);
+                List<Password> configPasswords = passwords.get(configId);
+                DomainConfiguration dc = new DomainConfiguration(configName,
+                        domainName,
+                        history == null ? new DomainHistory() : history,
+                        getCrawlertrapsFromString(res.getString(9)),
+                        seedlists.get(configId),
+                        configPasswords == null ? new ArrayList<Password>()
+                                : configPasswords);
+                dc.setOrderXmlName(res.getString(4));
+                dc.setMaxObjects(res.getLong(5));
+                dc.setMaxRequestRate(res.getInt(6));
+                dc.setComments(res.getString(3));
+                dc.setMaxBytes(res.getLong(7));
+                dc.setID(configId);
+                configs.put(configId, dc);
+            }
+        } catch (SQLException e) {
+            throw new IOFailure("SQL Error while reading domain "
+                    + "configurations\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(c);
+        }
+
+        List<DomainConfiguration> result =
+                new ArrayList<DomainConfiguration>(configIds.size());
+        for (Long configId : configIds) {
+            DomainConfiguration dc = configs.get(configId);
+            if (dc != null) {
+                result.add(dc);
+            } else {
+                log.debug("Configuration with ID " + configId
+                        + " no longer exists");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the crawlertraps of a domain as stored in the domains table,
+     * leaving out empty lines as Domain.setCrawlerTraps does.
+     *
+     * @param crawlertraps The crawlertraps separated by newlines.
+     * @return The list of crawlertraps.
+     */
+    private static List<String> getCrawlertrapsFromString(
+            String crawlertraps) {
+        List<String> result = new ArrayList<String>();
+        for (String crawlertrap : crawlertraps.split("\n")) {
+            if (crawlertrap.trim().length() != 0) {
+                result.add(crawlertrap);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Make HarvestInfo based on entry from historyinfo
+     * (historyinfo_id, stopreason, objectcount, bytecount, configuration
+     * name, job_id, harvest_id, harvest_time).
+     * @param res a Resultset
+     * @param domainName The name of the domain harvested.
+     * @return a HarvestInfo based on ResultSet entry.
+     * @throws SQLException if unable to get data from database
+     */
+    private HarvestInfo getHarvestInfoFromResultset(ResultSet res,
+            String domainName) throws SQLException {
+        long hiID = res.getLong(1);
+        StopReason stopreason = StopReason.getStopReason(res.getInt(2));
+        long objectCount = res.getLong(3);
+        long byteCount = res.getLong(4);
+        String configName = res.getString(5);
+        Long jobId = res.getLong(6);
+        if (res.wasNull()) {
+            jobId = null;
+        }
+        long harvestId = res.getLong(7);
+        Date harvestTime = new Date(res.getTimestamp(8).getTime());
+        HarvestInfo hi = new HarvestInfo(harvestId, jobId, domainName,
+                configName, harvestTime, byteCount, objectCount, stopreason);
+        hi.setID(hiID);
+        return hi;
+    }
+
     
     @Override
     public List<String> getDomains(String glob) {
@@ -1842,23 +2111,45 @@ public class DomainDBDAO extends DomainDAO {
             final HarvestDefinition previousHarvestDefinition) {
         ArgumentNotValid.checkNotNull(previousHarvestDefinition,
         "previousHarvestDefinition");
-        // For each domainConfig, get harvest infos if there is any for the
-        // previous harvest definition
-        return new FilterIterator<DomainConfiguration, HarvestInfo>(
-                previousHarvestDefinition.getDomainConfigurations()) {
-            /**
-             * @see FilterIterator#filter(Object)
-             */
-            protected HarvestInfo filter(DomainConfiguration o){
-                DomainConfiguration config = o;
-                DomainHistory domainHistory 
-                    = getDomainHistory(config.getDomainName());
-                HarvestInfo hi = domainHistory.getSpecifiedHarvestInfo(
-                        previousHarvestDefinition.getOid(),
-                        config.getName());
-                return hi;
+        // Get the newest harvest info for each domainConfig harvested by
+        // the previous harvest definition
+        Map<Long, HarvestInfo> harvestInfos =
+                new LinkedHashMap<Long, HarvestInfo>();
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement("SELECT historyinfo.historyinfo_id,"
+                    + " historyinfo.stopreason, historyinfo.objectcount,"
+                    + " historyinfo.bytecount, configurations.name,"
+                    + " historyinfo.job_id, historyinfo.harvest_id,"
+                    + " historyinfo.harvest_time, domains.name,"
+                    + " historyinfo.config_id"
+                    + " FROM historyinfo, configurations, domains"
+                    + " WHERE historyinfo.harvest_id = ?"
+                    + " AND historyinfo.config_id = configurations.config_id"
+                    + " AND configurations.domain_id = domains.domain_id"
+                    + " ORDER BY domains.name, configurations.name,"
+                    + " historyinfo.harvest_time DESC");
+            s.setLong(1, previousHarvestDefinition.getOid());
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                Long configId = res.getLong(10);
+                if (!harvestInfos.containsKey(configId)) {
+                    harvestInfos.put(configId,
+                            getHarvestInfoFromResultset(res,
+                                    res.getString(9)));
+                }
             }
-        }; // Here ends the above return-statement
+        } catch (SQLException e) {
+            throw new IOFailure("Error while fetching harvest info for "
+                    + "harvest definition '"
+                    + previousHarvestDefinition.getName() + "': "
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(c);
+        }
+        return harvestInfos.values().iterator();
     }
 
     @Override
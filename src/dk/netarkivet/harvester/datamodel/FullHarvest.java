@@ -200,8 +200,13 @@ public class FullHarvest extends HarvestDefinition {
                     return null;
                 }
 
+                Domain domain = readPreviouslyHarvestedDomain(harvestInfo, dao);
+                if (domain == null) {
+                    return null;
+                }
                 DomainConfiguration config
-                        = getConfigurationFromPreviousHarvest(harvestInfo, dao);
+                        = getConfigurationFromPreviousHarvest(harvestInfo,
+                                                              domain);
                 if (harvestInfo.getStopReason()
                     == StopReason.CONFIG_SIZE_LIMIT) {
                     // Check if MaxBytes limit for DomainConfiguration have
@@ -229,10 +234,8 @@ public class FullHarvest extends HarvestDefinition {
                         return config;
                     }
                 }
-                Domain d = dao.read(config.getDomainName());
-                
-                if (d.getAliasInfo() != null
-                    && !d.getAliasInfo().isExpired()) {
+                if (domain.getAliasInfo() != null
+                    && !domain.getAliasInfo().isExpired()) {
                     //Don't include aliases
                     return null;
                 } else {
@@ -244,41 +247,17 @@ public class FullHarvest extends HarvestDefinition {
 
 
     /**
-     * Get the configuration used in a previous harvest.  If the configuration
-     * in the harvestinfo cannot be found (deleted), uses the default
-     * configuration.
+     * Read a domain harvested in a previous harvest.
      *
      * @param harvestInfo A harvest info object from a previous harvest.
-     * @param dao         The dao to read configurations from.
+     * @param dao         The dao to read the domain from.
      *
-     * @return A configuration if found and the download in this harvestinfo was
-     *         complete, null otherwise
+     * @return The domain, or null if it no longer exists or can't be read
      */
-    private DomainConfiguration getConfigurationFromPreviousHarvest(
+    private Domain readPreviouslyHarvestedDomain(
             final HarvestInfo harvestInfo, DomainDAO dao) {
-        //For each bit of harvest info that did not complete
         try {
-            Domain domain = dao.read(harvestInfo.getDomainName());
-            //Read the domain
-            DomainConfiguration configuration;
-            //Read the configuration
-            try {
-                configuration = domain.getConfiguration(
-                        harvestInfo.getDomainConfigurationName());
-            } catch (UnknownID e) {
-                //If the old configuration cannot be found, fall
-                //back on default configuration
-                configuration = domain.getDefaultConfiguration();
-                log.debug("Previous configuration '"
-                          + harvestInfo.getDomainConfigurationName()
-                          + "' for harvesting domain '"
-                          + harvestInfo.getDomainName()
-                          + "' not found. Using default '"
-                          + configuration.getName()
-                          + "' instead.", e);
-            }
-            //Add the configuration to the list to harvest
-            return configuration;
+            return dao.read(harvestInfo.getDomainName());
         } catch (UnknownID e) {
             //If the domain doesn't exist, warn
             log.debug("Previously harvested domain '"
@@ -295,6 +274,37 @@ public class FullHarvest extends HarvestDefinition {
         return null;
     }
 
+    /**
+     * Get the configuration used in a previous harvest.  If the configuration
+     * in the harvestinfo cannot be found (deleted), uses the default
+     * configuration.
+     *
+     * @param harvestInfo A harvest info object from a previous harvest.
+     * @param domain      The domain harvested.
+     *
+     * @return The configuration used, or the default configuration
+     */
+    private DomainConfiguration getConfigurationFromPreviousHarvest(
+            final HarvestInfo harvestInfo, Domain domain) {
+        try {
+            return domain.getConfiguration(
+                    harvestInfo.getDomainConfigurationName());
+        } catch (UnknownID e) {
+            //If the old configuration cannot be found, fall
+            //back on default configuration
+            DomainConfiguration configuration
+                    = domain.getDefaultConfiguration();
+            log.debug("Previous configuration '"
+                      + harvestInfo.getDomainConfigurationName()
+                      + "' for harvesting domain '"
+                      + harvestInfo.getDomainName()
+                      + "' not found. Using default '"
+                      + configuration.getName()
+                      + "' instead.", e);
+            return configuration;
+        }
+    }
+
     /**
      * Check if this harvest definition should be run, given the time now.
      *
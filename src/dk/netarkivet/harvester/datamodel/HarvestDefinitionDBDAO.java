@@ -56,7 +56,6 @@ import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.ExceptionUtils;
-import dk.netarkivet.common.utils.FilterIterator;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedField;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDAO;
@@ -717,25 +716,17 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
     /**
      * Gets default configurations for all domains that are not aliases.
      *
-     * This method currently gives an iterator that reads in all domains,
-     * although only on demand, that is: when calling "hasNext".
+     * This method gives an iterator that reads the configurations a number
+     * at a time on demand, that is: when calling "hasNext", without reading
+     * the domains.
      *
      * @return Iterator containing the default DomainConfiguration for all
      *         domains that are not aliases
      */
     @Override
     public synchronized Iterator<DomainConfiguration> getSnapShotConfigurations() {
-        return new FilterIterator<Domain, DomainConfiguration>(DomainDAO
-                                                                       .getInstance().getAllDomainsInSnapshotHarvestOrder()) {
-            public DomainConfiguration filter(Domain domain) {
-                if (domain.getAliasInfo() == null
-                    || domain.getAliasInfo().isExpired()) {
-                    return domain.getDefaultConfiguration();
-                } else {
-                    return null;
-                }
-            }
-        };
+        return DomainDAO.getInstance()
+                .getDefaultConfigurationsInSnapshotHarvestOrder();
     }
 
     /**
@@ -72,6 +72,25 @@ public abstract class JobDAO implements Iterable<Job> {
      */
     public abstract void create(Job job);
 
+    /**
+     * Creates instances in persistent storage of the given jobs, in fewer
+     * operations than creating them one at a time.
+     * Jobs without an ID get one generated.
+     * The jobs are not created in a single transaction: an implementation
+     * may commit them in batches, and if writing a later batch fails, the
+     * jobs of the earlier batches stay created.
+     *
+     * @param jobs the jobs to create in persistent storage.
+     * @throws ArgumentNotValid If jobs is null or contains null
+     * @throws UnknownID        If a job refers to an unknown harvest
+     *                          definition. No jobs are created then.
+     * @throws IOFailure        If some IOException occurs while
+     *                          writing the jobs, including when a job
+     *                          already exists with the id of one of the
+     *                          given jobs
+     */
+    public abstract void createAll(Iterable<Job> jobs);
+
     /** Check whether a particular job exists.
      *
      * @param jobID Id of the job.
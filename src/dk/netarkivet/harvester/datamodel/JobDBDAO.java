@@ -32,12 +32,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -69,6 +72,12 @@ public class JobDBDAO extends JobDAO {
     /** The logger for this class. */
     private final Log log = LogFactory.getLog(getClass());
 
+    /** The number of jobs inserted in each transaction by createAll. */
+    private static final int JOBS_PER_COMMIT = 50;
+
+    /** The edition of newly created jobs. */
+    private static final long INITIAL_EDITION = 1L;
+
     /**
      * Create a new JobDAO implemented using database.
      * This constructor also tries to upgrade the jobs and jobs_configs tables
@@ -98,33 +107,104 @@ public class JobDBDAO extends JobDAO {
      */
     public synchronized void create(Job job) {
         ArgumentNotValid.checkNotNull(job, "Job job");
-        // Check that job.getOrigHarvestDefinitionID() refers to
-        // existing harvestdefinition
-        Long harvestId = job.getOrigHarvestDefinitionID();
-        if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
-            throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+        createAll(Collections.singletonList(job));
+    }
+
+    /**
+     * Creates instances in persistent storage of the given jobs.
+     * Jobs without an ID get consecutive IDs. The jobs are inserted
+     * with batched statements, and committed {@link #JOBS_PER_COMMIT} at a
+     * time, so if an error occurs, some of the jobs may have been created.
+     *
+     * @param jobs the jobs to add to persistent storage
+     * @throws ArgumentNotValid If jobs is null or contains null
+     * @throws UnknownID        If a job refers to an unknown harvest
+     *                          definition. This is checked before any job
+     *                          is created.
+     * @throws IOFailure        If some IOException occurs while
+     *                          writing the jobs to persistent storage,
+     *                          including when a job with the same id exists
+     */
+    @Override
+    public synchronized void createAll(Iterable<Job> jobs) {
+        ArgumentNotValid.checkNotNull(jobs, "Iterable<Job> jobs");
+        List<Job> jobList = new ArrayList<Job>();
+        Set<Long> harvestIds = new HashSet<Long>();
+        for (Job job : jobs) {
+            ArgumentNotValid.checkNotNull(job, "Job job");
+            jobList.add(job);
+            harvestIds.add(job.getOrigHarvestDefinitionID());
+        }
+        // Check that the jobs refer to existing harvestdefinitions
+        for (Long harvestId : harvestIds) {
+            if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
+                throw new UnknownID("No harvestdefinition with ID="
+                                    + harvestId);
+            }
+        }
+        if (jobList.isEmpty()) {
+            return;
         }
 
         Connection connection = HarvestDBConnection.get();
-        if (job.getJobID() != null) {
-            log.warn("The jobId for the job is already set. "
-                + "This should probably never happen.");
-        } else {
-            job.setJobID(generateNextID(connection));
-        }
+        try {
+            long nextID = generateNextID(connection);
+            for (Job job : jobList) {
+                if (job.getJobID() != null) {
+                    nextID = Math.max(nextID, job.getJobID() + 1L);
+                }
+            }
+            for (Job job : jobList) {
+                if (job.getJobID() != null) {
+                    log.warn("The jobId for the job is already set. "
+                        + "This should probably never happen.");
+                } else {
+                    job.setJobID(nextID++);
+                }
 
-        if (job.getCreationDate() != null) {
-            log.warn("The creation time for the job is already set. "
-                + "This should probably never happen.");
-        } else {
-            job.setCreationDate(new Date());
-        }
+                if (job.getCreationDate() != null) {
+                    log.warn("The creation time for the job is already set. "
+                        + "This should probably never happen.");
+                } else {
+                    job.setCreationDate(new Date());
+                }
+            }
 
-        log.debug("Creating " + job.toString());
+            connection.setAutoCommit(false);
+            for (int i = 0; i < jobList.size(); i += JOBS_PER_COMMIT) {
+                List<Job> batch = jobList.subList(i,
+                        Math.min(jobList.size(), i + JOBS_PER_COMMIT));
+                insertJobs(connection, batch);
+                createJobConfigsEntries(connection, batch);
+                connection.commit();
+                for (Job job : batch) {
+                    job.setEdition(INITIAL_EDITION);
+                }
+            }
+        } catch (SQLException e) {
+            String message = "SQL error creating jobs " + jobList
+                             + " in database"
+                             + "\n"+ ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.rollbackIfNeeded(connection, "create jobs", jobList);
+            HarvestDBConnection.release(connection);
+        }
+    }
 
+    /**
+     * Insert jobs in the jobs table with one batch of statements.
+     * The jobs must have IDs and creation dates.
+     *
+     * @param connection A connection to work on
+     * @param jobs The jobs to insert
+     * @throws SQLException If any problems occur during the insertion
+     */
+    private void insertJobs(Connection connection, List<Job> jobs)
+            throws SQLException {
         PreparedStatement statement = null;
         try {
-            connection.setAutoCommit(false);
             statement = connection.prepareStatement(
                     "INSERT INTO jobs "
                     + "(job_id, harvest_id, status, channel, forcemaxcount, "
@@ -134,50 +214,48 @@ public class JobDBDAO extends JobDAO {
                     + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
                     + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?,"
                     + "?, ?, ?, ?, ?, ?)");
-
-
-            statement.setLong(1, job.getJobID());
-            statement.setLong(2, job.getOrigHarvestDefinitionID());
-            statement.setInt(3, job.getStatus().ordinal());
-            statement.setString(4, job.getChannel());
-            statement.setLong(5, job.getForceMaxObjectsPerDomain());
-            statement.setLong(6, job.getMaxBytesPerDomain());
-            statement.setLong(7, job.getMaxJobRunningTime());
-            DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(),
-                                         Constants.MAX_NAME_SIZE, job,
-                                         "order.xml name");
-            final String orderreader = job.getOrderXMLdoc().asXML();
-            DBUtils.setClobMaxLength(statement, 9, orderreader,
-                                       Constants.MAX_ORDERXML_SIZE, job,
-                                       "order.xml");
-            DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(),
-                                       Constants.MAX_COMBINED_SEED_LIST_SIZE,
-                                       job, "seedlist");
-            statement.setInt(11, job.getHarvestNum());
-            DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
-            DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
-            DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
-            DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
-
-            // The size of the configuration map == number of configurations
-            statement.setInt(16, job.getDomainConfigurationMap().size());
-            long initialEdition = 1;
-            statement.setLong(17, initialEdition);
-            DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
-            statement.setString(19, job.getHarvestFilenamePrefix());
-            statement.setBoolean(20, job.isSnapshot());
-            statement.executeUpdate();
-            createJobConfigsEntries(connection, job);
-            connection.commit();
-            job.setEdition(initialEdition);
-        } catch (SQLException e) {
-            String message = "SQL error creating job " + job + " in database"
-                             + "\n"+ ExceptionUtils.getSQLExceptionCause(e);
-            log.warn(message, e);
-            throw new IOFailure(message, e);
+            for (Job job : jobs) {
+                log.debug("Creating " + job.toString());
+                statement.setLong(1, job.getJobID());
+                statement.setLong(2, job.getOrigHarvestDefinitionID());
+                statement.setInt(3, job.getStatus().ordinal());
+                statement.setString(4, job.getChannel());
+                statement.setLong(5, job.getForceMaxObjectsPerDomain());
+                statement.setLong(6, job.getMaxBytesPerDomain());
+                statement.setLong(7, job.getMaxJobRunningTime());
+                DBUtils.setStringMaxLength(statement, 8,
+                                           job.getOrderXMLName(),
+                                           Constants.MAX_NAME_SIZE, job,
+                                           "order.xml name");
+                final String orderreader = job.getOrderXMLdoc().asXML();
+                DBUtils.setClobMaxLength(statement, 9, orderreader,
+                                         Constants.MAX_ORDERXML_SIZE, job,
+                                         "order.xml");
+                DBUtils.setClobMaxLength(statement, 10,
+                                         job.getSeedListAsString(),
+                                         Constants.MAX_COMBINED_SEED_LIST_SIZE,
+                                         job, "seedlist");
+                statement.setInt(11, job.getHarvestNum());
+                DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
+                DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
+                DBUtils.setDateMaybeNull(statement, 14,
+                                         job.getSubmittedDate());
+                DBUtils.setDateMaybeNull(statement, 15,
+                                         job.getCreationDate());
+
+                // The size of the configuration map == number of
+                // configurations
+                statement.setInt(16, job.getDomainConfigurationMap().size());
+                statement.setLong(17, INITIAL_EDITION);
+                DBUtils.setLongMaybeNull(statement, 18,
+                                         job.getResubmittedAsJob());
+                statement.setString(19, job.getHarvestFilenamePrefix());
+                statement.setBoolean(20, job.isSnapshot());
+                statement.addBatch();
+            }
+            statement.executeBatch();
         } finally {
-            DBUtils.rollbackIfNeeded(connection, "create job", job);
-            HarvestDBConnection.release(connection);
+            DBUtils.closeStatementIfOpen(statement);
         }
     }
 
@@ -192,34 +270,54 @@ public class JobDBDAO extends JobDAO {
      */
     private void createJobConfigsEntries(Connection dbconnection, Job job)
     throws SQLException {
-        if (job.configsChanged) {
-            PreparedStatement statement = null;
-            String tmpTable = null;
-            Long jobID = job.getJobID();
+        createJobConfigsEntries(dbconnection, Collections.singletonList(job));
+    }
+
+    /** Create the entries in the job_configs table for some jobs, and
+     * commit them. The domains and configurations of each job are inserted
+     * in a temporary table with a batch of statements, and the entries are
+     * then made from the temporary table with one statement for each job.
+     * The entries are only created for jobs where job.configsChanged is
+     * true.
+     *
+     * @param dbconnection A connection to work on
+     * @param jobs The jobs to store entries for
+     * @throws SQLException If any problems occur during creation of the
+     * new entries in the job_configs table.
+     */
+    private void createJobConfigsEntries(Connection dbconnection,
+            List<Job> jobs) throws SQLException {
+        List<Job> changedJobs = new ArrayList<Job>();
+        for (Job job : jobs) {
+            if (job.configsChanged) {
+                changedJobs.add(job);
+            }
+        }
+        if (changedJobs.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = null;
+        String tmpTable = null;
+        try {
+            statement = dbconnection.prepareStatement(
+                    "DELETE FROM job_configs WHERE job_id = ?");
+            for (Job job : changedJobs) {
+                statement.setLong(1, job.getJobID());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statement.close();
+            tmpTable = DBSpecifics.getInstance().getJobConfigsTmpTable(
+                    dbconnection);
+            PreparedStatement insertTmp = null;
+            PreparedStatement insertConfigs = null;
+            PreparedStatement deleteTmp = null;
             try {
-                statement = dbconnection.prepareStatement(
-                        "DELETE FROM job_configs WHERE job_id = ?");
-                statement.setLong(1, jobID);
-                statement.executeUpdate();
-                statement.close();
-                tmpTable = DBSpecifics.getInstance().getJobConfigsTmpTable(
-                        dbconnection);
-                final Map<String, String> domainConfigurationMap
-                        = job.getDomainConfigurationMap();
-                statement = dbconnection.prepareStatement(
+                insertTmp = dbconnection.prepareStatement(
                         "INSERT INTO " + tmpTable
                         + " ( domain_name, config_name ) "
                         + " VALUES ( ?, ?)");
-                for (Map.Entry <String, String> entry
-                        : domainConfigurationMap.entrySet()) {
-                    statement.setString(1, entry.getKey());
-                    statement.setString(2, entry.getValue());
-                    statement.executeUpdate();
-                    statement.clearParameters();
-                    }
-                statement.close();
-                // Now we have a temp table with all the domains and configs
-                statement = dbconnection.prepareStatement(
+                insertConfigs = dbconnection.prepareStatement(
                         "INSERT INTO job_configs "
                         + "( job_id, config_id ) "
                         + "SELECT ?, configurations.config_id "
@@ -229,20 +327,42 @@ public class JobDBDAO extends JobDAO {
                         + "   AND domains.domain_id = configurations.domain_id"
                         + "   AND configurations.name = "
                         + tmpTable + ".config_name");
-                statement.setLong(1, jobID);
-                int rows = statement.executeUpdate();
-                if (rows != domainConfigurationMap.size()) {
-                    log.debug("Domain or configuration in table for "
-                              + job + " missing: Should have "
-                              + domainConfigurationMap.size()
-                              + ", got " + rows);
+                deleteTmp = dbconnection.prepareStatement(
+                        "DELETE FROM " + tmpTable);
+                for (Job job : changedJobs) {
+                    final Map<String, String> domainConfigurationMap
+                            = job.getDomainConfigurationMap();
+                    for (Map.Entry <String, String> entry
+                            : domainConfigurationMap.entrySet()) {
+                        insertTmp.setString(1, entry.getKey());
+                        insertTmp.setString(2, entry.getValue());
+                        insertTmp.addBatch();
+                    }
+                    insertTmp.executeBatch();
+                    // Now we have a temp table with all the domains and
+                    // configs
+                    insertConfigs.setLong(1, job.getJobID());
+                    int rows = insertConfigs.executeUpdate();
+                    if (rows != domainConfigurationMap.size()) {
+                        log.debug("Domain or configuration in table for "
+                                  + job + " missing: Should have "
+                                  + domainConfigurationMap.size()
+                                  + ", got " + rows);
+                    }
+                    deleteTmp.executeUpdate();
                 }
-                dbconnection.commit();
             } finally {
-                if (tmpTable != null) {
-                    DBSpecifics.getInstance().dropJobConfigsTmpTable(
-                            dbconnection, tmpTable);
-                }
+                DBUtils.closeStatementIfOpen(insertTmp);
+                DBUtils.closeStatementIfOpen(insertConfigs);
+                DBUtils.closeStatementIfOpen(deleteTmp);
+            }
+            dbconnection.commit();
+        } finally {
+            if (tmpTable != null) {
+                DBSpecifics.getInstance().dropJobConfigsTmpTable(
+                        dbconnection, tmpTable);
+            }
+            for (Job job : changedJobs) {
                 job.configsChanged = false;
             }
         }
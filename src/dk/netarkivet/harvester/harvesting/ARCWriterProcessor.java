@@ -0,0 +1,137 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.io.WriterPoolMember;
+import org.archive.io.arc.ARCWriter;
+import org.archive.util.MimetypeUtils;
+
+/**
+ * The Heritrix ARCWriterProcessor, which also writes a CDX sidecar for each
+ * ARC file with a line for each record, as the record is written.
+ * See ArchiveFileCDXWriter.
+ */
+public class ARCWriterProcessor
+        extends org.archive.crawler.writer.ARCWriterProcessor {
+    private static final long serialVersionUID = 6311364838743522404L;
+
+    /** Writes the CDX lines for the records. */
+    private final transient ArchiveFileCDXWriter cdxWriter =
+            new ArchiveFileCDXWriter();
+
+    /**
+     * @param name Name of this writer.
+     */
+    public ARCWriterProcessor(String name) {
+        super(name);
+    }
+
+    /**
+     * Write a record, and the CDX line for it. As in the Heritrix
+     * ARCWriterProcessor, except the record content is read through a
+     * stream calculating the MD5 of the payload for the CDX line.
+     *
+     * @param curi The URI to write.
+     * @param recordLength The length of the record content.
+     * @param in The record content.
+     * @param ip The IP address the URI was fetched from.
+     * @throws IOException If writing the record fails.
+     */
+    @Override
+    protected void write(CrawlURI curi, long recordLength, InputStream in,
+            String ip) throws IOException {
+        WriterPoolMember writer = getPool().borrowFile();
+        long position = writer.getPosition();
+        File file = writer.getFile();
+        // See if we need to open a new file because we've exceeed maxBytes.
+        // Call to checkFileSize will open new file if we're at maximum for
+        // current file.
+        writer.checkSize();
+        if (file != null && !file.equals(writer.getFile())) {
+            cdxWriter.close(file);
+        }
+        if (writer.getPosition() != position) {
+            // We just closed the file because it was larger than maxBytes.
+            // Add to the totalBytesWritten the size of the first record
+            // in the file, if any.
+            setTotalBytesWritten(getTotalBytesWritten()
+                                 + (writer.getPosition() - position));
+            position = writer.getPosition();
+        }
+
+        ARCWriter w = (ARCWriter) writer;
+        // The ARC reader only separates HTTP headers from the payload
+        // of HTTP records
+        boolean isHttp = curi.getUURI().getScheme().toLowerCase()
+                .startsWith("http");
+        ArchiveFileCDXWriter.PayloadDigestInputStream digestIn =
+                new ArchiveFileCDXWriter.PayloadDigestInputStream(in, isHttp
+                    ? curi.getHttpRecorder().getRecordedInput()
+                            .getContentBegin()
+                    : 0);
+        try {
+            w.write(curi.toString(), curi.getContentType(), ip,
+                    curi.getLong(A_FETCH_BEGAN_TIME), recordLength, digestIn);
+            cdxWriter.write(w.getFile(), curi.toString(), ip,
+                    curi.getLong(A_FETCH_BEGAN_TIME),
+                    ArchiveFileCDXWriter.getCDXMimetype(
+                            MimetypeUtils.truncate(curi.getContentType()),
+                            null),
+                    recordLength, position, digestIn.getChecksum());
+        } catch (IOException e) {
+            // Invalidate this file (It gets a '.invalid' suffix).
+            cdxWriter.discard(writer.getFile());
+            getPool().invalidateFile(writer);
+            // Set the writer to null otherwise the pool accounting
+            // of how many active writers gets skewed if we subsequently
+            // do a returnWriter call on this object in the finally block.
+            writer = null;
+            throw e;
+        } finally {
+            if (writer != null) {
+                setTotalBytesWritten(getTotalBytesWritten()
+                                     + (writer.getPosition() - position));
+                getPool().returnFile(writer);
+            }
+        }
+        checkBytesWritten();
+    }
+
+    /**
+     * Close the archive files, and finish their CDX sidecars.
+     *
+     * @param sExitMessage The reason the crawl ended.
+     */
+    @Override
+    public void crawlEnded(String sExitMessage) {
+        super.crawlEnded(sExitMessage);
+        cdxWriter.closeAll();
+    }
+}
@@ -0,0 +1,362 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.archive.io.ArchiveFileConstants;
+import org.archive.util.ArchiveUtils;
+import org.jwat.common.ContentType;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Writes CDX lines for the records of the archive files made by Heritrix
+ * while the records are written, so the archive files need not be read
+ * again to index them when the harvest is documented.
+ *
+ * The lines for an archive file go to a sidecar file next to it, named as
+ * the archive file with ".cdx" appended. They have the fields written by
+ * ArchiveExtractCDXJob: URL, IP, date, mimetype, length, archive file,
+ * offset and MD5 of the payload. While the archive file is being written,
+ * the sidecar has the suffix ".open" as well. It is renamed when the archive
+ * file is closed, so a sidecar without the suffix holds the lines for all
+ * records of its archive file. If a line cannot be written, the sidecar is
+ * deleted, and the archive file is indexed by reading it.
+ */
+public class ArchiveFileCDXWriter {
+    /** The logger for this class. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The suffix of archive files and sidecars still being written. */
+    static final String OPEN_SUFFIX = ArchiveFileConstants.OCCUPIED_SUFFIX;
+
+    /** The writers of the open sidecars, by sidecar. Guarded by this. */
+    private final Map<File, Writer> sidecars = new HashMap<File, Writer>();
+    /** The open sidecars that could not be written. Guarded by this. */
+    private final Set<File> failed = new HashSet<File>();
+
+    /**
+     * Get the sidecar with the CDX lines of an archive file.
+     *
+     * @param archiveFile An archive file, with or without the ".open"
+     * suffix.
+     * @return The sidecar of the closed archive file.
+     * @throws ArgumentNotValid if archiveFile is null.
+     */
+    public static File getSidecar(File archiveFile) {
+        ArgumentNotValid.checkNotNull(archiveFile, "File archiveFile");
+        return new File(archiveFile.getParentFile(),
+                getArchiveFileName(archiveFile) + FileUtils.CDX_EXTENSION);
+    }
+
+    /**
+     * Get the sidecar of an archive file while it is being written.
+     *
+     * @param archiveFile An archive file, with or without the ".open"
+     * suffix.
+     * @return The open sidecar.
+     */
+    private static File getOpenSidecar(File archiveFile) {
+        File sidecar = getSidecar(archiveFile);
+        return new File(sidecar.getParentFile(),
+                sidecar.getName() + OPEN_SUFFIX);
+    }
+
+    /**
+     * Get the name an archive file has when it is closed.
+     *
+     * @param archiveFile An archive file, with or without the ".open"
+     * suffix.
+     * @return The name without the ".open" suffix.
+     */
+    private static String getArchiveFileName(File archiveFile) {
+        String name = archiveFile.getName();
+        if (name.endsWith(OPEN_SUFFIX)) {
+            name = name.substring(0, name.length() - OPEN_SUFFIX.length());
+        }
+        return name;
+    }
+
+    /**
+     * Get the mimetype for the CDX line of a record, in the form written by
+     * ArchiveExtractCDXJob.
+     *
+     * @param recordMimetype The mimetype in the header of the record.
+     * @param payloadMimetype The mimetype of the HTTP response in the
+     * record, or null if the record is not an HTTP response.
+     * @return The mimetype of the payload without parameters, if known,
+     * otherwise the mimetype of the record without parameters.
+     */
+    static String getCDXMimetype(String recordMimetype,
+            String payloadMimetype) {
+        ContentType contentType = ContentType.parseContentType(
+                payloadMimetype);
+        if (contentType == null) {
+            contentType = ContentType.parseContentType(recordMimetype);
+        }
+        return contentType == null ? recordMimetype
+                                   : contentType.toStringShort();
+    }
+
+    /**
+     * Write the CDX line for a record to the sidecar of its archive file.
+     *
+     * @param archiveFile The archive file the record was written to.
+     * @param url The URL of the record.
+     * @param ip The IP address the URL was fetched from, or null.
+     * @param fetchTime The time the fetch began, in milliseconds.
+     * @param mimetype The mimetype, as made by getCDXMimetype.
+     * @param length The length of the record content.
+     * @param offset The offset of the record in the archive file.
+     * @param checksum The MD5 of the payload of the record.
+     * @throws ArgumentNotValid if archiveFile or url is null.
+     */
+    public synchronized void write(File archiveFile, String url, String ip,
+            long fetchTime, String mimetype, long length, long offset,
+            String checksum) {
+        ArgumentNotValid.checkNotNull(archiveFile, "File archiveFile");
+        ArgumentNotValid.checkNotNull(url, "String url");
+        File sidecar = getOpenSidecar(archiveFile);
+        if (failed.contains(sidecar)) {
+            return;
+        }
+        String line = url + " " + (ip == null ? "-" : ip) + " "
+                + ArchiveUtils.get14DigitDate(fetchTime) + " "
+                + (mimetype == null ? "-" : mimetype) + " " + length + " "
+                + getArchiveFileName(archiveFile) + " " + offset + " "
+                + (checksum == null ? "-" : checksum) + "\n";
+        try {
+            Writer writer = sidecars.get(sidecar);
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(sidecar), "UTF-8"));
+                sidecars.put(sidecar, writer);
+            }
+            writer.write(line);
+        } catch (IOException e) {
+            log.warn("Could not write to the CDX sidecar '" + sidecar
+                     + "'. The archive file will be indexed when the "
+                     + "harvest is documented", e);
+            failed.add(sidecar);
+            remove(sidecar);
+        }
+    }
+
+    /**
+     * Finish the sidecar of an archive file which has been closed.
+     *
+     * @param archiveFile The archive file, with or without the ".open"
+     * suffix.
+     * @throws ArgumentNotValid if archiveFile is null.
+     */
+    public synchronized void close(File archiveFile) {
+        ArgumentNotValid.checkNotNull(archiveFile, "File archiveFile");
+        File sidecar = getOpenSidecar(archiveFile);
+        if (failed.remove(sidecar)) {
+            return;
+        }
+        finish(sidecar);
+    }
+
+    /**
+     * Delete the sidecar of an archive file which has been found invalid.
+     *
+     * @param archiveFile The archive file, with or without the ".open"
+     * suffix.
+     * @throws ArgumentNotValid if archiveFile is null.
+     */
+    public synchronized void discard(File archiveFile) {
+        ArgumentNotValid.checkNotNull(archiveFile, "File archiveFile");
+        File sidecar = getOpenSidecar(archiveFile);
+        failed.remove(sidecar);
+        remove(sidecar);
+    }
+
+    /**
+     * Finish the sidecars of all archive files. Called when Heritrix has
+     * closed all its archive files.
+     */
+    public synchronized void closeAll() {
+        for (File sidecar : sidecars.keySet().toArray(
+                new File[sidecars.size()])) {
+            finish(sidecar);
+        }
+        failed.clear();
+    }
+
+    /**
+     * Close an open sidecar and remove the ".open" suffix.
+     *
+     * @param sidecar The open sidecar.
+     */
+    private void finish(File sidecar) {
+        Writer writer = sidecars.remove(sidecar);
+        if (writer == null) {
+            return;
+        }
+        File finished = new File(sidecar.getParentFile(),
+                sidecar.getName().substring(0, sidecar.getName().length()
+                                               - OPEN_SUFFIX.length()));
+        try {
+            writer.close();
+            if (!sidecar.renameTo(finished)) {
+                throw new IOException("Could not rename '" + sidecar
+                                      + "' to '" + finished + "'");
+            }
+        } catch (IOException e) {
+            log.warn("Could not finish the CDX sidecar '" + sidecar
+                     + "'. The archive file will be indexed when the "
+                     + "harvest is documented", e);
+            FileUtils.remove(sidecar);
+        }
+    }
+
+    /**
+     * Close and delete an open sidecar.
+     *
+     * @param sidecar The open sidecar.
+     */
+    private void remove(File sidecar) {
+        Writer writer = sidecars.remove(sidecar);
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.debug("Could not close the CDX sidecar '" + sidecar
+                          + "'", e);
+            }
+        }
+        FileUtils.remove(sidecar);
+    }
+
+    /**
+     * An input stream that calculates the MD5 of what is read after a given
+     * number of bytes, which is where the payload of a record begins. The
+     * archive writers read the record content through it, so the checksum
+     * for the CDX line is made in the same pass as the record is written.
+     */
+    static class PayloadDigestInputStream extends FilterInputStream {
+        /** The digest of the payload. */
+        private final MessageDigest digest = ChecksumCalculator
+                .getMessageDigest(ChecksumCalculator.MD5);
+        /** The number of bytes before the payload. */
+        private final long payloadBegin;
+        /** The number of bytes read. */
+        private long position;
+
+        /**
+         * Create a stream.
+         *
+         * @param in The record content.
+         * @param payloadBegin The number of bytes before the payload, e.g.
+         * the HTTP headers. Zero or negative if all content is payload.
+         */
+        PayloadDigestInputStream(InputStream in, long payloadBegin) {
+            super(in);
+            this.payloadBegin = Math.max(payloadBegin, 0L);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                if (position >= payloadBegin) {
+                    digest.update((byte) b);
+                }
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytes = in.read(b, off, len);
+            if (bytes > 0) {
+                long skip = Math.max(0L, payloadBegin - position);
+                if (skip < bytes) {
+                    digest.update(b, off + (int) skip, bytes - (int) skip);
+                }
+                position += bytes;
+            }
+            return bytes;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192L)];
+            long skipped = 0;
+            while (skipped < n) {
+                int bytes = read(buffer, 0,
+                        (int) Math.min(n - skipped, buffer.length));
+                if (bytes == -1) {
+                    break;
+                }
+                skipped += bytes;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("Mark not supported");
+        }
+
+        /**
+         * Get the checksum of the payload read so far. Only called once,
+         * when the record has been written.
+         *
+         * @return The MD5 of the payload, as a hex string.
+         */
+        String getChecksum() {
+            return ChecksumCalculator.toHex(digest.digest());
+        }
+    }
+}
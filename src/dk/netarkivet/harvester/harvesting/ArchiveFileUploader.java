@@ -0,0 +1,246 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.exceptions.NetarkivetException;
+import dk.netarkivet.common.management.SingleMBeanObject;
+
+/**
+ * Uploads files to the archive with a number of stores in flight at the
+ * same time, so a harvester does not wait for each file to be stored in
+ * all replicas before sending the next.
+ *
+ * When the maximum number of files are being uploaded, storeAsync waits
+ * until one of them is done. Failed stores are not tried again here, the
+ * store of the client already retries on its own.
+ */
+public class ArchiveFileUploader implements ArchiveFileUploaderMBean {
+    /** The logger for this class. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The client storing the files. */
+    private final HarvesterArcRepositoryClient client;
+    /** The maximum number of files uploaded at the same time. */
+    private final int maxInFlight;
+    /** A permit for each file that may be uploaded now. */
+    private final Semaphore window;
+    /** The threads uploading the files. */
+    private final ExecutorService executor;
+
+    /** The number of files being uploaded. */
+    private final AtomicInteger inFlightFiles = new AtomicInteger();
+    /** The size of the files being uploaded. */
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    /** The number of uploaded files. */
+    private final AtomicLong storedFiles = new AtomicLong();
+    /** The size of the uploaded files. */
+    private final AtomicLong storedBytes = new AtomicLong();
+    /** The number of files that could not be uploaded. */
+    private final AtomicLong failedFiles = new AtomicLong();
+
+    /** The registered MBean, or null. */
+    private SingleMBeanObject<ArchiveFileUploaderMBean> mBean;
+
+    /**
+     * Create an uploader.
+     *
+     * @param client The client storing the files.
+     * @param maxInFlight The maximum number of files uploaded at the same
+     * time.
+     * @throws ArgumentNotValid if client is null or maxInFlight is not
+     * positive.
+     */
+    public ArchiveFileUploader(HarvesterArcRepositoryClient client,
+                               int maxInFlight) {
+        ArgumentNotValid.checkNotNull(client,
+                "HarvesterArcRepositoryClient client");
+        ArgumentNotValid.checkPositive(maxInFlight, "int maxInFlight");
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        window = new Semaphore(maxInFlight);
+        executor = Executors.newFixedThreadPool(maxInFlight,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ArchiveFileUploader-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Start uploading a file. Waits if the maximum number of files are
+     * being uploaded. The file is deleted when it has been stored.
+     *
+     * @param file The file to upload.
+     * @return A future giving the file when it has been stored. If it could
+     * not be stored, the future throws an ExecutionException with the
+     * failure as its cause.
+     * @throws ArgumentNotValid if file is null or not an existing file.
+     * @throws IOFailure if interrupted while waiting. The interrupt status
+     * of the thread is kept.
+     * @throws IllegalState if the uploader has been shut down.
+     */
+    public Future<File> storeAsync(final File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkTrue(file.isFile(), "The file '"
+                + file.getPath() + "' is not an existing file.");
+        final long size = file.length();
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting to upload '"
+                                + file + "'", e);
+        }
+        inFlightFiles.incrementAndGet();
+        inFlightBytes.addAndGet(size);
+        try {
+            return executor.submit(new Callable<File>() {
+                public File call() {
+                    try {
+                        client.store(file);
+                        storedFiles.incrementAndGet();
+                        storedBytes.addAndGet(size);
+                        return file;
+                    } catch (RuntimeException e) {
+                        failedFiles.incrementAndGet();
+                        throw e;
+                    } finally {
+                        done(size);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            done(size);
+            throw new IllegalState("The uploader has been shut down", e);
+        }
+    }
+
+    /**
+     * Record that the upload of a file is over.
+     *
+     * @param size The size of the file.
+     */
+    private void done(long size) {
+        inFlightFiles.decrementAndGet();
+        inFlightBytes.addAndGet(-size);
+        window.release();
+    }
+
+    /**
+     * Stop uploading. Uploads in flight are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        unregisterMBean();
+    }
+
+    /**
+     * Register the statistics of this uploader as an MBean. Failure to do so
+     * is logged, but otherwise ignored.
+     */
+    public void registerMBean() {
+        try {
+            SingleMBeanObject<ArchiveFileUploaderMBean> bean
+                    = new SingleMBeanObject<ArchiveFileUploaderMBean>(
+                            "dk.netarkivet.harvester.harvesting", this,
+                            ArchiveFileUploaderMBean.class,
+                            ManagementFactory.getPlatformMBeanServer());
+            bean.getNameProperties().put("name", "ArchiveFileUploader");
+            bean.register();
+            mBean = bean;
+        } catch (NetarkivetException e) {
+            log.warn("Unable to register the archive file uploader MBean", e);
+        }
+    }
+
+    /**
+     * Unregister the MBean, if registered.
+     */
+    private void unregisterMBean() {
+        if (mBean != null) {
+            try {
+                mBean.unregister();
+            } catch (NetarkivetException e) {
+                log.warn("Unable to unregister the archive file uploader "
+                         + "MBean", e);
+            }
+            mBean = null;
+        }
+    }
+
+    /** @see ArchiveFileUploaderMBean#getMaxInFlightFiles() */
+    public int getMaxInFlightFiles() {
+        return maxInFlight;
+    }
+
+    /** @see ArchiveFileUploaderMBean#getInFlightFiles() */
+    public int getInFlightFiles() {
+        return inFlightFiles.get();
+    }
+
+    /** @see ArchiveFileUploaderMBean#getInFlightBytes() */
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /** @see ArchiveFileUploaderMBean#getStoredFiles() */
+    public long getStoredFiles() {
+        return storedFiles.get();
+    }
+
+    /** @see ArchiveFileUploaderMBean#getStoredBytes() */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /** @see ArchiveFileUploaderMBean#getFailedFiles() */
+    public long getFailedFiles() {
+        return failedFiles.get();
+    }
+}
@@ -0,0 +1,60 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting;
+
+/**
+ * Statistics of the files being uploaded to the archive by a harvester.
+ */
+public interface ArchiveFileUploaderMBean {
+    /**
+     * @return The maximum number of files uploaded at the same time.
+     */
+    int getMaxInFlightFiles();
+
+    /**
+     * @return The number of files being uploaded now.
+     */
+    int getInFlightFiles();
+
+    /**
+     * @return The total size of the files being uploaded now, in bytes.
+     */
+    long getInFlightBytes();
+
+    /**
+     * @return The number of files uploaded since startup.
+     */
+    long getStoredFiles();
+
+    /**
+     * @return The total size of the files uploaded since startup, in bytes.
+     */
+    long getStoredBytes();
+
+    /**
+     * @return The number of files that could not be uploaded since startup.
+     */
+    long getFailedFiles();
+}
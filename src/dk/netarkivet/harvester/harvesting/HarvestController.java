@@ -31,8 +31,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -94,11 +98,18 @@ public class HarvestController {
      */
     private HarvesterArcRepositoryClient arcRepController;
 
+    /** Uploads the files through arcRepController. */
+    private ArchiveFileUploader uploader;
+
     /**
      * Private constructor controlled by getInstance().
      */
     private HarvestController() {
         arcRepController = ArcRepositoryClientFactory.getHarvesterInstance();
+        uploader = new ArchiveFileUploader(arcRepController,
+                Settings.getInt(
+                        HarvesterSettings.HARVEST_CONTROLLER_UPLOAD_WINDOW));
+        uploader.registerMBean();
     }
 
     /**
@@ -120,6 +131,9 @@ public class HarvestController {
      * return a new instance.
      */
     public void cleanup() {
+        if (uploader != null) {
+            uploader.shutdown();
+        }
         if (arcRepController != null) {
             arcRepController.close();
         }
@@ -370,8 +384,9 @@ public class HarvestController {
                 }                
             }
 
-            // Now the ARC/WARC files have been uploaded,
-            // we finally upload the metadata archive file.
+            // Now the ARC/WARC files have been uploaded, since uploadFiles
+            // waits for all its uploads, we finally upload the metadata
+            // archive file.
             uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
 
             // Make the harvestReport ready for uploading
@@ -385,7 +400,11 @@ public class HarvestController {
     }
 
     /**
-     * Upload given files to the archive repository.
+     * Upload given files to the archive repository. Several files are
+     * uploaded at the same time, and this returns when all of them are
+     * done. Failures are reported in the order of the files. If the thread
+     * is interrupted, the uploads not yet done are cancelled and reported
+     * as failed, and the interrupt status of the thread is kept.
      *
      * @param files        List of (ARC/WARC) files to upload.
      * @param errorMessage Accumulator for error messages.
@@ -395,30 +414,71 @@ public class HarvestController {
                              List<File> failedFiles) {
         // Upload all archive files
         if (files != null) {
+            Map<File, Future<File>> uploads
+                    = new LinkedHashMap<File, Future<File>>();
             for (File f : files) {
                 try {
                     log.info("Uploading file '" + f.getName()
                              + "' to arcrepository.");
-                    arcRepController.store(f);
+                    uploads.put(f, uploader.storeAsync(f));
+                } catch (Exception e) {
+                    uploads.put(f, null);
+                    uploadFailed(f, e, errorMessage, failedFiles);
+                }
+            }
+            InterruptedException interrupted = null;
+            for (Map.Entry<File, Future<File>> upload : uploads.entrySet()) {
+                File f = upload.getKey();
+                Future<File> future = upload.getValue();
+                if (future == null) {
+                    continue;
+                }
+                if (interrupted != null) {
+                    future.cancel(true);
+                    uploadFailed(f, interrupted, errorMessage, failedFiles);
+                    continue;
+                }
+                try {
+                    future.get();
                     log.info("File '" + f.getName()
                             + "' uploaded successfully to arcrepository.");
-                } catch (Exception e) {
-                    File oldJobsDir
-                            = new File(Settings.get(
-                            HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading arcfile '"
-                                      + f.getAbsolutePath()
-                                      + "' Will be moved to '"
-                                      + oldJobsDir.getAbsolutePath() + "'";
-                    errorMessage.append(errorMsg).append("\n")
-                            .append(e.toString()).append("\n");
-                    log.warn(errorMsg, e);
-                    failedFiles.add(f);
+                } catch (ExecutionException e) {
+                    uploadFailed(f, e.getCause(), errorMessage, failedFiles);
+                } catch (InterruptedException e) {
+                    interrupted = e;
+                    future.cancel(true);
+                    uploadFailed(f, e, errorMessage, failedFiles);
                 }
             }
+            if (interrupted != null) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
+    /**
+     * Report that a file could not be uploaded.
+     *
+     * @param f            The file.
+     * @param e            The reason.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles  Accumulator for failed files.
+     */
+    private void uploadFailed(File f, Throwable e, StringBuilder errorMessage,
+                              List<File> failedFiles) {
+        File oldJobsDir
+                = new File(Settings.get(
+                HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+        String errorMsg = "Error uploading arcfile '"
+                          + f.getAbsolutePath()
+                          + "' Will be moved to '"
+                          + oldJobsDir.getAbsolutePath() + "'";
+        errorMessage.append(errorMsg).append("\n")
+                .append(e.toString()).append("\n");
+        log.warn(errorMsg, e);
+        failedFiles.add(f);
+    }
+
     /**
      * Retrieve the list of jobs for deduplicate reduction.
      *
@@ -225,12 +225,37 @@ public class HarvestDocumentation {
         }
     }
 
-    
+    /**
+     * Add CDX files for the archive files in a directory to the metadata
+     * file. The CDX sidecar written by Heritrix is used for each archive
+     * file which has one, and the other archive files are read to generate
+     * their CDX files.
+     *
+     * @param files Information about the finished crawl.
+     * @param archiveDir The directory with the archive files.
+     * @param writer The writer of the metadata file.
+     * @param profile The profile of the archive files.
+     */
     private static void addCDXes(IngestableFiles files, File archiveDir, MetadataFileWriter writer, 
             ArchiveProfile profile) {
         moveAwayForeignFiles(profile, archiveDir, files);
         File cdxFilesDir = FileUtils.createUniqueTempDir(files.getTmpMetadataDir(), "cdx");
-        CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir);
+        List<File> filesToIndex = new ArrayList<File>();
+        File[] archiveFiles = archiveDir.listFiles(profile.filename_filter);
+        for (File archiveFile : archiveFiles) {
+            File sidecar = ArchiveFileCDXWriter.getSidecar(archiveFile);
+            if (sidecar.isFile()) {
+                FileUtils.moveFile(sidecar, new File(cdxFilesDir,
+                        archiveFile.getName() + FileUtils.CDX_EXTENSION));
+            } else {
+                filesToIndex.add(archiveFile);
+            }
+        }
+        log.info("Using CDX sidecars for "
+                 + (archiveFiles.length - filesToIndex.size()) + " of "
+                 + archiveFiles.length + " archive files in '" + archiveDir
+                 + "', generating CDX for the rest");
+        CDXUtils.generateCDX(filesToIndex, cdxFilesDir);
         writer.insertFiles(cdxFilesDir, FileUtils.CDX_FILE_FILTER, Constants.CDX_MIME_TYPE, files);
     }
     
@@ -138,6 +138,10 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
     
     private File harvestInfoFile;
     private PersistentJobData pjd;
+
+    /** Writes the CDX lines for the response records. */
+    private final transient ArchiveFileCDXWriter cdxWriter =
+            new ArchiveFileCDXWriter();
     
     /**
      * @param name Name of this writer.
@@ -262,10 +266,14 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
         logger.info("writing warc record for " + curi);
         WriterPoolMember writer = getPool().borrowFile();
         long position = writer.getPosition();
+        File file = writer.getFile();
         // See if we need to open a new file because we've exceeed maxBytes.
         // Call to checkFileSize will open new file if we're at maximum for
         // current file.
         writer.checkSize();
+        if (file != null && !file.equals(writer.getFile())) {
+            cdxWriter.close(file);
+        }
         if (writer.getPosition() != position) {
             // We just closed the file because it was larger than maxBytes.
             // Add to the totalBytesWritten the size of the first record
@@ -293,6 +301,7 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
             }
         } catch (IOException e) {
             // Invalidate this file (It gets a '.invalid' suffix).
+            cdxWriter.discard(writer.getFile());
             getPool().invalidateFile(writer);
             // Set the writer to null otherwise the pool accounting
             // of how many active writers gets skewed if we subsequently
@@ -452,22 +461,39 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
         return uid;
     }
     
+    /**
+     * Write a response record, and the CDX line for it. The MD5 of the
+     * payload for the CDX line is calculated while the record is written.
+     */
     protected URI writeResponse(final WARCWriter w,
             final String timestamp, final String mimetype,
             final URI baseid, final CrawlURI curi,
             final ANVLRecord namedFields) 
     throws IOException {
+        long offset = w.getPosition();
+        long size = curi.getHttpRecorder().getRecordedInput().getSize();
+        boolean isHttp = HTTP_RESPONSE_MIMETYPE.equals(mimetype);
         ReplayInputStream ris =
             curi.getHttpRecorder().getRecordedInput().getReplayInputStream();
+        ArchiveFileCDXWriter.PayloadDigestInputStream in =
+            new ArchiveFileCDXWriter.PayloadDigestInputStream(ris, isHttp
+                ? curi.getHttpRecorder().getRecordedInput().getContentBegin()
+                : 0);
         try {
             w.writeResponseRecord(curi.toString(), timestamp, mimetype, baseid,
-                namedFields, ris,
-                curi.getHttpRecorder().getRecordedInput().getSize());
+                namedFields, in, size);
         } finally {
             if (ris != null) {
                 ris.close();
             }
         }
+        cdxWriter.write(w.getFile(), curi.toString(),
+                namedFields == null ? null
+                        : namedFields.asMap().get(HEADER_KEY_IP),
+                curi.getLong(A_FETCH_BEGAN_TIME),
+                ArchiveFileCDXWriter.getCDXMimetype(mimetype,
+                        isHttp ? curi.getContentType() : null),
+                size, offset, in.getChecksum());
         return baseid;
     }
     
@@ -651,6 +677,15 @@ WriterPoolSettings, FetchStatusCodes, WARCConstants {
         return result;
     }  
     
+    /**
+     * Close the archive files, and finish their CDX sidecars.
+     */
+    @Override
+    public void crawlEnded(String sExitMessage) {
+        super.crawlEnded(sExitMessage);
+        cdxWriter.closeAll();
+    }
+
     @Override
     protected String getFirstrecordStylesheet() {
         return "/warcinfobody.xsl";
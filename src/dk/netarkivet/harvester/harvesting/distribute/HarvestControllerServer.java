@@ -92,10 +92,15 @@ import dk.netarkivet.harvester.harvesting.report.HarvestReport;
  * remove the listener that's being handled.
  *
  * After a harvestjob has been terminated, either successfully or
- * unsuccessfully, the serverdir is again scanned for harvestInfo files to
- * attempt upload of files not yet uploaded. Then it begins to listen again
- * after new jobs, if there is enough room available on the machine. If not, it
- * logs a warning about this, which is also sent as a notification.
+ * unsuccessfully, its crawl directory is queued for post-processing, i.e.
+ * documenting the harvest and uploading the files, which happens in
+ * background threads. The serverdir is again scanned for harvestInfo files
+ * not yet queued. Then it begins to listen again after new jobs, if not too
+ * many crawls are waiting for post-processing, and there is enough room
+ * available on the machine. If there is not enough room, it logs a warning
+ * about this, which is also sent as a notification. Each time the
+ * post-processing of a crawl is done, it checks again whether it can listen
+ * for new jobs.
  */
 public class HarvestControllerServer
         extends HarvesterMessageHandler
@@ -179,6 +184,13 @@ public class HarvestControllerServer
      * this is running. */
     private CrawlStatus status;
 
+    /** Post-processes the finished crawls. */
+    private final PostProcessor postProcessor;
+
+    /** Whether we listen for jobs on the jobChannel. Changed while holding
+     * the lock on this, read without it when sending the ready status. */
+    private volatile boolean listening;
+
     /**
      * In this constructor, the server creates an instance of the
      * HarvestController, uploads any arc-files from incomplete harvests.
@@ -244,9 +256,25 @@ public class HarvestControllerServer
         log.debug("Obtained JMS connection.");
 
         status = new CrawlStatus();
+        postProcessor = new PostProcessor(
+                Settings.getInt(HarvesterSettings
+                        .HARVEST_CONTROLLER_POSTPROCESSING_THREADS),
+                Settings.getInt(HarvesterSettings
+                        .HARVEST_CONTROLLER_POSTPROCESSING_MAX_PENDING_JOBS),
+                new PostProcessor.CrawlProcessor() {
+                    public void process(File crawlDir,
+                                        Throwable crawlException) {
+                        processHarvestInfoFile(crawlDir, crawlException);
+                    }
+
+                    public void processed(File crawlDir) {
+                        postProcessingDone();
+                    }
+                });
 
         // If any unprocessed jobs are left on the server, process them now
         processOldJobs();
+        postProcessor.awaitIdle();
 
         // Register for listening to harvest channel validity responses
         JMSConnectionFactory.getInstance().setListener(HARVEST_CHAN_VALID_RESP_ID, this);
@@ -293,6 +321,8 @@ public class HarvestControllerServer
      * @see CleanupIF#cleanup()
      */
     public void cleanup() {
+        // Crawls not post-processed yet are processed on the next startup
+        postProcessor.shutdown();
         if (controller != null) {
             controller.cleanup();
         }
@@ -310,7 +340,8 @@ public class HarvestControllerServer
     }
 
     /**
-     * Looks for old job directories that await uploading.
+     * Looks for old job directories that await uploading, and queues them
+     * for post-processing, unless they are queued already.
      */
     private void processOldJobs() {
         //Search through all crawldirs and process PersistentJobData
@@ -319,7 +350,8 @@ public class HarvestControllerServer
                 HarvesterSettings.HARVEST_CONTROLLER_SERVERDIR));
         File[] subdirs = crawlDir.listFiles();
         for (File oldCrawlDir : subdirs) {
-            if (PersistentJobData.existsIn(oldCrawlDir)) {
+            if (PersistentJobData.existsIn(oldCrawlDir)
+                    && !postProcessor.isPending(oldCrawlDir)) {
                 // Assume that crawl had not ended at this point so
                 // job must be marked as failed
                 final String msg = "Found old unprocessed job data in dir '"
@@ -329,7 +361,7 @@ public class HarvestControllerServer
                         + "Processing data.";
                 log.warn(msg);
                 NotificationsFactory.getInstance().notify(msg, NotificationType.WARNING);
-                processHarvestInfoFile(oldCrawlDir,
+                postProcessor.submit(oldCrawlDir,
                         new IOFailure("Crawl probably interrupted by "
                                 + "shutdown of HarvestController"));
             }
@@ -496,18 +528,38 @@ public class HarvestControllerServer
     /** Stop listening for new crawl requests.
      *
      */
-    private void removeListener() {
+    private synchronized void removeListener() {
         log.debug("Removing listener on CHANNEL '" + jobChannel + "'");
         jmsConnection.removeListener(jobChannel, this);
+        listening = false;
     }
 
-    /** Start listening for crawls, if space available. */
-    private void beginListeningIfSpaceAvailable() {
+    /** Listen for new jobs again after the post-processing of a crawl, if
+     * we were waiting for this. */
+    private synchronized void postProcessingDone() {
+        if (jobChannel != null && !status.isRunning() && instance == this) {
+            beginListeningIfSpaceAvailable();
+        }
+    }
+
+    /** Start listening for crawls, if not listening already, not too many
+     * crawls await post-processing, and space is available. */
+    private synchronized void beginListeningIfSpaceAvailable() {
+        if (listening) {
+            return;
+        }
+        if (!postProcessor.mayTakeNewJobs()) {
+            log.info("Waiting for the post-processing of "
+                    + postProcessor.getPendingJobs()
+                    + " crawls before taking new jobs");
+            return;
+        }
         long availableSpace = FileUtils.getBytesFree(serverDir);
         if (availableSpace > minSpaceRequired) {
             log.info("Starts to listen to new jobs on queue '"
                     + jobChannel + "'");
             jmsConnection.setListener(jobChannel, this);
+            listening = true;
             log.info(STARTED_MESSAGE);
         } else {
             String pausedMessage = "Not enough available diskspace. Only "
@@ -763,13 +815,11 @@ public class HarvestControllerServer
                     crawlException = e;
                     throw new IOFailure(msg, e);
                 } finally {
-                    // This handles some message sending, so it must live
-                    // in HCS for now, but the meat of it should be in
-                    // HarvestController
+                    // The post-processing handles some message sending, so
+                    // it must live in HCS for now, but the meat of it should
+                    // be in HarvestController
                     // TODO Refactor to be able to move this out.
-                    // TODO This may overwrite another exception, since this
-                    // may throw exceptions.
-                    processHarvestInfoFile(files.getCrawlDir(), crawlException);
+                    postProcessor.submit(files.getCrawlDir(), crawlException);
                 }
             } catch (Throwable e) {
                 String msg = "Fatal error while operating job '" + job + "'";
@@ -796,6 +846,7 @@ public class HarvestControllerServer
             if (shutdownFile.exists()) {
                 log.info("Found shutdown-file in serverdir - "
                         + "shutting down the application");
+                postProcessor.awaitIdle();
                 instance.cleanup();
                 System.exit(0);
             }
@@ -902,7 +953,10 @@ public class HarvestControllerServer
         }
 
         /**
-         * Send a HarvesterReadyMessage to the HarvestJobManager.
+         * Send a HarvesterReadyMessage to the HarvestJobManager, if no crawl
+         * is running and we listen for jobs. We don't listen while too many
+         * crawls await post-processing or space is low, and jobs sent then
+         * would wait until we do.
          */
         private synchronized void sendStatus() {
             try {
@@ -910,7 +964,7 @@ public class HarvestControllerServer
             } catch (Exception e) {
                 log.error("Unable to sleep", e);
             }
-            if (!running) {
+            if (!running && listening) {
                 jmsConnection.send(new HarvesterReadyMessage(
                         applicationInstanceId + " on " + physicalServerName,
                         HarvestControllerServer.CHANNEL));
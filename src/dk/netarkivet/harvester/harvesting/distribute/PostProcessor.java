@@ -0,0 +1,222 @@
+/* $Id$
+ * $Revision$
+ * $Date$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+
+/**
+ * Post-processes finished crawls in background threads, so a new crawl
+ * can start while the files of the last one are documented and
+ * uploaded. Keeps track of the crawl directories queued or being
+ * processed, so they are not queued twice.
+ */
+class PostProcessor {
+    /**
+     * The post-processing of a crawl directory.
+     */
+    interface CrawlProcessor {
+        /**
+         * Post-process a crawl directory.
+         *
+         * @param crawlDir The crawl directory.
+         * @param crawlException any exceptions thrown by the crawl which
+         * need to be reported back to the scheduler (may be null for
+         * success)
+         */
+        void process(File crawlDir, Throwable crawlException);
+
+        /**
+         * Called when a crawl directory is no longer pending, whether the
+         * post-processing succeeded or not.
+         *
+         * @param crawlDir The crawl directory.
+         */
+        void processed(File crawlDir);
+    }
+
+    /** The logger for this class. */
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** The post-processing of each crawl directory. */
+    private final CrawlProcessor processor;
+
+    /** The threads doing the post-processing. */
+    private final ExecutorService executor;
+
+    /** The maximum number of crawls awaiting post-processing while
+     * taking new jobs. */
+    private final int maxPendingJobs;
+
+    /** The crawl directories queued or being processed. Guarded by
+     * this. */
+    private final Set<File> pending = new HashSet<File>();
+
+    /**
+     * Create a post-processor.
+     *
+     * @param threads The number of crawls processed at the same time.
+     * @param maxPendingJobs The maximum number of crawls awaiting
+     * post-processing while taking new jobs.
+     * @param processor The post-processing of each crawl directory.
+     * @throws ArgumentNotValid if threads is not positive, maxPendingJobs is
+     * negative or processor is null.
+     */
+    PostProcessor(int threads, int maxPendingJobs,
+                  CrawlProcessor processor) {
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        ArgumentNotValid.checkNotNegative(maxPendingJobs,
+                "int maxPendingJobs");
+        ArgumentNotValid.checkNotNull(processor, "CrawlProcessor processor");
+        this.maxPendingJobs = maxPendingJobs;
+        this.processor = processor;
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "PostProcessor-"
+                                + count.incrementAndGet());
+                    }
+                });
+    }
+
+    /**
+     * Queue a crawl directory for post-processing, unless it is queued
+     * already. If the post-processing has been shut down, the directory is
+     * left for the next startup.
+     *
+     * @param crawlDir The crawl directory.
+     * @param crawlException any exceptions thrown by the crawl which need
+     * to be reported back to the scheduler (may be null for success)
+     * @throws ArgumentNotValid if crawlDir is null.
+     */
+    synchronized void submit(final File crawlDir,
+                             final Throwable crawlException) {
+        ArgumentNotValid.checkNotNull(crawlDir, "File crawlDir");
+        if (!pending.add(crawlDir)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        processor.process(crawlDir, crawlException);
+                    } catch (Throwable e) {
+                        String msg = "Fatal error while post-processing '"
+                                + crawlDir + "'";
+                        log.fatal(msg, e);
+                        NotificationsFactory.getInstance().notify(msg,
+                                NotificationType.ERROR, e);
+                    } finally {
+                        done(crawlDir);
+                    }
+                }
+            });
+            log.info("Queued '" + crawlDir + "' for post-processing");
+        } catch (RejectedExecutionException e) {
+            pending.remove(crawlDir);
+            log.warn("Post-processing stopped, so '" + crawlDir
+                    + "' is left for the next startup", e);
+        }
+    }
+
+    /**
+     * Record that a crawl directory has been processed, and tell the
+     * processor.
+     *
+     * @param crawlDir The crawl directory.
+     */
+    private void done(File crawlDir) {
+        synchronized (this) {
+            pending.remove(crawlDir);
+            notifyAll();
+        }
+        try {
+            processor.processed(crawlDir);
+        } catch (RuntimeException e) {
+            log.warn("Error after post-processing '" + crawlDir + "'", e);
+        }
+    }
+
+    /**
+     * @param crawlDir A crawl directory.
+     * @return Whether the directory is queued or being processed.
+     */
+    synchronized boolean isPending(File crawlDir) {
+        return pending.contains(crawlDir);
+    }
+
+    /**
+     * @return The number of crawls queued or being processed.
+     */
+    synchronized int getPendingJobs() {
+        return pending.size();
+    }
+
+    /**
+     * @return Whether new jobs may be taken, i.e. whether no more than the
+     * maximum number of crawls are awaiting post-processing.
+     */
+    synchronized boolean mayTakeNewJobs() {
+        return pending.size() <= maxPendingJobs;
+    }
+
+    /**
+     * Wait until no crawls are queued or being processed.
+     */
+    synchronized void awaitIdle() {
+        while (!pending.isEmpty()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for post-processing", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the post-processing. Crawls being processed are interrupted,
+     * and queued crawls are left in the serverdir.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
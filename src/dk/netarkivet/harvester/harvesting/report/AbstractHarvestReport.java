@@ -26,10 +26,10 @@ package dk.netarkivet.harvester.harvesting.report;
 
 import gnu.inet.encoding.IDNA;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -43,6 +43,7 @@ import org.archive.net.UURI;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.CrawlLogTokenizer;
 import dk.netarkivet.common.utils.DomainUtils;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.FixedUURI;
@@ -308,13 +309,13 @@ public abstract class AbstractHarvestReport implements HarvestReport {
         // in the crawl.log
         boolean disregardSeedUrls = Settings.getBoolean(
                 HarvesterSettings.DISREGARD_SEEDURL_INFORMATION_IN_CRAWLLOG);
-        BufferedReader in = null;
+        InputStream in = null;
 
         try {
-            in = new BufferedReader(new FileReader(file));
-            String line;
+            in = new FileInputStream(file);
+            CrawlLogTokenizer line = new CrawlLogTokenizer(in);
             int lineCnt = 0;
-            while ((line = in.readLine()) != null) {
+            while (line.next()) {
                 ++lineCnt;
                 try {
                     processHarvestLine(line, disregardSeedUrls);
@@ -322,7 +323,8 @@ public abstract class AbstractHarvestReport implements HarvestReport {
                     final String message = "Invalid line in '"
                                            + file.getAbsolutePath()
                                            + "' line " + lineCnt + ": '"
-                                           + line + "'. Ignoring due to reason: " 
+                                           + line.getLine()
+                                           + "'. Ignoring due to reason: " 
                                            + e.getMessage();
                     log.debug(message);
                 }
@@ -347,21 +349,18 @@ public abstract class AbstractHarvestReport implements HarvestReport {
     /**
      * Processes a harvest-line, updating the object and byte maps.
      *
-     * @param line the line to process.
+     * @param line the line to process, as read by the tokenizer.
      * @param disregardSeedUrlInfo Boolean saying whether or not to disregard 
      * SeedURL Information
      */
-    private void processHarvestLine(final String line, boolean disregardSeedUrlInfo) throws ArgumentNotValid {
+    private void processHarvestLine(final CrawlLogTokenizer line, boolean disregardSeedUrlInfo) throws ArgumentNotValid {
         //A legal crawl log line has at least 11 parts, + optional annotations
         
         final int MIN_CRAWL_LOG_PARTS = 11;
-        final int MAX_PARTS = 12;
-        final int ANNOTATION_PART_INDEX = 11;
-        String[] parts = line.split("\\s+", MAX_PARTS);
-        if (parts.length < MIN_CRAWL_LOG_PARTS) {
+        if (line.getFieldCount() < MIN_CRAWL_LOG_PARTS) {
             throw new ArgumentNotValid(
-                    "Not enough fields for line in crawl.log: '" + line + "'. Was only " 
-                    + parts.length + " fields. Should have been at least " 
+                    "Not enough fields for line in crawl.log: '" + line.getLine() + "'. Was only " 
+                    + line.getFieldCount() + " fields. Should have been at least " 
                             +  MIN_CRAWL_LOG_PARTS);
         }
         
@@ -371,15 +370,15 @@ public abstract class AbstractHarvestReport implements HarvestReport {
         // Note This information is disregarded if setting disregard_seed_url_information
         // is enabled.
         
-        String seedURL = parts[10];
-    
         boolean sourceTagEnabled = true;
-        if (seedURL.equals("-") || disregardSeedUrlInfo) {
+        if (disregardSeedUrlInfo
+            || line.fieldEquals(CrawlLogTokenizer.SEED_FIELD, "-")) {
             sourceTagEnabled = false;
         }
         String seedDomain = null;
         
         if (sourceTagEnabled) {
+            String seedURL = line.getField(CrawlLogTokenizer.SEED_FIELD);
             try {
                 seedDomain = getDomainNameFromURIString(seedURL);
                 if (seedDomain != null) {
@@ -394,7 +393,7 @@ public abstract class AbstractHarvestReport implements HarvestReport {
         
         //Get the object domain name from the URL in the fourth field
         String objectDomain = null;
-        String objectUrl = parts[3];
+        String objectUrl = line.getField(CrawlLogTokenizer.URL_FIELD);
         
         try {
             objectDomain = getDomainNameFromURIString(objectUrl);
@@ -409,7 +408,7 @@ public abstract class AbstractHarvestReport implements HarvestReport {
         
         if (objectDomain == null && seedDomain == null){
             throw new ArgumentNotValid("Unable to find a domainName in the line: '"
-                    + line + "'.");
+                    + line.getLine() + "'.");
         }
         
         String domainName = null;
@@ -425,42 +424,33 @@ public abstract class AbstractHarvestReport implements HarvestReport {
         //Get the response code for the URL in the second field
         long response;
         try {
-            response = Long.parseLong(parts[1]);
+            response = line.getFieldAsLong(CrawlLogTokenizer.STATUS_FIELD);
         } catch (NumberFormatException e) {
             throw new ArgumentNotValid("Unparsable response code in field 2 of "
-                                + "crawl.log: '" + parts[1] + "'.");
+                                + "crawl.log: '"
+                                + line.getField(CrawlLogTokenizer.STATUS_FIELD)
+                                + "'.");
         }
 
         //Get the byte count from annotation field "content-size"
         //and the stop reason from annotation field if status code is -5003
         StopReason stopReason = getDefaultStopReason();
-        long byteCounter = 0;
-        if (parts.length > MIN_CRAWL_LOG_PARTS) { 
-            // test if any annotations exist
-            String[] annotations = parts[ANNOTATION_PART_INDEX].split(",");
-            for (String annotation : annotations) {
-                if (annotation.trim().startsWith(
-                        ContentSizeAnnotationPostProcessor
-                            .CONTENT_SIZE_ANNOTATION_PREFIX)) {
-                    try {
-                        byteCounter = Long.parseLong(annotation.substring(
-                                ContentSizeAnnotationPostProcessor
-                                    .CONTENT_SIZE_ANNOTATION_PREFIX.length()));
-                    } catch (NumberFormatException e) {
-                        throw new ArgumentNotValid("Unparsable annotation in "
-                                            + "field 12 of crawl.log: '"
-                                            + parts[ANNOTATION_PART_INDEX]
-                                            + "'.", e);
-                    }
-                }
-                if (response == CrawlURI.S_BLOCKED_BY_QUOTA) {
-                    if (annotation.trim().equals("Q:group-max-all-kb")) {
-                        stopReason = StopReason.SIZE_LIMIT;
-                    } else if (annotation.trim()
-                            .equals("Q:group-max-fetch-successes")) {
-                        stopReason = StopReason.OBJECT_LIMIT;
-                    }
-                }
+        long byteCounter;
+        try {
+            byteCounter = line.getAnnotationAsLong(
+                    ContentSizeAnnotationPostProcessor
+                        .CONTENT_SIZE_ANNOTATION_PREFIX, 0L);
+        } catch (NumberFormatException e) {
+            throw new ArgumentNotValid("Unparsable annotation in "
+                    + "field 12 of crawl.log: '"
+                    + line.getField(CrawlLogTokenizer.ANNOTATIONS_FIELD)
+                    + "'.", e);
+        }
+        if (response == CrawlURI.S_BLOCKED_BY_QUOTA) {
+            if (line.hasAnnotation("Q:group-max-all-kb")) {
+                stopReason = StopReason.SIZE_LIMIT;
+            } else if (line.hasAnnotation("Q:group-max-fetch-successes")) {
+                stopReason = StopReason.OBJECT_LIMIT;
             }
         }
 
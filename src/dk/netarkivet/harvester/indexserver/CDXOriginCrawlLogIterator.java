@@ -37,6 +37,7 @@ import org.apache.commons.logging.LogFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.CrawlLogTokenizer;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
 
 /** This subclass of CrawlLogIterator adds the layer of digging an origin of
@@ -88,18 +89,22 @@ public class CDXOriginCrawlLogIterator extends CrawlLogIterator {
      * in the given (sorted) order with non-null URLs, though we admit that
      * some undeclared exceptions can be thrown by it.
      *
-     * @param line A crawl.log line to parse.
+     * @param line A tokenizer positioned at the crawl.log line to parse.
      * @return A CrawlDataItem with a valid origin field, or null if we could
      * not determine an appropriate origin.
      * @throws IOFailure if there is an error reading the files.
      */
-    protected CrawlDataItem parseLine(String line) throws IOFailure {
+    protected CrawlDataItem parseLine(CrawlLogTokenizer line)
+            throws IOFailure {
         CrawlDataItem item;
-        log.trace("Processing crawl-log line: " + line);
+        if (log.isTraceEnabled()) {
+            log.trace("Processing crawl-log line: " + line.getLine());
+        }
         try {
             item = super.parseLine(line);
         } catch (RuntimeException e) {
-            log.debug("Skipping over bad crawl-log line '" + line + "'", e);
+            log.debug("Skipping over bad crawl-log line '" + line.getLine()
+                      + "'", e);
             return null;
         }
 
@@ -28,10 +28,14 @@ package dk.netarkivet.harvester.indexserver;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -67,6 +71,12 @@ import dk.netarkivet.harvester.HarvesterSettings;
  * getCacheFile().
  * The subclass has to determine in its constructor call which mime types are
  * included.
+ *
+ * The Lucene index of each job is kept in the directory given by
+ * getJobIndexDir(), so a job is only indexed once, and an index of a set of
+ * jobs is made by adding the indices of the jobs. Next to each combined
+ * index is a manifest listing its jobs, and a new index starts from the
+ * largest cached index of a subset of its jobs.
  */
 public abstract class CrawlLogIndexCache extends
                 CombiningMultiFileBasedCache<Long> implements JobIndexCache {
@@ -89,6 +99,10 @@ public abstract class CrawlLogIndexCache extends
         = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_CHECKINTERVAL);
     /** Number to separate logs the different combine tasks. */
     private int indexingJobCount = 0;
+    /** The suffix of the manifest listing the jobs of a combined index. */
+    static final String MANIFEST_SUFFIX = ".jobs";
+    /** The name of the directory with the indices of single jobs. */
+    private static final String JOB_INDEX_DIR = "jobindex";
     
     /**
      * Constructor for the CrawlLogIndexCache class.
@@ -103,10 +117,33 @@ public abstract class CrawlLogIndexCache extends
         super(name, new CrawlLogDataCache());
         useBlacklist = blacklist;
         this.mimeFilter = mimeFilter;
+        FileUtils.createDir(getJobIndexDir());
+    }
+
+    /**
+     * Get the directory with the Lucene indices of single jobs.
+     *
+     * @return The directory under the cache directory with the job indices.
+     */
+    public File getJobIndexDir() {
+        return new File(getCacheDir(), JOB_INDEX_DIR);
+    }
+
+    /**
+     * Get the Lucene index of a single job. The index exists if the job
+     * has been indexed by this cache.
+     *
+     * @param id The ID of a job.
+     * @return The directory that holds, or will hold, the index of the job.
+     */
+    public File getJobIndexDir(Long id) {
+        return new File(getJobIndexDir(), id + ".luceneDir");
     }
 
     /** Prepare data for combining.  This class overrides prepareCombine to
-     * make sure that CDX data is available.
+     * make sure that CDX data is available. The crawl log and CDX data is
+     * not fetched for jobs which have already been indexed; those jobs are
+     * mapped to their index given by getJobIndexDir(id).
      *
      * @param ids Set of IDs that will be combined.
      * @return Map of ID->File of data to combine for the IDs where we could
@@ -115,7 +152,22 @@ public abstract class CrawlLogIndexCache extends
     protected Map<Long, File> prepareCombine(Set<Long> ids) {
         log.info("Starting to generate " + getCacheDir().getName()
                  + " for the " + ids.size() + " jobs: " + ids);
-        Map<Long, File> returnMap = super.prepareCombine(ids);
+        Set<Long> indexed = new HashSet<Long>();
+        Set<Long> notIndexed = new HashSet<Long>();
+        for (Long id : ids) {
+            if (getJobIndexDir(id).isDirectory()) {
+                indexed.add(id);
+            } else {
+                notIndexed.add(id);
+            }
+        }
+        if (!indexed.isEmpty()) {
+            log.info("The " + indexed.size() + " jobs " + indexed
+                     + " are already indexed in " + getJobIndexDir());
+        }
+        Map<Long, File> returnMap = notIndexed.isEmpty()
+                ? new HashMap<Long, File>()
+                : super.prepareCombine(notIndexed);
         Set<Long> missing = new HashSet<Long>();
         for (Long id : returnMap.keySet()) {
             Long cached = cdxcache.cache(id);
@@ -130,14 +182,22 @@ public abstract class CrawlLogIndexCache extends
         for (Long id : missing) {
             returnMap.remove(id);
         }
+        for (Long id : indexed) {
+            returnMap.put(id, getJobIndexDir(id));
+        }
         return returnMap;
     }
 
     /** Combine a number of crawl.log files into one Lucene index.  This index
      * is placed as gzip files under the directory returned by getCacheFile().
+     * The index starts from the largest cached index of a subset of the jobs,
+     * if any. The jobs not in that index are added from their cached job
+     * indices, and the jobs without one are indexed, keeping the new job
+     * indices for later combinations.
      *
-     * @param rawfiles The map from job ID into crawl.log contents. No
-     * null values are allowed in this map.
+     * @param rawfiles The map from job ID into crawl.log contents, or into
+     * the job index for jobs already indexed. No null values are allowed in
+     * this map.
      */
     protected void combine(Map<Long, File> rawfiles) {
         indexingJobCount++;
@@ -152,7 +212,10 @@ public abstract class CrawlLogIndexCache extends
         String indexLocation = resultDir.getAbsolutePath() + ".luceneDir";
         ThreadPoolExecutor executor = null;
         try {
-            DigestIndexer indexer = createStandardIndexer(indexLocation);
+            Set<Long> cachedJobs = startFromCachedIndex(rawfiles.keySet(),
+                    new File(indexLocation));
+            DigestIndexer indexer = createStandardIndexer(indexLocation,
+                    !cachedJobs.isEmpty());
             final boolean verboseIndexing = false;
             DigestOptions indexingOptions = new DigestOptions(
                     this.useBlacklist, verboseIndexing, this.mimeFilter);
@@ -167,11 +230,21 @@ public abstract class CrawlLogIndexCache extends
             executor.setRejectedExecutionHandler(
                     new ThreadPoolExecutor.CallerRunsPolicy());
 
+            List<File> jobIndices = new ArrayList<File>();
             for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
                 Long jobId = entry.getKey();
                 File crawlLog = entry.getValue();
+                if (cachedJobs.contains(jobId)) {
+                    continue;
+                }
+                if (crawlLog.equals(getJobIndexDir(jobId))) {
+                    jobIndices.add(crawlLog);
+                    continue;
+                }
                 // Generate UUID to ensure a unique filedir for the index.
-                File tmpFile = new File(FileUtils.getTempDir(), 
+                // It is placed next to the job indices, so it can be moved
+                // there when done.
+                File tmpFile = new File(getJobIndexDir(),
                         UUID.randomUUID().toString());
                 tmpfiles.add(tmpFile);
                 String localindexLocation = tmpFile.getAbsolutePath();
@@ -215,7 +288,29 @@ public abstract class CrawlLogIndexCache extends
                     HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
             
             final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
-            
+            // Only an index of all the jobs is listed as a cached index
+            boolean complete = true;
+
+            log.info("Adding " + cachedJobs.size() + " jobs from a cached "
+                    + "index, " + jobIndices.size() + " jobs from their job "
+                    + "indices, and indexing " + outstandingJobs.size()
+                    + " jobs (combine task #" + indexingJobCount + ")");
+            for (File jobIndex : jobIndices) {
+                subindices.add(new SimpleFSDirectory(jobIndex));
+                if (subindices.size()
+                        >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
+                    totalIndex.addIndexes(
+                            subindices.toArray(new Directory[0]));
+                    totalIndex.forceMerge(maxSegments);
+                    totalIndex.commit();
+                    for (Directory luceneDir: subindices) {
+                        luceneDir.close();
+                    }
+                    subindicesInTotalIndex += subindices.size();
+                    subindices.clear();
+                }
+            }
+
             while (outstandingJobs.size() > 0) {
                 log.info("Outstanding jobs in combine task #" + indexingJobCount 
                         + " is now " + outstandingJobs.size());
@@ -226,6 +321,7 @@ public abstract class CrawlLogIndexCache extends
                            + "). Indexing stops here, although"
                            + " missing subindices for " + outstandingJobs.size() 
                            + " jobs");
+                   complete = false;
                    break; 
                 }
                 while (iterator.hasNext() 
@@ -237,20 +333,22 @@ public abstract class CrawlLogIndexCache extends
                         try {
                             // check, if the indexing failed
                             if (nextResult.get()) { 
-                                subindices.add(
-                                        new SimpleFSDirectory(
-                                               new File(next.getIndex())));
+                                subindices.add(new SimpleFSDirectory(
+                                        keepJobIndex(next)));
                             } else {
                                 log.warn("Indexing of job " 
                                         + next.getJobIdentifier() + " failed.");
+                                complete = false;
                             }
                             
                         } catch (InterruptedException e) {
                             log.warn("Unable to get Result back from "
                                     + "indexing thread", e);
+                            complete = false;
                         } catch (ExecutionException e) {
                             log.warn("Unable to get Result back from "
                                     + "indexing thread", e);
+                            complete = false;
                         }
                         //remove the done object from the set
                         iterator.remove();
@@ -308,6 +406,9 @@ public abstract class CrawlLogIndexCache extends
             log.info("Gzip-compressing the individual " +  totalIndexDir.list().length 
                     + " index files of combine task # " + indexingJobCount);
             ZipUtils.gzipFiles(totalIndexDir, resultDir);
+            if (complete) {
+                writeManifest(resultDir, rawfiles.keySet());
+            }
             log.info("Completed combine task # " + indexingJobCount 
                     + " that combined a dataset with " 
                     + datasetSize + " crawl logs (entries in combined index: "
@@ -326,6 +427,124 @@ public abstract class CrawlLogIndexCache extends
         }
     }
     
+    /**
+     * Move the index made for a job to the job indices, so it is reused
+     * when the job is combined again. If the job has been indexed by another
+     * thread in the meantime, the index made here is used, and removed after
+     * the combination.
+     *
+     * @param state The indexing of the job, which has completed.
+     * @return The index of the job.
+     */
+    private File keepJobIndex(IndexingState state) {
+        File index = new File(state.getIndex());
+        File jobIndex = getJobIndexDir(state.getJobIdentifier());
+        if (index.renameTo(jobIndex)) {
+            return jobIndex;
+        }
+        log.debug("Could not move the index of job "
+                  + state.getJobIdentifier() + " to '" + jobIndex + "'");
+        return index;
+    }
+
+    /**
+     * Unpack the largest cached index of a subset of the given jobs, so a
+     * new index of the jobs can start from it.
+     *
+     * @param ids The jobs of the index being made.
+     * @param indexDir The directory to unpack the index into. Must not
+     * exist.
+     * @return The jobs in the unpacked index. If no cached index could be
+     * used, this is empty, and indexDir is not created.
+     */
+    private Set<Long> startFromCachedIndex(Set<Long> ids, File indexDir) {
+        File[] manifests = getCacheDir().listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(MANIFEST_SUFFIX);
+            }
+        });
+        File bestIndex = null;
+        Set<Long> bestJobs = new HashSet<Long>();
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                String name = manifest.getName();
+                File index = new File(getCacheDir(), name.substring(0,
+                        name.length() - MANIFEST_SUFFIX.length()));
+                Set<Long> jobs = readManifest(manifest);
+                if (jobs.size() > bestJobs.size() && ids.containsAll(jobs)
+                        && index.isDirectory()) {
+                    bestIndex = index;
+                    bestJobs = jobs;
+                }
+            }
+        }
+        if (bestIndex == null) {
+            return new HashSet<Long>();
+        }
+        try {
+            ZipUtils.gunzipFiles(bestIndex, indexDir);
+        } catch (IOFailure e) {
+            log.warn("Could not unpack the cached index '" + bestIndex
+                     + "'. Making the index from the job indices", e);
+            FileUtils.removeRecursively(indexDir);
+            return new HashSet<Long>();
+        }
+        log.info("Starting from the cached index '" + bestIndex + "' of "
+                 + bestJobs.size() + " of the " + ids.size() + " jobs");
+        return bestJobs;
+    }
+
+    /**
+     * Write the manifest listing the jobs of a combined index.
+     *
+     * @param index The combined index.
+     * @param ids The jobs in the index.
+     */
+    private void writeManifest(File index, Set<Long> ids) {
+        File manifest = new File(index.getAbsolutePath() + MANIFEST_SUFFIX);
+        File tmpManifest = new File(manifest.getAbsolutePath() + ".tmp");
+        List<String> lines = new ArrayList<String>(ids.size());
+        for (Long id : ids) {
+            lines.add(id.toString());
+        }
+        try {
+            FileUtils.writeCollectionToFile(tmpManifest, lines);
+            if (!tmpManifest.renameTo(manifest)) {
+                throw new IOFailure("Could not rename '" + tmpManifest
+                                    + "' to '" + manifest + "'");
+            }
+        } catch (IOFailure e) {
+            log.warn("Could not write the manifest of '" + index
+                     + "'. It will not be reused for other indices", e);
+            FileUtils.remove(tmpManifest);
+        }
+    }
+
+    /**
+     * Read the manifest of a combined index.
+     *
+     * @param manifest The manifest.
+     * @return The jobs in the index, or an empty set if the manifest
+     * cannot be read.
+     */
+    private Set<Long> readManifest(File manifest) {
+        Set<Long> ids = new HashSet<Long>();
+        try {
+            for (String line : FileUtils.readListFromFile(manifest)) {
+                if (line.trim().length() > 0) {
+                    ids.add(Long.valueOf(line.trim()));
+                }
+            }
+        } catch (IOFailure e) {
+            log.debug("Could not read the manifest '" + manifest + "'", e);
+            ids.clear();
+        } catch (NumberFormatException e) {
+            log.warn("Invalid manifest '" + manifest + "' ignored", e);
+            ids.clear();
+        }
+        return ids;
+    }
+
     /**
      * Try to release all resources connected to the given ThreadPoolExecutor.
      * @param executor a ThreadPoolExecutor
@@ -455,6 +674,20 @@ public abstract class CrawlLogIndexCache extends
      */
     protected static DigestIndexer createStandardIndexer(String indexLocation) 
     throws IOException {
+        return createStandardIndexer(indexLocation, false);
+    }
+
+    /**
+     *  Create standard deduplication indexer.
+     * 
+     * @param indexLocation The full path to the indexing directory
+     * @param addToExistingIndex Whether to add to an index in the directory,
+     * rather than replace it.
+     * @return the created deduplication indexer.
+     * @throws IOException If unable to open the index.
+     */
+    protected static DigestIndexer createStandardIndexer(String indexLocation,
+            boolean addToExistingIndex) throws IOException {
         // Setup Lucene for indexing our crawllogs
         // MODE_BOTH: Both URL's and Hash are indexed: Alternatives:
         // DigestIndexer.MODE_HASH or DigestIndexer.MODE_URL
@@ -465,7 +698,6 @@ public abstract class CrawlLogIndexCache extends
         boolean includeTimestamp = true;
         // used to be 'etag' setting
         boolean includeEtag = true;
-        boolean addToExistingIndex = false;
         DigestIndexer indexer =
             new DigestIndexer(indexLocation,
                     indexingMode,
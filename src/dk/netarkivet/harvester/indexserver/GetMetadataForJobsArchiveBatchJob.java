@@ -0,0 +1,220 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
+import dk.netarkivet.common.utils.archive.ArchiveHeaderBase;
+import dk.netarkivet.common.utils.archive.ArchiveRecordBase;
+
+/**
+ * A batch job that extracts metadata for several jobs at a time, so the
+ * metadata of many jobs can be fetched with one run over the archive.
+ *
+ * The output is a sequence of blocks, which tell which job the output
+ * belongs to. Before the output from a metadata file there is a line
+ * <pre>F &lt;jobID&gt; &lt;filename&gt;</pre>
+ * and the content of matching records is written in blocks of a line
+ * <pre>D &lt;jobID&gt; &lt;length&gt;</pre>
+ * followed by length bytes of content.
+ * See RawMetadataCache for how the output is split.
+ */
+public class GetMetadataForJobsArchiveBatchJob extends ArchiveBatchJob {
+    /** Starts the line before the output of a metadata file. */
+    static final String FILE_BLOCK = "F";
+    /** Starts the line before a block of content. */
+    static final String DATA_BLOCK = "D";
+
+    /**
+     * Matches the names of metadata files, with the job ID in group 1 or 2.
+     * The files are named &lt;jobID&gt;-metadata-1.(w)arc, or
+     * &lt;collection&gt;-&lt;jobID&gt;-&lt;harvestID&gt;-metadata-1.(w)arc.
+     */
+    private static final Pattern METADATA_FILE_PATTERN = Pattern.compile(
+            "(?:([0-9]+)|.+-([0-9]+)-[0-9]+)"
+            + Constants.METADATA_FILE_PATTERN_SUFFIX);
+
+    /** The pattern for matching the urls.*/
+    private final Pattern urlMatcher;
+    /** The pattern for the mimetype matcher.*/
+    private final Pattern mimeMatcher;
+    /** The jobs to extract metadata for. */
+    private final Set<Long> jobIDs;
+
+    /** The metadata file of the records being processed. */
+    private transient String currentFile;
+    /** The job of the metadata file being processed. */
+    private transient Long currentJob;
+
+    /**
+     * Constructor. The batchJobTimeout is set to one day.
+     *
+     * @param urlMatcher A pattern for matching URLs of the desired entries.
+     * @param mimeMatcher A pattern for matching mime-types of the desired
+     * entries.
+     * @param jobIDs The jobs to extract metadata for.
+     * @throws ArgumentNotValid if any argument is null, or jobIDs is empty.
+     */
+    public GetMetadataForJobsArchiveBatchJob(Pattern urlMatcher,
+            Pattern mimeMatcher, Set<Long> jobIDs) {
+        ArgumentNotValid.checkNotNull(urlMatcher, "Pattern urlMatcher");
+        ArgumentNotValid.checkNotNull(mimeMatcher, "Pattern mimeMatcher");
+        ArgumentNotValid.checkNotNullOrEmpty(jobIDs, "Set<Long> jobIDs");
+        this.urlMatcher = urlMatcher;
+        this.mimeMatcher = mimeMatcher;
+        this.jobIDs = new HashSet<Long>(jobIDs);
+
+        List<String> filePatterns = new ArrayList<String>();
+        for (Long jobID : this.jobIDs) {
+            filePatterns.add("(?:" + jobID + "|.+-" + jobID + "-[0-9]+)"
+                             + Constants.METADATA_FILE_PATTERN_SUFFIX);
+        }
+        processOnlyFilesMatching(filePatterns);
+        batchJobTimeout = Constants.ONE_DAY_IN_MILLIES;
+    }
+
+    /**
+     * Get the job a metadata file belongs to.
+     *
+     * @param filename The name of a metadata file.
+     * @return The job ID, or null if the name is not that of a metadata file.
+     */
+    static Long getJobID(String filename) {
+        Matcher m = METADATA_FILE_PATTERN.matcher(filename);
+        if (!m.matches()) {
+            return null;
+        }
+        return Long.valueOf(m.group(1) != null ? m.group(1) : m.group(2));
+    }
+
+    /**
+     * Initialize method. Run before the arc-records are being processed.
+     * Currently does nothing.
+     *
+     * @param os The output stream to print any pre-processing data.
+     */
+    @Override
+    public void initialize(OutputStream os) { }
+
+    /**
+     * Write the content of a record to the output, if it matches the
+     * patterns. The first record of a metadata file is preceded by a line
+     * telling the job of the file.
+     *
+     * @param record The arc-record to process.
+     * @param os The output stream to write the results of the processing.
+     * @throws IOFailure In an IOException is caught during handling of
+     * the arc record.
+     */
+    @Override
+    public void processRecord(ArchiveRecordBase record, OutputStream os)
+            throws IOFailure {
+        ArchiveHeaderBase header = record.getHeader();
+        InputStream in = record.getInputStream();
+        try {
+            String filename = header.getArchiveFile().getName();
+            if (!filename.equals(currentFile)) {
+                currentFile = filename;
+                currentJob = getJobID(filename);
+                if (currentJob != null && jobIDs.contains(currentJob)) {
+                    writeLine(os, FILE_BLOCK + " " + currentJob + " "
+                                  + filename);
+                } else {
+                    currentJob = null;
+                }
+            }
+            if (currentJob == null || header.getUrl() == null) {
+                return;
+            }
+            if (urlMatcher.matcher(header.getUrl()).matches()
+                    && mimeMatcher.matcher(header.getMimetype()).matches()) {
+                byte[] buf = new byte[Constants.IO_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buf)) != -1) {
+                    writeLine(os, DATA_BLOCK + " " + currentJob + " "
+                                  + bytesRead);
+                    os.write(buf, 0, bytesRead);
+                }
+            }
+        } catch (IOException e) {
+            String message = "Error writing body of Archive entry '"
+                    + header.getArchiveFile() + "' offset '"
+                    + header.getOffset() + "'";
+            throw new IOFailure(message, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new IOFailure("Error closing Archive input stream", e);
+            }
+        }
+    }
+
+    /**
+     * Write a line telling what follows in the output.
+     *
+     * @param os The output stream.
+     * @param line The line, without line separator.
+     * @throws IOException If writing fails.
+     */
+    private static void writeLine(OutputStream os, String line)
+            throws IOException {
+        os.write((line + "\n").getBytes("US-ASCII"));
+    }
+
+    /**
+     * Method for post-processing the data.
+     * Currently does nothing.
+     *
+     * @param os The output stream to write the results of the
+     * post-processing data.
+     */
+    @Override
+    public void finish(OutputStream os) { }
+
+    /**
+     * Humanly readable description of this instance.
+     *
+     * @return The human readable description of this instance.
+     */
+    @Override
+    public String toString() {
+        return getClass().getName() + ", with arguments: URLMatcher = "
+               + urlMatcher + ", mimeMatcher = " + mimeMatcher
+               + ", jobs = " + jobIDs;
+    }
+}
@@ -25,7 +25,28 @@
  */
 package dk.netarkivet.harvester.indexserver;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -39,6 +60,8 @@ import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
 import dk.netarkivet.harvester.HarvesterSettings;
@@ -48,6 +71,10 @@ import dk.netarkivet.harvester.HarvesterSettings;
  * of metadata files.  It uses regular expressions for matching URL and
  * mime-type of ARC entries for the kind of metadata we want.
  *
+ * When the data for several jobs is requested with get(Set), the jobs not
+ * already cached are fetched with batch jobs that each extract the metadata
+ * for a number of jobs, see GetMetadataForJobsArchiveBatchJob. The batch
+ * jobs are run in parallel.
  */
 public class RawMetadataCache extends FileBasedCache<Long>
         implements RawDataCache {
@@ -63,6 +90,19 @@ public class RawMetadataCache extends FileBasedCache<Long>
 
     /** The job that we use to dig through metadata files. */
     private final ArchiveBatchJob job;
+    /** The pattern for the URLs of the desired entries. */
+    private final Pattern urlMatcher;
+    /** The pattern for the mime-types of the desired entries. */
+    private final Pattern mimeMatcher;
+
+    /** Marks a job found to have no metadata in prefetched. */
+    private static final File NO_DATA = new File("");
+    /**
+     * Metadata fetched by get(Set) that has not yet been moved into the
+     * cache, by job ID. Jobs found to have no metadata map to NO_DATA.
+     */
+    private final ConcurrentMap<Long, File> prefetched
+            = new ConcurrentHashMap<Long, File>();
 
     /** The logger for this class. */
     private final Log log = LogFactory.getLog(getClass());
@@ -102,6 +142,8 @@ public class RawMetadataCache extends FileBasedCache<Long>
                  + " metadata with urls matching '" + urlMatcher1.toString()
                  + "' and mimetype matching '" + mimeMatcher1 + "'");
         job = new GetMetadataArchiveBatchJob(urlMatcher1, mimeMatcher1);
+        this.urlMatcher = urlMatcher1;
+        this.mimeMatcher = mimeMatcher1;
     }
 
     /** Get the file potentially containing (cached) data for a single job.
@@ -125,6 +167,17 @@ public class RawMetadataCache extends FileBasedCache<Long>
      * getCacheFile(ID);
      */
     protected Long cacheData(Long id) {
+        File data = prefetched.remove(id);
+        if (data == NO_DATA) {
+            log.info("No data found for job '" + id + "' for '" + prefix
+                     + "' in the bitarchive replicas searched");
+            return null;
+        } else if (data != null) {
+            FileUtils.moveFile(data, getCacheFile(id));
+            log.debug("Cached prefetched data for job '" + id
+                      + "' for '" + prefix + "'");
+            return id;
+        }
         final String replicaUsed = Settings.get(CommonSettings.USE_REPLICA_ID);
         log.debug("Extract using a batchjob of type '"
                 + job.getClass().getName()
@@ -187,4 +240,261 @@ public class RawMetadataCache extends FileBasedCache<Long>
             }
         }
     }
+
+    /**
+     * Get the cached data for a number of jobs. The jobs not already cached
+     * are fetched with batch jobs extracting the metadata of several jobs
+     * at a time, run in parallel. Jobs that cannot be fetched that way are
+     * fetched one at a time.
+     *
+     * @param ids The jobs to get data for.
+     * @return A map from job ID to the file with the cached data for the job,
+     * or to null if there is no data for the job.
+     * @throws ArgumentNotValid if ids is null.
+     */
+    @Override
+    public Map<Long, File> get(Set<Long> ids) {
+        ArgumentNotValid.checkNotNull(ids, "Set<Long> ids");
+        Set<Long> uncached = new TreeSet<Long>();
+        for (Long id : ids) {
+            if (!getCacheFile(id).exists()) {
+                uncached.add(id);
+            }
+        }
+        if (uncached.size() <= 1) {
+            return super.get(ids);
+        }
+        try {
+            prefetch(uncached);
+            return super.get(ids);
+        } finally {
+            // Data not moved into the cache by cacheData
+            for (Long id : uncached) {
+                File data = prefetched.remove(id);
+                if (data != null && data != NO_DATA) {
+                    FileUtils.remove(data);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetch the data for a number of jobs into prefetched. The jobs are
+     * divided into chunks, and the chunks are fetched in parallel.
+     *
+     * @param ids The jobs to fetch data for.
+     */
+    private void prefetch(Set<Long> ids) {
+        int jobsPerBatch = Settings.getInt(
+                HarvesterSettings.INDEXSERVER_INDEXING_METADATA_JOBS_PER_BATCH);
+        List<Set<Long>> chunks = new ArrayList<Set<Long>>();
+        Set<Long> chunk = null;
+        for (Long id : ids) {
+            if (chunk == null || chunk.size() >= jobsPerBatch) {
+                chunk = new TreeSet<Long>();
+                chunks.add(chunk);
+            }
+            chunk.add(id);
+        }
+        int threads = Math.min(chunks.size(), Settings.getInt(
+                HarvesterSettings.INDEXSERVER_INDEXING_METADATA_BATCH_THREADS));
+        log.info("Fetching data for " + ids.size() + " jobs for '" + prefix
+                 + "' with " + chunks.size() + " batch jobs, " + threads
+                 + " at a time");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        try {
+            for (final Set<Long> jobIDs : chunks) {
+                results.add(executor.submit(new Runnable() {
+                    public void run() {
+                        prefetchChunk(jobIDs);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (InterruptedException e) {
+                    log.warn("Interrupted while fetching data for '" + prefix
+                             + "'. The jobs will be fetched one at a time", e);
+                } catch (ExecutionException e) {
+                    log.warn("Could not fetch data for several jobs for '"
+                             + prefix + "'. The jobs will be fetched one at "
+                             + "a time", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetch the data for some jobs into prefetched with one batch job. If
+     * enabled, the jobs not found in the replica used are looked for in the
+     * other bitarchive replicas.
+     *
+     * @param ids The jobs to fetch data for.
+     * @throws IOFailure if the results of a batch job cannot be read.
+     */
+    private void prefetchChunk(Set<Long> ids) {
+        List<String> replicas = new ArrayList<String>();
+        String replicaUsed = Settings.get(CommonSettings.USE_REPLICA_ID);
+        replicas.add(replicaUsed);
+        if (Settings.getBoolean(HarvesterSettings
+                .INDEXSERVER_INDEXING_LOOKFORDATAINOTHERBITARCHIVEREPLICAS)) {
+            for (Replica rep : Replica.getKnown()) {
+                if (rep.getType().equals(ReplicaType.BITARCHIVE)
+                        && !rep.getId().equals(replicaUsed)) {
+                    replicas.add(rep.getId());
+                }
+            }
+        }
+        Set<Long> missing = new TreeSet<Long>(ids);
+        for (String replicaId : replicas) {
+            if (missing.isEmpty()) {
+                break;
+            }
+            log.debug("Extract data for jobs " + missing + " for '" + prefix
+                      + "' from replica '" + replicaId + "'");
+            BatchStatus b = arcrep.batch(new GetMetadataForJobsArchiveBatchJob(
+                    urlMatcher, mimeMatcher, missing), replicaId);
+            missing.removeAll(stageResults(b));
+        }
+        for (Long id : missing) {
+            prefetched.putIfAbsent(id, NO_DATA);
+        }
+    }
+
+    /**
+     * Split the results of a GetMetadataForJobsArchiveBatchJob into a file
+     * for each job, and add the files to prefetched. Only jobs with at least
+     * one metadata file processed without failure are added, as for a
+     * single job in cacheData.
+     *
+     * @param b The status of the batch job.
+     * @return The jobs added.
+     * @throws IOFailure if the results cannot be read or split.
+     */
+    private Set<Long> stageResults(BatchStatus b) {
+        if (!b.hasResultFile()) {
+            return Collections.emptySet();
+        }
+        Map<Long, File> staged = new HashMap<Long, File>();
+        Map<Long, OutputStream> outputs = new HashMap<Long, OutputStream>();
+        Map<Long, Set<String>> metadataFiles = new HashMap<Long, Set<String>>();
+        File results = null;
+        boolean split = false;
+        try {
+            results = File.createTempFile(prefix + "-", ".batch",
+                                          getCacheDir());
+            b.copyResults(results);
+            InputStream in = new BufferedInputStream(
+                    new FileInputStream(results));
+            try {
+                byte[] buf = new byte[Constants.IO_BUFFER_SIZE];
+                String line;
+                while ((line = readLine(in)) != null) {
+                    String[] parts = line.split(" ", 3);
+                    if (parts.length != 3) {
+                        throw new IOFailure("Unexpected line '" + line
+                                            + "' in batch results");
+                    }
+                    Long id = Long.valueOf(parts[1]);
+                    OutputStream out = outputs.get(id);
+                    if (out == null) {
+                        File file = File.createTempFile(prefix + "-" + id
+                                + "-", ".prefetch", getCacheDir());
+                        staged.put(id, file);
+                        out = new FileOutputStream(file);
+                        outputs.put(id, out);
+                    }
+                    if (GetMetadataForJobsArchiveBatchJob.FILE_BLOCK.equals(
+                            parts[0])) {
+                        if (!metadataFiles.containsKey(id)) {
+                            metadataFiles.put(id, new HashSet<String>());
+                        }
+                        metadataFiles.get(id).add(parts[2]);
+                    } else if (GetMetadataForJobsArchiveBatchJob.DATA_BLOCK
+                            .equals(parts[0])) {
+                        long remaining = Long.parseLong(parts[2]);
+                        while (remaining > 0) {
+                            int bytesRead = in.read(buf, 0,
+                                    (int) Math.min(buf.length, remaining));
+                            if (bytesRead == -1) {
+                                throw new IOFailure("Batch results ended "
+                                                    + "in a block of data");
+                            }
+                            out.write(buf, 0, bytesRead);
+                            remaining -= bytesRead;
+                        }
+                    } else {
+                        throw new IOFailure("Unexpected line '" + line
+                                            + "' in batch results");
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            split = true;
+        } catch (IOException e) {
+            throw new IOFailure("Could not split batch results for '"
+                                + prefix + "'", e);
+        } finally {
+            for (OutputStream out : outputs.values()) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.debug("Could not close prefetched data", e);
+                }
+            }
+            if (results != null) {
+                FileUtils.remove(results);
+            }
+            if (!split) {
+                for (File file : staged.values()) {
+                    FileUtils.remove(file);
+                }
+            }
+        }
+
+        Set<String> failed = new HashSet<String>();
+        for (File file : b.getFilesFailed()) {
+            failed.add(file.getName());
+        }
+        Set<Long> found = new HashSet<Long>();
+        for (Map.Entry<Long, File> entry : staged.entrySet()) {
+            Long id = entry.getKey();
+            Set<String> processed = metadataFiles.get(id);
+            if (processed != null && !failed.containsAll(processed)) {
+                found.add(id);
+                if (prefetched.putIfAbsent(id, entry.getValue()) == null) {
+                    continue;
+                }
+            }
+            FileUtils.remove(entry.getValue());
+        }
+        log.debug("Fetched data for " + found.size() + " jobs for '"
+                  + prefix + "'");
+        return found;
+    }
+
+    /**
+     * Read a line of ASCII from a stream.
+     *
+     * @param in The stream.
+     * @return The line without the line separator, or null at the end of
+     * the stream.
+     * @throws IOException If reading fails.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
 }
@@ -46,6 +46,7 @@ import dk.netarkivet.harvester.datamodel.HarvestChannelDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.PartialHarvest;
 import dk.netarkivet.harvester.datamodel.Schedule;
 
@@ -69,6 +70,11 @@ abstract class AbstractJobGenerator implements JobGenerator {
     private final long DOMAIN_CONFIG_SUBSET_SIZE =
             Settings.getLong(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE);
 
+    /**
+     * How many finished jobs to collect before storing them in one go.
+     */
+    private static final int JOBS_STORED_AT_A_TIME = 50;
+
     /** Is deduplication enabled or disabled. **/
     private final boolean DEDUPLICATION_ENABLED =
         Settings.getBoolean(HarvesterSettings.DEDUPLICATION_ENABLED);  
@@ -86,15 +92,7 @@ abstract class AbstractJobGenerator implements JobGenerator {
                     && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
                 subset.add(domainConfigurations.next());
             }
-            
-            Collections.sort(
-                    subset,
-                    getDomainConfigurationSubsetComparator(harvest));
-            if (log.isTraceEnabled()) {
-                log.trace(subset.size() + " domainconfigs now sorted and ready to processing "
-                        + "for harvest #" + harvest.getOid());
-            }
-            jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
+            jobsMade += sortAndProcessDomainConfigurationSubset(harvest, subset);
         }
         harvest.setNumEvents(harvest.getNumEvents() + 1);
 
@@ -163,6 +161,51 @@ abstract class AbstractJobGenerator implements JobGenerator {
         return Job.createJob(harvest.getOid(), channel, cfg, harvest.getNumEvents());
     }
 
+    /**
+     * Sorts a subset of configurations with the comparator from
+     * {@link #getDomainConfigurationSubsetComparator(HarvestDefinition)}, and
+     * creates new jobs from them.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the configurations to use to create the jobs
+     * @return The number of jobs created
+     */
+    protected int sortAndProcessDomainConfigurationSubset(
+            HarvestDefinition harvest, List<DomainConfiguration> subset) {
+        Collections.sort(
+                subset,
+                getDomainConfigurationSubsetComparator(harvest));
+        if (log.isTraceEnabled()) {
+            log.trace(subset.size() + " domainconfigs now sorted and ready to processing "
+                    + "for harvest #" + harvest.getOid());
+        }
+        return processDomainConfigurationSubset(harvest, subset.iterator());
+    }
+
+    /**
+     * Stores finished jobs in the database, if enough have been collected to
+     * store them in one go.
+     * @param jobs the finished jobs not yet stored. Emptied if they are
+     * stored.
+     */
+    protected void storeJobsIfMany(List<Job> jobs) {
+        if (jobs.size() >= JOBS_STORED_AT_A_TIME) {
+            storeJobs(jobs);
+        }
+    }
+
+    /**
+     * Stores finished jobs in the database.
+     * @param jobs the finished jobs not yet stored. Emptied when they are
+     * stored.
+     */
+    protected void storeJobs(List<Job> jobs) {
+        if (!jobs.isEmpty()) {
+            JobDAO.getInstance().createAll(jobs);
+            jobs.clear();
+        }
+    }
+
     /**
      * Returns a comparator used to sort the subset of {@link #DOMAIN_CONFIG_SUBSET_SIZE}
      * configurations that are scanned at each iteration.
@@ -257,7 +300,7 @@ abstract class AbstractJobGenerator implements JobGenerator {
      * @param cfg a given DomainConfiguration
      * @return true, if the given DomainConfiguration can be inserted into the given job
      */
-    private boolean checkAddDomainConfInvariant(Job job, DomainConfiguration cfg) {
+    protected boolean checkAddDomainConfInvariant(Job job, DomainConfiguration cfg) {
         ArgumentNotValid.checkNotNull(job, "job");
         ArgumentNotValid.checkNotNull(cfg, "cfg");
 
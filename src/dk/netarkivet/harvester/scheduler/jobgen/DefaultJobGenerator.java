@@ -24,20 +24,22 @@
  */
 package dk.netarkivet.harvester.scheduler.jobgen;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.IteratorUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.Job;
-import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.NumberUtils;
 
 /**
@@ -153,13 +155,51 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
     protected int processDomainConfigurationSubset(
             HarvestDefinition harvest,
             Iterator<DomainConfiguration> domainConfSubset) {
+        return processDomainConfigurationSubset(harvest,
+                new ExpectedSizeTable(IteratorUtils.toList(domainConfSubset),
+                        harvest.getMaxCountObjects(), harvest.getMaxBytes()));
+    }
+
+    /**
+     * Sorts a subset of configurations by template, byte limit and expected
+     * number of objects, and creates new jobs from them. The expected
+     * number of objects is only calculated once for each configuration.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the configurations to use to create the jobs
+     * @return The number of jobs created
+     */
+    @Override
+    protected int sortAndProcessDomainConfigurationSubset(
+            HarvestDefinition harvest, List<DomainConfiguration> subset) {
+        ExpectedSizeTable table = new ExpectedSizeTable(subset,
+                harvest.getMaxCountObjects(), harvest.getMaxBytes());
+        table.sort();
+        if (log.isTraceEnabled()) {
+            log.trace(table.size() + " domainconfigs now sorted and ready "
+                    + "to processing for harvest #" + harvest.getOid());
+        }
+        return processDomainConfigurationSubset(harvest, table);
+    }
+
+    /**
+     * Create new jobs from the configurations of a table, in the order of
+     * the table. All configurations must use the same order.xml file.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param table the configurations to use to create the jobs, with their
+     * expected number of objects
+     * @return The number of jobs created
+     */
+    private int processDomainConfigurationSubset(HarvestDefinition harvest,
+            ExpectedSizeTable table) {
         int jobsMade = 0;
         Job job = null;
         log.debug("Adding domainconfigs with the same order.xml for harvest # " 
                 + harvest.getOid());
-        JobDAO dao = JobDAO.getInstance();
-        while (domainConfSubset.hasNext()) {
-            DomainConfiguration cfg = domainConfSubset.next();
+        List<Job> jobsToStore = new ArrayList<Job>();
+        for (int i = 0; i < table.size(); i++) {
+            DomainConfiguration cfg = table.getConfiguration(i);
             if (EXCLUDE_ZERO_BUDGET 
                         && (0 == cfg.getMaxBytes() || 0 == cfg.getMaxObjects())) {
                     log.info("Config '" + cfg.getName() + "' for '" + cfg.getDomainName() + "'" 
@@ -169,11 +209,12 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
                     continue;
             }
             // Do we need to create a new Job or is the current job ok
-            if ((job == null) || (!canAccept(job, cfg))) {
+            if ((job == null) || (!canAccept(job, table, i))) {
                 if (job != null) {
                     // If we're done with a job, write it out
                     jobsMade++;
-                    dao.create(job);
+                    jobsToStore.add(job);
+                    storeJobsIfMany(jobsToStore);
                 }
                 job = getNewJob(harvest, cfg);
                 if (log.isTraceEnabled()) {
@@ -192,7 +233,8 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
         if (job != null) {
             jobsMade++;
             editJobOrderXml(job);
-            dao.create(job);
+            jobsToStore.add(job);
+            storeJobs(jobsToStore);
             if (log.isTraceEnabled()) {
                 log.trace("Generated job: '" + job.toString() + "'");
 
@@ -215,8 +257,48 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
         return jobsMade;
     }
 
+    /**
+     * Check whether a job can accept a configuration of a table, using the
+     * expected number of objects of the table.
+     *
+     * @param job the {@link Job} being built
+     * @param table the configurations being processed
+     * @param i the index of the configuration in the table
+     * @return true if the configuration can be added to the job
+     */
+    private boolean canAccept(Job job, ExpectedSizeTable table, int i) {
+        DomainConfiguration cfg = table.getConfiguration(i);
+        if (!checkAddDomainConfInvariant(job, cfg)) {
+            return false;
+        }
+        return checkSpecificAcceptConditions(job, cfg,
+                table.getExpectedNumberOfObjects(i,
+                        job.getForceMaxObjectsPerDomain(),
+                        job.getForceMaxBytesPerDomain()));
+    }
+
     @Override
     protected boolean checkSpecificAcceptConditions(Job job, DomainConfiguration cfg) {
+        // The expected number of objects retrieved by this job from
+        // the configuration based on historical harvest results.
+        long expectation = cfg.getExpectedNumberOfObjects(
+                job.getForceMaxObjectsPerDomain(),
+                job.getForceMaxBytesPerDomain());
+        return checkSpecificAcceptConditions(job, cfg, expectation);
+    }
+
+    /**
+     * Tests the conditions of this job generator for accepting a
+     * configuration in a job.
+     *
+     * @param job the {@link Job} being built
+     * @param cfg the {@link DomainConfiguration} to test
+     * @param expectation the expected number of objects retrieved by the job
+     * from the configuration
+     * @return true if the configuration passes the conditions.
+     */
+    private boolean checkSpecificAcceptConditions(Job job,
+            DomainConfiguration cfg, long expectation) {
 
         // By default byte limit is used as base criterion for splitting a
         // harvest in config chunks, however the configuration can override
@@ -250,12 +332,6 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
 
         assert (maxCountObjects >= minCountObjects) : "basic invariant";
 
-        // The expected number of objects retrieved by this job from
-        // the configuration based on historical harvest results.
-        long expectation = cfg.getExpectedNumberOfObjects(
-                forceMaxObjectsPerDomain,
-                forceMaxBytesPerDomain);
-
         // Check if total count is exceeded
         long totalCountObjects = job.getTotalCountObjects();
         if ((totalCountObjects > 0)
@@ -0,0 +1,162 @@
+/* File:             $Id$
+ * Revision:         $Revision$
+ * Author:           $Author$
+ * Date:             $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.NumberUtils;
+
+/**
+ * The expected number of objects of a subset of domain configurations,
+ * calculated once for each configuration given the limits of a harvest.
+ *
+ * Calculating the expected number of objects means scanning the history of
+ * the configuration, so doing it for every comparison made while sorting
+ * and for every check made while making jobs is expensive for large
+ * harvests.
+ */
+public final class ExpectedSizeTable {
+    /** The configurations. */
+    private final DomainConfiguration[] configs;
+    /** The byte limit of each configuration, given the harvest limit. */
+    private final long[] byteLimits;
+    /** The expected number of objects of each configuration. */
+    private final long[] expectations;
+    /** The object limit the expectations are calculated with. */
+    private final long objectLimit;
+    /** The byte limit the expectations are calculated with. */
+    private final long byteLimit;
+
+    /**
+     * Calculate the expected number of objects of some configurations.
+     *
+     * @param configs The configurations.
+     * @param objectLimit The object limit of the harvest, or
+     * Constants.HERITRIX_MAXOBJECTS_INFINITY for no limit.
+     * @param byteLimit The byte limit of the harvest, or
+     * Constants.HERITRIX_MAXBYTES_INFINITY for no limit.
+     * @throws ArgumentNotValid if configs is null.
+     */
+    public ExpectedSizeTable(List<DomainConfiguration> configs,
+            long objectLimit, long byteLimit) {
+        ArgumentNotValid.checkNotNull(configs,
+                "List<DomainConfiguration> configs");
+        this.configs = configs.toArray(
+                new DomainConfiguration[configs.size()]);
+        this.objectLimit = objectLimit;
+        this.byteLimit = byteLimit;
+        byteLimits = new long[this.configs.length];
+        expectations = new long[this.configs.length];
+        for (int i = 0; i < this.configs.length; i++) {
+            DomainConfiguration cfg = this.configs[i];
+            byteLimits[i] = NumberUtils.minInf(cfg.getMaxBytes(), byteLimit);
+            expectations[i] = cfg.getExpectedNumberOfObjects(objectLimit,
+                    byteLimit);
+        }
+    }
+
+    /**
+     * Sort the configurations in the order of
+     * DefaultJobGenerator.CompareConfigsDesc, that is by harvest template,
+     * then byte limit and then expected number of objects, with the largest
+     * configurations first.
+     */
+    public void sort() {
+        Integer[] order = new Integer[configs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                int cmp = configs[i1].getOrderXmlName().compareTo(
+                        configs[i2].getOrderXmlName());
+                if (cmp != 0) {
+                    return cmp;
+                }
+                cmp = NumberUtils.compareInf(byteLimits[i2], byteLimits[i1]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                long res = expectations[i2] - expectations[i1];
+                if (res != 0L) {
+                    return res < 0L ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+        DomainConfiguration[] sortedConfigs =
+                new DomainConfiguration[configs.length];
+        long[] sortedByteLimits = new long[configs.length];
+        long[] sortedExpectations = new long[configs.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedConfigs[i] = configs[order[i]];
+            sortedByteLimits[i] = byteLimits[order[i]];
+            sortedExpectations[i] = expectations[order[i]];
+        }
+        System.arraycopy(sortedConfigs, 0, configs, 0, configs.length);
+        System.arraycopy(sortedByteLimits, 0, byteLimits, 0, configs.length);
+        System.arraycopy(sortedExpectations, 0, expectations, 0,
+                configs.length);
+    }
+
+    /**
+     * @return The number of configurations in the table.
+     */
+    public int size() {
+        return configs.length;
+    }
+
+    /**
+     * @param i An index in the table.
+     * @return The configuration at the index.
+     */
+    public DomainConfiguration getConfiguration(int i) {
+        return configs[i];
+    }
+
+    /**
+     * Get the expected number of objects of the configuration at an index.
+     * If the limits are not the ones the table was made with, the
+     * expectation is calculated.
+     *
+     * @param i An index in the table.
+     * @param objectLimit The object limit, or
+     * Constants.HERITRIX_MAXOBJECTS_INFINITY for no limit.
+     * @param byteLimit The byte limit, or
+     * Constants.HERITRIX_MAXBYTES_INFINITY for no limit.
+     * @return The expected number of objects.
+     */
+    public long getExpectedNumberOfObjects(int i, long objectLimit,
+            long byteLimit) {
+        if (objectLimit == this.objectLimit && byteLimit == this.byteLimit) {
+            return expectations[i];
+        }
+        return configs[i].getExpectedNumberOfObjects(objectLimit, byteLimit);
+    }
+}
@@ -24,9 +24,11 @@
  */
 package dk.netarkivet.harvester.scheduler.jobgen;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -38,7 +40,6 @@ import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.Job;
-import dk.netarkivet.harvester.datamodel.JobDAO;
 
 /**
  * Job generator implementation. Generates jobs with a fixed number of domain
@@ -173,11 +174,6 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
      */
     private Map<Long, HarvestJobGenerationState> state;
 
-    /**
-     * The job DAO instance (singleton).
-     */
-    private JobDAO dao = JobDAO.getInstance();
-    
     /** Logger for this class. */
     private Log log = LogFactory.getLog(getClass());
     
@@ -218,14 +214,16 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
             // Look if we have jobs that have not reached their limit, but are complete
             // as we have finished processing the harvest
             if (!jobsUnderConstruction.isEmpty()) {
+                List<Job> jobsToStore = new ArrayList<Job>();
                 for (Job job : jobsUnderConstruction.values()) {
                     // The job is ready, post-process and store it in DB
                     editJobOrderXml(job);
-                    dao.create(job);
+                    jobsToStore.add(job);
 
                     // Increment counter
                     jobsComplete++;
                 }
+                storeJobs(jobsToStore);
             }
 
             return jobsComplete;
@@ -241,6 +239,7 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
     	
     	HarvestJobGenerationState jobsUnderConstruction = getExistingStateForHarvest(harvest);
         int jobsComplete = 0;
+        List<Job> jobsToStore = new ArrayList<Job>();
         while (domainConfSubset.hasNext()) {
             DomainConfiguration cfg = domainConfSubset.next();
             
@@ -264,7 +263,8 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
                 } else {
                     // The job is ready, post-process and store it in DB
                     editJobOrderXml(match);
-                    dao.create(match);
+                    jobsToStore.add(match);
+                    storeJobsIfMany(jobsToStore);
 
                     // Increment counter
                     jobsComplete++;
@@ -274,6 +274,7 @@ public class FixedDomainConfigurationCountJobGenerator extends AbstractJobGenera
                 }
             }
         }
+        storeJobs(jobsToStore);
         return jobsComplete;
     }
 
@@ -31,16 +31,25 @@ import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.arc.ARCKey;
 import dk.netarkivet.harvester.HarvesterSettings;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.logging.Log;
@@ -75,9 +84,29 @@ public class ARCArchiveAccess implements URIResolver {
     private static final Pattern HTTP_HEADER_PATTERN =
         Pattern.compile("^HTTP/1\\.[01] (\\d+) (.*)$");
 
+    /** The content type of HTML pages. */
+    private static final String HTML_CONTENT_TYPE = "text/html";
+    /** The number of bytes of an HTML page searched for links to fetch in
+     * advance. */
+    private static final int MAX_PREFETCH_PAGE_SIZE = 1000000;
+    /** The maximum number of links of an HTML page fetched in advance. */
+    private static final int MAX_PREFETCH_LINKS = 500;
+
+    /** Matches links and embedded objects in HTML. Group 1 matches a
+     * double quoted link like src="foo.gif", group 2 a single quoted link
+     * like HREF='/bar' and group 3 an unquoted link like background=baz.png.
+     */
+    private static final Pattern LINK_PATTERN = Pattern.compile(
+            "(?i)\\b(?:src|href|background)\\s*=\\s*"
+            + "(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+
     /** The underlying ARC record lookup object. */
     private ARCLookup lookup;
 
+    /** The cache of records the lookup object gets its records from, or
+     * null if records are not cached. */
+    private CachingViewerArcRepositoryClient recordCache;
+
     /** Logger for this class. */
     private final Log log = LogFactory.getLog(getClass().getName());
     
@@ -95,7 +124,16 @@ public class ARCArchiveAccess implements URIResolver {
     public ARCArchiveAccess(ViewerArcRepositoryClient arcRepositoryClient) {
         ArgumentNotValid.checkNotNull(
                 arcRepositoryClient, "ArcRepositoryClient arcRepositoryClient");
-        lookup = new ARCLookup(arcRepositoryClient);
+        long recordCacheSize = Settings.getLong(
+                HarvesterSettings.VIEWERPROXY_RECORD_CACHE_SIZE);
+        if (recordCacheSize > 0) {
+            recordCache = new CachingViewerArcRepositoryClient(
+                    arcRepositoryClient, recordCacheSize, Settings.getInt(
+                            HarvesterSettings.VIEWERPROXY_PREFETCH_THREADS));
+            lookup = new ARCLookup(recordCache);
+        } else {
+            lookup = new ARCLookup(arcRepositoryClient);
+        }
         lookup.setTryToLookupUriAsFtp(tryToLookupUriAsFtp);
     }
 
@@ -112,6 +150,8 @@ public class ARCArchiveAccess implements URIResolver {
     }
 
     /** Look up a given URI and add its contents to the Response given.
+     * If the contents is an HTML page, the records of the pages and objects
+     * it links to are then fetched in advance.
      * @param request The request to look up record for
      * @param response The response to return to the browser
      * @return The response code for this page if found, or
@@ -135,11 +175,21 @@ public class ARCArchiveAccess implements URIResolver {
             }
             contentStream = content.getInputStream();
             // First write the original header.
+            String contentType = null;
             if (content.containsHeader()) {
-                writeHeader(contentStream, response);
+                contentType = writeHeader(contentStream, response);
+            }
+            PageCopyingInputStream page = null;
+            if (recordCache != null && contentType != null
+                && contentType.toLowerCase().startsWith(HTML_CONTENT_TYPE)) {
+                page = new PageCopyingInputStream(contentStream);
+                contentStream = page;
             }
             // Now flush the content to the browser.
             readPage(contentStream, response.getOutputStream());
+            if (page != null) {
+                prefetchLinks(uri, page.getCopy());
+            }
         } finally {
             if (contentStream != null) {
                 try {
@@ -207,9 +257,12 @@ public class ARCArchiveAccess implements URIResolver {
      *
      * @param is A stream to read the header from.
      * @param response A Response to write the header, status and reason to.
+     * @return The value of the Content-Type header, or null if there is
+     * none.
      * @throws IOFailure If the underlying reads or writes fail.
      */
-    private void writeHeader(InputStream is, Response response) {
+    private String writeHeader(InputStream is, Response response) {
+        String contentType = null;
         // Reads until the end of the header (indicated by an empty line)
         try {
             for (String line = readLine(is);
@@ -232,6 +285,9 @@ public class ARCArchiveAccess implements URIResolver {
                         log.debug("Malformed header line '" + line + "'");
                     } else {
                         String name = parts[0];
+                        if (name.trim().equalsIgnoreCase("Content-Type")) {
+                            contentType = parts[1].trim();
+                        }
                         String contents = filterHeader(name,
                                                        parts[1].trim());
                         if (contents != null) {
@@ -245,6 +301,81 @@ public class ARCArchiveAccess implements URIResolver {
             throw new IOFailure("Trouble reading from input stream or writing"
                                 + " to output stream", e);
         }
+        return contentType;
+    }
+
+    /** Fetch the records of the pages and objects an HTML page links to in
+     * advance, so they are cached when the browser asks for them. The links
+     * are found and looked up in the index by the threads fetching the
+     * records, not by the thread answering the request.
+     * Failures are logged, but otherwise ignored.
+     *
+     * @param uri The URI of the page.
+     * @param page The start of the page.
+     */
+    private void prefetchLinks(final URI uri, final byte[] page) {
+        recordCache.prefetch(new Callable<List<ARCKey>>() {
+            public List<ARCKey> call() {
+                List<ARCKey> keys = new ArrayList<ARCKey>();
+                try {
+                    for (URI link : findLinks(uri, page)) {
+                        ARCKey key = lookup.lookupKey(link);
+                        if (key != null) {
+                            keys.add(key);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.debug("Could not fetch the links of '" + uri
+                              + "' in advance", e);
+                }
+                log.debug("Fetching " + keys.size() + " records linked from '"
+                          + uri + "' in advance");
+                return keys;
+            }
+        });
+    }
+
+    /** Find the HTTP links and embedded objects of an HTML page.
+     *
+     * @param uri The URI of the page, which relative links are resolved
+     * against.
+     * @param page The page.
+     * @return The absolute URIs of the links without fragments, each only
+     * once, and at most MAX_PREFETCH_LINKS of them.
+     */
+    static Set<URI> findLinks(URI uri, byte[] page) {
+        Set<URI> links = new LinkedHashSet<URI>();
+        // ISO-8859-1 maps each byte to a char, whatever the charset is
+        Matcher m = LINK_PATTERN.matcher(new String(page,
+                Charset.forName("ISO-8859-1")));
+        while (m.find() && links.size() < MAX_PREFETCH_LINKS) {
+            String link = m.group(1);
+            if (link == null) {
+                link = m.group(2);
+            }
+            if (link == null) {
+                link = m.group(3);
+            }
+            link = link.trim().replace("&amp;", "&");
+            if (link.length() == 0) {
+                // The page itself
+                continue;
+            }
+            try {
+                URI linkUri = uri.resolve(new URI(link));
+                String scheme = linkUri.getScheme();
+                if (scheme != null && (scheme.equalsIgnoreCase("http")
+                                       || scheme.equalsIgnoreCase("https"))) {
+                    links.add(new URI(scheme,
+                            linkUri.getSchemeSpecificPart(), null));
+                }
+            } catch (URISyntaxException e) {
+                // Not a link we can look up
+            } catch (IllegalArgumentException e) {
+                // Not a link we can look up
+            }
+        }
+        return links;
     }
 
     /** Read an entire page body into some stream.
@@ -317,4 +448,40 @@ public class ARCArchiveAccess implements URIResolver {
         }
         return buf.toByteArray();
     }
+
+    /** An InputStream that keeps a copy of the first
+     * MAX_PREFETCH_PAGE_SIZE bytes read through it. */
+    private static class PageCopyingInputStream extends FilterInputStream {
+        /** The bytes read so far. */
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        /** Copy the start of a stream.
+         * @param in The stream.
+         */
+        PageCopyingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && copy.size() < MAX_PREFETCH_PAGE_SIZE) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                copy.write(b, off,
+                        Math.min(n, MAX_PREFETCH_PAGE_SIZE - copy.size()));
+            }
+            return n;
+        }
+
+        /** @return The bytes read so far. */
+        byte[] getCopy() {
+            return copy.toByteArray();
+        }
+    }
 }
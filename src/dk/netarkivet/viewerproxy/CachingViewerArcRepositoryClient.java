@@ -0,0 +1,425 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.viewerproxy;
+
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.arc.ARCKey;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A ViewerArcRepositoryClient that keeps the records it gets in a bounded
+ * in-memory cache, and that can fetch records in advance.
+ *
+ * Getting a record from the arcrepository is a round-trip through the
+ * JMS broker and the bitarchives, so showing a page with many embedded
+ * objects one record at a time is slow. Records fetched in advance are
+ * fetched by several threads at the same time, and a get of a record that
+ * is being fetched waits for that fetch instead of asking again.
+ *
+ * Records sent as remote files can only be read once, so they are not
+ * cached. Such a record fetched in advance is kept for the first get of it,
+ * and the following gets fetch it again.
+ */
+public class CachingViewerArcRepositoryClient
+        implements ViewerArcRepositoryClient {
+    /** The maximum number of records waiting to be fetched in advance.
+     * Records asked for beyond this are not fetched in advance. */
+    private static final int MAX_PENDING_RECORDS = 1000;
+    /** The maximum number of records fetched in advance that are kept for
+     * the first get of them, because they cannot be cached. The records
+     * kept longest are released beyond this. */
+    private static final int MAX_UNCLAIMED_RECORDS = 20;
+
+    /** Logger for this class. */
+    private final Log log = LogFactory.getLog(getClass().getName());
+
+    /** The client getting the records. */
+    private final ViewerArcRepositoryClient client;
+    /** The maximum number of bytes of records in the cache. */
+    private final long maxCacheSize;
+    /** The threads fetching records in advance. */
+    private final ExecutorService executor;
+
+    /** The cached records by file and offset, least recently used first. */
+    private final LinkedHashMap<String, BitarchiveRecord> records
+            = new LinkedHashMap<String, BitarchiveRecord>(16, 0.75f, true);
+    /** The number of bytes of records in the cache. */
+    private long cacheSize;
+    /** The records being fetched in advance by file and offset. */
+    private final Map<String, Future<?>> pending
+            = new HashMap<String, Future<?>>();
+    /** The records fetched in advance that cannot be cached, by file and
+     * offset, until they are got. Fetched longest ago first. */
+    private final LinkedHashMap<String, BitarchiveRecord> unclaimed
+            = new LinkedHashMap<String, BitarchiveRecord>();
+
+    /**
+     * Create a caching client.
+     *
+     * @param client The client getting the records.
+     * @param maxCacheSize The maximum number of bytes of records in the
+     * cache.
+     * @param threads The number of records fetched in advance at the same
+     * time.
+     * @throws ArgumentNotValid if client is null, or maxCacheSize or threads
+     * is not positive.
+     */
+    public CachingViewerArcRepositoryClient(ViewerArcRepositoryClient client,
+                                            long maxCacheSize, int threads) {
+        ArgumentNotValid.checkNotNull(client,
+                "ViewerArcRepositoryClient client");
+        ArgumentNotValid.checkPositive(maxCacheSize, "long maxCacheSize");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        this.client = client;
+        this.maxCacheSize = maxCacheSize;
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "RecordPrefetcher-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /** Stops fetching records in advance and closes the client. */
+    public void close() {
+        executor.shutdownNow();
+        synchronized (this) {
+            records.clear();
+            cacheSize = 0;
+            for (Map.Entry<String, BitarchiveRecord> record
+                    : unclaimed.entrySet()) {
+                release(record.getKey(), record.getValue());
+            }
+            unclaimed.clear();
+        }
+        client.close();
+    }
+
+    /**
+     * Gets a single record, from the cache if it is there. If the record is
+     * being fetched in advance, waits for that. A record that cannot be
+     * cached is only given to the first get of it.
+     *
+     * @param arcfile The name of a file containing the desired record.
+     * @param index The offset of the desired record in the file
+     * @return a BitarchiveRecord-object, or null if request times out or
+     * object is not found.
+     * @throws ArgumentNotValid If arcfile is null or empty, or index is
+     * negative.
+     * @throws IOFailure If the get operation failed, or if interrupted while
+     * waiting for the record.
+     */
+    public BitarchiveRecord get(String arcfile, long index) {
+        ArgumentNotValid.checkNotNullOrEmpty(arcfile, "String arcfile");
+        ArgumentNotValid.checkNotNegative(index, "long index");
+        String key = getKey(arcfile, index);
+        Future<?> future;
+        synchronized (this) {
+            BitarchiveRecord record = getFetched(key);
+            if (record != null) {
+                return record;
+            }
+            future = pending.get(key);
+        }
+        if (future != null) {
+            try {
+                future.get();
+                synchronized (this) {
+                    BitarchiveRecord record = getFetched(key);
+                    if (record != null) {
+                        return record;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IOFailure("Interrupted while waiting for record "
+                        + key, e);
+            } catch (ExecutionException e) {
+                // Not expected, fetch() catches failures. Get it again.
+                log.debug("Fetching record " + key + " in advance failed",
+                        e.getCause());
+            }
+        }
+        BitarchiveRecord record = client.get(arcfile, index);
+        cache(key, record);
+        return record;
+    }
+
+    /**
+     * Gets a number of records. The records are fetched at the same time,
+     * ordered by file and offset.
+     *
+     * @param keys The files and offsets of the records.
+     * @return The records in the order of the keys. A record is null if
+     * the request timed out or the record was not found.
+     * @throws ArgumentNotValid If keys is null.
+     * @throws IOFailure If a get operation failed, or if interrupted while
+     * waiting for the records.
+     */
+    public List<BitarchiveRecord> getRecords(List<ARCKey> keys) {
+        ArgumentNotValid.checkNotNull(keys, "List<ARCKey> keys");
+        prefetch(keys);
+        List<BitarchiveRecord> result = new ArrayList<BitarchiveRecord>(
+                keys.size());
+        for (ARCKey key : keys) {
+            result.add(get(key.getFile().getName(), key.getOffset()));
+        }
+        return result;
+    }
+
+    /**
+     * Starts fetching records into the cache, unless they are already
+     * cached or being fetched. Does not wait for the records. Records that
+     * cannot be fetched are left to be fetched again when asked for.
+     *
+     * @param keys The files and offsets of the records.
+     * @throws ArgumentNotValid If keys is null.
+     */
+    public void prefetch(List<ARCKey> keys) {
+        ArgumentNotValid.checkNotNull(keys, "List<ARCKey> keys");
+        List<ARCKey> sortedKeys = new ArrayList<ARCKey>(keys);
+        Collections.sort(sortedKeys, new Comparator<ARCKey>() {
+            public int compare(ARCKey k1, ARCKey k2) {
+                int cmp = k1.getFile().getName().compareTo(
+                        k2.getFile().getName());
+                if (cmp != 0) {
+                    return cmp;
+                }
+                return k1.getOffset() < k2.getOffset() ? -1
+                        : (k1.getOffset() > k2.getOffset() ? 1 : 0);
+            }
+        });
+        synchronized (this) {
+            for (ARCKey key : sortedKeys) {
+                if (pending.size() >= MAX_PENDING_RECORDS
+                        || executor.isShutdown()) {
+                    log.debug("Not fetching more records in advance, "
+                            + pending.size() + " records are waiting");
+                    return;
+                }
+                final String arcfile = key.getFile().getName();
+                final long index = key.getOffset();
+                final String cacheKey = getKey(arcfile, index);
+                if (records.containsKey(cacheKey)
+                        || unclaimed.containsKey(cacheKey)
+                        || pending.containsKey(cacheKey)) {
+                    continue;
+                }
+                pending.put(cacheKey, executor.submit(new Runnable() {
+                    public void run() {
+                        fetch(cacheKey, arcfile, index);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Starts fetching records into the cache once the records are known.
+     * The records are found by one of the threads fetching records in
+     * advance, so the caller does not wait for that either. Failures to find
+     * the records are logged, but otherwise ignored.
+     *
+     * @param keyFinder Finds the files and offsets of the records.
+     * @throws ArgumentNotValid If keyFinder is null.
+     */
+    public void prefetch(final Callable<List<ARCKey>> keyFinder) {
+        ArgumentNotValid.checkNotNull(keyFinder,
+                "Callable<List<ARCKey>> keyFinder");
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        prefetch(keyFinder.call());
+                    } catch (Exception e) {
+                        log.debug("Could not find the records to fetch in "
+                                + "advance", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Not fetching records in advance after close", e);
+        }
+    }
+
+    /**
+     * Fetch a record in advance, and cache it. A record that cannot be
+     * cached is kept for the first get of it instead.
+     *
+     * @param key The key of the record in the cache.
+     * @param arcfile The name of the file containing the record.
+     * @param index The offset of the record in the file.
+     */
+    private void fetch(String key, String arcfile, long index) {
+        BitarchiveRecord record = null;
+        try {
+            record = client.get(arcfile, index);
+        } catch (RuntimeException e) {
+            log.debug("Could not fetch record " + key + " in advance", e);
+        }
+        synchronized (this) {
+            pending.remove(key);
+            if (record == null || cache(key, record)) {
+                return;
+            }
+            if (executor.isShutdown()) {
+                release(key, record);
+                return;
+            }
+            unclaimed.put(key, record);
+            Iterator<Map.Entry<String, BitarchiveRecord>> eldest
+                    = unclaimed.entrySet().iterator();
+            while (unclaimed.size() > MAX_UNCLAIMED_RECORDS) {
+                Map.Entry<String, BitarchiveRecord> entry = eldest.next();
+                log.debug("Record " + entry.getKey() + " was not got after "
+                        + "being fetched in advance");
+                release(entry.getKey(), entry.getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Get a record that has been fetched, from the cache or from the
+     * records kept for their first get. Must be called with the lock held.
+     *
+     * @param key The key of the record in the cache.
+     * @return The record, or null if it has not been fetched.
+     */
+    private BitarchiveRecord getFetched(String key) {
+        BitarchiveRecord record = records.get(key);
+        if (record == null) {
+            record = unclaimed.remove(key);
+        }
+        return record;
+    }
+
+    /**
+     * Release the remote file of a record that will not be read.
+     *
+     * @param key The key of the record in the cache.
+     * @param record The record.
+     */
+    private void release(String key, BitarchiveRecord record) {
+        try {
+            record.getData().close();
+        } catch (IOException e) {
+            log.debug("Could not release record " + key, e);
+        } catch (RuntimeException e) {
+            log.debug("Could not release record " + key, e);
+        }
+    }
+
+    /**
+     * Put a record in the cache, unless it is sent as a remote file or is
+     * larger than the cache. Removes the records used least recently if the
+     * cache becomes too large.
+     *
+     * @param key The key of the record in the cache.
+     * @param record The record, or null.
+     * @return True if the record is in the cache.
+     */
+    private synchronized boolean cache(String key, BitarchiveRecord record) {
+        if (record == null || record.isStoredAsRemoteFile()
+            || record.getLength() > maxCacheSize) {
+            return false;
+        }
+        if (records.containsKey(key)) {
+            return true;
+        }
+        records.put(key, record);
+        cacheSize += record.getLength();
+        Iterator<BitarchiveRecord> eldest = records.values().iterator();
+        while (cacheSize > maxCacheSize && eldest.hasNext()) {
+            cacheSize -= eldest.next().getLength();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * @param arcfile The name of a file.
+     * @param index An offset in the file.
+     * @return The key of the record at the offset in the cache.
+     */
+    private static String getKey(String arcfile, long index) {
+        return arcfile + ":" + index;
+    }
+
+    /**
+     * Retrieves a file from the ArcRepository. The file is not cached.
+     *
+     * @param arcfilename Name of the arcfile to retrieve.
+     * @param replica The bitarchive to retrieve the data from.
+     * @param toFile Filename of a place where the file fetched can be put.
+     * @throws IOFailure if there are problems getting a reply or the file
+     * could not be found.
+     */
+    public void getFile(String arcfilename, Replica replica, File toFile) {
+        client.getFile(arcfilename, replica, toFile);
+    }
+
+    /**
+     * Runs a batch job on each file in the ArcRepository.
+     *
+     * @param job The batch job.
+     * @param replicaId The archive to execute the job on.
+     * @param args The arguments for the batchjob.
+     * @return The status of the batch job after it ended.
+     */
+    public BatchStatus batch(FileBatchJob job, String replicaId,
+                             String... args) {
+        return client.batch(job, replicaId, args);
+    }
+}
@@ -25,9 +25,8 @@
 
 package dk.netarkivet.viewerproxy.webinterface;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.commons.logging.Log;
@@ -35,6 +34,7 @@ import org.apache.commons.logging.LogFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.CrawlLogTokenizer;
 import dk.netarkivet.common.utils.DomainUtils;
 import dk.netarkivet.common.utils.FixedUURI;
 import dk.netarkivet.common.utils.Settings;
@@ -116,50 +116,44 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
         ArgumentNotValid.checkNotNull(os, "OutputStream os");
         log.info("looking for crawl-log lines for domain: " + domain);
         
-        BufferedReader arcreader
-                = new BufferedReader(new InputStreamReader(record.getInputStream()));
-        String line = null;
+        InputStream in = record.getInputStream();
+        CrawlLogTokenizer line = new CrawlLogTokenizer(in);
         try {
-            for(line = arcreader.readLine(); line != null;
-                line = arcreader.readLine()) {
-                
+            while (line.next()) {
                 // Parse a single crawl-log line into parts
                 // The parts are here separated by white space.
                 // part 4 of the crawl-line is the url component
                 // part 6 of the crawl-line is the discovery url component
                 // Cf. "http://crawler.archive.org/articles/user_manual
                 // /analysis.html#logs"
-
-                String[] parts = line.split("\\s+");
-                final int URL_PART_INDEX = 3;
-                final int DISCOVERY_URL_PART_INDEX = 5;
+                final int URL_PART_INDEX = CrawlLogTokenizer.URL_FIELD;
+                final int DISCOVERY_URL_PART_INDEX
+                        = CrawlLogTokenizer.REFERRER_FIELD;
                 // The current crawl.log line is written to the outstream 
                 // in two cases:
                 // A. If it has a URL component (4th component) and 
                 //    this URL belongs to the domain in question
                 // B. If it has a Discovery URL (6th component) and 
                 //    this URL belongs to the domain in question
-                if (parts.length > 3 && getDomainFromUrlPart(
-                        parts[URL_PART_INDEX]).equals(domain)) {
-                    os.write(line.getBytes("UTF-8"));
-                    os.write('\n');
-
-                } else if (parts.length > 5 && !parts[5].equals("-")
-                        && getDomainFromUrlPart(parts[DISCOVERY_URL_PART_INDEX])
+                if (line.getFieldCount() > URL_PART_INDEX
+                    && getDomainFromUrlPart(line.getField(URL_PART_INDEX))
                             .equals(domain)) {
-                    os.write(line.getBytes("UTF-8"));
-                    os.write('\n');
+                    line.writeLine(os);
+                } else if (line.getFieldCount() > DISCOVERY_URL_PART_INDEX
+                           && !line.fieldEquals(DISCOVERY_URL_PART_INDEX, "-")
+                           && getDomainFromUrlPart(line.getField(
+                                   DISCOVERY_URL_PART_INDEX)).equals(domain)) {
+                    line.writeLine(os);
                 }
-
             }
         } catch (IOException e) {
             throw new IOFailure("Unable to process (w)arc record", e);
         } catch (Throwable e1) {
               e1.printStackTrace();
-              System.out.println("caused by line '" + line + "'");
+              System.out.println("caused by line '" + line.getLine() + "'");
         } finally {
             try {
-                arcreader.close(); 
+                in.close(); 
             } catch (IOException e) {
                 log.warn("unable to close arcreader probably", e);
             }
@@ -171,13 +165,13 @@ public class HarvestedUrlsForDomainBatchJob extends ArchiveBatchJob {
      * @param urlpart One of the URL part of the crawllog-line.
      * @return domain from urlpart, if feasibly. Return empty string otherwise
      */
-    private String getDomainFromUrlPart(String urlpart) {
+    static String getDomainFromUrlPart(String urlpart) {
         String domain = null;
         try {
             domain = DomainUtils.domainNameFromHostname(
                 new FixedUURI(urlpart, true).getReferencedHost());
         } catch (Exception e){
-            log.warn("Unable to extract a domain name from the url ' " + urlpart 
+            LogFactory.getLog(HarvestedUrlsForDomainBatchJob.class).warn("Unable to extract a domain name from the url ' " + urlpart 
                     + "' due to exception", e);
         }
         if (domain == null) {
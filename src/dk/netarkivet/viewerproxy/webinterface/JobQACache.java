@@ -0,0 +1,519 @@
+/* File:             $Id$
+ * Revision:         $Revision$
+ * Author:           $Author$
+ * Date:             $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.viewerproxy.webinterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.CrawlLogTokenizer;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * A cache on local disk of what the QA pages show for each job, so the
+ * archive is only searched with batch jobs the first time something is
+ * asked for.
+ *
+ * Each job has a directory in the cache, holding files with e.g. the list
+ * of files of the job, the CDX of its metadata files, and its crawl.log with
+ * an index of the lines of each domain. When the cache holds more than
+ * settings.harvester.webinterface.qaCacheSize bytes, the jobs used least
+ * recently are removed.
+ *
+ * Only data that will not change should be stored, i.e. data of jobs with
+ * archived metadata files.
+ *
+ * The class lock is only held while files are looked up, moved into the
+ * cache or removed from it. A job whose files are being read is not
+ * removed from the cache.
+ */
+final class JobQACache {
+    /** The logger for this class. */
+    private static final Log log = LogFactory.getLog(JobQACache.class);
+    /** The name of the cache directory in the common cache directory. */
+    private static final String CACHE_NAME = "qa";
+    /** The name of the cached CDX of the metadata files of a job. */
+    static final String METADATA_CDX = "metadata.cdx";
+    /** The name of the cached crawl.log of a job. */
+    static final String CRAWL_LOG = "crawl.log";
+    /** The name of the index of the lines of each domain in the crawl.log. */
+    private static final String CRAWL_LOG_INDEX = "crawl.log.index";
+    /** The names that may be used for files in the cache. */
+    private static final Pattern VALID_NAME = Pattern.compile("[\\w.-]+");
+    /** The number of readers of the files of each job, by job directory.
+     * Guarded by the class lock. */
+    private static final Map<File, Integer> readers
+            = new HashMap<File, Integer>();
+
+    /**
+     * Utility class, do not initialise.
+     */
+    private JobQACache() {}
+
+    /**
+     * @param name A name of a file in the cache.
+     * @return Whether the name may be used in the cache.
+     */
+    static boolean isValidName(String name) {
+        return name != null && VALID_NAME.matcher(name).matches()
+               && !name.equals(CRAWL_LOG_INDEX);
+    }
+
+    /**
+     * Read the lines of a cached file.
+     *
+     * @param jobId The job.
+     * @param name The name of the file.
+     * @return The lines, or null if the file is not cached.
+     * @throws ArgumentNotValid if the name may not be used in the cache.
+     */
+    static List<String> readList(long jobId, String name) {
+        ArgumentNotValid.checkTrue(isValidName(name),
+                "Invalid name '" + name + "'");
+        File[] files = acquire(jobId, name);
+        if (files == null) {
+            return null;
+        }
+        try {
+            return FileUtils.readListFromFile(files[0]);
+        } finally {
+            release(jobId);
+        }
+    }
+
+    /**
+     * Store a file in the cache. The file is moved into the cache, and jobs
+     * are removed from the cache if it has grown too large.
+     *
+     * @param jobId The job.
+     * @param name The name of the file in the cache.
+     * @param file The file.
+     * @throws ArgumentNotValid if the file is null, or the name may not be
+     * used in the cache.
+     */
+    static synchronized void store(long jobId, String name, File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkTrue(isValidName(name),
+                "Invalid name '" + name + "'");
+        File jobDir = getJobDir(jobId);
+        FileUtils.createDir(jobDir);
+        moveIntoCache(file, new File(jobDir, name));
+        jobDir.setLastModified(System.currentTimeMillis());
+        removeLeastRecentlyUsed(jobDir);
+    }
+
+    /**
+     * Store the crawl.log of a job in the cache, with an index of the lines
+     * of each domain. A line belongs to the domains of its URL and of the
+     * URL it was discovered from.
+     *
+     * @param jobId The job.
+     * @param crawlLog The crawl.log. It is moved into the cache.
+     * @throws ArgumentNotValid if crawlLog is null.
+     * @throws IOFailure if reading the crawl.log or writing the index fails.
+     */
+    static void storeCrawlLog(long jobId, File crawlLog) {
+        ArgumentNotValid.checkNotNull(crawlLog, "File crawlLog");
+        Map<String, OffsetList> domains = new HashMap<String, OffsetList>();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(crawlLog);
+            CrawlLogTokenizer line = new CrawlLogTokenizer(in);
+            while (line.next()) {
+                String urlDomain = "";
+                if (line.getFieldCount() > CrawlLogTokenizer.URL_FIELD) {
+                    urlDomain = HarvestedUrlsForDomainBatchJob
+                            .getDomainFromUrlPart(line.getField(
+                                    CrawlLogTokenizer.URL_FIELD));
+                    addOffset(domains, urlDomain, line.getLineOffset());
+                }
+                if (line.getFieldCount() > CrawlLogTokenizer.REFERRER_FIELD
+                    && !line.fieldEquals(CrawlLogTokenizer.REFERRER_FIELD,
+                            "-")) {
+                    String referrerDomain = HarvestedUrlsForDomainBatchJob
+                            .getDomainFromUrlPart(line.getField(
+                                    CrawlLogTokenizer.REFERRER_FIELD));
+                    if (!referrerDomain.equals(urlDomain)) {
+                        addOffset(domains, referrerDomain,
+                                line.getLineOffset());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to index crawl.log '" + crawlLog
+                                + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        File index = new File(crawlLog.getParentFile(),
+                crawlLog.getName() + ".index");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(index)));
+            for (Map.Entry<String, OffsetList> domain : domains.entrySet()) {
+                OffsetList offsets = domain.getValue();
+                out.writeUTF(domain.getKey());
+                out.writeInt(offsets.size);
+                for (int i = 0; i < offsets.size; i++) {
+                    out.writeLong(offsets.offsets[i]);
+                }
+            }
+        } catch (IOException e) {
+            FileUtils.remove(index);
+            throw new IOFailure("Unable to write crawl.log index '" + index
+                                + "'", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        synchronized (JobQACache.class) {
+            File jobDir = getJobDir(jobId);
+            FileUtils.createDir(jobDir);
+            moveIntoCache(index, new File(jobDir, CRAWL_LOG_INDEX));
+            moveIntoCache(crawlLog, new File(jobDir, CRAWL_LOG));
+            jobDir.setLastModified(System.currentTimeMillis());
+            removeLeastRecentlyUsed(jobDir);
+        }
+    }
+
+    /**
+     * Write the lines of the cached crawl.log of a job that belong to a
+     * domain.
+     *
+     * @param jobId The job.
+     * @param domain The domain.
+     * @param out The stream to write the lines to.
+     * @return false if the crawl.log of the job is not cached, true
+     * otherwise.
+     * @throws ArgumentNotValid if domain or out is null.
+     * @throws IOFailure if reading the cache or writing the lines fails.
+     */
+    static boolean writeCrawlLogLinesForDomain(long jobId,
+            String domain, OutputStream out) {
+        ArgumentNotValid.checkNotNull(domain, "String domain");
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        File[] files = acquire(jobId, CRAWL_LOG, CRAWL_LOG_INDEX);
+        if (files == null) {
+            return false;
+        }
+        File crawlLog = files[0];
+        InputStream in = null;
+        try {
+            long[] offsets = readOffsets(files[1], domain);
+            in = new BufferedInputStream(new FileInputStream(crawlLog));
+            long position = 0L;
+            for (long offset : offsets) {
+                while (position < offset) {
+                    long skipped = in.skip(offset - position);
+                    if (skipped <= 0) {
+                        throw new IOFailure("The crawl.log '" + crawlLog
+                                + "' has no offset " + offset);
+                    }
+                    position += skipped;
+                }
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b == '\n') {
+                        break;
+                    }
+                    out.write(b);
+                }
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read crawl.log '" + crawlLog
+                                + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+            release(jobId);
+        }
+        return true;
+    }
+
+    /**
+     * Write the lines of the cached crawl.log of a job that match a regular
+     * expression.
+     *
+     * @param jobId The job.
+     * @param regexp The regular expression the whole line must match.
+     * @param out The stream to write the lines to.
+     * @return false if the crawl.log of the job is not cached, true
+     * otherwise.
+     * @throws ArgumentNotValid if regexp or out is null.
+     * @throws IOFailure if reading the cache or writing the lines fails.
+     */
+    static boolean writeCrawlLogLinesMatching(long jobId,
+            Pattern regexp, OutputStream out) {
+        ArgumentNotValid.checkNotNull(regexp, "Pattern regexp");
+        ArgumentNotValid.checkNotNull(out, "OutputStream out");
+        File[] files = acquire(jobId, CRAWL_LOG);
+        if (files == null) {
+            return false;
+        }
+        File crawlLog = files[0];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(crawlLog);
+            CrawlLogTokenizer line = new CrawlLogTokenizer(in);
+            while (line.next()) {
+                if (regexp.matcher(line.getLine()).matches()) {
+                    line.writeLine(out);
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read crawl.log '" + crawlLog
+                                + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+            release(jobId);
+        }
+        return true;
+    }
+
+    /**
+     * Read the offsets of the lines of a domain from a crawl.log index.
+     *
+     * @param index The index.
+     * @param domain The domain.
+     * @return The offsets, in the order of the crawl.log.
+     * @throws IOFailure if reading the index fails.
+     */
+    private static long[] readOffsets(File index, String domain) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(index)));
+            while (true) {
+                String indexedDomain;
+                try {
+                    indexedDomain = in.readUTF();
+                } catch (EOFException e) {
+                    return new long[0];
+                }
+                int count = in.readInt();
+                if (indexedDomain.equals(domain)) {
+                    long[] offsets = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        offsets[i] = in.readLong();
+                    }
+                    return offsets;
+                }
+                in.skipBytes(count * (Long.SIZE / Byte.SIZE));
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read crawl.log index '" + index
+                                + "'", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Add the offset of a line to the lines of a domain.
+     *
+     * @param domains The offsets of the lines of each domain.
+     * @param domain The domain, or the empty string for no domain.
+     * @param offset The offset of the line.
+     */
+    private static void addOffset(Map<String, OffsetList> domains,
+            String domain, long offset) {
+        if (domain.length() == 0) {
+            return;
+        }
+        OffsetList offsets = domains.get(domain);
+        if (offsets == null) {
+            offsets = new OffsetList();
+            domains.put(domain, offsets);
+        }
+        offsets.add(offset);
+    }
+
+    /**
+     * Get files of a job in the cache, and remember that the job has been
+     * used. The job is kept in the cache until {@link #release(long)} is
+     * called.
+     *
+     * @param jobId The job.
+     * @param names The names of the files.
+     * @return The files in the order of the names, or null if any of them
+     * is not in the cache. The job is then not kept.
+     */
+    private static synchronized File[] acquire(long jobId, String... names) {
+        File jobDir = getJobDir(jobId);
+        File[] files = new File[names.length];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = new File(jobDir, names[i]);
+            if (!files[i].isFile()) {
+                return null;
+            }
+        }
+        jobDir.setLastModified(System.currentTimeMillis());
+        Integer count = readers.get(jobDir);
+        readers.put(jobDir, count == null ? 1 : count + 1);
+        return files;
+    }
+
+    /**
+     * Let a job got with {@link #acquire(long, String...)} be removed from
+     * the cache again, when no one else is reading it.
+     *
+     * @param jobId The job.
+     */
+    private static synchronized void release(long jobId) {
+        File jobDir = getJobDir(jobId);
+        Integer count = readers.get(jobDir);
+        if (count == null || count <= 1) {
+            readers.remove(jobDir);
+        } else {
+            readers.put(jobDir, count - 1);
+        }
+    }
+
+    /**
+     * @return The directory of the cache.
+     */
+    private static File getCacheDir() {
+        return new File(Settings.get(CommonSettings.CACHE_DIR), CACHE_NAME);
+    }
+
+    /**
+     * @param jobId A job.
+     * @return The directory of the job in the cache.
+     */
+    private static File getJobDir(long jobId) {
+        return new File(getCacheDir(), Long.toString(jobId));
+    }
+
+    /**
+     * Move a file into the cache, replacing any file already there.
+     *
+     * @param file The file.
+     * @param cachedFile The file in the cache.
+     */
+    private static void moveIntoCache(File file, File cachedFile) {
+        FileUtils.remove(cachedFile);
+        FileUtils.moveFile(file, cachedFile);
+    }
+
+    /**
+     * Remove the jobs used least recently from the cache, until the cache
+     * is no larger than settings.harvester.webinterface.qaCacheSize. Jobs
+     * being read are not removed. Must be called with the class lock held.
+     *
+     * @param keep A job directory that should not be removed.
+     */
+    private static void removeLeastRecentlyUsed(File keep) {
+        long maxSize = Settings.getLong(HarvesterSettings.QA_CACHE_SIZE);
+        File[] jobDirs = getCacheDir().listFiles();
+        if (jobDirs == null) {
+            return;
+        }
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        long size = 0L;
+        for (File jobDir : jobDirs) {
+            lastUsed.put(jobDir, jobDir.lastModified());
+            size += getSize(jobDir);
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Arrays.sort(jobDirs, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                return lastUsed.get(f1).compareTo(lastUsed.get(f2));
+            }
+        });
+        for (File jobDir : jobDirs) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (!jobDir.equals(keep) && !readers.containsKey(jobDir)) {
+                size -= getSize(jobDir);
+                log.info("Removing the QA data of job " + jobDir.getName()
+                         + " from the cache, which is larger than "
+                         + maxSize + " bytes");
+                FileUtils.removeRecursively(jobDir);
+            }
+        }
+    }
+
+    /**
+     * @param jobDir The directory of a job in the cache.
+     * @return The number of bytes in the files of the directory.
+     */
+    private static long getSize(File jobDir) {
+        long size = 0L;
+        File[] files = jobDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /** A growing list of offsets, without an object for each offset. */
+    private static class OffsetList {
+        /** The offsets. */
+        private long[] offsets = new long[4];
+        /** The number of offsets. */
+        private int size;
+
+        /**
+         * @param offset An offset to add to the list.
+         */
+        void add(long offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+}
@@ -25,16 +25,18 @@
 */
 package dk.netarkivet.viewerproxy.webinterface;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 
@@ -50,9 +52,12 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
 import dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
+import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
+import dk.netarkivet.harvester.indexserver.GetMetadataArchiveBatchJob;
 
 /**
- * Methods for generating the batch results needed by the QA pages. 
+ * Methods for generating the batch results needed by the QA pages.
+ * The results are cached for each job in a {@link JobQACache}.
  */
 public class Reporting {
     /**
@@ -67,8 +72,9 @@ public class Reporting {
     static final String metadatafile_suffix = "-metadata-[0-9]+\\.(w)?arc(\\.gz)?";
        
     /**
-     * Submit a batch job to list all files for a job, and report result in a
-     * sorted list.
+     * List all files for a job, and report result in a sorted list.
+     * The list is found with a batch job, and cached once the metadata of
+     * the job is archived.
      * @param jobid The job to get files for.
      * @param harvestprefix The harvestprefix for the files produced by heritrix
      * @return A sorted list of files.
@@ -77,38 +83,48 @@ public class Reporting {
      */
     public static List<String> getFilesForJob(int jobid, String harvestprefix) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
+        String cacheName = "files-" + harvestprefix + ".txt";
+        boolean cacheable = JobQACache.isValidName(cacheName);
+        if (cacheable) {
+            List<String> cached = JobQACache.readList(jobid, cacheName);
+            if (cached != null) {
+                return cached;
+            }
+        }
         FileBatchJob fileListJob = new FileListJob();
         List<String> acceptedPatterns = new ArrayList<String>();
-        acceptedPatterns.add(".*" + jobid + ".*" + metadatafile_suffix);
+        String metadataPattern = ".*" + jobid + ".*" + metadatafile_suffix;
+        acceptedPatterns.add(metadataPattern);
         acceptedPatterns.add(harvestprefix + archivefile_suffix);
         fileListJob.processOnlyFilesMatching(acceptedPatterns);
         
-        File f;
-        try {
-            f = File.createTempFile(jobid + "-files", ".txt",
-                                    FileUtils.getTempDir());
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temorary file", e);
-        }
-        BatchStatus status
-                = ArcRepositoryClientFactory.getViewerInstance().batch(
-                fileListJob,
-                Settings.get(CommonSettings.USE_REPLICA_ID));
-        status.getResultFile().copyTo(f);
+        File f = createTempFile(jobid + "-files", ".txt");
+        runBatch(fileListJob, f);
         List<String> lines = new ArrayList<String>(
                 FileUtils.readListFromFile(f));
-        FileUtils.remove(f);
         Set<String> linesAsSet = new HashSet<String>();
         linesAsSet.addAll(lines);
         lines = new ArrayList<String>();
         lines.addAll(linesAsSet);
         Collections.sort(lines);
+
+        // The metadata files are archived after the other files of the job
+        boolean hasMetadata = false;
+        for (String line : lines) {
+            hasMetadata |= line.matches(metadataPattern);
+        }
+        if (cacheable && hasMetadata) {
+            FileUtils.writeCollectionToFile(f, lines);
+            JobQACache.store(jobid, cacheName, f);
+        } else {
+            FileUtils.remove(f);
+        }
         return lines;
     }
 
     /**
-     * Submit a batch job to generate cdx for all metadata files for a job, and
-     * report result in a list.
+     * Generate cdx for all metadata files for a job, and report result in a
+     * list. The cdx is generated with a batch job, and cached.
      * @param jobid The job to get cdx for.
      * @return A list of cdx records.
      * @throws ArgumentNotValid If jobid is 0 or negative.
@@ -116,49 +132,39 @@ public class Reporting {
      */
     public static List<CDXRecord> getMetadataCDXRecordsForJob(long jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
-        FileBatchJob cdxJob = new ArchiveExtractCDXJob(false) {
-            @Override
-            public ArchiveBatchFilter getFilter() {
-                return ArchiveBatchFilter.EXCLUDE_NON_WARCINFO_RECORDS;
+        List<String> lines = JobQACache.readList(jobid,
+                JobQACache.METADATA_CDX);
+        if (lines == null) {
+            FileBatchJob cdxJob = new ArchiveExtractCDXJob(false) {
+                @Override
+                public ArchiveBatchFilter getFilter() {
+                    return ArchiveBatchFilter.EXCLUDE_NON_WARCINFO_RECORDS;
+                }
+            };
+            cdxJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
+
+            File f = createTempFile(jobid + "-reports", ".cdx");
+            runBatch(cdxJob, f);
+            lines = FileUtils.readListFromFile(f);
+            if (lines.isEmpty()) {
+                FileUtils.remove(f);
+            } else {
+                JobQACache.store(jobid, JobQACache.METADATA_CDX, f);
             }
-        };
-        cdxJob.processOnlyFilesMatching(".*"+jobid + ".*" + metadatafile_suffix);
-        
-        File f;
-        try {
-            f = File.createTempFile(jobid + "-reports", ".cdx",
-                                    FileUtils.getTempDir());
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temporary file", e);
         }
-        BatchStatus status
-                = ArcRepositoryClientFactory.getViewerInstance().batch(
-                cdxJob, Settings.get(CommonSettings.USE_REPLICA_ID));
-        status.getResultFile().copyTo(f);
-        List<CDXRecord> records;
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(f));
-            records = new ArrayList<CDXRecord>();
-            for (String line = reader.readLine();
-                 line != null; line = reader.readLine()) {
-                String[] parts = line.split("\\s+");
-                CDXRecord record = new CDXRecord(parts);
-                records.add(record);
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Unable to read results from file '" + f
-                                + "'", e);
-        } finally {
-            IOUtils.closeQuietly(reader);
-            FileUtils.remove(f);
+        List<CDXRecord> records = new ArrayList<CDXRecord>();
+        for (String line : lines) {
+            String[] parts = line.split("\\s+");
+            CDXRecord record = new CDXRecord(parts);
+            records.add(record);
         }
         return records;
     }
 
     /**
-     * Submit a batch job to extract the part of a crawl log that is associated
-     * with the given domain and job.
+     * Extract the part of a crawl log that is associated with the given
+     * domain and job. The crawl log is fetched with a batch job, and cached
+     * with an index of the lines of each domain.
      * @param domain The domain to get crawl.log-lines for.
      * @param jobid The jobid to get the crawl.log-lines for.
      * @return A file containing the crawl.log lines. This file is temporary,
@@ -166,59 +172,154 @@ public class Reporting {
      * @throws ArgumentNotValid On negative jobids, or if domain is null or the
      * empty string.
      */
-    public static File getCrawlLogForDomainInJob(String domain, int jobid) {
+    public static File getCrawlLogForDomainInJob(final String domain,
+                                                 int jobid) {
         ArgumentNotValid.checkPositive(jobid, "jobid");
         ArgumentNotValid.checkNotNullOrEmpty(domain, "String domain");
         FileBatchJob urlsForDomainBatchJob
                 = new HarvestedUrlsForDomainBatchJob(domain);
         urlsForDomainBatchJob.processOnlyFilesMatching(
                 ".*" + jobid + ".*" + metadatafile_suffix);
-        return getResultFile(urlsForDomainBatchJob);
+        return getResultFile(jobid, urlsForDomainBatchJob,
+                new CrawlLogExtract() {
+                    public boolean write(long jobid, OutputStream out) {
+                        return JobQACache.writeCrawlLogLinesForDomain(jobid,
+                                domain, out);
+                    }
+                });
     }
-    
+
+    /**
+     * Return any crawllog lines for a given jobid  matching the given regular
+     * expression. The crawl log is fetched with a batch job, and cached.
+     * @param jobid The jobid 
+     * @param regexp A regular expression
+     * @return a File with the matching lines.
+     */
+    public static File getCrawlLoglinesMatchingRegexp(int jobid, String regexp) {
+        ArgumentNotValid.checkPositive(jobid, "jobid");
+        ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
+        FileBatchJob crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(regexp);
+        crawlLogBatchJob.processOnlyFilesMatching(".*" + jobid
+                + ".*" + metadatafile_suffix);
+        final Pattern pattern = Pattern.compile(regexp);
+        return getResultFile(jobid, crawlLogBatchJob, new CrawlLogExtract() {
+            public boolean write(long jobid, OutputStream out) {
+                return JobQACache.writeCrawlLogLinesMatching(jobid, pattern,
+                        out);
+            }
+        });
+    }
+
+    /** Extracts lines from the cached crawl log of a job. */
+    private interface CrawlLogExtract {
+        /**
+         * Write the lines from the cached crawl log of a job.
+         * @param jobid The job.
+         * @param out The stream to write the lines to.
+         * @return false if the crawl log of the job is not cached.
+         */
+        boolean write(long jobid, OutputStream out);
+    }
+
     /** 
-     * Helper method to get result from a batchjob.
-     * @param batchJob a certain FileBatchJob
+     * Helper method to get crawl.log lines of a job, sorted on timestamp.
+     * The lines are extracted from the cached crawl log. If the crawl log
+     * is not cached, it is fetched. If that fails, the batch job is used.
+     * @param jobid The job.
+     * @param batchJob a certain FileBatchJob finding the lines
+     * @param extract Extracts the lines from the cached crawl log.
      * @return a file with the result.
      */
-    private static File getResultFile(FileBatchJob batchJob) {
-        File f;
-        File fsorted;
+    private static File getResultFile(int jobid, FileBatchJob batchJob,
+                                      CrawlLogExtract extract) {
+        final String uuid = UUID.randomUUID().toString();
+        File f = createTempFile("temp", uuid + ".txt");
+        f.deleteOnExit();
+        File fsorted = createTempFile("temp", uuid + "-sorted.txt");
+        fsorted.deleteOnExit();
+        if (!writeExtract(jobid, extract, f)) {
+            if (!fetchCrawlLog(jobid)) {
+                // There is no crawl log for the job, so no lines
+                FileUtils.remove(f);
+                return fsorted;
+            }
+            if (!writeExtract(jobid, extract, f)) {
+                runBatch(batchJob, f);
+            }
+        }
+        FileUtils.sortCrawlLogOnTimestamp(f, fsorted);
+        FileUtils.remove(f);
+        return fsorted;
+    }
+
+    /**
+     * Write lines from the cached crawl log of a job to a file.
+     * @param jobid The job.
+     * @param extract Extracts the lines from the cached crawl log.
+     * @param f The file to write to.
+     * @return false if the crawl log of the job is not cached.
+     */
+    private static boolean writeExtract(int jobid, CrawlLogExtract extract,
+                                        File f) {
+        OutputStream out = null;
         try {
-            final String uuid = UUID.randomUUID().toString();
-            f = File.createTempFile("temp", uuid + ".txt", 
-                    FileUtils.getTempDir());
-            f.deleteOnExit();
-            fsorted = File.createTempFile("temp", uuid + "-sorted.txt",
-                    FileUtils.getTempDir());
-            fsorted.deleteOnExit();
+            out = new BufferedOutputStream(new FileOutputStream(f));
+            return extract.write(jobid, out);
         } catch (IOException e) {
-            throw new IOFailure("Unable to create temporary file", e);
+            throw new IOFailure("Unable to write to file '" + f + "'", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Fetch the crawl log of a job with a batch job, and store it in the
+     * cache.
+     * @param jobid The job.
+     * @return false if the job has no crawl log.
+     */
+    private static boolean fetchCrawlLog(int jobid) {
+        FileBatchJob crawlLogJob = new GetMetadataArchiveBatchJob(
+                Pattern.compile(MetadataFile.CRAWL_LOG_PATTERN),
+                Pattern.compile(".*"));
+        crawlLogJob.processOnlyFilesMatching(".*" + jobid
+                + ".*" + metadatafile_suffix);
+        File f = createTempFile(jobid + "-crawl", ".log");
+        runBatch(crawlLogJob, f);
+        if (f.length() == 0) {
+            FileUtils.remove(f);
+            return false;
         }
+        JobQACache.storeCrawlLog(jobid, f);
+        return true;
+    }
+
+    /**
+     * Run a batch job, and copy the result to a file.
+     * @param batchJob The batch job.
+     * @param f The file.
+     */
+    private static void runBatch(FileBatchJob batchJob, File f) {
         BatchStatus status
                 = ArcRepositoryClientFactory.getViewerInstance().batch(
                 batchJob,
                 Settings.get(CommonSettings.USE_REPLICA_ID));
         status.getResultFile().copyTo(f);
-        FileUtils.sortCrawlLogOnTimestamp(f, fsorted);
-        FileUtils.remove(f);
-        return fsorted;
     }
 
     /**
-     * Return any crawllog lines for a given jobid  matching the given regular
-     * expression. 
-     * @param jobid The jobid 
-     * @param regexp A regular expression
-     * @return a File with the matching lines.
+     * Create a temporary file in the common temp dir.
+     * @param prefix The prefix of the file name.
+     * @param suffix The suffix of the file name.
+     * @return The file.
      */
-    public static File getCrawlLoglinesMatchingRegexp(int jobid, String regexp) {
-        ArgumentNotValid.checkPositive(jobid, "jobid");
-        ArgumentNotValid.checkNotNullOrEmpty(regexp, "String regexp");
-        FileBatchJob crawlLogBatchJob = new CrawlLogLinesMatchingRegexp(regexp);
-        crawlLogBatchJob.processOnlyFilesMatching(".*" + jobid
-                + ".*" + metadatafile_suffix);
-        return getResultFile(crawlLogBatchJob);
+    private static File createTempFile(String prefix, String suffix) {
+        try {
+            return File.createTempFile(prefix, suffix, FileUtils.getTempDir());
+        } catch (IOException e) {
+            throw new IOFailure("Unable to create temporary file", e);
+        }
     }
     
 }
@@ -0,0 +1,472 @@
+/* $Id$
+ * $Revision$
+ * $Date$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.wayback;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.NetarkivetException;
+import dk.netarkivet.common.management.SingleMBeanObject;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A disk cache of archive files fetched from the archive, for use by the
+ * wayback resource stores.
+ * <p>
+ * Lookups of cached files never block. A file missing from the cache is
+ * fetched by only one thread, and other threads asking for the same file
+ * wait for that fetch, while requests for other files proceed.
+ * <p>
+ * The cache is bounded both by a number of bytes and by a number of files.
+ * When a bound is exceeded, the least recently used files are deleted. The
+ * cache directory itself is the state of the cache: the modification time of
+ * a cached file is updated when it is used, so the recency of use survives a
+ * restart. Partially fetched files are written with the suffix
+ * {@link #PARTIAL_SUFFIX} and deleted on startup.
+ */
+public class ArchiveFileCache implements ArchiveFileCacheMBean {
+    /** The suffix of files being fetched. */
+    static final String PARTIAL_SUFFIX = ".part";
+    /** Separates the filename and offset in the names of cached records. */
+    static final char RECORD_SEPARATOR = '@';
+    /**
+     * The minimum time in milliseconds between updates of the modification
+     * time of a cached file.
+     */
+    private static final long TOUCH_INTERVAL = 60 * 1000L;
+
+    /** The instance of this class. */
+    private static ArchiveFileCache instance;
+    /** The cache of record ranges configured by the settings. */
+    private static ArchiveFileCache recordInstance;
+
+    /** Logger. */
+    private Log logger = LogFactory.getLog(getClass().getName());
+
+    /**
+     * Fetches a file from the archive.
+     */
+    public interface FileFetcher {
+        /**
+         * Fetch a file from the archive.
+         *
+         * @param filename The name of the file in the archive.
+         * @param toFile The local file to write the contents to.
+         * @throws IOFailure if the file could not be fetched.
+         */
+        void fetch(String filename, File toFile);
+    }
+
+    /** A file in the cache. */
+    private static class CachedFile {
+        /** The cached file. */
+        private final File file;
+        /** The size of the file. */
+        private final long size;
+        /** The last time the file was used. */
+        private volatile long lastAccess;
+        /** The modification time last written to the file. */
+        private volatile long lastTouched;
+
+        /**
+         * Create an entry.
+         *
+         * @param file The cached file.
+         * @param lastAccess The last time the file was used.
+         */
+        CachedFile(File file, long lastAccess) {
+            this.file = file;
+            this.size = file.length();
+            this.lastAccess = lastAccess;
+            this.lastTouched = lastAccess;
+        }
+    }
+
+    /** The directory holding the cached files. */
+    private final File cacheDir;
+    /** The maximum number of bytes in the cache. */
+    private final long maxBytes;
+    /** The maximum number of files in the cache. */
+    private final int maxFiles;
+    /** The cached files by filename. */
+    private final ConcurrentMap<String, CachedFile> files =
+            new ConcurrentHashMap<String, CachedFile>();
+    /** The fetches in progress by filename. */
+    private final ConcurrentMap<String, FutureTask<CachedFile>> fetches =
+            new ConcurrentHashMap<String, FutureTask<CachedFile>>();
+    /** The number of bytes in the cache. */
+    private final AtomicLong cachedBytes = new AtomicLong();
+    /** Statistics. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Statistics. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Statistics. */
+    private final AtomicLong bytesFetched = new AtomicLong();
+    /** Statistics. */
+    private final AtomicLong evictions = new AtomicLong();
+    /** Statistics. */
+    private final AtomicLong fetchFailures = new AtomicLong();
+    /** The last access time handed out, see {@link #tick()}. */
+    private final AtomicLong clock = new AtomicLong();
+    /** Taken while evicting, so only one thread evicts at a time. */
+    private final Object evictionLock = new Object();
+
+    /**
+     * Create a cache using the files already in the cache directory.
+     *
+     * @param cacheDir The directory holding the cached files.
+     * @param maxBytes The maximum number of bytes in the cache.
+     * @param maxFiles The maximum number of files in the cache.
+     * @throws ArgumentNotValid if cacheDir is null or the limits are not
+     * positive.
+     */
+    public ArchiveFileCache(File cacheDir, long maxBytes, int maxFiles) {
+        ArgumentNotValid.checkNotNull(cacheDir, "File cacheDir");
+        ArgumentNotValid.checkPositive(maxBytes, "long maxBytes");
+        ArgumentNotValid.checkPositive(maxFiles, "int maxFiles");
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        FileUtils.createDir(cacheDir);
+        logger.info("Initializing the cache with the contents of the "
+                    + "cachedir '" + cacheDir.getAbsolutePath() + "'");
+        for (File file : cacheDir.listFiles()) {
+            if (!file.isFile()) {
+                continue;
+            }
+            if (file.getName().endsWith(PARTIAL_SUFFIX)) {
+                logger.info("Deleting partially fetched file '" + file + "'");
+                FileUtils.remove(file);
+                continue;
+            }
+            CachedFile cached = new CachedFile(file, file.lastModified());
+            files.put(file.getName(), cached);
+            cachedBytes.addAndGet(cached.size);
+        }
+        evict(null);
+        logger.info("The contents of the cache is now " + files.size()
+                    + " files, " + cachedBytes.get() + " bytes");
+    }
+
+    /**
+     * Get the cache configured by the settings, and register its statistics
+     * as an MBean.
+     *
+     * @return The cache.
+     */
+    public static synchronized ArchiveFileCache getInstance() {
+        if (instance == null) {
+            instance = new ArchiveFileCache(
+                    Settings.getFile(
+                            WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_DIR),
+                    Settings.getLong(
+                            WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXSIZE)
+                    * 1024L * 1024L,
+                    Settings.getInt(
+                            WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXFILES));
+            instance.registerMBean("files");
+        }
+        return instance;
+    }
+
+    /**
+     * Get the cache of record ranges configured by the settings, and
+     * register its statistics as an MBean. The entries of this cache are
+     * single records, named by {@link #getRecordName(String, long)}.
+     *
+     * @return The cache.
+     */
+    public static synchronized ArchiveFileCache getRecordInstance() {
+        if (recordInstance == null) {
+            recordInstance = new ArchiveFileCache(
+                    Settings.getFile(WaybackSettings
+                            .WAYBACK_RESOURCESTORE_RECORDCACHE_DIR),
+                    Settings.getLong(WaybackSettings
+                            .WAYBACK_RESOURCESTORE_RECORDCACHE_MAXSIZE)
+                    * 1024L * 1024L,
+                    Settings.getInt(WaybackSettings
+                            .WAYBACK_RESOURCESTORE_RECORDCACHE_MAXFILES));
+            recordInstance.registerMBean("records");
+        }
+        return recordInstance;
+    }
+
+    /**
+     * Get the name a record is cached under in a cache of records.
+     *
+     * @param arcfile The file the record is in.
+     * @param offset The offset of the record in the file.
+     * @return The name of the cached record.
+     */
+    public static String getRecordName(String arcfile, long offset) {
+        return arcfile + RECORD_SEPARATOR + offset;
+    }
+
+    /**
+     * Register the statistics of this cache as an MBean. Failure to do so
+     * is logged, but otherwise ignored.
+     *
+     * @param name The value of the cache property of the MBean name.
+     */
+    private void registerMBean(String name) {
+        try {
+            SingleMBeanObject<ArchiveFileCacheMBean> mBean =
+                    new SingleMBeanObject<ArchiveFileCacheMBean>(
+                            "dk.netarkivet.wayback.resourcestore", this,
+                            ArchiveFileCacheMBean.class,
+                            ManagementFactory.getPlatformMBeanServer());
+            mBean.getNameProperties().put("cache", name);
+            mBean.register();
+        } catch (NetarkivetException e) {
+            logger.warn("Unable to register the file cache MBean", e);
+        }
+    }
+
+    /**
+     * Get a file, fetching it into the cache if it isn't there.
+     *
+     * @param filename The name of the file.
+     * @param fetcher Used to fetch the file if it is not cached.
+     * @return The cached file.
+     * @throws ArgumentNotValid if an argument is null.
+     * @throws IOFailure if the file could not be fetched.
+     */
+    public File get(final String filename, final FileFetcher fetcher) {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNull(fetcher, "FileFetcher fetcher");
+        CachedFile cached = lookup(filename);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.file;
+        }
+        misses.incrementAndGet();
+        FutureTask<CachedFile> fetch = new FutureTask<CachedFile>(
+                new Callable<CachedFile>() {
+                    public CachedFile call() {
+                        return fetch(filename, fetcher);
+                    }
+                });
+        FutureTask<CachedFile> running = fetches.putIfAbsent(filename, fetch);
+        if (running == null) {
+            try {
+                fetch.run();
+            } finally {
+                fetches.remove(filename, fetch);
+            }
+            running = fetch;
+        } else {
+            logger.debug("Waiting for the running fetch of '" + filename
+                         + "'");
+        }
+        try {
+            return running.get().file;
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while waiting for '" + filename
+                                + "'", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOFailure) {
+                throw (IOFailure) e.getCause();
+            }
+            throw new IOFailure("Unable to fetch '" + filename + "'",
+                                e.getCause());
+        }
+    }
+
+    /**
+     * Look up a file in the cache, and mark it as used.
+     *
+     * @param filename The name of the file.
+     * @return The entry of the file, or null if the file isn't cached.
+     */
+    private CachedFile lookup(String filename) {
+        CachedFile cached = files.get(filename);
+        if (cached == null) {
+            return null;
+        }
+        if (!cached.file.exists()) {
+            logger.warn("The cached file '" + cached.file
+                        + "' has disappeared");
+            if (files.remove(filename, cached)) {
+                cachedBytes.addAndGet(-cached.size);
+            }
+            return null;
+        }
+        long now = tick();
+        cached.lastAccess = now;
+        if (now - cached.lastTouched > TOUCH_INTERVAL) {
+            cached.lastTouched = now;
+            cached.file.setLastModified(now);
+        }
+        return cached;
+    }
+
+    /**
+     * Get an access time. This is the current time, but always later than
+     * the previous access time, so the order of accesses is known even
+     * within the same millisecond.
+     *
+     * @return The access time.
+     */
+    private long tick() {
+        while (true) {
+            long previous = clock.get();
+            long now = Math.max(System.currentTimeMillis(), previous + 1);
+            if (clock.compareAndSet(previous, now)) {
+                return now;
+            }
+        }
+    }
+
+    /**
+     * Fetch a file into the cache. Only called by one thread at a time for
+     * a given filename.
+     *
+     * @param filename The name of the file.
+     * @param fetcher The fetcher to use.
+     * @return The new entry for the file.
+     * @throws IOFailure if the file could not be fetched.
+     */
+    private CachedFile fetch(String filename, FileFetcher fetcher) {
+        // Another thread may have completed a fetch between our lookup and
+        // our registration of this fetch.
+        CachedFile cached = lookup(filename);
+        if (cached != null) {
+            return cached;
+        }
+        File file = new File(cacheDir, filename);
+        File partial = new File(cacheDir, filename + PARTIAL_SUFFIX);
+        try {
+            fetcher.fetch(filename, partial);
+            FileUtils.moveFile(partial, file);
+        } catch (RuntimeException e) {
+            fetchFailures.incrementAndGet();
+            FileUtils.remove(partial);
+            throw e;
+        }
+        cached = new CachedFile(file, tick());
+        files.put(filename, cached);
+        cachedBytes.addAndGet(cached.size);
+        bytesFetched.addAndGet(cached.size);
+        logger.info("File '" + filename + "' downloaded from archive and put "
+                    + "into the cache '" + cacheDir.getAbsolutePath() + "'.");
+        evict(filename);
+        return cached;
+    }
+
+    /**
+     * Delete the least recently used files, until the cache is within its
+     * bounds.
+     *
+     * @param keep The name of a file which should not be evicted, or null.
+     */
+    private void evict(String keep) {
+        synchronized (evictionLock) {
+            while (cachedBytes.get() > maxBytes || files.size() > maxFiles) {
+                Map.Entry<String, CachedFile> oldest = null;
+                for (Map.Entry<String, CachedFile> entry : files.entrySet()) {
+                    if (!entry.getKey().equals(keep)
+                        && (oldest == null || entry.getValue().lastAccess
+                                              < oldest.getValue().lastAccess)) {
+                        oldest = entry;
+                    }
+                }
+                if (oldest == null) {
+                    break;
+                }
+                if (files.remove(oldest.getKey(), oldest.getValue())) {
+                    cachedBytes.addAndGet(-oldest.getValue().size);
+                    evictions.incrementAndGet();
+                    logger.info("Deleting file '"
+                                + oldest.getValue().file.getAbsolutePath()
+                                + "' from cache.");
+                    if (!oldest.getValue().file.delete()) {
+                        logger.warn("Unable to delete LRU file from cache: "
+                                    + oldest.getValue().file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The directory holding the cached files.
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getFetchFailures() {
+        return fetchFailures.get();
+    }
+
+    @Override
+    public int getCachedFiles() {
+        return files.size();
+    }
+
+    @Override
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    @Override
+    public int getFetchesInProgress() {
+        return fetches.size();
+    }
+}
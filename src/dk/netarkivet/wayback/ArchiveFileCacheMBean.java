@@ -0,0 +1,70 @@
+/* $Id$
+ * $Revision$
+ * $Date$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.wayback;
+
+/**
+ * The statistics of an {@link ArchiveFileCache} exposed over JMX.
+ */
+public interface ArchiveFileCacheMBean {
+    /**
+     * @return The number of requests answered from the cache.
+     */
+    long getHits();
+
+    /**
+     * @return The number of requests for files not in the cache.
+     */
+    long getMisses();
+
+    /**
+     * @return The number of bytes fetched from the archive.
+     */
+    long getBytesFetched();
+
+    /**
+     * @return The number of files evicted from the cache.
+     */
+    long getEvictions();
+
+    /**
+     * @return The number of failed fetches.
+     */
+    long getFetchFailures();
+
+    /**
+     * @return The number of files currently in the cache.
+     */
+    int getCachedFiles();
+
+    /**
+     * @return The number of bytes currently used by the cache.
+     */
+    long getCachedBytes();
+
+    /**
+     * @return The number of fetches currently running.
+     */
+    int getFetchesInProgress();
+}
@@ -51,7 +51,11 @@ import dk.netarkivet.common.utils.Settings;
 * Multi-licensed: EPL / LGPL / GPL / AL / BSD.
 * 
 * Modified slightly to fit the use of a wayback file cache.
+*
+* @deprecated The wayback resource store now uses the {@link ArchiveFileCache},
+* which doesn't block lookups while fetching and is bounded by size.
 */
+@Deprecated
 public class LRUCache {
     /** The hashtable loadfactor used here. */
     private static final float hashTableLoadFactor = 0.75f;
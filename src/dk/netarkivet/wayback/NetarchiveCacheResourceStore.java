@@ -24,8 +24,12 @@
  */
 package dk.netarkivet.wayback;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,8 +41,11 @@ import org.archive.wayback.resourcestore.resourcefile.ResourceFactory;
 
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.Settings;
 
 /**
@@ -55,16 +62,69 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
     /** Logger. */
     private Log logger = LogFactory.getLog(getClass().getName());
     /** The filecache being used by this class. */
-    private LRUCache fileCache;
+    private ArchiveFileCache fileCache;
     /** The replica being used by this class. */
     private Replica replicaUsed;
-    
+    /** Fetches files missing from the cache from the replica. */
+    private final ArchiveFileCache.FileFetcher fetcher =
+            new ArchiveFileCache.FileFetcher() {
+                public void fetch(String filename, File toFile) {
+                    client.getFile(filename, replicaUsed, toFile);
+                }
+            };
+    /** The cache of single records, if records are fetched instead of
+     * whole files. */
+    private ArchiveFileCache recordCache;
+    /** Fetches records missing from the record cache from the bitarchive,
+     * streaming the record data to the cache. */
+    private final ArchiveFileCache.FileFetcher recordFetcher =
+            new ArchiveFileCache.FileFetcher() {
+                public void fetch(String recordName, File toFile) {
+                    int separator = recordName.lastIndexOf(
+                            ArchiveFileCache.RECORD_SEPARATOR);
+                    String arcfile = recordName.substring(0, separator);
+                    long offset = Long.parseLong(
+                            recordName.substring(separator + 1));
+                    BitarchiveRecord record = client.get(arcfile, offset);
+                    if (record == null) {
+                        throw new UnknownID("No record at offset " + offset
+                                            + " in file '" + arcfile + "'");
+                    }
+                    OutputStream out = null;
+                    try {
+                        out = new BufferedOutputStream(
+                                new FileOutputStream(toFile));
+                        record.getData(out);
+                    } catch (IOException e) {
+                        throw new IOFailure("Unable to write record to '"
+                                            + toFile + "'", e);
+                    } finally {
+                        if (out != null) {
+                            try {
+                                out.close();
+                            } catch (IOException e) {
+                                throw new IOFailure("Unable to write record "
+                                                    + "to '" + toFile + "'",
+                                                    e);
+                            }
+                        }
+                    }
+                }
+            };
+
     /**
      *  Constructor.
-     *  Initiates the caching mechanism.
+     *  Initiates the caching mechanism. If the setting
+     *  {@link WaybackSettings#WAYBACK_RESOURCESTORE_FETCH_RECORDS} is true,
+     *  single records are fetched and cached instead of whole files.
      */
     public NetarchiveCacheResourceStore() {
-        fileCache = LRUCache.getInstance();
+        if (Settings.getBoolean(
+                WaybackSettings.WAYBACK_RESOURCESTORE_FETCH_RECORDS)) {
+            recordCache = ArchiveFileCache.getRecordInstance();
+        } else {
+            fileCache = ArchiveFileCache.getInstance();
+        }
         client = ArcRepositoryClientFactory.getViewerInstance();
         replicaUsed = Replica.getReplicaFromId(Settings.get(
                 CommonSettings.USE_REPLICA_ID));
@@ -88,35 +148,33 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
     
         logger.info("Received request for resource from file '" + arcfile
                 + "' at offset '" + offset + "'");
+
+        if (recordCache != null) {
+            return retrieveRecord(captureSearchResult, arcfile, offset);
+        }
     
-        // Try to lookup the file in the cache
-        // make synchronized to disallow more than one using 
-        // the cache at any one time
-        synchronized (fileCache) {
-            File wantedFile = fileCache.get(arcfile);
+        // Lookups in the cache don't block, and only one request fetches a
+        // missing file. A file may be evicted between the lookup and the
+        // reading of the record, in which case it is fetched again.
+        for (int attempt = 1; ; attempt++) {
+            File wantedFile;
             try {
-                if (wantedFile != null && wantedFile.exists()) {
-                    logger.debug("Found the file '" + arcfile
-                            + "' in the cache. ");
-                    return ResourceFactory.getResource(wantedFile, offset);
-                } else {
-                    logger.debug("The file '" + arcfile
-                            + "' was not found in the cache. ");
-                    // Get file from bitarchive, and place it in the cachedir
-                    // directory
-                    File fileFromBitarchive = new File(fileCache.getCacheDir(),
-                            arcfile);
-                    client.getFile(arcfile, replicaUsed, fileFromBitarchive);
-                    // put into the cache
-                    fileCache.put(arcfile, fileFromBitarchive);
-                    logger.info("File '" + arcfile
-                            + "' downloaded from archive and put into the cache '"
-                            + fileCache.getCacheDir().getAbsolutePath()
-                            + "'.");
-                    return ResourceFactory.getResource(fileFromBitarchive,
-                            offset);
-                }
+                wantedFile = fileCache.get(arcfile, fetcher);
+            } catch (IOFailure e) {
+                logger.error("Error fetching the file '" + arcfile + "'", e);
+                throw new ResourceNotAvailableException(this.getClass()
+                        .getName()
+                        + "Throws Exception when accessing "
+                        + "CaptureResult given from Wayback.");
+            }
+            try {
+                return ResourceFactory.getResource(wantedFile, offset);
             } catch (IOException e) {
+                if (attempt < 2 && !wantedFile.exists()) {
+                    logger.debug("The file '" + arcfile + "' was evicted "
+                            + "while being read, fetching it again");
+                    continue;
+                }
                 logger.error("Error looking for non existing resource", e);
                 throw new ResourceNotAvailableException(this.getClass()
                         .getName()
@@ -126,6 +184,73 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
         }
     }
 
+    /**
+     * Transforms a search result into a resource by fetching only the
+     * record it points to, through the record cache.
+     * @param captureSearchResult the search result.
+     * @param arcfile The file the record is in.
+     * @param offset The offset of the record in the file.
+     * @return a valid resource containing metadata and the record data.
+     * @throws ResourceNotAvailableException if something went wrong fetching
+     * the record.
+     */
+    private Resource retrieveRecord(CaptureSearchResult captureSearchResult,
+                                    String arcfile, long offset)
+            throws ResourceNotAvailableException {
+        String recordName = ArchiveFileCache.getRecordName(arcfile, offset);
+        // As with whole files, a record may be evicted between the lookup
+        // and opening it, in which case it is fetched again.
+        for (int attempt = 1; ; attempt++) {
+            File recordFile;
+            try {
+                recordFile = recordCache.get(recordName, recordFetcher);
+            } catch (IOFailure e) {
+                logger.error("Error fetching the record at offset " + offset
+                             + " in file '" + arcfile + "'", e);
+                throw new ResourceNotAvailableException(this.getClass()
+                        .getName()
+                        + "Throws Exception when accessing "
+                        + "CaptureResult given from Wayback.");
+            }
+            long length = recordFile.length();
+            FileInputStream in;
+            try {
+                in = new FileInputStream(recordFile);
+            } catch (IOException e) {
+                if (attempt < 2) {
+                    logger.debug("The record '" + recordName + "' was "
+                                 + "evicted before being read, fetching it "
+                                 + "again");
+                    continue;
+                }
+                logger.error("Error reading the cached record '"
+                             + recordName + "'", e);
+                throw new ResourceNotAvailableException(this.getClass()
+                        .getName()
+                        + "Throws Exception when accessing "
+                        + "CaptureResult given from Wayback.");
+            }
+            // The resource reads the stream lazily, so it is only closed
+            // here if no resource is made.
+            boolean created = false;
+            try {
+                Resource resource = NetarchiveResourceStore.createResource(
+                        captureSearchResult, arcfile, offset, in, length);
+                created = true;
+                return resource;
+            } finally {
+                if (!created) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        logger.debug("Error closing the cached record '"
+                                     + recordName + "'", e);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Shuts down this resource store, closing the arcrepository client.
      * @throws IOException if an exception ocurred while closing the client.
@@ -85,10 +85,6 @@ public class NetarchiveResourceStore implements ResourceStore {
     public Resource retrieveResource(CaptureSearchResult captureSearchResult)
             throws ResourceNotAvailableException {
         long offset;
-        String responseCode = null;
-        Map<String, String> metadata = new HashMap<String, String>();
-        ARCRecord arcRecord;
-        ArchiveRecordHeader header;
 
         String arcfile = captureSearchResult.getFile();
         try {
@@ -113,7 +109,34 @@ public class NetarchiveResourceStore implements ResourceStore {
         logger.info("Retrieved resource from file '" + arcfile + "' at offset '"
                     + offset + "'");
 
-        InputStream is = bitarchiveRecord.getData();
+        return createResource(captureSearchResult, arcfile, offset,
+                              bitarchiveRecord.getData(),
+                              bitarchiveRecord.getLength());
+    }
+
+    /**
+     * Create a resource from the payload of an ARC or WARC record, parsing
+     * the HTTP header lines of the payload.
+     *
+     * @param captureSearchResult the search result the record was found by.
+     * @param arcfile The file the record is from.
+     * @param offset The offset of the record in the file.
+     * @param is The payload of the record. It is read lazily by the
+     * returned resource.
+     * @param length The length of the payload.
+     * @return a valid resource containing metadata and the payload.
+     * @throws ResourceNotAvailableException if the payload couldn't be
+     * parsed.
+     */
+    static Resource createResource(CaptureSearchResult captureSearchResult,
+                                   String arcfile, long offset,
+                                   InputStream is, long length)
+            throws ResourceNotAvailableException {
+        Log logger = LogFactory.getLog(NetarchiveResourceStore.class);
+        String responseCode = null;
+        Map<String, String> metadata = new HashMap<String, String>();
+        ARCRecord arcRecord;
+        ArchiveRecordHeader header;
         // Match header-lines (until empty line).
         try {
             for (String line = InputStreamUtils.readLine(is);
@@ -171,8 +194,7 @@ public class NetarchiveResourceStore implements ResourceStore {
         metadata.put(ARCRecordMetaData.VERSION_FIELD_KEY,
                         captureSearchResult.getHttpCode());
         metadata.put(ARCRecordMetaData.ABSOLUTE_OFFSET_KEY, "" + offset);
-        metadata.put(ARCRecordMetaData.LENGTH_FIELD_KEY,
-                        ""+bitarchiveRecord.getLength());
+        metadata.put(ARCRecordMetaData.LENGTH_FIELD_KEY, "" + length);
         if(responseCode != null) {
             metadata.put(ARCRecordMetaData.STATUSCODE_FIELD_KEY, responseCode);
         }
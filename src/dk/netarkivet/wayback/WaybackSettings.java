@@ -197,15 +197,66 @@ public class WaybackSettings {
      */
     public static String WAYBACK_AGGREGATOR_MAX_MAIN_INDEX_FILE_SIZE =
             "settings.wayback.aggregator.maxMainIndexFileSize";
+
+    /**
+     * If true, the aggregator sorts and merges the index files with the Unix
+     * sort command instead of the in-process sorter. The default is false.
+     */
+    public static String WAYBACK_AGGREGATOR_USE_UNIX_SORT =
+            "settings.wayback.aggregator.useUnixSort";
+
+    /**
+     * The number of threads used by the in-process sorter to sort raw index
+     * files in parallel. The default is 2.
+     */
+    public static String WAYBACK_AGGREGATOR_SORT_THREADS =
+            "settings.wayback.aggregator.sortThreads";
+
+    /**
+     * The amount of index lines in KB each sorter thread keeps in memory
+     * before writing a sorted run to the temp dir. The default is 65536 KB.
+     */
+    public static String WAYBACK_AGGREGATOR_SORT_BUFFER_SIZE =
+            "settings.wayback.aggregator.sortBufferSize";
     
     /** The maximum number of files in the resourcestore cache. 
      * The default is 100. 
      */
     public static String WAYBACK_RESOURCESTORE_CACHE_MAXFILES =
             "settings.wayback.resourcestore.maxfiles";
+
+    /** The maximum size in MB of the files in the resourcestore cache.
+     * The default is 102400 (100 GB).
+     */
+    public static String WAYBACK_RESOURCESTORE_CACHE_MAXSIZE =
+            "settings.wayback.resourcestore.maxsize";
    
     /** The cachedirectory. */
     public static String WAYBACK_RESOURCESTORE_CACHE_DIR =
             "settings.wayback.resourcestore.cachedir";
+
+    /**
+     * If true, the resourcestore fetches single records from the
+     * bitarchive instead of whole files, and caches them in the
+     * record cache. The default is false.
+     */
+    public static String WAYBACK_RESOURCESTORE_FETCH_RECORDS =
+            "settings.wayback.resourcestore.fetchRecords";
+
+    /** The directory of the resourcestore record cache. */
+    public static String WAYBACK_RESOURCESTORE_RECORDCACHE_DIR =
+            "settings.wayback.resourcestore.recordcachedir";
+
+    /** The maximum number of records in the resourcestore record cache.
+     * The default is 100000.
+     */
+    public static String WAYBACK_RESOURCESTORE_RECORDCACHE_MAXFILES =
+            "settings.wayback.resourcestore.recordcachemaxfiles";
+
+    /** The maximum size in MB of the records in the resourcestore record
+     * cache. The default is 1024 (1 GB).
+     */
+    public static String WAYBACK_RESOURCESTORE_RECORDCACHE_MAXSIZE =
+            "settings.wayback.resourcestore.recordcachemaxsize";
     
 }
@@ -188,25 +188,32 @@ public class AggregationWorker implements CleanupIF {
             }
         }
 
-        aggregator.sortAndMergeFiles(filesToProcess, TEMP_FILE_INDEX);
-        if (log.isDebugEnabled()) {
-            log.debug("Sorted raw indexes into temporary index file ");
-        }
-
-        // If no Intermediate Index file exist we just promote the temp index
-        // file to working file.
-        // Normally the Intermediate Index file exists and we
-        // need to merge the new indexes into this.
+        // If no Intermediate Index file exist the new indexes are sorted
+        // directly into a new one.
+        // Normally the Intermediate Index file exists and the new indexes
+        // are sorted and merged into this in a single pass, so the new index
+        // lines are only written once.
+        // Rewriting the Intermediate Index file on each run is bounded by
+        // WAYBACK_AGGREGATOR_MAX_INTERMEDIATE_INDEX_FILE_SIZE, and the large
+        // final index file is only rewritten when that limit is exceeded, so
+        // the two files act as two merge levels. Further levels would leave
+        // index lines in files Wayback is not set up to read.
         if (!INTERMEDIATE_INDEX_FILE.exists()) {
-            TEMP_FILE_INDEX.renameTo(INTERMEDIATE_INDEX_FILE);
+            aggregator.sortAndMergeFiles(filesToProcess, new File[0],
+                                         INTERMEDIATE_INDEX_FILE);
+            if (log.isDebugEnabled()) {
+                log.debug("Sorted raw indexes into new intermediate index "
+                        + "file '"
+                        + INTERMEDIATE_INDEX_FILE.getAbsolutePath() + "'.");
+            }
         } else {
-            aggregator.mergeFiles(new File[]{TEMP_FILE_INDEX,
-                                             INTERMEDIATE_INDEX_FILE},
-                                  tempIntermediateIndexFile);
+            aggregator.sortAndMergeFiles(filesToProcess,
+                                         new File[]{INTERMEDIATE_INDEX_FILE},
+                                         tempIntermediateIndexFile);
             tempIntermediateIndexFile.renameTo(INTERMEDIATE_INDEX_FILE);
             if (log.isDebugEnabled()) {
-                log.debug("Merged temporary index file into intermediate index "
-                        + "file '"
+                log.debug("Sorted and merged raw indexes into intermediate "
+                        + "index file '"
                         + INTERMEDIATE_INDEX_FILE.getAbsolutePath() + "'.");
             }
         }
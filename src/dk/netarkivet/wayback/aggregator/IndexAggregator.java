@@ -27,6 +27,8 @@
 package dk.netarkivet.wayback.aggregator;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -38,10 +40,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * Encapsulates the functionality for sorting and merging index files. Uses the
- * Unix sort cmd for optimized sorting and file merging. Operations in this
- * class are synchronized to avoid multiple jobs running at the same time (by
- * the same object at least).
+ * Encapsulates the functionality for sorting and merging index files. By
+ * default the files are sorted and merged in-process by an
+ * {@link IndexFileSorter}. If
+ * {@link WaybackSettings#WAYBACK_AGGREGATOR_USE_UNIX_SORT} is set, the Unix
+ * sort cmd is used instead.
  */
 public class IndexAggregator {
     /** The logger for this class. */
@@ -57,7 +60,40 @@ public class IndexAggregator {
      *                   array no outputFiles will be generated
      */
     public void sortAndMergeFiles(File[] files, File outputFile) {
-        processFiles(files, outputFile, null);
+        if (useUnixSort()) {
+            processFiles(files, outputFile, null);
+        } else {
+            processFilesInJava(files, new File[0], outputFile);
+        }
+    }
+
+    /**
+     * Sorts a set of unsorted CDX files and merges the result with a set of
+     * already sorted files in a single pass, so the new index lines are only
+     * written once.
+     *
+     * @param unsortedFiles The files to sort
+     * @param sortedFiles The already sorted files to merge with
+     * @param outputFile The resulting file containing the total sorted set
+     * of index lines. If no input files exist, no output file is generated.
+     */
+    public void sortAndMergeFiles(File[] unsortedFiles, File[] sortedFiles,
+                                  File outputFile) {
+        if (useUnixSort()) {
+            File sortedInput = new File(
+                    Settings.get(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR),
+                    outputFile.getName() + ".sorted");
+            processFiles(unsortedFiles, sortedInput, null);
+            List<File> toMerge = new LinkedList<File>(
+                    Arrays.asList(sortedFiles));
+            if (sortedInput.exists()) {
+                toMerge.add(sortedInput);
+            }
+            mergeFiles(toMerge.toArray(new File[toMerge.size()]), outputFile);
+            sortedInput.delete();
+        } else {
+            processFilesInJava(unsortedFiles, sortedFiles, outputFile);
+        }
     }
 
     /**
@@ -68,9 +104,73 @@ public class IndexAggregator {
      */
 
     public void mergeFiles(File[] files, File outputFile) {
-        List<String> args = new LinkedList<String>();
-        args.add("-m");
-        processFiles(files, outputFile, args);
+        if (useUnixSort()) {
+            List<String> args = new LinkedList<String>();
+            args.add("-m");
+            processFiles(files, outputFile, args);
+        } else {
+            processFilesInJava(new File[0], files, outputFile);
+        }
+    }
+
+    /**
+     * @return true, if the Unix sort command should be used rather than the
+     * in-process sorter.
+     */
+    private boolean useUnixSort() {
+        return Settings.getBoolean(
+                WaybackSettings.WAYBACK_AGGREGATOR_USE_UNIX_SORT);
+    }
+
+    /**
+     * Sorts and merges the files with an {@link IndexFileSorter} configured
+     * from the aggregator settings.
+     *
+     * @param unsortedFiles Files to be sorted
+     * @param sortedFiles Files which are already sorted
+     * @param outputFile The resulting sorted file. Not created if none of
+     * the input files exist.
+     */
+    private void processFilesInJava(File[] unsortedFiles, File[] sortedFiles,
+                                    File outputFile) {
+        List<File> unsorted = existingFiles(unsortedFiles);
+        List<File> sorted = existingFiles(sortedFiles);
+        if (unsorted.isEmpty() && sorted.isEmpty()) {
+            return;
+        }
+        IndexFileSorter sorter = new IndexFileSorter(
+                Settings.getFile(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR),
+                Settings.getInt(WaybackSettings.WAYBACK_AGGREGATOR_SORT_THREADS),
+                1024 * Settings.getLong(
+                        WaybackSettings.WAYBACK_AGGREGATOR_SORT_BUFFER_SIZE));
+        try {
+            sorter.sortAndMerge(unsorted, sorted, outputFile);
+        } catch (Exception e) {
+            log.error("Failed to aggregate indexes ", e);
+        }
+    }
+
+    /**
+     * Filters away files which doesn't exist or aren't regular files.
+     *
+     * @param files The files to check
+     * @return The existing regular files
+     */
+    private List<File> existingFiles(File[] files) {
+        if (files.length == 0) {
+            return Collections.emptyList();
+        }
+        List<File> existing = new LinkedList<File>();
+        for (File file : files) {
+            if (file.exists() && file.isFile()) {
+                existing.add(file);
+            } else {
+                log.warn("File " + file + " doesn't exist or isn't a regular "
+                         + "file, dropping from list of files to "
+                         + "sort and merge");
+            }
+        }
+        return existing;
     }
 
     /**
@@ -0,0 +1,533 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * An in-process external sorter for index files. Lines are compared as
+ * unsigned bytes, which gives the same ordering as the Unix sort command run
+ * with <code>LC_ALL=C</code>.
+ * <p>
+ * Unsorted input is split into sorted runs, generated in parallel by a fixed
+ * number of worker threads, each holding at most a bounded number of bytes in
+ * memory. The runs (and any already sorted input) are then combined with a
+ * heap based k-way merge reading and writing through buffered file channels.
+ * If more files than {@link #MAX_MERGE_FAN_IN} are to be merged, intermediate
+ * merge passes are made in the temporary directory.
+ */
+public class IndexFileSorter {
+    /** The logger for this class. */
+    private Log log = LogFactory.getLog(getClass().getName());
+
+    /** The maximum number of files opened by a single merge pass. */
+    static final int MAX_MERGE_FAN_IN = 128;
+
+    /** The size of the buffers used when reading and writing files. */
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+
+    /** The estimated memory overhead of keeping a single line in memory. */
+    private static final int LINE_OVERHEAD = 32;
+
+    /** Orders lines by comparing the bytes as unsigned values. */
+    static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] line1, byte[] line2) {
+            int length = Math.min(line1.length, line2.length);
+            for (int i = 0; i < length; i++) {
+                int diff = (line1[i] & 0xff) - (line2[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return line1.length - line2.length;
+        }
+    };
+
+    /** The directory used for sorted runs and intermediate merges. */
+    private final File tempDir;
+    /** The number of threads used for generating sorted runs. */
+    private final int sortThreads;
+    /** The maximum number of bytes of lines held in memory by one thread. */
+    private final long runSize;
+
+    /**
+     * Create a sorter.
+     *
+     * @param tempDir The directory in which to place temporary run files.
+     * @param sortThreads The number of threads used to generate sorted runs.
+     * @param runSize The maximum number of bytes each thread may keep in
+     * memory while generating a sorted run.
+     * @throws ArgumentNotValid If tempDir is null, or if sortThreads or
+     * runSize isn't positive.
+     */
+    public IndexFileSorter(File tempDir, int sortThreads, long runSize) {
+        ArgumentNotValid.checkNotNull(tempDir, "File tempDir");
+        ArgumentNotValid.checkPositive(sortThreads, "int sortThreads");
+        ArgumentNotValid.checkPositive(runSize, "long runSize");
+        this.tempDir = tempDir;
+        this.sortThreads = sortThreads;
+        this.runSize = runSize;
+    }
+
+    /**
+     * Sorts the lines of a set of unsorted files and merges them with a set of
+     * already sorted files into a single sorted output file.
+     *
+     * @param unsortedFiles Files with lines in arbitrary order.
+     * @param sortedFiles Files which are already sorted.
+     * @param outputFile The file to write the sorted result to. It may be
+     * identical to one of the input files, as the result is only moved into
+     * place when completely written.
+     * @throws ArgumentNotValid If any of the arguments are null.
+     * @throws IOFailure If reading or writing fails.
+     */
+    public void sortAndMerge(List<File> unsortedFiles, List<File> sortedFiles,
+                             File outputFile) {
+        ArgumentNotValid.checkNotNull(unsortedFiles, "List<File> unsortedFiles");
+        ArgumentNotValid.checkNotNull(sortedFiles, "List<File> sortedFiles");
+        ArgumentNotValid.checkNotNull(outputFile, "File outputFile");
+        FileUtils.createDir(tempDir);
+        List<File> runs = generateRuns(unsortedFiles);
+        try {
+            List<File> toMerge = new ArrayList<File>(sortedFiles);
+            toMerge.addAll(runs);
+            merge(toMerge, outputFile, runs);
+        } finally {
+            for (File run : runs) {
+                FileUtils.remove(run);
+            }
+        }
+    }
+
+    /**
+     * Merges a number of sorted files into one sorted output file.
+     *
+     * @param files The sorted files to merge, each opened once.
+     * @param outputFile The file to write the result to.
+     * @param deletable Files which may be deleted once they have been merged
+     * into an intermediate file. Used to keep the temporary disk usage down
+     * when merging in several passes.
+     */
+    private void merge(List<File> files, File outputFile,
+                       List<File> deletable) {
+        List<File> remaining = new ArrayList<File>(files);
+        while (remaining.size() > MAX_MERGE_FAN_IN) {
+            List<File> pass = new ArrayList<File>(
+                    remaining.subList(0, MAX_MERGE_FAN_IN));
+            remaining = new ArrayList<File>(remaining.subList(
+                    MAX_MERGE_FAN_IN, remaining.size()));
+            File intermediate = createTempFile("merge");
+            mergePass(pass, intermediate);
+            for (File merged : pass) {
+                if (deletable.remove(merged)) {
+                    FileUtils.remove(merged);
+                }
+            }
+            deletable.add(intermediate);
+            remaining.add(intermediate);
+        }
+        File tmpOutput = createTempFile("output");
+        try {
+            mergePass(remaining, tmpOutput);
+            FileUtils.moveFile(tmpOutput, outputFile);
+        } finally {
+            FileUtils.remove(tmpOutput);
+        }
+    }
+
+    /**
+     * Performs a single heap based k-way merge of the given sorted files.
+     *
+     * @param files The files to merge.
+     * @param outputFile The file to write the result to.
+     * @throws IOFailure On trouble reading or writing the files.
+     */
+    private void mergePass(List<File> files, File outputFile) {
+        PriorityQueue<LineReader> heap = new PriorityQueue<LineReader>(
+                Math.max(1, files.size()), new Comparator<LineReader>() {
+                    @Override
+                    public int compare(LineReader r1, LineReader r2) {
+                        int result = BYTE_ORDER.compare(r1.current, r2.current);
+                        return result != 0 ? result : r1.order - r2.order;
+                    }
+                });
+        List<LineReader> readers = new ArrayList<LineReader>();
+        LineWriter writer = null;
+        try {
+            for (File file : files) {
+                LineReader reader = new LineReader(file, readers.size());
+                readers.add(reader);
+                if (reader.next()) {
+                    heap.add(reader);
+                }
+            }
+            writer = new LineWriter(outputFile);
+            while (!heap.isEmpty()) {
+                LineReader reader = heap.poll();
+                writer.write(reader.current);
+                if (reader.next()) {
+                    heap.add(reader);
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Failed to merge " + files + " into '"
+                                + outputFile + "'", e);
+        } finally {
+            for (LineReader reader : readers) {
+                reader.close();
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Splits the given unsorted files into sorted runs, using up to
+     * sortThreads threads. Every file is sorted by a single thread, so
+     * the amount of parallelism is bounded by the number of files.
+     *
+     * @param unsortedFiles The files to sort.
+     * @return The generated run files.
+     * @throws IOFailure If any of the files could not be sorted.
+     */
+    private List<File> generateRuns(List<File> unsortedFiles) {
+        List<File> runs = new ArrayList<File>();
+        if (unsortedFiles.isEmpty()) {
+            return runs;
+        }
+        int threads = Math.min(sortThreads, unsortedFiles.size());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        List<Future<List<File>>> results = new ArrayList<Future<List<File>>>();
+        try {
+            for (final File file : unsortedFiles) {
+                results.add(executor.submit(new Callable<List<File>>() {
+                    @Override
+                    public List<File> call() throws IOException {
+                        return sortIntoRuns(file);
+                    }
+                }));
+            }
+            IOFailure failure = null;
+            for (Future<List<File>> result : results) {
+                try {
+                    runs.addAll(result.get());
+                } catch (InterruptedException e) {
+                    failure = new IOFailure("Interrupted while sorting", e);
+                } catch (ExecutionException e) {
+                    failure = new IOFailure("Failed to sort index file",
+                                            e.getCause());
+                }
+            }
+            if (failure != null) {
+                for (File run : runs) {
+                    FileUtils.remove(run);
+                }
+                throw failure;
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return runs;
+    }
+
+    /**
+     * Reads a file in chunks of at most runSize bytes, sorts each chunk in
+     * memory and writes it to a run file.
+     *
+     * @param file The file to sort.
+     * @return The run files, each sorted.
+     * @throws IOException If the file could not be read or the runs written.
+     */
+    private List<File> sortIntoRuns(File file) throws IOException {
+        List<File> runs = new ArrayList<File>();
+        LineReader reader = new LineReader(file, 0);
+        try {
+            List<byte[]> lines = new ArrayList<byte[]>();
+            long bytesInMemory = 0;
+            while (reader.next()) {
+                lines.add(reader.current);
+                bytesInMemory += reader.current.length + LINE_OVERHEAD;
+                if (bytesInMemory >= runSize) {
+                    runs.add(writeRun(lines));
+                    lines.clear();
+                    bytesInMemory = 0;
+                }
+            }
+            if (!lines.isEmpty()) {
+                runs.add(writeRun(lines));
+            }
+        } catch (IOException e) {
+            for (File run : runs) {
+                FileUtils.remove(run);
+            }
+            throw e;
+        } finally {
+            reader.close();
+        }
+        log.debug("Sorted '" + file + "' into " + runs.size() + " run(s)");
+        return runs;
+    }
+
+    /**
+     * Sorts a list of lines and writes them to a new run file.
+     *
+     * @param lines The lines to write.
+     * @return The run file.
+     */
+    private File writeRun(List<byte[]> lines) {
+        Collections.sort(lines, BYTE_ORDER);
+        File run = createTempFile("run");
+        LineWriter writer = new LineWriter(run);
+        try {
+            for (byte[] line : lines) {
+                writer.write(line);
+            }
+        } finally {
+            writer.close();
+        }
+        return run;
+    }
+
+    /**
+     * Create a new unique file name in the temporary directory.
+     *
+     * @param prefix Prefix for the name.
+     * @return A file that does not exist yet.
+     */
+    private File createTempFile(String prefix) {
+        return new File(tempDir, prefix + "-" + UUID.randomUUID() + ".tmp");
+    }
+
+    /**
+     * Reads newline terminated lines from a file channel through a large
+     * buffer. The newline character is not part of the returned lines, and a
+     * missing newline at the end of the file is tolerated.
+     */
+    private static class LineReader {
+        /** The channel to read from. */
+        private final FileChannel channel;
+        /** The read buffer. */
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        /** The position of this reader in the merge, used to keep merges
+         * stable. */
+        private final int order;
+        /** Whether the end of the channel has been reached. */
+        private boolean eof = false;
+        /** The last line read. */
+        private byte[] current;
+
+        /**
+         * Open a reader on a file.
+         *
+         * @param file The file to read.
+         * @param order The ordering of this file among equal lines.
+         * @throws IOException If the file cannot be opened.
+         */
+        LineReader(File file, int order) throws IOException {
+            this.channel = new FileInputStream(file).getChannel();
+            this.order = order;
+            buffer.flip();
+        }
+
+        /**
+         * Read the next line into {@link #current}.
+         *
+         * @return false if there are no more lines.
+         * @throws IOException On read errors.
+         */
+        boolean next() throws IOException {
+            byte[] partial = null;
+            while (true) {
+                int start = buffer.position();
+                int limit = buffer.limit();
+                byte[] array = buffer.array();
+                for (int i = start; i < limit; i++) {
+                    if (array[i] == '\n') {
+                        current = concat(partial, array, start, i - start);
+                        buffer.position(i + 1);
+                        return true;
+                    }
+                }
+                if (limit > start) {
+                    partial = concat(partial, array, start, limit - start);
+                }
+                buffer.clear();
+                if (eof || channel.read(buffer) < 0) {
+                    eof = true;
+                    buffer.flip();
+                    current = partial;
+                    return partial != null;
+                }
+                buffer.flip();
+            }
+        }
+
+        /**
+         * Append a slice of an array to a possibly null prefix.
+         *
+         * @param prefix The bytes already read or null.
+         * @param array The array holding the new bytes.
+         * @param offset Offset of the new bytes.
+         * @param length Number of new bytes.
+         * @return A new array with the combined bytes.
+         */
+        private static byte[] concat(byte[] prefix, byte[] array, int offset,
+                                     int length) {
+            if (prefix == null) {
+                return Arrays.copyOfRange(array, offset, offset + length);
+            }
+            byte[] result = Arrays.copyOf(prefix, prefix.length + length);
+            System.arraycopy(array, offset, result, prefix.length, length);
+            return result;
+        }
+
+        /** Close the underlying channel, ignoring errors. */
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LogFactory.getLog(IndexFileSorter.class).debug(
+                        "Error closing channel", e);
+            }
+        }
+    }
+
+    /**
+     * Writes newline terminated lines to a file channel through a large
+     * buffer.
+     */
+    private static class LineWriter {
+        /** The file written to. */
+        private final File file;
+        /** The channel written to. */
+        private final FileChannel channel;
+        /** The write buffer. */
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+
+        /**
+         * Open a writer on a file, truncating the file.
+         *
+         * @param file The file to write.
+         * @throws IOFailure If the file cannot be opened.
+         */
+        LineWriter(File file) {
+            this.file = file;
+            try {
+                this.channel = new FileOutputStream(file).getChannel();
+            } catch (IOException e) {
+                throw new IOFailure("Could not open '" + file + "'", e);
+            }
+        }
+
+        /**
+         * Write a line followed by a newline.
+         *
+         * @param line The line to write.
+         * @throws IOFailure On write errors.
+         */
+        void write(byte[] line) {
+            try {
+                if (line.length + 1 > buffer.remaining()) {
+                    flush();
+                }
+                if (line.length + 1 > buffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(line));
+                } else {
+                    buffer.put(line);
+                }
+                buffer.put((byte) '\n');
+            } catch (IOException e) {
+                throw new IOFailure("Could not write to '" + file + "'", e);
+            }
+        }
+
+        /**
+         * Write the buffered bytes to the channel.
+         *
+         * @throws IOException On write errors.
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Write all remaining bytes of a buffer to the channel.
+         *
+         * @param bytes The bytes to write.
+         * @throws IOException On write errors.
+         */
+        private void writeFully(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        /**
+         * Flush the buffer and close the channel.
+         *
+         * @throws IOFailure If the remaining lines could not be written.
+         */
+        void close() {
+            try {
+                flush();
+                channel.close();
+            } catch (IOException e) {
+                throw new IOFailure("Could not close '" + file + "'", e);
+            }
+        }
+    }
+}
@@ -22,15 +22,17 @@
  */
 package is.hi.bok.deduplicator;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.NoSuchElementException;
 
+import dk.netarkivet.common.utils.CrawlLogTokenizer;
+
 /**
  * An implementation of a  {@link is.hi.bok.deduplicator.CrawlDataIterator}
  * capable of iterating over a Heritrix's style <code>crawl.log</code>.
@@ -53,9 +55,14 @@ public class CrawlLogIterator extends CrawlDataIterator {
     	new SimpleDateFormat(CrawlDataItem.dateFormat);
 
     /** 
-     * A reader for the crawl.log file being processed
+     * The crawl.log file being processed
+     */
+    protected InputStream in;
+
+    /**
+     * Splits the lines of the crawl.log into fields
      */
-    protected BufferedReader in;
+    protected CrawlLogTokenizer lines;
     
     /**
      * The next item to be issued (if ready) or null if the next item
@@ -72,8 +79,8 @@ public class CrawlLogIterator extends CrawlDataIterator {
     public CrawlLogIterator(String source) 
             throws IOException {
         super(source);
-        in = new BufferedReader(new InputStreamReader(
-                new FileInputStream(new File(source))));
+        in = new FileInputStream(new File(source));
+        lines = new CrawlLogTokenizer(in);
     }
 
     /** 
@@ -115,9 +122,8 @@ public class CrawlLogIterator extends CrawlDataIterator {
      * Note: This method should only be called when <code>next==null<code>
      */
     protected void prepareNext() throws IOException{
-        String line;
-        while ((line = in.readLine()) != null) {
-            next = parseLine(line);
+        while (lines.next()) {
+            next = parseLine(lines);
             if (next != null) {
                 return;
             }
@@ -131,33 +137,28 @@ public class CrawlLogIterator extends CrawlDataIterator {
      * items are processed and accepted/rejected.  This method is called from
      * within the loop in prepareNext().
      *
-     * @param line A line from the crawl log.  Must not be null.
+     * @param line A tokenizer positioned at a line from the crawl log.  Must 
+     *        not be null.
      * @return A {@link CrawlDataItem} if the next line in the crawl log yielded 
      *         a usable item, null otherwise.
      */
-    protected CrawlDataItem parseLine(String line) {
-        if (line != null && line.length() > 42) {
-            // Split the line up by whitespaces.
-            // Limit to 12 parts (annotations may contain spaces, but will
-            // always be at the end of each line.
-            String[] lineParts = line.split("\\s+",12);
-            
-            if(lineParts.length<10){
-                // If the lineParts are fewer then 10 then the line is 
+    protected CrawlDataItem parseLine(CrawlLogTokenizer line) {
+        if (line != null && line.getLineLength() > 42) {
+            // The line is split up by whitespaces into at most 12 fields
+            // (annotations may contain spaces, but will always be at the 
+            // end of each line.
+            if(line.getFieldCount()<10){
+                // If the fields are fewer then 10 then the line is 
                 // malformed.
                 return null;
             }
             
             // Index 0: Timestamp 
-            String timestamp;
-            try {
-                // Convert from crawl.log format to the format specified by
-                // CrawlDataItem
-                timestamp = crawlDataItemFormat.format(
-                        crawlDateFormat.parse(lineParts[0]));
-            } catch (ParseException e) {
-                System.err.println("Error parsing date for: " + line);
-                e.printStackTrace();
+            String timestamp = toCrawlDataItemDate(
+                    line.getField(CrawlLogTokenizer.TIMESTAMP_FIELD));
+            if (timestamp == null) {
+                System.err.println("Error parsing date for: " 
+                        + line.getLine());
                 return null;
             }
             
@@ -165,19 +166,19 @@ public class CrawlLogIterator extends CrawlDataIterator {
             // Index 2: File size (ignore)
 
             // Index 3: URL
-            String url = lineParts[3];
+            String url = line.getField(CrawlLogTokenizer.URL_FIELD);
             
             // Index 4: Hop path (ignore)
             // Index 5: Parent URL (ignore)
             
             // Index 6: Mime type
-            String mime = lineParts[6];
+            String mime = line.getField(CrawlLogTokenizer.MIMETYPE_FIELD);
 
             // Index 7: ToeThread number (ignore)
             // Index 8: ArcTimeAndDuration (ignore)
 
             // Index 9: Digest
-            String digest = lineParts[9];
+            String digest = line.getField(CrawlLogTokenizer.DIGEST_FIELD);
             // The digest may contain a prefix. 
             // The prefix will be terminated by a : which is immediately 
             // followed by the actual digest
@@ -190,24 +191,29 @@ public class CrawlLogIterator extends CrawlDataIterator {
             // Index 11: Annotations (may be missing)
             String origin = null;
             boolean duplicate = false;
-            if(lineParts.length==12){
+            if(line.getFieldCount()==CrawlLogTokenizer.MAX_FIELDS){
                 // Have an annotation field. Look for origin inside it.
                 // Origin can be found in the 'annotations' field, preceeded by
                 // 'deduplicate:' (no quotes) and contained within a pair of 
                 // double quotes. Example: deduplicate:"origin". 
                 // Can very possibly be missing.
-                String annotation = lineParts[11];
-    
-                int startIndex = annotation.indexOf("duplicate:\"");
+                final int annotation = CrawlLogTokenizer.ANNOTATIONS_FIELD;
+                int startIndex = line.indexOf(annotation, "duplicate:\"", 0);
                 if(startIndex >= 0){
                     // The annotation field contains origin info. Extract it.
                     startIndex += 11; // Skip over the ]deduplicate:"' part
-                    int endIndex = annotation.indexOf('"',startIndex+1);
-                    origin = annotation.substring(startIndex,endIndex);
+                    int endIndex = line.indexOf(annotation, "\"", 
+                            startIndex+1);
+                    if (endIndex < 0) {
+                        // The origin is not terminated, so the line is
+                        // malformed.
+                        return null;
+                    }
+                    origin = line.getField(annotation, startIndex, endIndex);
                     // That also means this is a duplicate of an URL from an 
                     // earlier crawl
                     duplicate=true;
-                } else if(annotation.contains("duplicate")){
+                } else if(line.indexOf(annotation, "duplicate", 0) >= 0){
                 	// Is a duplicate of an URL from an earlier crawl but
                 	// no origin information was recorded
                 	duplicate=true;
@@ -219,6 +225,75 @@ public class CrawlLogIterator extends CrawlDataIterator {
         } 
         return null;
     }
+
+    /** 
+     * Parse a single line of crawl log, by splitting it with a
+     * {@link CrawlLogTokenizer} and calling parseLine(CrawlLogTokenizer).
+     *
+     * @param line A line from the crawl log.  Must not be null.
+     * @return A {@link CrawlDataItem} if the line yielded a usable item, 
+     *         null otherwise.
+     */
+    protected CrawlDataItem parseLine(String line) {
+        if (line == null) {
+            return null;
+        }
+        try {
+            CrawlLogTokenizer tokenizer = new CrawlLogTokenizer(
+                    new ByteArrayInputStream(line.getBytes("UTF-8")));
+            if (!tokenizer.next()) {
+                return null;
+            }
+            return parseLine(tokenizer);
+        } catch (IOException e) {
+            // Cannot happen when reading from a byte array
+            throw new IllegalStateException("Error splitting line: " + line,
+                    e);
+        }
+    }
+
+    /**
+     * Convert a timestamp from the crawl.log format to the format specified
+     * by CrawlDataItem.  Timestamps of the usual form 
+     * yyyy-MM-ddTHH:mm:ss.SSSZ are converted by moving the digits, the 
+     * others are parsed with the crawl.log date format.
+     *
+     * @param crawlLogDate A timestamp from the crawl.log.
+     * @return The timestamp in the CrawlDataItem format, or null if it could
+     * not be parsed.
+     */
+    protected String toCrawlDataItemDate(String crawlLogDate) {
+        if (crawlLogDate.length() == 24 && crawlLogDate.charAt(4) == '-' 
+                && crawlLogDate.charAt(7) == '-' 
+                && crawlLogDate.charAt(10) == 'T'
+                && crawlLogDate.charAt(13) == ':'
+                && crawlLogDate.charAt(16) == ':'
+                && crawlLogDate.charAt(19) == '.'
+                && crawlLogDate.charAt(23) == 'Z') {
+            char[] date = new char[17];
+            int j = 0;
+            for (int i = 0; i < 23; i++) {
+                char c = crawlLogDate.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    date[j++] = c;
+                } else if (i != 4 && i != 7 && i != 10 && i != 13 
+                        && i != 16 && i != 19) {
+                    j = -1;
+                    break;
+                }
+            }
+            if (j == date.length) {
+                return new String(date);
+            }
+        }
+        try {
+            return crawlDataItemFormat.format(
+                    crawlDateFormat.parse(crawlLogDate));
+        } catch (ParseException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
     
     /**
      * Closes the crawl.log file.
@@ -26,11 +26,13 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,14 +40,14 @@ import org.apache.commons.httpclient.HttpMethod;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.search.TermQuery;
 
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
 import org.archive.crawler.datamodel.CoreAttributeConstants;
 import org.archive.crawler.datamodel.CrawlOrder;
 import org.archive.crawler.datamodel.CrawlURI;
@@ -79,6 +81,10 @@ implements AdaptiveRevisitAttributeConstants{
     private static Logger logger =
         Logger.getLogger(DeDuplicator.class.getName());
 	
+    /** The stored fields needed to compare a hit with a CrawlURI. */
+    private static final Set<String> DIGEST_FIELDS =
+        Collections.singleton(DigestIndexer.FIELD_DIGEST);
+
     protected IndexSearcher index = null;
     protected IndexReader indexReader = null;
     protected boolean lookupByURL = true;
@@ -622,12 +628,14 @@ implements AdaptiveRevisitAttributeConstants{
                 for (ScoreDoc hit : hits) {
                 //for(int i=0 ; i < hits.size() ; i++){
                     // Multiple hits on same exact URL should be rare
-                    // See if any have matching content digests
+                    // See if any have matching content digests. Only the
+                    // digest is loaded until a match is found.
                     int docId = hit.doc;
-                    doc = index.doc(docId);
-                    String oldDigest = doc.get(DigestIndexer.FIELD_DIGEST);
+                    String oldDigest = index.doc(docId, DIGEST_FIELDS).get(
+                            DigestIndexer.FIELD_DIGEST);
 
                     if(oldDigest.equalsIgnoreCase(currentDigest)){
+                        doc = index.doc(docId);
                         stats.exactURLDuplicates++;
                         if(statsPerHost){ 
                             currHostStats.exactURLDuplicates++;
@@ -654,9 +662,10 @@ implements AdaptiveRevisitAttributeConstants{
                     //int i=0 ; i < hits.length ; i++){
                 
                     int docId = hit.doc;
-                    Document doc1 = index.doc(docId);
-                    String indexDigest = doc1.get(DigestIndexer.FIELD_DIGEST);
+                    String indexDigest = index.doc(docId, DIGEST_FIELDS).get(
+                            DigestIndexer.FIELD_DIGEST);
                     if(indexDigest.equals(currentDigest)){
+                        Document doc1 = index.doc(docId);
                         // Make note in log
                         String equivURL = doc1.get(
                                 DigestIndexer.FIELD_URL);
@@ -1014,23 +1023,17 @@ implements AdaptiveRevisitAttributeConstants{
 	}
 
     /** Run a simple Lucene query for a single term in a single field.
+     * The fields are indexed without analysis, so the value is looked up
+     * directly in the term dictionary of the field, rather than by
+     * enumerating a range of terms.
      *
      * @param fieldName name of the field to look in.
      * @param value The value to query for
      * @returns A Query for the given value in the given field.
      */
     protected Query queryField(String fieldName, String value) {
-        Query query = null;
-        
-        /** alternate solution. */
-        BytesRef valueRef = new BytesRef(value.getBytes());
-        query = new ConstantScoreQuery(
-                new TermRangeFilter(fieldName, valueRef, valueRef, true, true));
-                      
-        /** The most clean solution, but it seems also memory demanding */
-        //query = new ConstantScoreQuery(new FieldCacheTermsFilter(fieldName,
-        //        value));
-        return query;
+        return new ConstantScoreQuery(
+                new TermQuery(new Term(fieldName, value)));
     }
 
     @Override
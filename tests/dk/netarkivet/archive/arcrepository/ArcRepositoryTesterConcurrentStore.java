@@ -0,0 +1,295 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.archive.arcrepository;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
+import dk.netarkivet.archive.arcrepositoryadmin.AdminData;
+import dk.netarkivet.archive.arcrepositoryadmin.UpdateableAdminData;
+import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
+import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
+import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
+import dk.netarkivet.archive.bitarchive.distribute.RemoveAndGetFileMessage;
+import dk.netarkivet.archive.bitarchive.distribute.UploadMessage;
+import dk.netarkivet.archive.checksum.distribute.CorrectMessage;
+import dk.netarkivet.archive.checksum.distribute.GetAllChecksumsMessage;
+import dk.netarkivet.archive.checksum.distribute.GetAllFilenamesMessage;
+import dk.netarkivet.archive.checksum.distribute.GetChecksumMessage;
+import dk.netarkivet.archive.distribute.ReplicaClient;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.ChannelsTester;
+import dk.netarkivet.common.distribute.JMSConnection;
+import dk.netarkivet.common.distribute.JMSConnectionMockupMQ;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
+import dk.netarkivet.common.exceptions.NotImplementedException;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+/**
+ * Stress test of the ArcRepository, storing many files concurrently with
+ * replica clients that reply from other threads.
+ */
+public class ArcRepositoryTesterConcurrentStore extends TestCase {
+    /** The number of files stored. */
+    private static final int FILES = 300;
+    /** The number of threads sending store messages. */
+    private static final int STORE_THREADS = 16;
+    /** The number of threads sending replies from the replicas. */
+    private static final int REPLY_THREADS = 16;
+
+    private static final File TEST_DIR =
+            new File("tests/dk/netarkivet/archive/arcrepository/data");
+    /** The directory used for controller admindata. */
+    private static final File ADMINDATA_DIR = new File(TEST_DIR, "admindata");
+    /** The directory with the files to store. */
+    private static final File FILE_DIR = new File(TEST_DIR, "concurrent");
+
+    private UseTestRemoteFile rf = new UseTestRemoteFile();
+    private ReloadSettings rs = new ReloadSettings();
+
+    private ArcRepository arcRepos;
+    /** The replica clients of the ArcRepository, replaced during the test. */
+    private Map<Replica, ReplicaClient> connectedReplicas;
+    /** The real replica clients, restored after the test. */
+    private Map<Replica, ReplicaClient> realReplicas;
+    /** The threads sending replies from the replicas. */
+    private ExecutorService replies;
+
+    public void setUp() throws Exception {
+        rs.setUp();
+        rf.setUp();
+        Settings.set(ArchiveSettings.DIRS_ARCREPOSITORY_ADMIN,
+                     ADMINDATA_DIR.getAbsolutePath());
+        JMSConnectionMockupMQ.useJMSConnectionMockupMQ();
+        JMSConnectionMockupMQ.clearTestQueues();
+        ChannelsTester.resetChannels();
+        FileUtils.removeRecursively(ADMINDATA_DIR);
+        FileUtils.createDir(ADMINDATA_DIR);
+        FileUtils.removeRecursively(FILE_DIR);
+        FileUtils.createDir(FILE_DIR);
+
+        arcRepos = ArcRepository.getInstance();
+        replies = Executors.newFixedThreadPool(REPLY_THREADS);
+        Field f = ArcRepository.class.getDeclaredField("connectedReplicas");
+        f.setAccessible(true);
+        connectedReplicas = (Map<Replica, ReplicaClient>) f.get(arcRepos);
+        realReplicas = new HashMap<Replica, ReplicaClient>(connectedReplicas);
+        for (Replica replica : realReplicas.keySet()) {
+            connectedReplicas.put(replica, new InMemoryReplicaClient(replica));
+        }
+    }
+
+    public void tearDown() {
+        replies.shutdownNow();
+        connectedReplicas.putAll(realReplicas);
+        arcRepos.close();
+        FileUtils.removeRecursively(ADMINDATA_DIR);
+        FileUtils.removeRecursively(FILE_DIR);
+        JMSConnectionMockupMQ.clearTestQueues();
+        rf.tearDown();
+        rs.tearDown();
+    }
+
+    /**
+     * Test that all files stored concurrently are stored in all replicas, and
+     * that every store message is replied to once with success.
+     */
+    public void testConcurrentStores() throws Exception {
+        final ChannelID replyTo = Channels.getThisReposClient();
+        final CountDownLatch replied = new CountDownLatch(FILES);
+        final Set<String> okReplies = new HashSet<String>();
+        final List<String> failedReplies = new ArrayList<String>();
+        JMSConnectionMockupMQ.getInstance().setListener(replyTo,
+                new MessageListener() {
+                    public void onMessage(Message message) {
+                        NetarkivetMessage msg = JMSConnection.unpack(message);
+                        synchronized (okReplies) {
+                            if (!msg.isOk() || !okReplies.add(
+                                    msg.getReplyOfId())) {
+                                failedReplies.add(msg.toString());
+                            }
+                        }
+                        replied.countDown();
+                    }
+                });
+
+        List<StoreMessage> stores = new ArrayList<StoreMessage>();
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(FILE_DIR, "concurrent-" + i + ".arc");
+            FileUtils.writeBinaryFile(file, ("Content of file " + i)
+                    .getBytes());
+            StoreMessage msg = new StoreMessage(replyTo, file);
+            JMSConnectionMockupMQ.updateMsgID(msg, "store-" + i);
+            stores.add(msg);
+        }
+
+        ExecutorService harvesters = Executors.newFixedThreadPool(
+                STORE_THREADS);
+        for (final StoreMessage msg : stores) {
+            harvesters.execute(new Runnable() {
+                public void run() {
+                    arcRepos.store(msg.getRemoteFile(), msg);
+                }
+            });
+        }
+        harvesters.shutdown();
+        assertTrue("All stores should be replied to",
+                replied.await(120, TimeUnit.SECONDS));
+        ((JMSConnectionMockupMQ) JMSConnectionMockupMQ.getInstance())
+                .waitForConcurrentTasksToFinish();
+
+        assertEquals("No store should fail or be replied twice, but got "
+                + failedReplies, 0, failedReplies.size());
+        assertEquals("Every store should be replied to",
+                FILES, okReplies.size());
+        UpdateableAdminData ad = AdminData.getUpdateableInstance();
+        for (StoreMessage msg : stores) {
+            for (Replica replica : connectedReplicas.keySet()) {
+                assertEquals("The file should be stored in all replicas",
+                        ReplicaStoreState.UPLOAD_COMPLETED,
+                        ad.getState(msg.getArcfileName(), replica
+                                .getIdentificationChannel().getName()));
+            }
+        }
+    }
+
+    /**
+     * A replica client keeping the checksums of uploaded files in memory,
+     * and replying to uploads and checksum requests from another thread.
+     */
+    private class InMemoryReplicaClient implements ReplicaClient {
+        /** The replica. */
+        private final Replica replica;
+        /** The checksums of the uploaded files. */
+        private final Map<String, String> checksums =
+                new ConcurrentHashMap<String, String>();
+        /** Used for the ids of the checksum messages. */
+        private final AtomicInteger ids = new AtomicInteger();
+
+        InMemoryReplicaClient(Replica replica) {
+            this.replica = replica;
+        }
+
+        public void sendUploadMessage(RemoteFile rf) {
+            checksums.put(rf.getName(), rf.getChecksum());
+            final UploadMessage msg = new UploadMessage(
+                    replica.getIdentificationChannel(),
+                    Channels.getTheRepos(), rf);
+            replies.execute(new Runnable() {
+                public void run() {
+                    arcRepos.onUpload(msg);
+                }
+            });
+        }
+
+        public GetChecksumMessage sendGetChecksumMessage(
+                ChannelID replyChannel, String filename) {
+            final GetChecksumMessage msg = new GetChecksumMessage(
+                    replica.getIdentificationChannel(), replyChannel,
+                    filename, replica.getId());
+            JMSConnectionMockupMQ.updateMsgID(msg, replica.getId()
+                    + "-checksum-" + ids.incrementAndGet());
+            msg.setChecksum(checksums.get(filename));
+            replies.execute(new Runnable() {
+                public void run() {
+                    arcRepos.onChecksumReply(msg);
+                }
+            });
+            return msg;
+        }
+
+        public ReplicaType getType() {
+            return replica.getType();
+        }
+
+        public void close() {
+        }
+
+        public BatchMessage sendBatchJob(BatchMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public BatchMessage sendBatchJob(ChannelID replyChannel,
+                FileBatchJob job) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendGetMessage(GetMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendGetFileMessage(GetFileMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendRemoveAndGetFileMessage(RemoveAndGetFileMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendGetChecksumMessage(GetChecksumMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendGetAllFilenamesMessage(GetAllFilenamesMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendGetAllChecksumsMessage(GetAllChecksumsMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        public void sendCorrectMessage(CorrectMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class ArchiveArcRepositoryTesterSuite {
         suite.addTestSuite(ArcRepositoryTester.class);
         suite.addTestSuite(ArcRepositoryTesterStore.class);
         suite.addTestSuite(ArcRepositoryTesterStoreChecksum.class);
+        suite.addTestSuite(ArcRepositoryTesterConcurrentStore.class);
         suite.addTestSuite(ArcRepositoryTesterGet.class);
         suite.addTestSuite(ArcRepositoryTesterLog.class);
         suite.addTestSuite(ArcRepositoryTesterBatch.class);
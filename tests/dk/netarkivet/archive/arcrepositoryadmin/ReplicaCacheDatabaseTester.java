@@ -27,8 +27,11 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 import java.io.File;
 import java.io.FileWriter;
 import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
@@ -96,6 +99,14 @@ public class ReplicaCacheDatabaseTester extends TestCase {
     }
     
     public void tearDown() {
+        // Shut down the database, so the next test gets a fresh copy
+        ArchiveDBConnection.cleanup();
+        try {
+            DriverManager.getConnection(TestInfo.DATABASE_URL
+                    + ";shutdown=true");
+        } catch (SQLException e) {
+            // expected when the database is shut down
+        }
         mtf.tearDown();
         rs.tearDown();
     }
@@ -343,6 +354,60 @@ public class ReplicaCacheDatabaseTester extends TestCase {
         cache.cleanup();
     }
     
+    /**
+     * Test that checksum lists and file lists are loaded through the staging
+     * table into the right checksum, filelist and missing statuses.
+     */
+    public void testStagedEntries() throws Exception {
+        Replica one = Replica.getReplicaFromId("ONE");
+        Replica two = Replica.getReplicaFromId("TWO");
+
+        cache.addChecksumInformation(makeTemporaryChecksumFile1(), one);
+        ReplicaFileInfo rfi = cache.getReplicaFileInfo("TEST2", one);
+        assertEquals("The checksum should be staged", "0987654321",
+                rfi.getChecksum());
+        assertEquals("The file should be listed", FileListStatus.OK,
+                rfi.getFileListState());
+        assertEquals("The checksum should not be voted on yet",
+                ChecksumStatus.UNKNOWN, rfi.getChecksumStatus());
+        assertEquals("The file should be uploaded",
+                ReplicaStoreState.UPLOAD_COMPLETED, rfi.getUploadState());
+
+        // A new checksum for one file, and the others missing
+        File csFile = new File(TestInfo.TEST_DIR, "checksum_3.out");
+        FileUtils.writeCollectionToFile(csFile, Arrays.asList(
+                "TEST2##ABCDEFGHIJ", "TEST1##1234567890", "TEST2##ABCDEFGHIJ"));
+        cache.addChecksumInformation(csFile, one);
+        assertEquals("The new checksum should be staged", "ABCDEFGHIJ",
+                cache.getReplicaFileInfo("TEST2", one).getChecksum());
+        assertEquals("The unchanged checksum should stay", "1234567890",
+                cache.getReplicaFileInfo("TEST1", one).getChecksum());
+        assertEquals("Files not in the checksum list should be missing",
+                FileListStatus.MISSING,
+                cache.getReplicaFileInfo("TEST3", one).getFileListState());
+        assertEquals("Files not in the checksum list should be missing",
+                2, cache.getNumberOfMissingFilesInLastUpdate(one));
+
+        // A file list with duplicates and a file not yet in the database
+        File flFile = new File(TestInfo.TEST_DIR, "filelist_2.out");
+        FileUtils.writeCollectionToFile(flFile, Arrays.asList(
+                "TEST3", "TEST9", "TEST1", "TEST3"));
+        cache.addFileListInformation(flFile, two);
+        assertTrue("A new file should be added", cache.existsFileInDB("TEST9"));
+        for (String filename : Arrays.asList("TEST1", "TEST3", "TEST9")) {
+            assertEquals("Listed files should be ok", FileListStatus.OK,
+                    cache.retrieveFileListStatus(filename, two));
+        }
+        assertEquals("Files not in the file list should be missing",
+                FileListStatus.MISSING,
+                cache.retrieveFileListStatus("TEST2", two));
+        assertEquals("Files not in the file list should be missing",
+                Arrays.asList("TEST2", "TEST4"), IteratorUtils.toList(
+                        cache.getMissingFilesInLastUpdate(two).iterator()));
+        assertEquals("The file list should not change the other replica",
+                FileListStatus.OK, cache.retrieveFileListStatus("TEST1", one));
+    }
+
     private File makeTemporaryDuplicateFilelistFile() throws Exception {
         File res = new File(TestInfo.TEST_DIR, "filelist.out");
         FileWriter fw = new FileWriter(res);
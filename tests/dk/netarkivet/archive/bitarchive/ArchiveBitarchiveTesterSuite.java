@@ -40,6 +40,7 @@ public class ArchiveBitarchiveTesterSuite {
     }
 
     public static void addToSuite(TestSuite suite) {
+        suite.addTestSuite(ArchivedFileIndexTester.class);
         suite.addTestSuite(BatchMessageTester.class);
         suite.addTestSuite(BitarchiveAdminTester.class);
         suite.addTestSuite(BitarchiveARCFileTester.class);
@@ -50,6 +51,7 @@ public class ArchiveBitarchiveTesterSuite {
         suite.addTestSuite(BitarchiveTesterGet.class);
         suite.addTestSuite(BitarchiveTesterLog.class);
         suite.addTestSuite(BitarchiveTesterUpload.class);
+        suite.addTestSuite(ChecksumStoreTester.class);
     }
 
     public static void main(String args[]) {
@@ -0,0 +1,221 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Unit tests for the ArchivedFileIndex class.
+ */
+public class ArchivedFileIndexTester extends TestCase {
+    private static final File DIR_1 = new File("dir1");
+    private static final File DIR_2 = new File("dir2");
+
+    private ArchivedFileIndex index;
+
+    public void setUp() {
+        index = new ArchivedFileIndex();
+    }
+
+    public void testPutGet() {
+        assertNull("Nothing should be indexed yet", index.get("a.arc"));
+        index.put("b.arc", DIR_1);
+        index.put("a.arc", DIR_2);
+        index.put("c.arc", DIR_1);
+        assertEquals("Should find the directory of a file",
+                     DIR_2, index.get("a.arc"));
+        assertEquals("Should find the directory of a file",
+                     DIR_1, index.get("c.arc"));
+        assertNull("Unknown files should not be found", index.get("d.arc"));
+        assertEquals("Should count each file", 3, index.size());
+        try {
+            index.put(null, DIR_1);
+            fail("Should not accept a null filename");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+    }
+
+    public void testPutKeepsEarlierDirectory() {
+        index.put("a.arc", DIR_1);
+        index.put("b.arc", DIR_2);
+        index.put("a.arc", DIR_2);
+        assertEquals("The directory given first should win",
+                     DIR_1, index.get("a.arc"));
+        index.put("b.arc", DIR_1);
+        assertEquals("The directory given first should win",
+                     DIR_1, index.get("b.arc"));
+        assertEquals("Files should only be indexed once", 2, index.size());
+    }
+
+    public void testRemove() {
+        index.put("a.arc", DIR_1);
+        index.put("b.arc", DIR_1);
+        index.remove("a.arc", DIR_2);
+        assertEquals("Removing from another directory should do nothing",
+                     DIR_1, index.get("a.arc"));
+        index.remove("a.arc", DIR_1);
+        assertNull("The file should be removed", index.get("a.arc"));
+        assertEquals("Other files should stay", DIR_1, index.get("b.arc"));
+        assertEquals("Should count the remaining file", 1, index.size());
+        index.remove("c.arc", DIR_1);
+        assertEquals("Removing an unknown file should do nothing",
+                     1, index.size());
+    }
+
+    public void testUpdate() {
+        index.update(DIR_1, Arrays.asList("c.arc", "a.arc", "b.arc"));
+        index.update(DIR_2, Arrays.asList("b.arc", "d.arc"));
+        assertEquals("Should index all files once", 4, index.size());
+        assertEquals("The directory given first should win",
+                     DIR_1, index.get("b.arc"));
+        assertEquals("Files only in the later directory should be there",
+                     DIR_2, index.get("d.arc"));
+
+        assertEquals("Files gone from a directory should be returned",
+                     Arrays.asList("b.arc", "c.arc"),
+                     index.update(DIR_1, Arrays.asList("a.arc", "e.arc")));
+        assertNull("Files gone from a directory should be removed",
+                   index.get("c.arc"));
+        assertNull("Files gone from a directory should be removed",
+                   index.get("b.arc"));
+        assertEquals("New files should be added", DIR_1, index.get("e.arc"));
+        assertEquals("Should index the remaining files", 3, index.size());
+
+        index.update(DIR_2, Arrays.asList("b.arc", "d.arc"));
+        assertEquals("Listing the other directory again should find the file",
+                     DIR_2, index.get("b.arc"));
+
+        assertEquals("Files gone from a directory should be returned",
+                     Arrays.asList("b.arc", "d.arc"),
+                     index.update(DIR_2, Collections.<String>emptyList()));
+        assertNull("Emptying a directory should remove its files",
+                   index.get("d.arc"));
+        assertEquals("Should index the remaining files", 2, index.size());
+        assertEquals("Files in other directories should not be returned",
+                     Collections.<String>emptyList(),
+                     index.update(DIR_2, Arrays.asList("a.arc")));
+    }
+
+    public void testGetEntries() {
+        index.update(DIR_1, Arrays.asList("1-2.arc", "1-1.arc", "2-1.arc",
+                                          "10-1.arc"));
+        index.put("1-3.arc", DIR_2);
+        List<Map.Entry<String, File>> entries = index.getEntries("1-");
+        assertEquals("Should find the files with the prefix",
+                     3, entries.size());
+        assertEquals("Should be sorted", "1-1.arc", entries.get(0).getKey());
+        assertEquals("Should be sorted", "1-2.arc", entries.get(1).getKey());
+        assertEquals("Should be sorted", "1-3.arc", entries.get(2).getKey());
+        assertEquals("Should give the directory",
+                     DIR_2, entries.get(2).getValue());
+        assertEquals("The empty prefix should give all files",
+                     5, index.getEntries("").size());
+        assertEquals("A prefix after all files should give none",
+                     0, index.getEntries("3").size());
+        index.put("æ.arc", DIR_1);
+        assertEquals("Should handle names that are not ASCII",
+                     "æ.arc", index.getEntries("æ").get(0).getKey());
+    }
+
+    public void testClear() {
+        index.put("a.arc", DIR_1);
+        index.clear();
+        assertEquals("Should be empty", 0, index.size());
+        assertNull("Should not find cleared files", index.get("a.arc"));
+    }
+
+    public void testGrows() {
+        for (int i = 4999; i >= 0; i--) {
+            index.put(i + ".arc", i % 2 == 0 ? DIR_1 : DIR_2);
+        }
+        assertEquals("Should index all files", 5000, index.size());
+        assertEquals("Should find the last file", DIR_2,
+                     index.get("4999.arc"));
+        assertEquals("Should find the first file", DIR_1,
+                     index.get("0.arc"));
+        List<Map.Entry<String, File>> entries = index.getEntries("");
+        assertEquals("Should list all files", 5000, entries.size());
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue("Should be sorted", entries.get(i - 1).getKey()
+                    .compareTo(entries.get(i).getKey()) < 0);
+        }
+    }
+
+    public void testBufferedFiles() {
+        index.put("a.arc", DIR_1);
+        // More files than are buffered, so some are merged into the index
+        for (int i = 0; i < 1500; i++) {
+            index.put("b" + (i * 7919 % 1500) + ".arc", DIR_2);
+        }
+        index.put("z.arc", DIR_1);
+        index.put("b1.arc", DIR_1);
+        index.put("b1499.arc", DIR_1);
+        assertEquals("The directory given first should win",
+                     DIR_1, index.get("b1.arc"));
+        assertEquals("The directory given first should win",
+                     DIR_1, index.get("b1499.arc"));
+        assertEquals("Should find the merged file", DIR_1,
+                     index.get("a.arc"));
+        assertEquals("Should find the buffered file", DIR_1,
+                     index.get("z.arc"));
+        assertEquals("Files should only be indexed once", 1502, index.size());
+        assertEquals("Should list buffered and merged files in order",
+                     Arrays.asList("b1.arc", "b10.arc", "b100.arc",
+                                   "b1000.arc", "b1001.arc"),
+                     getKeys(index.getEntries("b1").subList(0, 5)));
+        index.remove("z.arc", DIR_1);
+        assertNull("Should remove a buffered file", index.get("z.arc"));
+        index.remove("a.arc", DIR_1);
+        assertNull("Should remove a merged file", index.get("a.arc"));
+        assertEquals("Should count the remaining files", 1500, index.size());
+        index.update(DIR_1, Arrays.asList("b1.arc", "b1499.arc", "c.arc"));
+        assertEquals("Should keep the files after merging", 1501,
+                     index.size());
+        assertEquals("Should keep the files after merging", DIR_2,
+                     index.get("b0.arc"));
+    }
+
+    /**
+     * @param entries Entries of the index.
+     * @return The filenames of the entries.
+     */
+    private static List<String> getKeys(List<Map.Entry<String, File>> entries) {
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, File> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
@@ -295,6 +295,39 @@ public class BitarchiveAdminTester extends TestCase {
         assertNull("Should return null on non-existing file", file);
     }
 
+    /**
+     * Test that a file in two archive directories is found in the other
+     * directory when it is gone from the indexed one.
+     */
+    public void testLookupFileInTwoDirs() throws Exception {
+        File copy = new File(new File(BA_DIR_2, FILEDIR), "file1");
+        FileUtils.copyFile(new File(new File(BA_DIR_1, FILEDIR), "file1"),
+                copy);
+        ad.updateFileList(BA_DIR_2);
+        BitarchiveARCFile file = ad.lookup("file1");
+        assertEquals("The file in the first directory should be found",
+                     BA_DIR_1.getCanonicalFile(), file.getFilePath()
+                        .getCanonicalFile().getParentFile().getParentFile());
+
+        FileUtils.remove(file.getFilePath());
+        ad.updateFileList(BA_DIR_1);
+        file = ad.lookup("file1");
+        assertNotNull("The file should be found in the other directory",
+                      file);
+        assertEquals("The file in the other directory should be found",
+                     copy.getCanonicalFile(),
+                     file.getFilePath().getCanonicalFile());
+        assertEquals("The file should still be listed",
+                     4, ad.getFiles().length);
+
+        ad.moveToAttic(file.getFilePath());
+        assertNull("The file should be gone", ad.lookup("file1"));
+        FileUtils.copyFile(new File(new File(BA_DIR_1, FILEDIR), "file2"),
+                           copy);
+        assertNotNull("A file added outside the bitarchive should be found",
+                      ad.lookup("file1"));
+    }
+
     public void testGetInstance() throws Exception {
         ad.close();
         File baddir = new File(WORKING_DIR, "baddir");
@@ -391,4 +424,34 @@ public class BitarchiveAdminTester extends TestCase {
         }
     }
 
-}
\ No newline at end of file
+    public void testGetLiteralPrefix() {
+        assertEquals("Should find no prefix of wildcard", "",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile(".*")));
+        assertEquals("Should find literal prefix", "1-metadata-",
+                BitarchiveAdmin.getLiteralPrefix(
+                        Pattern.compile("1-metadata-[0-9]+\\.arc")));
+        assertEquals("Should handle escapes and anchors", "1.arc",
+                BitarchiveAdmin.getLiteralPrefix(
+                        Pattern.compile("^1\\.arc(\\.gz)?")));
+        assertEquals("Should leave out optional characters", "fil",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("file?1")));
+        assertEquals("Should leave out optional escaped characters", "a",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("a\\.*b")));
+        assertEquals("Should find no prefix of alternatives", "",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("ab|cd")));
+        assertEquals("Should find no prefix with flags", "",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("ab",
+                        Pattern.CASE_INSENSITIVE)));
+    }
+
+    public void testMoveToAttic() throws Exception {
+        BitarchiveARCFile file = ad.lookup("file1");
+        File moved = ad.moveToAttic(file.getFilePath());
+        assertTrue("File should be in attic", moved.isFile());
+        assertNull("File should no longer be found", ad.lookup("file1"));
+        assertEquals("File should not be listed", 3, ad.getFiles().length);
+        assertEquals("File should not be matched", 0,
+                ad.getFilesMatching(Pattern.compile("file1")).length);
+    }
+
+}
@@ -0,0 +1,207 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.util.List;
+
+import dk.netarkivet.archive.Constants;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.RemoteFileFactory;
+import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * Unit tests for the checksum stores of the bitarchive, and the scrubber
+ * verifying them.
+ */
+public class ChecksumStoreTester extends BitarchiveTestCase {
+    /** The directory from where we upload the ARC files. */
+    private static final File ORIGINALS_DIR =
+            new File(new File(TestInfo.DATA_DIR, "upload"), "originals");
+    /** The file we upload. */
+    private static final String FILENAME = "Upload1.ARC";
+    /** The store file in the archive directory. */
+    private static final File STORE_FILE = new File(TestInfo.WORKING_DIR,
+            ChecksumStore.CHECKSUM_FILE_NAME);
+    /** The log of checksums not yet in the store file. */
+    private static final File LOG_FILE = new File(TestInfo.WORKING_DIR,
+            ChecksumStore.CHECKSUM_LOG_FILE_NAME);
+
+    public ChecksumStoreTester(String s) {
+        super(s);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        File tempDir = new File(TestInfo.WORKING_DIR, "commontempdir");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR,
+                     tempDir.getAbsolutePath());
+        FileUtils.createDir(tempDir);
+    }
+
+    protected File getOriginalsDir() {
+        return ORIGINALS_DIR;
+    }
+
+    /**
+     * Upload the test file.
+     * @return The file in the archive.
+     */
+    private File upload() {
+        archive.upload(RemoteFileFactory.getInstance(
+                new File(ORIGINALS_DIR, FILENAME), true, false, true),
+                FILENAME);
+        return archive.getFile(FILENAME);
+    }
+
+    /**
+     * Test that the checksum is stored on upload, and survives reloading.
+     */
+    public void testUploadStoresChecksum() {
+        File file = upload();
+        String expected = ChecksumCalculator.calculateMd5(
+                new File(ORIGINALS_DIR, FILENAME));
+        assertTrue("The checksum log should exist", LOG_FILE.isFile());
+        assertEquals("The checksum should be stored on upload",
+                expected, archive.getChecksumStore(file).getChecksum(file));
+        assertEquals("The checksum should be read from the store file",
+                expected,
+                new ChecksumStore(TestInfo.WORKING_DIR).getChecksum(file));
+    }
+
+    /**
+     * Test that a stored checksum is not used when the file has changed, and
+     * that the store file is compacted on load.
+     */
+    public void testChangedFile() throws Exception {
+        File file = upload();
+        ChecksumStore store = archive.getChecksumStore(file);
+        FileUtils.appendToFile(file, "more");
+        assertNull("A changed file should have no checksum",
+                store.getChecksum(file));
+        String expected = ChecksumCalculator.calculateMd5(file);
+        assertEquals("The checksum should be calculated",
+                expected, archive.getChecksum(file));
+        assertEquals("The calculated checksum should be stored",
+                expected, store.getChecksum(file));
+        assertEquals("The checksum log should have two lines",
+                2, FileUtils.readListFromFile(LOG_FILE).size());
+
+        new ChecksumStore(TestInfo.WORKING_DIR);
+        assertFalse("The checksum log should be merged on load",
+                LOG_FILE.exists());
+        List<String> lines = FileUtils.readListFromFile(STORE_FILE);
+        assertEquals("The store file should be compacted", 1, lines.size());
+        assertTrue("The store file should have the new checksum",
+                lines.get(0).startsWith(
+                        ChecksumJob.makeLine(FILENAME, expected)));
+
+        FileUtils.remove(file);
+        new ChecksumStore(TestInfo.WORKING_DIR);
+        assertEquals("Removed files should be removed from the store file",
+                0, FileUtils.readListFromFile(STORE_FILE).size());
+    }
+
+    /**
+     * Test that checksums are found in the sorted store file after merging,
+     * and that logged checksums supersede merged ones.
+     */
+    public void testMergedChecksums() throws Exception {
+        File filedir = new File(TestInfo.WORKING_DIR,
+                                Constants.FILE_DIRECTORY_NAME);
+        FileUtils.createDir(filedir);
+        ChecksumStore store = new ChecksumStore(TestInfo.WORKING_DIR);
+        File[] files = new File[100];
+        for (int i = 0; i < files.length; i++) {
+            // Names of different lengths, so lines are not aligned
+            files[i] = new File(filedir, "file" + (i * 7919 % 1000) + ".arc");
+            FileUtils.writeBinaryFile(files[i], new byte[i]);
+            store.putChecksum(files[i], "checksum" + i);
+            if (i == files.length / 2) {
+                store.merge();
+                assertFalse("The log should be emptied by merging",
+                        LOG_FILE.exists());
+            }
+        }
+        store.putChecksum(files[0], "new");
+        store.merge();
+        assertEquals("Every file should have a line in the store file",
+                files.length, FileUtils.readListFromFile(STORE_FILE).size());
+
+        store = new ChecksumStore(TestInfo.WORKING_DIR);
+        assertEquals("A logged checksum should supersede a merged one",
+                "new", store.getChecksum(files[0]));
+        for (int i = 1; i < files.length; i++) {
+            assertEquals("The checksum should be found in the store file",
+                    "checksum" + i, store.getChecksum(files[i]));
+        }
+        assertNull("A file not in the store should have no checksum",
+                store.getChecksum(new File(filedir, "file5000.arc")));
+        assertNull("A file before all files should have no checksum",
+                store.getChecksum(new File(filedir, "a.arc")));
+        assertNull("A file after all files should have no checksum",
+                store.getChecksum(new File(filedir, "z.arc")));
+    }
+
+    /**
+     * Test that checksum jobs use the stored checksums.
+     */
+    public void testChecksumJobUsesStore() {
+        File file = upload();
+        archive.getChecksumStore(file).putChecksum(file, "stored");
+        BatchStatus status = archive.batch(TestInfo.baAppId,
+                new ChecksumJob());
+        assertEquals("One file should be processed",
+                1, status.getNoOfFilesProcessed());
+        status.getResultFile().copyTo(TestInfo.BATCH_OUTPUT_FILE);
+        assertEquals("The stored checksum should be output",
+                ChecksumJob.makeLine(FILENAME, "stored"),
+                FileUtils.readListFromFile(TestInfo.BATCH_OUTPUT_FILE).get(0));
+    }
+
+    /**
+     * Test that the scrubber finds files with a wrong stored checksum, and
+     * stores the actual checksum.
+     */
+    public void testScrub() throws Exception {
+        File file = upload();
+        ChecksumScrubber scrubber = new ChecksumScrubber(archive,
+                BitarchiveAdmin.getInstance(), Long.MAX_VALUE / 1000, 0);
+        ChecksumStore store = archive.getChecksumStore(file);
+        String expected = store.getChecksum(file);
+        assertTrue("A file with the stored checksum should be ok",
+                scrubber.scrub(file));
+
+        store.putChecksum(file, "wrong");
+        assertFalse("A file with another checksum should be found",
+                scrubber.scrub(file));
+        assertEquals("The actual checksum should be stored",
+                expected, store.getChecksum(file));
+    }
+}
@@ -50,6 +50,7 @@ public class ArchiveBitarchiveDistributeTesterSuite {
      */
     public static void addToSuite(TestSuite suite) {
         suite.addTestSuite(BatchEndedMessageTester.class);
+        suite.addTestSuite(BatchSchedulerTester.class);
         suite.addTestSuite(BitarchiveClientTester.class);
         suite.addTestSuite(BitarchiveMonitorServerTester.class);
         suite.addTestSuite(BitarchiveServerTester.class);
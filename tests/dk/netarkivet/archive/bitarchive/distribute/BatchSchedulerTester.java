@@ -0,0 +1,269 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * Unittests for the BatchScheduler class.
+ */
+public class BatchSchedulerTester extends TestCase {
+    private BatchScheduler scheduler;
+    /** The ids of the jobs, in the order they were run. */
+    private List<String> runOrder;
+
+    public void setUp() {
+        runOrder = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test that jobs only processing named files are interactive.
+     */
+    public void testIsInteractive() {
+        ChecksumJob job = new ChecksumJob();
+        assertFalse("A job processing all files should be bulk",
+                BatchScheduler.isInteractive(job));
+        job.processOnlyFileNamed("1-1-20070101-foo.arc");
+        assertTrue("A job processing a single file should be interactive",
+                BatchScheduler.isInteractive(job));
+        job.processOnlyFilesNamed(Arrays.asList("a.arc", "b.arc"));
+        assertTrue("A job processing named files should be interactive",
+                BatchScheduler.isInteractive(job));
+        job.processOnlyFilesMatching("1-.*\\.arc");
+        assertFalse("A job processing a pattern should be bulk",
+                BatchScheduler.isInteractive(job));
+        job.processOnlyFilesMatching("\\Qa.arc\\E.*");
+        assertFalse("A job processing a pattern should be bulk",
+                BatchScheduler.isInteractive(job));
+
+        try {
+            BatchScheduler.isInteractive(null);
+            fail("Should throw ArgumentNotValid on null job");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that queued interactive jobs are run before queued bulk jobs,
+     * and that jobs from different requesters are taken in turn.
+     */
+    public void testPriorityAndFairness() throws Exception {
+        scheduler = new BatchScheduler(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("blocker", "a", false,
+                new BlockingTask("blocker", started, release));
+        assertTrue("The first job should start",
+                started.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(6);
+        scheduler.submit("a1", "a", false, new RecordingTask("a1", done));
+        scheduler.submit("a2", "a", false, new RecordingTask("a2", done));
+        scheduler.submit("a3", "a", false, new RecordingTask("a3", done));
+        scheduler.submit("b1", "b", false, new RecordingTask("b1", done));
+        scheduler.submit("i1", "c", true, new RecordingTask("i1", done));
+        scheduler.submit("i2", "c", true, new RecordingTask("i2", done));
+        assertEquals("Should have two interactive jobs queued",
+                2, scheduler.getQueuedInteractiveJobs());
+        assertEquals("Should have four bulk jobs queued",
+                4, scheduler.getQueuedBulkJobs());
+        assertEquals("One job should run", 1, scheduler.getRunningJobs());
+
+        release.countDown();
+        assertTrue("All jobs should be run",
+                done.await(10, TimeUnit.SECONDS));
+        assertEquals("Interactive jobs should go first, and requesters "
+                + "should take turns",
+                Arrays.asList("blocker", "i1", "i2", "a1", "b1", "a2", "a3"),
+                runOrder);
+    }
+
+    /**
+     * Test that queued jobs can be cancelled, and running jobs cannot.
+     */
+    public void testCancel() throws Exception {
+        scheduler = new BatchScheduler(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("blocker", "a", false,
+                new BlockingTask("blocker", started, release));
+        assertTrue("The first job should start",
+                started.await(10, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable queued = new RecordingTask("queued", done);
+        scheduler.submit("queued", "a", false, queued);
+
+        assertNull("A running job should not be cancelled",
+                scheduler.cancel("blocker"));
+        assertNotNull("A running job should have a thread",
+                scheduler.getRunningThread("blocker"));
+        assertEquals("The running thread should be named after the job",
+                "Batch-blocker",
+                scheduler.getRunningThread("blocker").getName());
+        assertSame("A queued job should be cancelled",
+                queued, scheduler.cancel("queued"));
+        assertNull("An unknown job should not be cancelled",
+                scheduler.cancel("queued"));
+        assertNull("A queued job should have no thread",
+                scheduler.getRunningThread("queued"));
+        assertEquals("Should count cancelled jobs",
+                1, scheduler.getCancelledJobs());
+
+        release.countDown();
+        assertFalse("The cancelled job should not be run",
+                done.await(500, TimeUnit.MILLISECONDS));
+        assertEquals("Only the first job should have been run",
+                Arrays.asList("blocker"), runOrder);
+        assertEquals("Should count completed jobs",
+                1, scheduler.getCompletedJobs());
+    }
+
+    /**
+     * Test that running jobs can be terminated, and that terminating a
+     * finished job does not interrupt the next job run by the worker.
+     */
+    public void testTerminate() throws Exception {
+        scheduler = new BatchScheduler(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("first", "a", false,
+                new BlockingTask("first", started, release));
+        assertTrue("The first job should start",
+                started.await(10, TimeUnit.SECONDS));
+        assertFalse("A queued or unknown job should not be terminated",
+                scheduler.terminate("unknown"));
+        assertTrue("A running job should be terminated",
+                scheduler.terminate("first"));
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (scheduler.getRunningThread("first") != null
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull("The terminated job should stop running",
+                scheduler.getRunningThread("first"));
+
+        CountDownLatch secondRelease = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        scheduler.submit("second", "a", false,
+                new BlockingTask("second", secondStarted, secondRelease));
+        assertTrue("The second job should start",
+                secondStarted.await(10, TimeUnit.SECONDS));
+        assertFalse("A finished job should not be terminated",
+                scheduler.terminate("first"));
+        assertFalse("The worker should not be interrupted",
+                scheduler.getRunningThread("second").isInterrupted());
+        secondRelease.countDown();
+    }
+
+    /**
+     * Test that one worker is kept free for interactive jobs, when there is
+     * more than one.
+     */
+    public void testBulkLimit() throws Exception {
+        scheduler = new BatchScheduler(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("bulk1", "a", false,
+                new BlockingTask("bulk1", started, release));
+        assertTrue("The first job should start",
+                started.await(10, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit("bulk2", "b", false,
+                new RecordingTask("bulk2", done));
+        assertFalse("The second bulk job should wait",
+                done.await(500, TimeUnit.MILLISECONDS));
+        assertEquals("The second bulk job should be queued",
+                1, scheduler.getQueuedBulkJobs());
+
+        CountDownLatch interactiveDone = new CountDownLatch(1);
+        scheduler.submit("inter", "c", true,
+                new RecordingTask("inter", interactiveDone));
+        assertTrue("The interactive job should run beside the bulk job",
+                interactiveDone.await(10, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertTrue("The second bulk job should run when the first is done",
+                done.await(10, TimeUnit.SECONDS));
+        assertEquals("Jobs should be run in the right order",
+                Arrays.asList("bulk1", "inter", "bulk2"), runOrder);
+    }
+
+    /** A task that records that it ran. */
+    private class RecordingTask implements Runnable {
+        private final String id;
+        private final CountDownLatch done;
+
+        RecordingTask(String id, CountDownLatch done) {
+            this.id = id;
+            this.done = done;
+        }
+
+        public void run() {
+            runOrder.add(id);
+            done.countDown();
+        }
+    }
+
+    /** A task that records that it ran, and waits until released. */
+    private class BlockingTask implements Runnable {
+        private final String id;
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        BlockingTask(String id, CountDownLatch started,
+                CountDownLatch release) {
+            this.id = id;
+            this.started = started;
+            this.release = release;
+        }
+
+        public void run() {
+            runOrder.add(id);
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Just stop
+            }
+        }
+    }
+}
@@ -204,7 +204,9 @@ public class JMSConnectionMockupMQ extends JMSConnection {
     }
 
     /**
-     * Returns a list of all MessageListeners listening to a particular channel
+     * Returns a list of all MessageListeners listening to a particular channel.
+     * The listeners are returned as given to setListener, not as the
+     * listeners measuring them.
      *
      * @param channel The channel
      * @return list of listeners
@@ -214,7 +216,15 @@ public class JMSConnectionMockupMQ extends JMSConnection {
         if (destination == null) {
             return Collections.emptyList();
         } else {
-            return new ArrayList<MessageListener>(destination.listeners);
+            List<MessageListener> result = new ArrayList<MessageListener>();
+            for (MessageListener ml : destination.listeners) {
+                if (ml instanceof ChannelStatistics.MeasuredListener) {
+                    ml = ((ChannelStatistics.MeasuredListener) ml)
+                            .getListener();
+                }
+                result.add(ml);
+            }
+            return result;
         }
     }
 
@@ -304,8 +314,26 @@ public class JMSConnectionMockupMQ extends JMSConnection {
     }
 
     protected static class TestSession implements Session {
+        /** The consumers and producers created in this session. */
+        private final List<Object> children = new ArrayList<Object>();
+        /** Whether this session is closed. */
+        private boolean closed;
+
+        /**
+         * Check that this session is not closed.
+         *
+         * @throws javax.jms.IllegalStateException if it is.
+         */
+        private synchronized void checkOpen() throws JMSException {
+            if (closed) {
+                throw new javax.jms.IllegalStateException(
+                        "Session is closed");
+            }
+        }
+
         public ObjectMessage createObjectMessage(Serializable serializable)
                 throws JMSException {
+            checkOpen();
             return new TestObjectMessage(serializable);
         }
 
@@ -313,14 +341,20 @@ public class JMSConnectionMockupMQ extends JMSConnection {
             throw new NotImplementedException("Not implemented");
         }
 
-        public MessageProducer createProducer(Destination destination)
-                throws JMSException {
-            return new TestMessageProducer(destination);
+        public synchronized MessageProducer createProducer(
+                Destination destination) throws JMSException {
+            checkOpen();
+            MessageProducer producer = new TestMessageProducer(destination);
+            children.add(producer);
+            return producer;
         }
 
-        public MessageConsumer createConsumer(Destination destination)
-                throws JMSException {
-            return new TestMessageConsumer(destination);
+        public synchronized MessageConsumer createConsumer(
+                Destination destination) throws JMSException {
+            checkOpen();
+            MessageConsumer consumer = new TestMessageConsumer(destination);
+            children.add(consumer);
+            return consumer;
         }
 
         public MapMessage createMapMessage() throws JMSException {
@@ -364,8 +398,28 @@ public class JMSConnectionMockupMQ extends JMSConnection {
             throw new NotImplementedException("Not implemented");
         }
 
-        public void close() throws JMSException {
-            throw new NotImplementedException("Not implemented");
+        /**
+         * Close the session and the consumers and producers created in it.
+         * Closing a closed session does nothing.
+         */
+        public synchronized void close() throws JMSException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Object child : children) {
+                if (child instanceof MessageConsumer) {
+                    ((MessageConsumer) child).close();
+                } else {
+                    ((MessageProducer) child).close();
+                }
+            }
+            children.clear();
+        }
+
+        /** @return Whether this session is closed. */
+        public synchronized boolean isClosed() {
+            return closed;
         }
 
         public void recover() throws JMSException {
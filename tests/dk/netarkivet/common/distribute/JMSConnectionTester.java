@@ -32,11 +32,18 @@ import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
@@ -46,6 +53,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.preconfigured.MockupJMS;
 import dk.netarkivet.testutils.preconfigured.PreventSystemExit;
 import dk.netarkivet.testutils.preconfigured.ReloadSettings;
@@ -373,6 +381,11 @@ public class JMSConnectionTester extends TestCase {
         con.setListener(anyBa, listener1);
         assertEquals("Should have two listeners now",
                 2, consumerMap.size());
+        con.setListener(anyBa, listener1);
+        assertEquals("Setting a listener again should not add a consumer",
+                2, consumerMap.size());
+        assertEquals("Setting a listener again should not add a listener",
+                1, ((JMSConnectionMockupMQ) con).getListeners(anyBa).size());
     }
     
     public void testGetConsumerKey() throws NoSuchMethodException,
@@ -395,6 +408,132 @@ public class JMSConnectionTester extends TestCase {
                 JMSConnection.getConsumerKey(Channels.getTheBamon().getName(), listener));
     }
 
+    /**
+     * Test that listeners on queues get the configured number of sessions,
+     * and listeners on topics get one.
+     */
+    public void testSessionsPerQueue() {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS,
+                     "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        Settings.set(CommonSettings.JMS_SESSIONS_PER_QUEUE, "3");
+        JMSConnectionMockupMQ con
+                = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        MessageListener listener = new MessageListener() {
+            public void onMessage(Message message) {
+                throw new NotImplementedException("Not implemented");
+            }
+        };
+        ChannelID anyBa = Channels.getAnyBa();
+        ChannelID allBa = Channels.getAllBa();
+        con.setListener(anyBa, listener);
+        con.setListener(allBa, listener);
+        assertEquals("Should have a consumer for each session on the queue",
+                3, con.getListeners(anyBa).size());
+        for (MessageListener ml : con.getListeners(anyBa)) {
+            assertEquals("Each consumer should have the listener",
+                    listener, ml);
+        }
+        assertEquals("Should have one consumer on the topic",
+                1, con.getListeners(allBa).size());
+        assertEquals("Should have one consumer entry for each channel",
+                2, con.consumers.size());
+
+        con.removeListener(anyBa, listener);
+        assertEquals("All consumers on the queue should be removed",
+                0, con.getListeners(anyBa).size());
+        assertEquals("The consumer on the topic should be kept",
+                1, con.getListeners(allBa).size());
+    }
+
+    /**
+     * Test that removing a listener closes the sessions of its consumers.
+     */
+    public void testRemoveListenerClosesSessions() throws Exception {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS,
+                     "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        Settings.set(CommonSettings.JMS_SESSIONS_PER_QUEUE, "2");
+        JMSConnectionMockupMQ con
+                = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        MessageListener listener = new MessageListener() {
+            public void onMessage(Message message) {
+                throw new NotImplementedException("Not implemented");
+            }
+        };
+        ChannelID anyBa = Channels.getAnyBa();
+        con.setListener(anyBa, listener);
+        ChannelConsumer consumer = (ChannelConsumer) con.consumers.get(
+                JMSConnection.getConsumerKey(anyBa.getName(), listener));
+        List<JMSConnectionMockupMQ.TestSession> sessions
+                = (List<JMSConnectionMockupMQ.TestSession>)
+                ReflectUtils.getPrivateField(ChannelConsumer.class,
+                                             "sessions").get(consumer);
+        assertEquals("Should have a session for each consumer",
+                2, sessions.size());
+        for (JMSConnectionMockupMQ.TestSession session : sessions) {
+            assertFalse("Sessions should be open while listening",
+                    session.isClosed());
+        }
+
+        con.removeListener(anyBa, listener);
+        for (JMSConnectionMockupMQ.TestSession session : sessions) {
+            assertTrue("Sessions should be closed with the listener",
+                    session.isClosed());
+            try {
+                session.createConsumer(con.getDestination(anyBa.getName()));
+                fail("Should not create consumers in a closed session");
+            } catch (javax.jms.IllegalStateException e) {
+                // Expected
+            }
+        }
+        assertEquals("The consumers should be closed with the sessions",
+                0, con.getListeners(anyBa).size());
+    }
+
+    /**
+     * Test that messages sent and handled are counted in the statistics
+     * MBean of the channel.
+     */
+    public void testChannelStatistics() throws Exception {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS,
+                     "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        JMSConnectionMockupMQ con
+                = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        final List<Message> received
+                = Collections.synchronizedList(new ArrayList<Message>());
+        MessageListener listener = new MessageListener() {
+            public void onMessage(Message message) {
+                received.add(message);
+            }
+        };
+        ChannelID theRepos = Channels.getTheRepos();
+        con.setListener(theRepos, listener);
+        con.send(new TestMessage(theRepos, Channels.getTheBamon(), "one"));
+        con.send(new TestMessage(theRepos, Channels.getTheBamon(), "two"));
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("The listener should get both messages",
+                2, received.size());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName(
+                "dk.netarkivet.common.distribute:name=JMSChannel,jmschannel="
+                + theRepos.getName() + ",*"), null);
+        assertEquals("Should have registered an MBean for the channel",
+                1, names.size());
+        ObjectName name = names.iterator().next();
+        assertEquals("Should count sent messages",
+                2L, server.getAttribute(name, "SentMessages"));
+        assertEquals("Should count handled messages",
+                2L, server.getAttribute(name, "ReceivedMessages"));
+        assertEquals("Should count no failed messages",
+                0L, server.getAttribute(name, "FailedMessages"));
+        assertEquals("Should have no active handlers",
+                0, server.getAttribute(name, "ActiveHandlers"));
+
+        con.cleanup();
+        assertTrue("The MBean should be unregistered on cleanup",
+                server.queryNames(name, null).isEmpty());
+    }
+
     public void testReply() throws JMSException, NoSuchFieldException,
             IllegalAccessException {
         Settings.set(CommonSettings.JMS_BROKER_CLASS,
@@ -43,7 +43,9 @@ public class CommonUtilsTesterSuite {
 
     public static void addToSuite(TestSuite suite) {
         suite.addTestSuite(ApplicationUtilsTester.class);
+        suite.addTestSuite(CrawlLogTokenizerTester.class);
         suite.addTestSuite(DiscardingOutputStreamTester.class);
+        suite.addTestSuite(DomainUtilsTester.class);
         suite.addTestSuite(ExceptionUtilsTester.class);
         suite.addTestSuite(FileArrayIteratorTester.class);
         suite.addTestSuite(FileUtilsTester.class);
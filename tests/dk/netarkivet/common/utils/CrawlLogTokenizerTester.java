@@ -0,0 +1,170 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Unit tests for the class CrawlLogTokenizer.
+ */
+public class CrawlLogTokenizerTester extends TestCase {
+    /** A crawl.log line with annotations. */
+    private static final String LINE_1 = "2005-05-06T11:47:26.550Z     1"
+            + "         53 dns:www.kb.dk P http://www.kb.dk/ text/dns #002"
+            + " 20050506114726441+4 sha1:IWRM2UGVXAPHFHYMTAHB7LUSDAQBPFMQ"
+            + " http://www.kb.dk/ content-size:93,3t";
+    /** A crawl.log line without annotations, with extra whitespace. */
+    private static final String LINE_2 = "  2005-05-06T11:47:30.703Z -5003"
+            + "          - http://www.kb.dk/x.gif E http://www.kb.dk/"
+            + " no-type #000 - - -\t";
+    /** A crawl.log line with too few fields. */
+    private static final String LINE_3 = "bad line";
+
+    /**
+     * Test that lines are split into fields like split("\\s+", 12), and
+     * that the offsets of the lines are found.
+     */
+    public void testFields() throws Exception {
+        String log = LINE_1 + "\n" + LINE_2 + "\r\n\n" + LINE_3;
+        CrawlLogTokenizer line = new CrawlLogTokenizer(
+                new ByteArrayInputStream(log.getBytes("UTF-8")));
+
+        assertTrue("Should read the first line", line.next());
+        assertEquals("Should be at the start", 0L, line.getLineOffset());
+        assertEquals("Should have the line", LINE_1, line.getLine());
+        String[] parts = LINE_1.split("\\s+", CrawlLogTokenizer.MAX_FIELDS);
+        assertEquals("Should have all fields", parts.length,
+                line.getFieldCount());
+        for (int i = 0; i < parts.length; i++) {
+            assertEquals("Should have field " + i, parts[i],
+                    line.getField(i));
+            assertEquals("Should have the length of field " + i,
+                    parts[i].length(), line.getFieldLength(i));
+            assertTrue("Field " + i + " should equal itself",
+                    line.fieldEquals(i, parts[i]));
+        }
+        assertFalse("Should not equal a prefix",
+                line.fieldEquals(CrawlLogTokenizer.URL_FIELD, "dns:"));
+        assertEquals("Should parse numbers", 53L,
+                line.getFieldAsLong(CrawlLogTokenizer.SIZE_FIELD));
+        assertEquals("Should find text in a field", 4,
+                line.indexOf(CrawlLogTokenizer.DIGEST_FIELD, ":", 0));
+        assertEquals("Should not find text before the index", -1,
+                line.indexOf(CrawlLogTokenizer.DIGEST_FIELD, ":", 5));
+        assertEquals("Should get part of a field", "sha1", line.getField(
+                CrawlLogTokenizer.DIGEST_FIELD, 0, 4));
+        assertEquals("Should get annotations", "93",
+                line.getAnnotation("content-size:"));
+        assertEquals("Should parse annotations", 93L,
+                line.getAnnotationAsLong("content-size:", 0L));
+        assertTrue("Should find whole annotations", line.hasAnnotation("3t"));
+        assertFalse("Should not find part of annotations",
+                line.hasAnnotation("3"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        line.writeLine(out);
+        assertEquals("Should write the line", LINE_1 + "\n",
+                out.toString("UTF-8"));
+
+        assertTrue("Should read the second line", line.next());
+        assertEquals("Should know the offset", LINE_1.length() + 1,
+                line.getLineOffset());
+        assertEquals("Should not include the CR", LINE_2, line.getLine());
+        assertEquals("Should skip leading and trailing whitespace",
+                CrawlLogTokenizer.ANNOTATIONS_FIELD, line.getFieldCount());
+        assertEquals("Should have the first field",
+                "2005-05-06T11:47:30.703Z", line.getField(0));
+        assertEquals("Should parse negative numbers", -5003L,
+                line.getFieldAsLong(CrawlLogTokenizer.STATUS_FIELD));
+        assertEquals("Should have the seed", "-",
+                line.getField(CrawlLogTokenizer.SEED_FIELD));
+        assertNull("Should have no annotations",
+                line.getAnnotation("content-size:"));
+        assertEquals("Should give the default without annotations", 7L,
+                line.getAnnotationAsLong("content-size:", 7L));
+        try {
+            line.getFieldAsLong(CrawlLogTokenizer.SIZE_FIELD);
+            fail("Should not parse '-' as a number");
+        } catch (NumberFormatException e) {
+            // Expected
+        }
+        try {
+            line.getField(CrawlLogTokenizer.ANNOTATIONS_FIELD);
+            fail("Should not get a missing field");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+
+        assertTrue("Should read the empty line", line.next());
+        assertEquals("Should have no fields", 0, line.getFieldCount());
+        assertEquals("Should have no content", 0, line.getLineLength());
+
+        assertTrue("Should read the last line without newline", line.next());
+        assertEquals("Should have the last line", LINE_3, line.getLine());
+        assertEquals("Should have the fields", 2, line.getFieldCount());
+        assertEquals("Should know the offset",
+                log.length() - LINE_3.length(), line.getLineOffset());
+        assertFalse("Should have no more lines", line.next());
+        assertFalse("Should still have no more lines", line.next());
+    }
+
+    /**
+     * Test that lines longer than the buffer are read, and that lines are
+     * read across the reads of the stream.
+     */
+    public void testLongLines() throws Exception {
+        StringBuilder log = new StringBuilder();
+        StringBuilder longUrl = new StringBuilder("http://www.kb.dk/");
+        for (int i = 0; i < 50000; i++) {
+            longUrl.append('a');
+        }
+        for (int i = 0; i < 1000; i++) {
+            log.append(i).append(" 200 - ")
+                    .append(i % 7 == 0 ? longUrl : "-").append(" æøå\n");
+        }
+        CrawlLogTokenizer line = new CrawlLogTokenizer(
+                new ByteArrayInputStream(log.toString().getBytes("UTF-8")) {
+                    // Return few bytes at a time
+                    public synchronized int read(byte[] b, int off,
+                            int len) {
+                        return super.read(b, off, Math.min(len, 1000));
+                    }
+                });
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("Should read line " + i, line.next());
+            assertEquals("Should have the number", i,
+                    line.getFieldAsLong(0));
+            assertEquals("Should have the url",
+                    i % 7 == 0 ? longUrl.toString() : "-",
+                    line.getField(CrawlLogTokenizer.URL_FIELD));
+            assertEquals("Should decode UTF-8", "æøå", line.getField(4));
+        }
+        assertFalse("Should have no more lines", line.next());
+    }
+}
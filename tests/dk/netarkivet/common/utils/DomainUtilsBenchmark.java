@@ -0,0 +1,160 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.common.utils;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.testutils.ReflectUtils;
+
+/**
+ * Compares the time spent finding the domains of hostnames with the old
+ * regexp, with the TLD trie alone and with the trie and the hostname cache
+ * of <code>DomainUtils</code>. This is not a unit test, run it with
+ * <pre>
+ * java dk.netarkivet.common.utils.DomainUtilsBenchmark lookups [hostnames]
+ * </pre>
+ * The lookups are spread randomly over the given number of distinct
+ * hostnames, so a number above the size of the cache shows the cost of
+ * cache misses. Each engine is run once to warm up before it is timed.
+ */
+public class DomainUtilsBenchmark {
+    /** The regexp formerly used for finding the domain of a hostname. */
+    private static final Pattern HOSTNAME_REGEX = Pattern.compile(
+            "^(|.*?\\.)(" + DomainUtils.DOMAINNAME_CHAR_REGEX_STRING + "+"
+            + DomainUtils.TLD_REGEX_STRING + ")");
+
+    /** The engines compared. */
+    private static final String[] ENGINES = {"regexp", "trie", "trie+cache"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: DomainUtilsBenchmark lookups "
+                               + "[hostnames]");
+            System.exit(1);
+        }
+        int lookups = Integer.parseInt(args[0]);
+        int hostnameCount = args.length > 1 ? Integer.parseInt(args[1])
+                : 5000;
+        String[] hostnames = generateHostnames(lookups, hostnameCount);
+        Method trie = ReflectUtils.getPrivateMethod(DomainUtils.class,
+                "lookupDomainName", String.class);
+
+        for (String engine : ENGINES) {
+            run(engine, hostnames, trie);
+            long start = System.currentTimeMillis();
+            int found = run(engine, hostnames, trie);
+            long millis = System.currentTimeMillis() - start;
+            System.out.println(engine + ": " + lookups + " lookups in "
+                               + millis + " ms ("
+                               + (millis * 1000000L / Math.max(1, lookups))
+                               + " ns/lookup, " + found + " domains found)");
+        }
+    }
+
+    /**
+     * Find the domains of the hostnames with an engine.
+     *
+     * @param engine The engine to use
+     * @param hostnames The hostnames
+     * @param trie The private trie lookup of DomainUtils
+     * @return The number of hostnames with a domain
+     * @throws Exception If the trie lookup cannot be invoked
+     */
+    private static int run(String engine, String[] hostnames, Method trie)
+            throws Exception {
+        int found = 0;
+        for (String hostname : hostnames) {
+            String domain;
+            if ("regexp".equals(engine)) {
+                domain = domainNameFromHostnameByRegexp(hostname);
+            } else if ("trie".equals(engine)) {
+                domain = (String) trie.invoke(null, hostname);
+            } else {
+                domain = DomainUtils.domainNameFromHostname(hostname);
+            }
+            if (domain != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Generate a sequence of hostnames drawn from a set of distinct ones,
+     * with TLDs of one and more parts, a few unknown TLDs and IP addresses.
+     *
+     * @param lookups The length of the sequence
+     * @param hostnameCount The number of distinct hostnames
+     * @return The hostnames
+     */
+    private static String[] generateHostnames(int lookups,
+                                              int hostnameCount) {
+        String[] tlds = {"dk", "com", "org", "co.uk", "co.at", "fr",
+                         "unknowntld"};
+        Random random = new Random(0);
+        String[] distinct = new String[hostnameCount];
+        for (int i = 0; i < hostnameCount; i++) {
+            if (i % 50 == 0) {
+                distinct[i] = random.nextInt(256) + "." + random.nextInt(256)
+                        + "." + random.nextInt(256) + "."
+                        + random.nextInt(256);
+            } else {
+                distinct[i] = (random.nextBoolean() ? "www." : "")
+                        + "domain" + i + "." + tlds[random.nextInt(
+                                tlds.length)];
+            }
+        }
+        String[] hostnames = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            hostnames[i] = distinct[random.nextInt(hostnameCount)];
+        }
+        return hostnames;
+    }
+
+    /**
+     * The implementation of domainNameFromHostname with regexps.
+     *
+     * @param hostname A hostname.
+     * @return The domain, or null.
+     */
+    private static String domainNameFromHostnameByRegexp(String hostname) {
+        String result = hostname;
+        if (!Constants.IP_KEY_REGEXP.matcher(hostname).matches()) {
+            Matcher matcher = HOSTNAME_REGEX.matcher(hostname);
+            if (matcher.matches()) {
+                result = matcher.group(2);
+            }
+        }
+        if (DomainUtils.VALID_DOMAIN_MATCHER.matcher(result).matches()) {
+            return result;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,112 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.common.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Unit tests for the class DomainUtils.
+ */
+public class DomainUtilsTester extends TestCase {
+    /** The regexp formerly used for finding the domain of a hostname. */
+    private static final Pattern HOSTNAME_REGEX = Pattern.compile(
+            "^(|.*?\\.)(" + DomainUtils.DOMAINNAME_CHAR_REGEX_STRING + "+"
+            + DomainUtils.TLD_REGEX_STRING + ")");
+
+    /** Hostnames to test, with TLDs of one and more parts. */
+    private static final String[] HOSTNAMES = {
+        "www.netarkivet.dk", "netarkivet.dk", "dk", ".dk", "netarkivet.dk.",
+        "a.b.c.netarkivet.dk", "www.kb.co.at", "kb.co.at", "co.at",
+        "www.co.at", "www.at", "foo.bar.aeroport.fr", "aeroport.fr",
+        "www.netarkivet.unknowntld", "netarkivet", "", "a..dk",
+        "www.net_arkivet.dk", "net_arkivet.co.at", "www.øl.dk",
+        "127.0.0.1", "www.127.0.0.1.dk", "1.2.3", "WWW.NETARKIVET.DK",
+        "-.dk", "www.-.dk"
+    };
+
+    public void testDomainNameFromHostname() {
+        assertEquals("Should strip the hostname",
+                "netarkivet.dk",
+                DomainUtils.domainNameFromHostname("www.netarkivet.dk"));
+        assertEquals("Should use the longest TLD",
+                "kb.co.at", DomainUtils.domainNameFromHostname("www.kb.co.at"));
+        assertEquals("Should skip invalid domain name parts",
+                "co.at",
+                DomainUtils.domainNameFromHostname("net_arkivet.co.at"));
+        assertEquals("Should keep IP addresses",
+                "127.0.0.1", DomainUtils.domainNameFromHostname("127.0.0.1"));
+        assertNull("Should not find a domain without a known TLD",
+                DomainUtils.domainNameFromHostname("www.netarkivet.unknown"));
+        try {
+            DomainUtils.domainNameFromHostname(null);
+            fail("Should throw ArgumentNotValid on null");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that the domains found are the same as with the regexps, also
+     * when the hostnames are looked up again.
+     */
+    public void testSameAsRegexp() {
+        for (int i = 0; i < 2; i++) {
+            for (String hostname : HOSTNAMES) {
+                assertEquals("Should find the same domain for '" + hostname
+                        + "'", domainNameFromHostnameByRegexp(hostname),
+                        DomainUtils.domainNameFromHostname(hostname));
+                assertEquals("Should agree on the validity of '" + hostname
+                        + "'", DomainUtils.VALID_DOMAIN_MATCHER.matcher(
+                                hostname).matches(),
+                        DomainUtils.isValidDomainName(hostname));
+            }
+        }
+    }
+
+    /**
+     * The implementation of domainNameFromHostname with regexps.
+     * @param hostname A hostname.
+     * @return The domain, or null.
+     */
+    private static String domainNameFromHostnameByRegexp(String hostname) {
+        String result = hostname;
+        if (!Constants.IP_KEY_REGEXP.matcher(hostname).matches()) {
+            Matcher matcher = HOSTNAME_REGEX.matcher(hostname);
+            if (matcher.matches()) {
+                result = matcher.group(2);
+            }
+        }
+        if (DomainUtils.VALID_DOMAIN_MATCHER.matcher(result).matches()) {
+            return result;
+        }
+        return null;
+    }
+}
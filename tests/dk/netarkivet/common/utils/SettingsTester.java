@@ -27,6 +27,8 @@ package dk.netarkivet.common.utils;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -109,6 +111,42 @@ public class SettingsTester extends TestCase  {
                      Settings.get(setting), backup_value);
     }
 
+    /**
+     * Test that reload listeners are told about reloads, and that values
+     * read before are forgotten.
+     */
+    public void testReloadListener() {
+        final List<String> values = new ArrayList<String>();
+        SettingsReloadListener listener = new SettingsReloadListener() {
+            public void settingsReloaded() {
+                values.add(Settings.get(CommonSettings.CACHE_DIR));
+            }
+        };
+        String value = Settings.get(CommonSettings.CACHE_DIR);
+        Settings.set(CommonSettings.CACHE_DIR, "hest");
+        Settings.addReloadListener(listener);
+        try {
+            Settings.reload();
+            assertEquals("Listener should be told once, and see the reloaded "
+                         + "value", Collections.singletonList(value), values);
+        } finally {
+            Settings.removeReloadListener(listener);
+        }
+        Settings.reload();
+        assertEquals("Removed listener should not be told", 1, values.size());
+    }
+
+    /**
+     * Test that the values returned by getAll cannot change the settings.
+     */
+    public void testGetAllReturnsCopy() {
+        Settings.set(CommonSettings.CACHE_DIR, "a", "b");
+        String[] values = Settings.getAll(CommonSettings.CACHE_DIR);
+        values[0] = "c";
+        assertEquals("Should not change the setting", "a",
+                     Settings.getAll(CommonSettings.CACHE_DIR)[0]);
+    }
+
     /**
      * Test that setting a non-existent key will just add it.
      */
@@ -27,12 +27,23 @@ package dk.netarkivet.common.utils.batch;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.BatchTermination;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.arc.TestInfo;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
 import junit.framework.TestCase;
 
@@ -64,11 +75,14 @@ public class BatchLocalFilesTester extends TestCase {
    // Output stream for batch job
     OutputStream os;
 
+    ReloadSettings rs = new ReloadSettings();
+
     /**
      * @see TestCase#setUp()
      */
     protected void setUp() throws Exception {
         super.setUp();
+        rs.setUp();
         initialized = 0;
         processed = 0;
         finished = 0;
@@ -83,6 +97,7 @@ public class BatchLocalFilesTester extends TestCase {
      * @see TestCase#tearDown()
      */
     protected void tearDown() throws Exception {
+        rs.tearDown();
         super.tearDown();
     }
     /**
@@ -214,6 +229,129 @@ public class BatchLocalFilesTester extends TestCase {
         assertEquals(1, finished);
     }
 
+    /**
+     * Tests that a thread safe job run in parallel gives the same output as
+     * when run sequentially, and that failed files are recorded.
+     */
+    public void testParallelRun() {
+        Settings.set(CommonSettings.BATCH_MAX_THREADS, "4");
+        Settings.set(CommonSettings.BATCH_THREADS_PER_DEVICE, "2");
+        File tempDir = new File(TestInfo.WORKING_DIR, "batchtemp");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tempDir.getPath());
+        File[] files = new File[20];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File("dir" + (i % 3), "file" + i);
+            expected.append(files[i].getName()).append("\n");
+        }
+        final Set<Thread> threads
+                = Collections.synchronizedSet(new HashSet<Thread>());
+        FileBatchJob job = new TestBatchJob() {
+            public boolean processFile(File file, OutputStream os) {
+                threads.add(Thread.currentThread());
+                try {
+                    os.write((file.getName() + "\n").getBytes());
+                    // Let the other threads get some files
+                    Thread.sleep(5);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return !file.getName().equals("file7");
+            }
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchLocalFiles(files).run(job, out);
+        assertEquals("Output should be in the order of the files",
+                expected.toString(), out.toString());
+        assertTrue("Should use more than one thread, but used " + threads,
+                threads.size() > 1);
+        assertEquals("Should count all files", files.length,
+                job.getNoOfFilesProcessed());
+        assertEquals("Should record the failed file",
+                Arrays.asList(files[7]),
+                new ArrayList<File>(job.getFilesFailed()));
+        assertEquals(1, initialized);
+        assertEquals(1, finished);
+        assertEquals("Should remove the output of the threads", 0,
+                tempDir.list().length);
+        FileUtils.removeRecursively(tempDir);
+    }
+
+    /**
+     * Tests that terminating a job run in parallel waits for the threads
+     * to stop before removing their output, and keeps the interrupt.
+     */
+    public void testParallelRunTerminated() throws Exception {
+        Settings.set(CommonSettings.BATCH_MAX_THREADS, "4");
+        Settings.set(CommonSettings.BATCH_THREADS_PER_DEVICE, "2");
+        File tempDir = new File(TestInfo.WORKING_DIR, "batchtemp");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tempDir.getPath());
+        File[] files = new File[20];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File("dir" + (i % 3), "file" + i);
+        }
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger active = new AtomicInteger();
+        final FileBatchJob job = new TestBatchJob() {
+            public boolean processFile(File file, OutputStream os) {
+                active.incrementAndGet();
+                started.countDown();
+                try {
+                    // Keep writing for a while after being interrupted
+                    long end = System.currentTimeMillis() + 200;
+                    while (System.currentTimeMillis() < end) {
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    os.write((file.getName() + "\n").getBytes());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return true;
+            }
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+        final BatchLocalFiles batch = new BatchLocalFiles(files);
+        final Throwable[] thrown = new Throwable[1];
+        final boolean[] interruptedAfter = new boolean[1];
+        final int[] activeAfter = new int[1];
+        Thread runner = new Thread() {
+            public void run() {
+                try {
+                    batch.run(job, new ByteArrayOutputStream());
+                } catch (Throwable e) {
+                    thrown[0] = e;
+                }
+                activeAfter[0] = active.get();
+                interruptedAfter[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        runner.start();
+        assertTrue("The job should start",
+                started.await(10, TimeUnit.SECONDS));
+        runner.interrupt();
+        runner.join(10000);
+        assertFalse("The job should stop", runner.isAlive());
+        assertTrue("Should be terminated, but got " + thrown[0],
+                thrown[0] instanceof BatchTermination);
+        assertEquals("No thread should process files after the run", 0,
+                activeAfter[0]);
+        assertTrue("The interrupt should be kept", interruptedAfter[0]);
+        assertEquals("Should remove the output of the threads", 0,
+                tempDir.list().length);
+        FileUtils.removeRecursively(tempDir);
+    }
+
     /**
      * A very simple FileBatchJob that simply counts relevant
      * method calls in the parents class's designated fields.
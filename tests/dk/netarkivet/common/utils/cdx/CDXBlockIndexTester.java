@@ -0,0 +1,234 @@
+/*$Id$
+* $Revision$
+* $Date$
+* $Author$
+*
+* The Netarchive Suite - Software to harvest and preserve websites
+* Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+*
+* This library is free software; you can redistribute it and/or
+* modify it under the terms of the GNU Lesser General Public
+* License as published by the Free Software Foundation; either
+* version 2.1 of the License, or (at your option) any later version.
+*
+* This library is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this library; if not, write to the Free Software
+* Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.IteratorUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.ReflectUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit test for the CDXBlockIndex class.
+ */
+public class CDXBlockIndexTester extends TestCase {
+    private static final File WORKING_DIR = new File(TestInfo.CDX_DIR,
+                                                     "blockindex");
+    private File cdxFile = new File(WORKING_DIR, "sorted.cdx");
+    private List<String> lines;
+    private Field minSidecarFileSize;
+    private Object originalMinSidecarFileSize;
+    private ReloadSettings rs = new ReloadSettings();
+
+    public void setUp() throws Exception {
+        super.setUp();
+        rs.setUp();
+        FileUtils.removeRecursively(WORKING_DIR);
+        FileUtils.createDir(WORKING_DIR);
+        Settings.set(CommonSettings.CACHE_DIR,
+                     new File(WORKING_DIR, "cache").getAbsolutePath());
+        lines = new ArrayList<String>();
+        Random random = new Random(1);
+        // Enough lines for many blocks and more than one mapped window,
+        // with runs of lines sharing the same URL.
+        for (int i = 0; i < 20000; i++) {
+            String url = "http://host" + random.nextInt(3000) + ".dk/"
+                         + (random.nextInt(5) == 0 ? "" : "page"
+                                                          + random.nextInt(50));
+            lines.add(url + " 10.0.0.1 2012010100000" + random.nextInt(10)
+                      + " text/html " + random.nextInt(100000)
+                      + " file.arc " + random.nextInt(1000000));
+        }
+        Collections.sort(lines);
+        writeLines(cdxFile, lines);
+        minSidecarFileSize = ReflectUtils.getPrivateField(CDXBlockIndex.class,
+                                                          "minSidecarFileSize");
+        originalMinSidecarFileSize = minSidecarFileSize.get(null);
+    }
+
+    public void tearDown() throws Exception {
+        minSidecarFileSize.set(null, originalMinSidecarFileSize);
+        FileUtils.removeRecursively(WORKING_DIR);
+        rs.tearDown();
+        super.tearDown();
+    }
+
+    /** Test that prefix lookups give the same lines as a linear scan. */
+    public void testGetLinesWithPrefix() {
+        CDXBlockIndex index = CDXBlockIndex.getIndex(cdxFile);
+        String[] prefixes = {"http://host1", "http://host1.", "http://host12.dk/",
+                             "http://host2999.dk/page4", "http://host0",
+                             "http://a", "http://zzz", "", "http://host1.dk/ "};
+        for (String prefix : prefixes) {
+            assertEquals("Should find the same lines as a scan for '"
+                         + prefix + "'", scan(prefix),
+                         IteratorUtils.toList(index.getLinesWithPrefix(
+                                 prefix).iterator()));
+        }
+        for (int i = 0; i < lines.size(); i += 997) {
+            String prefix = lines.get(i).substring(0,
+                                                   lines.get(i).indexOf(' '));
+            assertEquals("Should find the same lines as a scan for '"
+                         + prefix + "'", scan(prefix),
+                         IteratorUtils.toList(BinSearch.getLinesInFile(
+                                 cdxFile, prefix).iterator()));
+        }
+    }
+
+    /** Test that the start offset never lies after the first match. */
+    public void testStartOffsetWithKeyPrefixes() throws IOException {
+        List<String> tricky = new ArrayList<String>();
+        for (int i = 0; i < CDXBlockIndex.LINES_PER_BLOCK * 3; i++) {
+            tricky.add("http://a" + (i < CDXBlockIndex.LINES_PER_BLOCK
+                                     ? "" : "c") + " " + i);
+        }
+        tricky.add("http://ab x");
+        Collections.sort(tricky);
+        File file = new File(WORKING_DIR, "tricky.cdx");
+        writeLines(file, tricky);
+        List<String> found = IteratorUtils.toList(CDXBlockIndex.getIndex(
+                file).getLinesWithPrefix("http://ab").iterator());
+        assertEquals("Should find the single line", 1, found.size());
+    }
+
+    /**
+     * Test that a sidecar file is written for large files, and is rebuilt
+     * when the CDX file changes.
+     */
+    public void testSidecarFile() throws Exception {
+        minSidecarFileSize.set(null, 0L);
+        File sidecar = CDXBlockIndex.getSidecarFile(cdxFile);
+        assertFalse("Sidecar should not exist yet", sidecar.exists());
+        CDXBlockIndex.getIndex(cdxFile);
+        assertTrue("Sidecar should have been written", sidecar.exists());
+
+        List<String> newLines = lines.subList(0, 100);
+        writeLines(cdxFile, newLines);
+        cdxFile.setLastModified(cdxFile.lastModified() + 2000);
+        String prefix = newLines.get(99).substring(0,
+                                                   newLines.get(99).indexOf(' '));
+        List<String> found = IteratorUtils.toList(CDXBlockIndex.getIndex(
+                cdxFile).getLinesWithPrefix(prefix).iterator());
+        assertEquals("Should use a rebuilt index",
+                     newLines.get(99), found.get(found.size() - 1));
+    }
+
+    /**
+     * Test that the sidecar file of a small file is kept in the cache
+     * directory.
+     */
+    public void testCachedSidecarFile() throws Exception {
+        File sidecar = CDXBlockIndex.getCachedSidecarFile(
+                cdxFile.getCanonicalFile());
+        assertFalse("Sidecar should not exist yet", sidecar.exists());
+        CDXBlockIndex.getIndex(cdxFile);
+        assertTrue("Sidecar should have been written in the cache",
+                   sidecar.exists());
+        assertFalse("Sidecar should not be written next to a small file",
+                    CDXBlockIndex.getSidecarFile(cdxFile).exists());
+        assertFalse("Files with the same name should get different sidecars",
+                    sidecar.equals(CDXBlockIndex.getCachedSidecarFile(
+                            new File(WORKING_DIR, "other/sorted.cdx")
+                                    .getCanonicalFile())));
+    }
+
+    /**
+     * Test that threads getting the index of a file at the same time get
+     * the same index.
+     */
+    public void testConcurrentGetIndex() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CDXBlockIndex[] found = new CDXBlockIndex[4];
+        Thread[] threads = new Thread[found.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    found[thread] = CDXBlockIndex.getIndex(cdxFile);
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (CDXBlockIndex index : found) {
+            assertNotNull("Should get an index", index);
+            assertSame("Should build the index once", found[0], index);
+        }
+    }
+
+    /** Test that a missing file gives an IOFailure. */
+    public void testMissingFile() {
+        try {
+            BinSearch.getLinesInFile(TestInfo.MISSING_FILE, "http://");
+            fail("Should throw IOFailure on missing file");
+        } catch (dk.netarkivet.common.exceptions.IOFailure e) {
+            // Expected
+        }
+    }
+
+    private List<String> scan(String prefix) {
+        List<String> result = new ArrayList<String>();
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private static void writeLines(File file, List<String> lines)
+            throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -51,6 +51,7 @@ public class CommonUtilsCdxTesterSuite {
         suite.addTestSuite(CDXReaderTester.class);
         suite.addTestSuite(ExtractCDXJobTester.class);
         suite.addTestSuite(BinSearchTester.class);
+        suite.addTestSuite(CDXBlockIndexTester.class);
         suite.addTestSuite(CDXRecordTester.class);
     }
 
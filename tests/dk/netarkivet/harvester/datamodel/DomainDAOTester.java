@@ -766,6 +766,75 @@ public class DomainDAOTester extends DataModelTestCase {
         }
     }
 
+    /**
+     * Test that the default configurations read for snapshot harvests are
+     * the ones of the domains that are not aliases, in snapshot harvest
+     * order, and have what is needed for harvesting them.
+     */
+    public void testGetDefaultConfigurationsInSnapshotHarvestOrder() {
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain d1 = dao.read("dr.dk");
+        d1.getDefaultConfiguration().setOrderXmlName("FullSite-order");
+        d1.getDefaultConfiguration().setMaxBytes(2000000);
+        d1.setCrawlerTraps(Arrays.asList(".*/cgi-bin/.*", "", ".*\\.mp3"),
+                true);
+        d1.getHistory().addHarvestInfo(new HarvestInfo(42L, d1.getName(),
+                d1.getDefaultConfiguration().getName(), new Date(), 1000L,
+                10L, StopReason.DOWNLOAD_COMPLETE));
+        dao.update(d1);
+        Domain d2 = dao.read("kb.dk");
+        d2.updateAlias("dr.dk");
+        dao.update(d2);
+        Domain d3 = dao.read("netarkivet.dk");
+        d3.getDefaultConfiguration().setOrderXmlName("FullSite-order");
+        d3.getDefaultConfiguration().setMaxBytes(1000000);
+        dao.update(d3);
+
+        List<String> domainNames = new ArrayList<String>();
+        Iterator<Domain> domains = dao.getAllDomainsInSnapshotHarvestOrder();
+        while (domains.hasNext()) {
+            Domain d = domains.next();
+            if (d.getAliasInfo() == null || d.getAliasInfo().isExpired()) {
+                domainNames.add(d.getName());
+            }
+        }
+        List<DomainConfiguration> configs = IteratorUtils.toList(
+                dao.getDefaultConfigurationsInSnapshotHarvestOrder());
+        assertEquals("Should get the configurations of all domains but the "
+                + "alias", 3, configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            DomainConfiguration cfg = configs.get(i);
+            assertEquals("Should be in snapshot harvest order",
+                    domainNames.get(i), cfg.getDomainName());
+            DomainConfiguration expected = dao.read(cfg.getDomainName())
+                    .getDefaultConfiguration();
+            assertEquals("Should be the default configuration",
+                    expected.getName(), cfg.getName());
+            assertEquals("Should have the ID", expected.getID(), cfg.getID());
+            assertEquals("Should have the template",
+                    expected.getOrderXmlName(), cfg.getOrderXmlName());
+            assertEquals("Should have the byte limit",
+                    expected.getMaxBytes(), cfg.getMaxBytes());
+            assertEquals("Should have the object limit",
+                    expected.getMaxObjects(), cfg.getMaxObjects());
+            assertEquals("Should have the seeds",
+                    IteratorUtils.toList(expected.getSeedLists()),
+                    IteratorUtils.toList(cfg.getSeedLists()));
+            assertEquals("Should have the crawlertraps",
+                    expected.getCrawlertraps(), cfg.getCrawlertraps());
+            assertEquals("Should expect the same number of objects",
+                    expected.getExpectedNumberOfObjects(0L, 1000000L),
+                    cfg.getExpectedNumberOfObjects(0L, 1000000L));
+        }
+        DomainConfiguration cfg1 = configs.get(domainNames.indexOf("dr.dk"));
+        assertEquals("Empty crawlertraps should be left out",
+                Arrays.asList(".*/cgi-bin/.*", ".*\\.mp3"),
+                cfg1.getCrawlertraps());
+        assertEquals("Should have the history of the configuration", 1,
+                IteratorUtils.toList(cfg1.getDomainhistory()
+                        .getHarvestInfo()).size());
+    }
+
     /** Check constructor of DomainHarvestInfo(). */
     public void testDomainHarvestInfoConstructor() {
         long jobId = 42L;
@@ -46,6 +46,7 @@ import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldTypes;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
 import dk.netarkivet.harvester.scheduler.jobgen.DefaultJobGenerator;
+import dk.netarkivet.harvester.scheduler.jobgen.ExpectedSizeTable;
 import dk.netarkivet.testutils.CollectionAsserts;
 
 
@@ -1240,6 +1241,31 @@ public class HarvestDefinitionTester extends DataModelTestCase {
         assertEquals("Second order template with low byte limit and low "
                      + "expectation expected",
                      cfg3, list.get(5));
+
+        //The table used by the job generator should sort the same way
+        for (long byteLimit : new long[] {4000000L, 1500000L, 9000000L}) {
+            compareconfigdesc
+                = (Comparator<DomainConfiguration>)
+                    declaredConstructor.newInstance(-1, byteLimit);
+            list = Arrays.asList(new DomainConfiguration[] {
+                    cfg6,cfg5,cfg4,cfg3,cfg2,cfg1});
+            ExpectedSizeTable table = new ExpectedSizeTable(list, -1,
+                                                            byteLimit);
+            table.sort();
+            Collections.sort(list, compareconfigdesc);
+            assertEquals("Table should have all configurations",
+                         list.size(), table.size());
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals("Table should sort as CompareConfigsDesc",
+                             list.get(i), table.getConfiguration(i));
+                assertEquals("Table should have the expected number of "
+                             + "objects",
+                             list.get(i).getExpectedNumberOfObjects(
+                                     -1, byteLimit),
+                             table.getExpectedNumberOfObjects(
+                                     i, -1, byteLimit));
+            }
+        }
     }
 
     public void testEquals() {
@@ -197,6 +197,58 @@ public class JobDAOTester extends DataModelTestCase {
         }
     }
 
+    /**
+     * Test that JobDAO.createAll creates the jobs with consecutive IDs, and
+     * that they can be read back, also when there are more jobs than are
+     * created in one transaction.
+     */
+    public void testCreateAll() throws SQLException {
+        JobDAO dao = JobDAO.getInstance();
+        addHarvestDefinitionToDatabaseWithId(TestInfo.HARVESTID);
+        List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < 60; i++) {
+            Job job = Job.createJob(TestInfo.HARVESTID, highChan,
+                    TestInfo.getDRConfiguration(), i);
+            if (i % 2 == 0) {
+                job.addConfiguration(TestInfo.getNetarkivetConfiguration());
+            }
+            jobs.add(job);
+        }
+        dao.createAll(jobs);
+        assertEquals("Should have created all the jobs",
+                INITIAL_JOB_COUNT + jobs.size(), dao.getCountJobs());
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            assertEquals("Jobs should get consecutive IDs",
+                    jobs.get(0).getJobID() + i, (long) job.getJobID());
+            Job readJob = dao.read(job.getJobID());
+            assertEquals("Read job should have the configurations",
+                    job.getDomainConfigurationMap(),
+                    readJob.getDomainConfigurationMap());
+            assertEquals("Read job should have the seeds",
+                    job.getSeedListAsString(), readJob.getSeedListAsString());
+            assertEquals("Read job should have the harvest number",
+                    i, readJob.getHarvestNum());
+            assertEquals("Read job should have the edition",
+                    job.getEdition(), readJob.getEdition());
+        }
+
+        Long unknownHarvestId = TestInfo.HARVESTID + 1L;
+        assertFalse("Harvestdefinition should not exist with ID= "
+                + unknownHarvestId,
+                HarvestDefinitionDAO.getInstance().exists(unknownHarvestId));
+        Job job = Job.createJob(unknownHarvestId, highChan,
+                TestInfo.getDRConfiguration(), 0);
+        try {
+            dao.createAll(Arrays.asList(new Job[] {job}));
+            fail("Should throw UnknownID given job with unknown HarvestID");
+        } catch (UnknownID e) {
+            // Expected
+        }
+        assertEquals("Should not create jobs with unknown HarvestID",
+                INITIAL_JOB_COUNT + jobs.size(), dao.getCountJobs());
+    }
+
     /**
      * This test creates (and stores) a new job, modifies it, and checks that
      * the modified job can be retrieved.
@@ -0,0 +1,195 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.cdx.CDXRecord;
+
+/**
+ * Unit tests for the ArchiveFileCDXWriter class.
+ */
+public class ArchiveFileCDXWriterTester extends TestCase {
+    /** An archive file being written. */
+    private static final File OPEN_FILE = new File(TestInfo.WORKING_DIR,
+            "42-117-20051212141240-00000-test.warc.gz.open");
+    /** The archive file when closed. */
+    private static final File FILE = new File(TestInfo.WORKING_DIR,
+            "42-117-20051212141240-00000-test.warc.gz");
+    /** The open sidecar of the archive file. */
+    private static final File OPEN_SIDECAR = new File(TestInfo.WORKING_DIR,
+            FILE.getName() + ".cdx.open");
+
+    public void setUp() {
+        FileUtils.createDir(TestInfo.WORKING_DIR);
+    }
+
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    /**
+     * Test that lines are written to the open sidecar, and that the sidecar
+     * is renamed when the archive file is closed.
+     */
+    public void testWriteAndClose() {
+        ArchiveFileCDXWriter writer = new ArchiveFileCDXWriter();
+        File sidecar = ArchiveFileCDXWriter.getSidecar(OPEN_FILE);
+        assertEquals("The sidecar should be named after the closed file",
+                new File(TestInfo.WORKING_DIR, FILE.getName() + ".cdx"),
+                sidecar);
+        assertEquals("The sidecar should not depend on the suffix",
+                sidecar, ArchiveFileCDXWriter.getSidecar(FILE));
+
+        writer.write(OPEN_FILE, "http://www.example.org/", "127.0.0.1",
+                1134396760000L, "text/html", 1234L, 0L,
+                "d41d8cd98f00b204e9800998ecf8427e");
+        writer.write(OPEN_FILE, "dns:www.example.org", null,
+                1134396761000L, "text/dns", 56L, 789L, null);
+        assertFalse("The sidecar should not be finished before the file "
+                + "is closed", sidecar.exists());
+        assertTrue("The open sidecar should exist", OPEN_SIDECAR.exists());
+
+        writer.close(FILE);
+        assertFalse("The open sidecar should be renamed",
+                OPEN_SIDECAR.exists());
+        List<String> lines = FileUtils.readListFromFile(sidecar);
+        assertEquals("Should have a line for each record", 2, lines.size());
+        CDXRecord record = new CDXRecord(lines.get(0));
+        assertEquals("Should have the url", "http://www.example.org/",
+                record.getURL());
+        assertEquals("Should have the ip", "127.0.0.1", record.getIP());
+        assertEquals("Should have the date", "20051212141240",
+                record.getDate());
+        assertEquals("Should have the mimetype", "text/html",
+                record.getMimetype());
+        assertEquals("Should have the length", 1234L, record.getLength());
+        assertEquals("Should have the closed file name", FILE.getName(),
+                record.getArcfile());
+        assertEquals("Should have the offset", 0L, record.getOffset());
+        assertTrue("Should have the checksum",
+                lines.get(0).endsWith(" d41d8cd98f00b204e9800998ecf8427e"));
+        assertEquals("Missing values should be written as '-'",
+                "dns:www.example.org - 20051212141241 text/dns 56 "
+                + FILE.getName() + " 789 -", lines.get(1));
+    }
+
+    /**
+     * Test that the sidecar of an invalid archive file is deleted, and that
+     * closeAll finishes all sidecars.
+     */
+    public void testDiscardAndCloseAll() {
+        ArchiveFileCDXWriter writer = new ArchiveFileCDXWriter();
+        writer.write(OPEN_FILE, "http://www.example.org/", "127.0.0.1",
+                1134396760000L, "text/html", 1234L, 0L, "x");
+        writer.discard(OPEN_FILE);
+        assertFalse("The open sidecar should be deleted",
+                OPEN_SIDECAR.exists());
+        writer.close(OPEN_FILE);
+        assertFalse("A discarded sidecar should not be finished",
+                ArchiveFileCDXWriter.getSidecar(FILE).exists());
+
+        File other = new File(TestInfo.WORKING_DIR, "other.arc.open");
+        writer.write(OPEN_FILE, "http://www.example.org/", "127.0.0.1",
+                1134396760000L, "text/html", 1234L, 0L, "x");
+        writer.write(other, "http://www.example.org/", "127.0.0.1",
+                1134396760000L, "text/html", 1234L, 0L, "x");
+        writer.closeAll();
+        assertTrue("All sidecars should be finished",
+                ArchiveFileCDXWriter.getSidecar(FILE).isFile());
+        assertTrue("All sidecars should be finished",
+                ArchiveFileCDXWriter.getSidecar(other).isFile());
+    }
+
+    /**
+     * Test that the payload digest only covers the bytes after the payload
+     * begins, however the stream is read.
+     */
+    public void testPayloadDigest() throws Exception {
+        String headers = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n";
+        String payload = "<html><body>Hello</body></html>";
+        byte[] content = (headers + payload).getBytes("US-ASCII");
+        String expected = ChecksumCalculator.calculateMd5(payload.getBytes());
+
+        ArchiveFileCDXWriter.PayloadDigestInputStream in =
+                new ArchiveFileCDXWriter.PayloadDigestInputStream(
+                        new ByteArrayInputStream(content), headers.length());
+        byte[] buffer = new byte[7];
+        assertEquals("Should read a byte", 'H', in.read());
+        while (in.read(buffer, 0, buffer.length) != -1) {
+            // Read it all
+        }
+        assertEquals("Should digest the payload", expected, in.getChecksum());
+
+        in = new ArchiveFileCDXWriter.PayloadDigestInputStream(
+                new ByteArrayInputStream(content), 0);
+        readAll(in);
+        assertEquals("Should digest all content",
+                ChecksumCalculator.calculateMd5(content), in.getChecksum());
+
+        in = new ArchiveFileCDXWriter.PayloadDigestInputStream(
+                new ByteArrayInputStream(content), headers.length());
+        assertEquals("Should skip", 5L, in.skip(5L));
+        readAll(in);
+        assertEquals("Skipped bytes should be digested", expected,
+                in.getChecksum());
+    }
+
+    /**
+     * Test that mimetypes are written without parameters, and that the
+     * mimetype of the payload is preferred.
+     */
+    public void testGetCDXMimetype() {
+        assertEquals("Should use the payload mimetype", "text/html",
+                ArchiveFileCDXWriter.getCDXMimetype(
+                        "application/http; msgtype=response",
+                        "text/html; charset=UTF-8"));
+        assertEquals("Should use the record mimetype without a payload "
+                + "mimetype", "application/http",
+                ArchiveFileCDXWriter.getCDXMimetype(
+                        "application/http; msgtype=response", null));
+        assertEquals("Should use the record mimetype", "text/dns",
+                ArchiveFileCDXWriter.getCDXMimetype("text/dns", null));
+        assertEquals("Should keep an unparsable mimetype", "no-type",
+                ArchiveFileCDXWriter.getCDXMimetype("no-type", null));
+    }
+
+    /**
+     * Read a stream to the end, one byte at a time.
+     * @param in The stream.
+     */
+    private static void readAll(InputStream in) throws Exception {
+        while (in.read() != -1) {
+            // Read it all
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unittests for the ArchiveFileUploader class.
+ */
+public class ArchiveFileUploaderTester extends TestCase {
+    private ArchiveFileUploader uploader;
+    private List<File> files = new ArrayList<File>();
+
+    public void tearDown() {
+        if (uploader != null) {
+            uploader.shutdown();
+        }
+        for (File f : files) {
+            FileUtils.remove(f);
+        }
+    }
+
+    /**
+     * Make a file to upload.
+     * @param content The content of the file.
+     * @return The file.
+     */
+    private File makeFile(String content) throws Exception {
+        File f = File.createTempFile("upload", ".arc");
+        FileUtils.writeBinaryFile(f, content.getBytes());
+        files.add(f);
+        return f;
+    }
+
+    /**
+     * Test that no more than the maximum number of files are uploaded at
+     * the same time, and that the files in flight are counted.
+     */
+    public void testWindow() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<File> stored
+                = Collections.synchronizedList(new ArrayList<File>());
+        uploader = new ArchiveFileUploader(new TestClient() {
+            public void store(File file) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOFailure("Interrupted", e);
+                }
+                stored.add(file);
+            }
+        }, 2);
+        final File f1 = makeFile("one");
+        final File f2 = makeFile("two");
+        final File f3 = makeFile("three");
+        Future<File> first = uploader.storeAsync(f1);
+        Future<File> second = uploader.storeAsync(f2);
+        assertEquals("Two files should be in flight",
+                2, uploader.getInFlightFiles());
+        assertEquals("The bytes in flight should be counted",
+                6L, uploader.getInFlightBytes());
+
+        final List<Future<File>> third = new ArrayList<Future<File>>();
+        Thread t = new Thread() {
+            public void run() {
+                third.add(uploader.storeAsync(f3));
+            }
+        };
+        t.start();
+        t.join(500);
+        assertTrue("The third file should wait for a free slot", t.isAlive());
+
+        release.countDown();
+        t.join(10000);
+        assertEquals("The first file should be stored", f1, first.get());
+        assertEquals("The second file should be stored", f2, second.get());
+        assertEquals("The third file should be stored",
+                f3, third.get(0).get(10, TimeUnit.SECONDS));
+        assertEquals("All files should be stored", 3, stored.size());
+        assertEquals("No files should be in flight",
+                0, uploader.getInFlightFiles());
+        assertEquals("No bytes should be in flight",
+                0L, uploader.getInFlightBytes());
+        assertEquals("Stored files should be counted",
+                3L, uploader.getStoredFiles());
+        assertEquals("Stored bytes should be counted",
+                11L, uploader.getStoredBytes());
+    }
+
+    /**
+     * Test that failed uploads are reported without being tried again, as
+     * the client retries on its own.
+     */
+    public void testFailure() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        uploader = new ArchiveFileUploader(new TestClient() {
+            public void store(File file) {
+                calls.incrementAndGet();
+                throw new IOFailure("Store fails");
+            }
+        }, 1);
+        File f = makeFile("content");
+        try {
+            uploader.storeAsync(f).get();
+            fail("The upload should fail");
+        } catch (ExecutionException e) {
+            assertTrue("The failure should be given",
+                    e.getCause() instanceof IOFailure);
+        }
+        assertEquals("The client should be called once", 1, calls.get());
+        assertEquals("Failed files should be counted",
+                1L, uploader.getFailedFiles());
+        assertEquals("No files should be in flight",
+                0, uploader.getInFlightFiles());
+    }
+
+    /**
+     * Test that an interrupt while waiting for a free slot fails the upload
+     * and keeps the interrupt status.
+     */
+    public void testInterruptedWhileWaiting() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        uploader = new ArchiveFileUploader(new TestClient() {
+            public void store(File file) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOFailure("Interrupted", e);
+                }
+            }
+        }, 1);
+        try {
+            uploader.storeAsync(makeFile("one"));
+            Thread.currentThread().interrupt();
+            try {
+                uploader.storeAsync(makeFile("two"));
+                fail("The upload should fail when interrupted");
+            } catch (IOFailure e) {
+                assertTrue("The interrupt status should be kept",
+                        Thread.interrupted());
+            }
+        } finally {
+            Thread.interrupted();
+            release.countDown();
+        }
+    }
+
+    /** A client that only stores files. */
+    private abstract static class TestClient
+            implements HarvesterArcRepositoryClient {
+        public void close() {
+        }
+    }
+}
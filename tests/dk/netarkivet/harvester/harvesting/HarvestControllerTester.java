@@ -26,6 +26,7 @@ package dk.netarkivet.harvester.harvesting;
 
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.JMSConnectionMockupMQ;
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
@@ -49,9 +50,14 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Tests for the HarvestController class (which was extracted from
@@ -393,6 +399,71 @@ public class HarvestControllerTester extends TestCase {
 //        assertEquals("Should have no failed files", 0, failed.size());
 //    }
 
+    /**
+     * Test that interrupting uploadFiles cancels the uploads, reports them
+     * as failed and keeps the interrupt status of the thread.
+     */
+    public void testUploadFilesInterrupted() throws Exception {
+        hc = HarvestController.getInstance();
+        Field uploaderField = ReflectUtils.getPrivateField(hc.getClass(),
+                "uploader");
+        ((ArchiveFileUploader) uploaderField.get(hc)).shutdown();
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch cancelled = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        uploaderField.set(hc, new ArchiveFileUploader(
+                new HarvesterArcRepositoryClient() {
+                    public void store(File file) {
+                        started.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            cancelled.countDown();
+                            throw new IOFailure("Interrupted", e);
+                        }
+                    }
+
+                    public void close() {
+                    }
+                }, 2));
+        final Method uploadFiles = ReflectUtils.getPrivateMethod(
+                hc.getClass(), "uploadFiles", List.class,
+                StringBuilder.class, List.class);
+        final File f1 = new File(TestInfo.WORKING_DIR, "upload1.arc");
+        final File f2 = new File(TestInfo.WORKING_DIR, "upload2.arc");
+        FileUtils.writeBinaryFile(f1, "one".getBytes());
+        FileUtils.writeBinaryFile(f2, "two".getBytes());
+        final StringBuilder errs = new StringBuilder();
+        final List<File> failed = new ArrayList<File>();
+        final AtomicBoolean stillInterrupted = new AtomicBoolean();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    uploadFiles.invoke(hc, list(f1, f2), errs, failed);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                stillInterrupted.set(isInterrupted());
+            }
+        };
+        try {
+            t.start();
+            assertTrue("Both uploads should start",
+                    started.await(10, TimeUnit.SECONDS));
+            t.interrupt();
+            t.join(10000);
+            assertFalse("uploadFiles should return when interrupted",
+                    t.isAlive());
+            assertTrue("The uploads should be cancelled",
+                    cancelled.await(10, TimeUnit.SECONDS));
+            assertEquals("Both files should fail", list(f1, f2), failed);
+            assertTrue("The interrupt status should be kept",
+                    stillInterrupted.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
     public static <T> List<T> list(T... objects) {
         return Arrays.asList(objects);
     }
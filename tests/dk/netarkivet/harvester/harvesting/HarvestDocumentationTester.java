@@ -174,6 +174,57 @@ public class HarvestDocumentationTester extends TestCase {
                      "tv2.dk is an alias of statsbiblioteket.dk\n", aliasFound);
     }
 
+    /**
+     * Test that documentHarvest uses the CDX sidecar of an archive file when
+     * there is one, and generates the CDX of the other archive files.
+     */
+    public void testDocumentHarvestUsesCDXSidecar() throws IOException {
+        TestInfo.WORKING_DIR.mkdirs();
+        TestFileUtils.copyDirectoryNonCVS(
+                TestInfo.METADATA_TEST_DIR,
+                TestInfo.WORKING_DIR);
+        File arcsDir = new File(TestInfo.WORKING_DIR, "arcs");
+        File sidecar = ArchiveFileCDXWriter.getSidecar(
+                new File(arcsDir, TestInfo.SND_FILENAME));
+        String sidecarLine = "http://www.example.org/ 127.0.0.1 "
+                + "20051212141241 text/html 10 " + TestInfo.SND_FILENAME
+                + " 42 d41d8cd98f00b204e9800998ecf8427e\n";
+        FileUtils.writeBinaryFile(sidecar, sidecarLine.getBytes());
+
+        JobInfo harvestJob = new JobInfoTestImpl(
+                Long.parseLong(TestInfo.ARC_JOB_ID), 117L);
+        IngestableFiles inf = new IngestableFiles(
+                new HeritrixFiles(TestInfo.WORKING_DIR, harvestJob));
+        HarvestDocumentation.documentHarvest(inf);
+
+        assertFalse("The sidecar should be moved away", sidecar.exists());
+        String fstURI = HarvestDocumentation.getCDXURI(
+                TestInfo.ARC_HARVEST_ID, TestInfo.ARC_JOB_ID,
+                TestInfo.SND_FILENAME).toASCIIString();
+        String sndURI = HarvestDocumentation.getCDXURI(
+                TestInfo.ARC_HARVEST_ID, TestInfo.ARC_JOB_ID,
+                TestInfo.FST_FILENAME).toASCIIString();
+        String fstCDX = null;
+        String sndCDX = null;
+        ARCReader r = ARCReaderFactory.get(inf.getMetadataArcFiles().get(0));
+        Iterator<ArchiveRecord> it = r.iterator();
+        while (it.hasNext()) {
+            ARCRecord record = (ARCRecord) it.next();
+            String url = record.getMetaData().getUrl();
+            if (url.equals(fstURI)) {
+                fstCDX = ARCTestUtils.readARCRecord(record);
+            } else if (url.equals(sndURI)) {
+                sndCDX = ARCTestUtils.readARCRecord(record);
+            }
+        }
+        assertEquals("The CDX should be taken from the sidecar",
+                sidecarLine, fstCDX);
+        assertNotNull("The CDX of the other file should be generated",
+                sndCDX);
+        assertTrue("The CDX of the other file should be generated: " + sndCDX,
+                sndCDX.contains(TestInfo.FST_FILENAME));
+    }
+
     /**
      * Unit test of method HarvestDocumentation.documentHarvest(). This unit
      * test covers the following error cases: - dir does not exist or is not dir
@@ -49,6 +49,8 @@ public class HarvestingTesterSuite {
      * @param suite the suite.
      */
     public static void addToSuite(TestSuite suite) {
+        suite.addTestSuite(ArchiveFileCDXWriterTester.class);
+        suite.addTestSuite(ArchiveFileUploaderTester.class);
         suite.addTestSuite(DomainnameQueueAssignmentPolicyTester.class);
         suite.addTestSuite(HeritrixControllerFactoryTester.class);
         suite.addTestSuite(HarvestControllerTester.class);
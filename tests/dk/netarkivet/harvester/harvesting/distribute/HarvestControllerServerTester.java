@@ -33,6 +33,8 @@ import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.LogManager;
 
 import javax.jms.JMSException;
@@ -438,6 +440,150 @@ public class HarvestControllerServerTester extends TestCase {
                    new File(new File(oldjobsdir, TestInfo.LEFTOVER_CRAWLDIR_3.getName()), "logs/progress-statistics.log").exists());
     }
 
+    /**
+     * Test that the server stops taking jobs while too many crawls await
+     * post-processing, and starts listening again, once, when the
+     * post-processing is done.
+     */
+    public void testListeningWaitsForPostProcessing() throws Exception {
+        Settings.set(HarvesterSettings
+                .HARVEST_CONTROLLER_POSTPROCESSING_MAX_PENDING_JOBS, "0");
+        hcs = HarvestControllerServer.getInstance();
+        JMSConnectionMockupMQ con
+                = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        hcs.visit(new HarvesterRegistrationResponse(
+                focusedHarvestChannel.getName(), true, false));
+        ChannelID jobChannel = HarvesterChannels.getHarvestJobChannelId(
+                focusedHarvestChannel.getName(), false);
+        assertEquals("Should listen for jobs on a valid channel",
+                1, con.getListeners(jobChannel).size());
+
+        // Post-process with a processor we can hold back
+        final CountDownLatch release = new CountDownLatch(1);
+        final Method postProcessingDone = ReflectUtils.getPrivateMethod(
+                HarvestControllerServer.class, "postProcessingDone");
+        PostProcessor postProcessor = new PostProcessor(1, 0,
+                new PostProcessor.CrawlProcessor() {
+                    public void process(File crawlDir,
+                                        Throwable crawlException) {
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            // Just stop
+                        }
+                    }
+
+                    public void processed(File crawlDir) {
+                        try {
+                            postProcessingDone.invoke(hcs);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+        ReflectUtils.getPrivateField(HarvestControllerServer.class,
+                "postProcessor").set(hcs, postProcessor);
+        Method removeListener = ReflectUtils.getPrivateMethod(
+                HarvestControllerServer.class, "removeListener");
+        Method beginListening = ReflectUtils.getPrivateMethod(
+                HarvestControllerServer.class,
+                "beginListeningIfSpaceAvailable");
+
+        // As when a crawl is done
+        removeListener.invoke(hcs);
+        assertEquals("Should stop listening during the crawl",
+                0, con.getListeners(jobChannel).size());
+        postProcessor.submit(TestInfo.CRAWL_DIR_COPY, null);
+        beginListening.invoke(hcs);
+        assertEquals("Should not listen while the crawl is post-processed",
+                0, con.getListeners(jobChannel).size());
+
+        release.countDown();
+        postProcessor.awaitIdle();
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (con.getListeners(jobChannel).isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Should listen when the post-processing is done",
+                1, con.getListeners(jobChannel).size());
+        beginListening.invoke(hcs);
+        assertEquals("Should only listen once",
+                1, con.getListeners(jobChannel).size());
+        postProcessor.shutdown();
+    }
+
+    /**
+     * Test that no ready message is sent while the server does not listen
+     * for jobs because too many crawls await post-processing.
+     */
+    public void testNoReadyMessageWhilePostProcessing() throws Exception {
+        Settings.set(HarvesterSettings.SEND_READY_DELAY, "0");
+        Settings.set(HarvesterSettings
+                .HARVEST_CONTROLLER_POSTPROCESSING_MAX_PENDING_JOBS, "0");
+        hcs = HarvestControllerServer.getInstance();
+        JMSConnectionMockupMQ con
+                = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        GenericMessageListener statusListener = new GenericMessageListener();
+        con.setListener(HarvesterChannels.getHarvesterStatusChannel(),
+                statusListener);
+        hcs.visit(new HarvesterRegistrationResponse(
+                focusedHarvestChannel.getName(), true, false));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        PostProcessor postProcessor = new PostProcessor(1, 0,
+                new PostProcessor.CrawlProcessor() {
+                    public void process(File crawlDir,
+                                        Throwable crawlException) {
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            // Just stop
+                        }
+                    }
+
+                    public void processed(File crawlDir) {
+                    }
+                });
+        ReflectUtils.getPrivateField(HarvestControllerServer.class,
+                "postProcessor").set(hcs, postProcessor);
+        Object status = ReflectUtils.getPrivateField(
+                HarvestControllerServer.class, "status").get(hcs);
+        Method sendStatus = ReflectUtils.getPrivateMethod(status.getClass(),
+                "sendStatus");
+        try {
+            // As when a crawl is done
+            ReflectUtils.getPrivateMethod(HarvestControllerServer.class,
+                    "removeListener").invoke(hcs);
+            postProcessor.submit(TestInfo.CRAWL_DIR_COPY, null);
+            ReflectUtils.getPrivateMethod(HarvestControllerServer.class,
+                    "beginListeningIfSpaceAvailable").invoke(hcs);
+            con.waitForConcurrentTasksToFinish();
+            statusListener.messagesReceived.clear();
+
+            sendStatus.invoke(status);
+            con.waitForConcurrentTasksToFinish();
+            assertEquals("Should not send ready messages while not listening",
+                    0, statusListener.messagesReceived.size());
+        } finally {
+            release.countDown();
+            postProcessor.awaitIdle();
+            postProcessor.shutdown();
+        }
+
+        ReflectUtils.getPrivateMethod(HarvestControllerServer.class,
+                "beginListeningIfSpaceAvailable").invoke(hcs);
+        sendStatus.invoke(status);
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("Should send a ready message when listening again",
+                1, statusListener.messagesReceived.size());
+        assertTrue("Should send a ready message",
+                statusListener.messagesReceived.get(0)
+                        instanceof HarvesterReadyMessage);
+        con.removeListener(HarvesterChannels.getHarvesterStatusChannel(),
+                statusListener);
+    }
+
     /**
      * Test bug 852. the system property
      * org.archive.crawler.frontier.AbstractFrontier.queue-assignment-policy
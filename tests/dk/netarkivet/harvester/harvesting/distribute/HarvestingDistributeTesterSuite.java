@@ -50,6 +50,7 @@ public class HarvestingDistributeTesterSuite {
         suite.addTestSuite(JobEndedMessageTester.class);
         suite.addTestSuite(MetadataEntryTester.class);
         suite.addTestSuite(PersistentJobDataTester.class);
+        suite.addTestSuite(PostProcessorTester.class);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,229 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.RememberNotifications;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Unit tests for the PostProcessor class.
+ */
+public class PostProcessorTester extends TestCase {
+    private static final File DIR_1 = new File("crawldir1");
+    private static final File DIR_2 = new File("crawldir2");
+
+    private ReloadSettings rs = new ReloadSettings();
+    private PostProcessor postProcessor;
+    /** Released to let the processing of crawls finish. */
+    private CountDownLatch release;
+    /** The crawl directories processed, in order. */
+    private List<File> processed;
+    /** The crawl directories reported as no longer pending, in order. */
+    private List<File> done;
+
+    public void setUp() {
+        rs.setUp();
+        Settings.set(CommonSettings.NOTIFICATIONS_CLASS,
+                     RememberNotifications.class.getName());
+        release = new CountDownLatch(1);
+        processed = Collections.synchronizedList(new ArrayList<File>());
+        done = Collections.synchronizedList(new ArrayList<File>());
+    }
+
+    public void tearDown() {
+        if (postProcessor != null) {
+            postProcessor.shutdown();
+        }
+        RememberNotifications.resetSingleton();
+        rs.tearDown();
+    }
+
+    public void testConstructor() {
+        try {
+            new PostProcessor(0, 0, new TestProcessor());
+            fail("Should need a thread");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+        try {
+            new PostProcessor(1, -1, new TestProcessor());
+            fail("Should not allow a negative number of pending jobs");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+        try {
+            new PostProcessor(1, 0, null);
+            fail("Should need a processor");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that crawls are counted as pending until processed, that they
+     * are not queued twice, and that new jobs are held back while too many
+     * crawls are pending.
+     */
+    public void testPendingJobs() throws Exception {
+        postProcessor = new PostProcessor(1, 1, new TestProcessor());
+        assertTrue("Should take new jobs when idle",
+                   postProcessor.mayTakeNewJobs());
+        postProcessor.submit(DIR_1, null);
+        postProcessor.submit(DIR_1, null);
+        assertEquals("A crawl should only be queued once",
+                     1, postProcessor.getPendingJobs());
+        assertTrue("Should take new jobs with one pending crawl",
+                   postProcessor.mayTakeNewJobs());
+        postProcessor.submit(DIR_2, null);
+        assertEquals("Should count both crawls",
+                     2, postProcessor.getPendingJobs());
+        assertTrue("Should know the crawl is pending",
+                   postProcessor.isPending(DIR_2));
+        assertFalse("Should not take new jobs with too many pending crawls",
+                    postProcessor.mayTakeNewJobs());
+
+        release.countDown();
+        postProcessor.awaitIdle();
+        assertEquals("Should have processed each crawl once",
+                     listOf(DIR_1, DIR_2), processed);
+        assertEquals("Should tell when each crawl is done",
+                     listOf(DIR_1, DIR_2), done);
+        assertEquals("Should have no pending crawls",
+                     0, postProcessor.getPendingJobs());
+        assertFalse("A processed crawl should not be pending",
+                    postProcessor.isPending(DIR_1));
+        assertTrue("Should take new jobs again",
+                   postProcessor.mayTakeNewJobs());
+    }
+
+    /**
+     * Test that with no pending jobs allowed, new jobs are not taken while
+     * a crawl is processed.
+     */
+    public void testNoPendingJobs() throws Exception {
+        postProcessor = new PostProcessor(1, 0, new TestProcessor());
+        postProcessor.submit(DIR_1, null);
+        assertFalse("Should not take new jobs while processing",
+                    postProcessor.mayTakeNewJobs());
+        release.countDown();
+        postProcessor.awaitIdle();
+        assertTrue("Should take new jobs when done",
+                   postProcessor.mayTakeNewJobs());
+    }
+
+    /**
+     * Test that a failing post-processing is notified, and that the crawl
+     * is still reported as done, so the harvester does not wait forever.
+     */
+    public void testProcessingFails() throws Exception {
+        release.countDown();
+        postProcessor = new PostProcessor(1, 0, new TestProcessor() {
+            public void process(File crawlDir, Throwable crawlException) {
+                super.process(crawlDir, crawlException);
+                throw new IOFailure("Upload failed");
+            }
+        });
+        postProcessor.submit(DIR_1, null);
+        postProcessor.awaitIdle();
+        assertEquals("The failed crawl should be done", listOf(DIR_1), done);
+        assertEquals("Should have no pending crawls",
+                     0, postProcessor.getPendingJobs());
+        RememberNotifications notifications
+                = RememberNotifications.getInstance();
+        assertTrue("The failure should be notified, but got '"
+                   + notifications.message + "'",
+                   notifications.message.contains(DIR_1.getPath()));
+        assertTrue("The failure should be the cause",
+                   notifications.e instanceof IOFailure);
+
+        // A failing processed() should not stop the post-processing
+        postProcessor.shutdown();
+        postProcessor = new PostProcessor(1, 0, new TestProcessor() {
+            public void processed(File crawlDir) {
+                super.processed(crawlDir);
+                throw new IOFailure("Can't listen");
+            }
+        });
+        postProcessor.submit(DIR_1, null);
+        postProcessor.submit(DIR_2, null);
+        postProcessor.awaitIdle();
+        assertEquals("Should process all crawls",
+                     listOf(DIR_1, DIR_1, DIR_2), processed);
+    }
+
+    /**
+     * Test that crawls are left alone once the post-processing has been
+     * shut down.
+     */
+    public void testShutdown() throws Exception {
+        postProcessor = new PostProcessor(1, 0, new TestProcessor());
+        postProcessor.shutdown();
+        postProcessor.submit(DIR_1, null);
+        assertEquals("Should not queue crawls after shutdown",
+                     0, postProcessor.getPendingJobs());
+        assertTrue("Should not process crawls after shutdown",
+                   processed.isEmpty());
+    }
+
+    /**
+     * @param dirs Some directories.
+     * @return A list of the directories.
+     */
+    private static List<File> listOf(File... dirs) {
+        List<File> list = new ArrayList<File>();
+        Collections.addAll(list, dirs);
+        return list;
+    }
+
+    /** Records the crawls, waiting for release before processing them. */
+    private class TestProcessor implements PostProcessor.CrawlProcessor {
+        public void process(File crawlDir, Throwable crawlException) {
+            try {
+                assertTrue("Should be released",
+                           release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                fail("Interrupted");
+            }
+            processed.add(crawlDir);
+        }
+
+        public void processed(File crawlDir) {
+            done.add(crawlDir);
+        }
+    }
+}
@@ -25,6 +25,7 @@
 
 package dk.netarkivet.harvester.indexserver;
 
+import is.hi.bok.deduplicator.DeDuplicatorTester;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
@@ -54,7 +55,9 @@ public class ArchiveIndexServerTesterSuite {
         suite.addTestSuite(CombiningMultiFileBasedCacheTester.class);
         suite.addTestSuite(CrawlLogIndexCacheTester.class);
         suite.addTestSuite(DedupCrawlLogIndexCacheTester.class);
+        suite.addTestSuite(DeDuplicatorTester.class);
         suite.addTestSuite(GetMetadataArchiveBatchJobTester.class);
+        suite.addTestSuite(GetMetadataForJobsArchiveBatchJobTester.class);
         suite.addTestSuite(MultiFileBasedCacheTester.class);
         suite.addTestSuite(RawMetadataCacheTester.class);
         suite.addTestSuite(IndexServerTester.class);
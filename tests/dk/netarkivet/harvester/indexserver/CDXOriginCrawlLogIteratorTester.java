@@ -25,6 +25,7 @@
 package dk.netarkivet.harvester.indexserver;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -37,6 +38,7 @@ import is.hi.bok.deduplicator.CrawlDataItem;
 import junit.framework.TestCase;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.CrawlLogTokenizer;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.harvester.indexserver.CDXOriginCrawlLogIterator;
 import dk.netarkivet.testutils.StringAsserts;
@@ -207,13 +209,13 @@ public class CDXOriginCrawlLogIteratorTester extends TestCase {
         // Test for bug #1004: Checksum now includes sha1.  As a workaround, we
         // append it if needed.
         CrawlDataItem fromNonSha =
-                it.parseLine("2005-05-06T11:48:24.182Z   200       1410 http://www.kb.dk/bevarbogen/script.js LE http://www.kb.dk/bevarbogen/ application/x-javascript #020 20050506114824169+3 LLPRTJSSTYX4TCKRKGWG44NTPHUR2ZCH - deduplicate:\"check-arc,42\"");
+                parseLine(it, "2005-05-06T11:48:24.182Z   200       1410 http://www.kb.dk/bevarbogen/script.js LE http://www.kb.dk/bevarbogen/ application/x-javascript #020 20050506114824169+3 LLPRTJSSTYX4TCKRKGWG44NTPHUR2ZCH - deduplicate:\"check-arc,42\"");
         assertNotNull("Must have correctly parsed item", fromNonSha);
         assertNotNull("Must have content digest", fromNonSha.getContentDigest());
         assertFalse("Checksum entry should not start with sha1: even if crawl log doesn't",
                 fromNonSha.getContentDigest().toLowerCase().startsWith("sha1:"));
         CrawlDataItem fromSha =
-                it.parseLine("2005-05-06T11:48:24.182Z   200       1410 http://www.kb.dk/bevarbogen/script.js LE http://www.kb.dk/bevarbogen/ application/x-javascript #020 20050506114824169+3 Sha1:LLPRTJSSTYX4TCKRKGWG44NTPHUR2ZCH - deduplicate:\"check-arc,42\"");
+                parseLine(it, "2005-05-06T11:48:24.182Z   200       1410 http://www.kb.dk/bevarbogen/script.js LE http://www.kb.dk/bevarbogen/ application/x-javascript #020 20050506114824169+3 Sha1:LLPRTJSSTYX4TCKRKGWG44NTPHUR2ZCH - deduplicate:\"check-arc,42\"");
         assertNotNull("Must have correctly parsed item", fromSha);
         assertNotNull("Must have content digest", fromSha.getContentDigest());
         assertFalse("Checksum entry should not start with sha1:",
@@ -222,6 +224,21 @@ public class CDXOriginCrawlLogIteratorTester extends TestCase {
            
          }
     
+    /**
+     * Parse a single crawl.log line with an iterator.
+     *
+     * @param it The iterator.
+     * @param line The line.
+     * @return The item parsed from the line, or null.
+     */
+    private static CrawlDataItem parseLine(CDXOriginCrawlLogIterator it,
+                                           String line) throws IOException {
+        CrawlLogTokenizer tokenizer = new CrawlLogTokenizer(
+                new ByteArrayInputStream(line.getBytes("UTF-8")));
+        assertTrue("Should have a line", tokenizer.next());
+        return it.parseLine(tokenizer);
+    }
+
     /**
      * Checks, if the CDXOriginCrawlLogIterator works with password protected
      * contents, where one crawl.log corresponds with two CDXlines, and the
@@ -53,6 +53,7 @@ import org.apache.lucene.util.BytesRef;
 
 import dk.netarkivet.common.utils.AllDocsCollector;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.ZipUtils;
 import dk.netarkivet.harvester.indexserver.CDXDataCache;
 import dk.netarkivet.harvester.indexserver.DedupCrawlLogIndexCache;
 
@@ -162,6 +163,68 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
                 + origins, origins.isEmpty());
     }
     
+    /**
+     * Test that the index of a job is kept and reused, and that an index
+     * starts from the cached index of a subset of its jobs.
+     */
+    public void testCombineReusesIndices() throws Exception {
+        Map<String, String> origins = new HashMap<String, String>();
+        origins.put("http://www.kb.dk/bevarbogen/images/menu_03.gif",
+                "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,92248220");
+        origins.put("http://www.kb.dk/clear.gif",
+                "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,55983420");
+        DedupCrawlLogIndexCache cache = new DedupCrawlLogIndexCache();
+
+        Map<Long, File> files = new HashMap<Long, File>();
+        files.put(1L, TestInfo.CRAWL_LOG_1);
+        cache.combine(files);
+        assertTrue("The index of the job should be kept",
+                cache.getJobIndexDir(1L).isDirectory());
+        File manifest = new File(cache.getCacheFile(files.keySet())
+                .getAbsolutePath() + CrawlLogIndexCache.MANIFEST_SUFFIX);
+        assertEquals("Should list the jobs of the index",
+                Collections.singletonList("1"),
+                FileUtils.readListFromFile(manifest));
+
+        // The crawl log of job 1 is not read again, the cached index is used
+        files.put(1L, new File(TestInfo.WORKING_DIR, "missing-crawl.log"));
+        files.put(4L, TestInfo.CRAWL_LOG_4);
+        cache.combine(files);
+        verifySearchResult(new HashMap<String, String>(origins),
+                cache.getCacheFile(files.keySet()), "cachedindex");
+        assertTrue("The index of the new job should be kept",
+                cache.getJobIndexDir(4L).isDirectory());
+        FileUtils.removeRecursively(cache.getCacheFile(files.keySet()));
+
+        // Without a cached index, the job indices are used
+        FileUtils.remove(manifest);
+        files.put(1L, cache.getJobIndexDir(1L));
+        files.put(4L, cache.getJobIndexDir(4L));
+        cache.combine(files);
+        verifySearchResult(new HashMap<String, String>(origins),
+                cache.getCacheFile(files.keySet()), "jobindices");
+    }
+
+    /**
+     * Verify that all given origins are found in a gzipped index.
+     * @param origins The origins by url, which should all be found.
+     * @param gzipDir The gzipped index.
+     * @param name A name for the directory to unzip the index in.
+     */
+    private void verifySearchResult(Map<String, String> origins,
+            File gzipDir, String name) throws IOException {
+        File unzipDir = new File(TestInfo.WORKING_DIR, name);
+        ZipUtils.gunzipFiles(gzipDir, unzipDir);
+        IndexReader reader = DirectoryReader.open(new MMapDirectory(unzipDir));
+        try {
+            verifySearchResult(origins, new IndexSearcher(reader));
+        } finally {
+            reader.close();
+        }
+        assertTrue("Should have found all origins, but have still "
+                + origins.size() + " left: " + origins, origins.isEmpty());
+    }
+
     private void verifySearchResult(Map<String,String> origins, IndexSearcher index) throws IOException {
         Set<String> urls = new HashSet<String>(origins.keySet());
         
@@ -0,0 +1,107 @@
+/* File:    $Id$
+ * Version: $Revision$
+ * Date:    $Date$
+ * Author:  $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.batch.BatchLocalFiles;
+import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
+
+/**
+ * Unit tests for the GetMetadataForJobsArchiveBatchJob class.
+ */
+public class GetMetadataForJobsArchiveBatchJobTester extends TestCase {
+    MoveTestFiles mtf = new MoveTestFiles(TestInfo.ORIGINALS_DIR,
+            TestInfo.WORKING_DIR);
+
+    public void setUp() {
+        mtf.setUp();
+    }
+
+    public void tearDown() {
+        mtf.tearDown();
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    /**
+     * Test that the job is found from the names of metadata files.
+     */
+    public void testGetJobID() {
+        assertEquals("Should find the job", Long.valueOf(42L),
+                GetMetadataForJobsArchiveBatchJob.getJobID(
+                        "42-metadata-1.arc"));
+        assertEquals("Should find the job with a collection prefix",
+                Long.valueOf(42L), GetMetadataForJobsArchiveBatchJob.getJobID(
+                        "my-collection-2-42-7-metadata-1.warc"));
+        assertNull("Should not find a job for other files",
+                GetMetadataForJobsArchiveBatchJob.getJobID(
+                        "42-7-20120101000000-00000-sb.arc"));
+    }
+
+    /**
+     * Test that only the files of the jobs are processed, and that the
+     * output tells the job of the content.
+     */
+    public void testOutput() {
+        Set<Long> jobIDs = new HashSet<Long>();
+        jobIDs.add(4L);
+        jobIDs.add(5L);
+        GetMetadataForJobsArchiveBatchJob job =
+                new GetMetadataForJobsArchiveBatchJob(
+                        Pattern.compile(".*/cdx\\?.*"),
+                        Pattern.compile(".*/x-cdx"), jobIDs);
+        File arcDir = new File(TestInfo.WORKING_DIR, "arcfiles");
+        assertTrue("Should process the files of the jobs",
+                job.getFilenamePattern().matcher("4-metadata-1.arc")
+                        .matches());
+        assertFalse("Should not process the files of other jobs",
+                job.getFilenamePattern().matcher("3-metadata-2.arc")
+                        .matches());
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new BatchLocalFiles(arcDir.listFiles()).run(job, os);
+        assertEquals("Should have processed one file",
+                1, job.getNoOfFilesProcessed());
+        assertEquals("Should have the content in blocks for the job",
+                "F 4 4-metadata-1.arc\nD 4 24\nmetadata file 4 block 1\n",
+                os.toString());
+
+        job = new GetMetadataForJobsArchiveBatchJob(
+                Pattern.compile(".*/cdx\\?.*"), Pattern.compile(".*/x-cdx"),
+                Collections.singleton(5L));
+        os = new ByteArrayOutputStream();
+        new BatchLocalFiles(arcDir.listFiles()).run(job, os);
+        assertEquals("Should have no output for jobs without files",
+                "", os.toString());
+    }
+}
@@ -26,10 +26,16 @@ package dk.netarkivet.harvester.indexserver;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import dk.netarkivet.common.arcrepository.TestArcRepositoryClient;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.FileAsserts;
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.preconfigured.MockupJMS;
@@ -186,4 +192,70 @@ public class RawMetadataCacheTester extends CacheTestCase {
         arcrepfield.set(rmc, tarc);
         rmc.cache(4L);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that the data for several jobs is fetched with one batch job, and
+     * is the same as when the jobs are fetched one at a time.
+     */
+    public void testGetSeveralJobs() throws Exception {
+        TestArcRepositoryClient tarc = new TestArcRepositoryClient(
+                new File(TestInfo.WORKING_DIR, "arcfiles"));
+        Field arcrepfield = ReflectUtils.getPrivateField(RawMetadataCache.class,
+                "arcrep");
+        RawMetadataCache single = new RawMetadataCache("test9",
+                Pattern.compile(".*index/cdx.*"), null);
+        arcrepfield.set(single, tarc);
+        RawMetadataCache several = new RawMetadataCache("test10",
+                Pattern.compile(".*index/cdx.*"), null);
+        arcrepfield.set(several, tarc);
+
+        Set<Long> ids = new TreeSet<Long>();
+        ids.add(3L);
+        ids.add(4L);
+        ids.add(5L);
+        int prevNumCalls = tarc.batchCounter;
+        Map<Long, File> result = several.get(ids);
+        assertEquals("Should have run one batch job",
+                prevNumCalls + 1, tarc.batchCounter);
+        assertEquals("Should have an entry for each job", 3, result.size());
+        assertNull("Should have no data for a missing job", result.get(5L));
+        for (Long id : new Long[] {3L, 4L}) {
+            assertEquals("Should have the cache file",
+                    several.getCacheFile(id), result.get(id));
+            single.cache(id);
+            assertEquals("Should have the same data as when fetched alone",
+                    FileUtils.readFile(single.getCacheFile(id)),
+                    FileUtils.readFile(result.get(id)));
+        }
+        FileAsserts.assertFileContains("Should have the entries of the job",
+                "file 4 block 1\nmetadata file 4 block 2", result.get(4L));
+        for (File f : several.getCacheDir().listFiles()) {
+            assertFalse("Should not leave batch results or fetched data "
+                    + "behind, but found " + f,
+                    f.getName().endsWith(".batch")
+                    || f.getName().endsWith(".prefetch"));
+        }
+
+        prevNumCalls = tarc.batchCounter;
+        several.get(ids);
+        assertEquals("Should only fetch the missing job",
+                prevNumCalls + 1, tarc.batchCounter);
+
+        Settings.set(
+                HarvesterSettings.INDEXSERVER_INDEXING_METADATA_JOBS_PER_BATCH,
+                "1");
+        Settings.set(
+                HarvesterSettings.INDEXSERVER_INDEXING_METADATA_BATCH_THREADS,
+                "1");
+        RawMetadataCache chunked = new RawMetadataCache("test11",
+                Pattern.compile(".*index/cdx.*"), null);
+        arcrepfield.set(chunked, tarc);
+        prevNumCalls = tarc.batchCounter;
+        result = chunked.get(ids);
+        assertEquals("Should have run a batch job for each job",
+                prevNumCalls + 3, tarc.batchCounter);
+        assertEquals("Should have the same data in chunks",
+                FileUtils.readFile(single.getCacheFile(4L)),
+                FileUtils.readFile(result.get(4L)));
+    }
+}
@@ -0,0 +1,147 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import dk.netarkivet.harvester.datamodel.Constants;
+import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.DomainHistory;
+import dk.netarkivet.harvester.datamodel.HarvestInfo;
+import dk.netarkivet.harvester.datamodel.Password;
+import dk.netarkivet.harvester.datamodel.SeedList;
+import dk.netarkivet.harvester.datamodel.StopReason;
+
+/**
+ * Compares the time spent sorting the domain configurations of a harvest
+ * with <code>DefaultJobGenerator.CompareConfigsDesc</code>, which calculates
+ * the expected number of objects in every comparison, and with an
+ * <code>ExpectedSizeTable</code>, which calculates it once per
+ * configuration. This is not a unit test, run it with
+ * <pre>
+ * java dk.netarkivet.harvester.scheduler.jobgen.ExpectedSizeTableBenchmark configs [harvests]
+ * </pre>
+ * The configurations are made in memory, each with a history of the given
+ * number of harvests, so the packing of jobs, which needs the database, is
+ * not included.
+ */
+public class ExpectedSizeTableBenchmark {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: ExpectedSizeTableBenchmark configs "
+                               + "[harvests]");
+            System.exit(1);
+        }
+        int configCount = Integer.parseInt(args[0]);
+        int harvestCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<DomainConfiguration> configs = generateConfigs(configCount,
+                harvestCount);
+        long objectLimit = Constants.HERITRIX_MAXOBJECTS_INFINITY;
+        long byteLimit = 500000000L;
+
+        List<DomainConfiguration> sorted
+                = new ArrayList<DomainConfiguration>(configs);
+        long start = System.currentTimeMillis();
+        Collections.sort(sorted, new DefaultJobGenerator.CompareConfigsDesc(
+                objectLimit, byteLimit));
+        report("CompareConfigsDesc", configCount,
+               System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        ExpectedSizeTable table = new ExpectedSizeTable(configs, objectLimit,
+                byteLimit);
+        long calculated = System.currentTimeMillis();
+        table.sort();
+        long done = System.currentTimeMillis();
+        report("ExpectedSizeTable", configCount, done - start);
+        System.out.println("  of which calculating expectations: "
+                           + (calculated - start) + " ms");
+
+        for (int i = 0; i < configCount; i++) {
+            if (table.getConfiguration(i) != sorted.get(i)) {
+                System.out.println("The orders differ at " + i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Make configurations with a few templates and byte limits, each with
+     * a history of harvests of random sizes.
+     *
+     * @param configCount The number of configurations
+     * @param harvestCount The number of harvests in each history
+     * @return The configurations
+     */
+    private static List<DomainConfiguration> generateConfigs(
+            int configCount, int harvestCount) {
+        String[] templates = {"default_orderxml", "FullSite-order",
+                              "OneLevel-order"};
+        long[] byteLimits = {Constants.HERITRIX_MAXBYTES_INFINITY,
+                             100000000L, 1000000000L};
+        Random random = new Random(0);
+        List<SeedList> seedlists = Collections.singletonList(
+                new SeedList("seeds", "www.netarkivet.dk"));
+        List<Password> passwords = Collections.emptyList();
+        List<String> crawlertraps = Collections.emptyList();
+        List<DomainConfiguration> configs
+                = new ArrayList<DomainConfiguration>(configCount);
+        for (int i = 0; i < configCount; i++) {
+            String domainName = "domain" + i + ".dk";
+            DomainHistory history = new DomainHistory();
+            for (int h = 0; h < harvestCount; h++) {
+                long objects = 1 + random.nextInt(100000);
+                history.addHarvestInfo(new HarvestInfo((long) h, domainName,
+                        "config", new Date(h * 86400000L),
+                        objects * (1000 + random.nextInt(50000)), objects,
+                        random.nextBoolean() ? StopReason.DOWNLOAD_COMPLETE
+                                : StopReason.SIZE_LIMIT));
+            }
+            DomainConfiguration cfg = new DomainConfiguration("config",
+                    domainName, history, crawlertraps, seedlists, passwords);
+            cfg.setOrderXmlName(templates[random.nextInt(templates.length)]);
+            cfg.setMaxBytes(byteLimits[random.nextInt(byteLimits.length)]);
+            configs.add(cfg);
+        }
+        return configs;
+    }
+
+    /**
+     * Print the time spent sorting.
+     *
+     * @param method The way of sorting
+     * @param configCount The number of configurations sorted
+     * @param millis The time spent
+     */
+    private static void report(String method, int configCount, long millis) {
+        System.out.println(method + ": " + configCount + " configurations in "
+                           + millis + " ms");
+    }
+}
@@ -48,10 +48,12 @@ import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.LogManager;
 
 import org.archive.io.arc.ARCConstants;
@@ -243,6 +245,28 @@ public class ARCArchiveAccessTester extends TestCase {
                      GIF_URL_KEY.getFile().toString(), response.values.get(0));
     }
 
+    /**
+     * Test that links and embedded objects of HTML pages are found and
+     * made absolute.
+     */
+    public void testFindLinks() throws Exception {
+        String page = "<html><body background=bg.png>"
+                      + "<a HREF='/a.html#top'>a</a><img src=\"b.gif\">"
+                      + "<a href=\"http://other.dk/c?x=1&amp;y=2\">c</a>"
+                      + "<img src=\"b.gif\"><a href=\"mailto:a@b.dk\">"
+                      + "<a href=\"bad link\"><a href=\"\">";
+        Set<URI> links = ARCArchiveAccess.findLinks(
+                new URI("http://netarkivet.dk/dir/index.html"),
+                page.getBytes());
+        assertEquals("Should find the links once, without fragments, "
+                     + "mail links and empty links",
+                     Arrays.asList(new URI("http://netarkivet.dk/dir/bg.png"),
+                                   new URI("http://netarkivet.dk/a.html"),
+                                   new URI("http://netarkivet.dk/dir/b.gif"),
+                                   new URI("http://other.dk/c?x=1&y=2")),
+                     new ArrayList<URI>(links));
+    }
+
     /**
      * Test that AAA checks for null returns from the controller. This can
      * happen if a CDX file is not backed by an arc file, or arc repos times
@@ -0,0 +1,345 @@
+/* File:        $Id$
+ * Revision:    $Revision$
+ * Author:      $Author$
+ * Date:        $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.viewerproxy;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.arcrepository.TestArcRepositoryClient;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.arc.ARCKey;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.archive.io.arc.ARCConstants;
+import org.archive.io.arc.ARCRecord;
+import org.archive.io.arc.ARCRecordMetaData;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for CachingViewerArcRepositoryClient.
+ */
+public class CachingViewerArcRepositoryClientTester extends TestCase {
+    /** The length of the records returned by the fake client. */
+    private static final int RECORD_LENGTH = 100;
+
+    /** The fake client the records are got from. */
+    private CountingArcRepositoryClient client;
+    private ReloadSettings rs = new ReloadSettings();
+    private UseTestRemoteFile utrf = new UseTestRemoteFile();
+
+    public void setUp() {
+        rs.setUp();
+        utrf.setUp();
+        FileUtils.createDir(TestInfo.WORKING_DIR);
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR,
+                     TestInfo.WORKING_DIR.getAbsolutePath());
+        client = new CountingArcRepositoryClient();
+    }
+
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        utrf.tearDown();
+        rs.tearDown();
+    }
+
+    public void testConstructor() {
+        try {
+            new CachingViewerArcRepositoryClient(null, 1000L, 1);
+            fail("Should fail on null client");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+        try {
+            new CachingViewerArcRepositoryClient(client, 0L, 1);
+            fail("Should fail on empty cache");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+        try {
+            new CachingViewerArcRepositoryClient(client, 1000L, 0);
+            fail("Should fail without threads");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that records are got once, and that the records used least
+     * recently are removed when the cache is full.
+     */
+    public void testGet() throws Exception {
+        CachingViewerArcRepositoryClient cache
+                = new CachingViewerArcRepositoryClient(client,
+                        2 * RECORD_LENGTH, 1);
+        assertEquals("Should get the record", "a.arc 1",
+                     getContents(cache.get("a.arc", 1L)));
+        assertEquals("Should get the record from the cache", "a.arc 1",
+                     getContents(cache.get("a.arc", 1L)));
+        assertEquals("Should have got the record once",
+                     1, client.getCount("a.arc", 1L));
+        cache.get("a.arc", 2L);
+        // Use a.arc:1 so a.arc:2 is the least recently used
+        cache.get("a.arc", 1L);
+        cache.get("b.arc", 1L);
+        cache.get("a.arc", 1L);
+        assertEquals("Should still have the record used recently",
+                     1, client.getCount("a.arc", 1L));
+        cache.get("a.arc", 2L);
+        assertEquals("Should have removed the least recently used record",
+                     2, client.getCount("a.arc", 2L));
+
+        assertNull("Should give null for missing records",
+                   cache.get("missing.arc", 1L));
+        assertNull("Should give null for missing records again",
+                   cache.get("missing.arc", 1L));
+        assertEquals("Should not cache missing records",
+                     2, client.getCount("missing.arc", 1L));
+        try {
+            cache.get("", 1L);
+            fail("Should fail on empty file name");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+        cache.close();
+    }
+
+    /**
+     * Test that records fetched in advance are got once, also when they are
+     * asked for while being fetched.
+     */
+    public void testPrefetch() throws Exception {
+        CachingViewerArcRepositoryClient cache
+                = new CachingViewerArcRepositoryClient(client,
+                        10 * RECORD_LENGTH, 3);
+        client.gate = new CountDownLatch(1);
+        List<ARCKey> keys = Arrays.asList(new ARCKey("b.arc", 2L),
+                new ARCKey("a.arc", 1L), new ARCKey("b.arc", 1L),
+                new ARCKey("a.arc", 1L), new ARCKey("missing.arc", 1L));
+        cache.prefetch(keys);
+        // Release the fetches while a get waits for one of them
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Release anyway
+                }
+                client.gate.countDown();
+            }
+        }.start();
+        assertEquals("Should get the record fetched in advance", "b.arc 2",
+                     getContents(cache.get("b.arc", 2L)));
+        List<BitarchiveRecord> records = cache.getRecords(keys);
+        assertEquals("Should get all records", keys.size(), records.size());
+        for (int i = 0; i < keys.size() - 1; i++) {
+            assertEquals("Should get records in the order of the keys",
+                         keys.get(i).getFile().getName() + " "
+                         + keys.get(i).getOffset(),
+                         getContents(records.get(i)));
+        }
+        assertNull("Should give null for missing records",
+                   records.get(keys.size() - 1));
+        assertEquals("Should have got each record once",
+                     1, client.getCount("a.arc", 1L));
+        assertEquals("Should have got each record once",
+                     1, client.getCount("b.arc", 1L));
+        assertEquals("Should have got each record once",
+                     1, client.getCount("b.arc", 2L));
+        cache.prefetch(Collections.singletonList(new ARCKey("a.arc", 1L)));
+        cache.get("a.arc", 1L);
+        assertEquals("Should not fetch cached records again",
+                     1, client.getCount("a.arc", 1L));
+        cache.close();
+        // Should not fail after close
+        cache.prefetch(keys);
+    }
+
+    /**
+     * Test that a record sent as a remote file is not cached, and that one
+     * fetched in advance is given to the first get of it only.
+     */
+    public void testPrefetchRemoteFile() throws Exception {
+        Settings.set(
+                CommonSettings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE,
+                Integer.toString(RECORD_LENGTH / 2));
+        CachingViewerArcRepositoryClient cache
+                = new CachingViewerArcRepositoryClient(client,
+                        10 * RECORD_LENGTH, 1);
+        cache.prefetch(Collections.singletonList(new ARCKey("a.arc", 1L)));
+        BitarchiveRecord record = cache.get("a.arc", 1L);
+        assertTrue("Should be a remote file record",
+                   record.isStoredAsRemoteFile());
+        assertEquals("Should get the record fetched in advance", "a.arc 1",
+                     getContents(record));
+        assertEquals("Should have fetched the record once",
+                     1, client.getCount("a.arc", 1L));
+        assertEquals("Should get the record again", "a.arc 1",
+                     getContents(cache.get("a.arc", 1L)));
+        assertEquals("Should fetch a remote file record again",
+                     2, client.getCount("a.arc", 1L));
+        cache.close();
+    }
+
+    /**
+     * Test that the records to fetch in advance can be found by the threads
+     * fetching them.
+     */
+    public void testPrefetchFoundKeys() throws Exception {
+        CachingViewerArcRepositoryClient cache
+                = new CachingViewerArcRepositoryClient(client,
+                        10 * RECORD_LENGTH, 2);
+        final CountDownLatch found = new CountDownLatch(1);
+        cache.prefetch(new Callable<List<ARCKey>>() {
+            public List<ARCKey> call() {
+                found.countDown();
+                return Arrays.asList(new ARCKey("a.arc", 1L),
+                                     new ARCKey("b.arc", 1L));
+            }
+        });
+        cache.prefetch(new Callable<List<ARCKey>>() {
+            public List<ARCKey> call() {
+                throw new ArgumentNotValid("Should be logged only");
+            }
+        });
+        assertTrue("Should find the records",
+                   found.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (client.getCount("b.arc", 1L) == 0
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Should get the record found", "b.arc 1",
+                     getContents(cache.get("b.arc", 1L)));
+        assertEquals("Should get the record found", "a.arc 1",
+                     getContents(cache.get("a.arc", 1L)));
+        assertEquals("Should have fetched each record once",
+                     1, client.getCount("a.arc", 1L));
+        assertEquals("Should have fetched each record once",
+                     1, client.getCount("b.arc", 1L));
+        cache.close();
+        // Should not fail after close
+        cache.prefetch(new Callable<List<ARCKey>>() {
+            public List<ARCKey> call() {
+                fail("Should not look for records after close");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Read the data of a record.
+     * @param record A record.
+     * @return The data as a string.
+     */
+    private static String getContents(BitarchiveRecord record)
+            throws IOException {
+        InputStream in = record.getData();
+        try {
+            byte[] data = new byte[(int) record.getLength()];
+            int length = in.read(data);
+            return new String(data, 0, length).trim();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Fake arc repository client which counts the gets of each record, and
+     * returns records with the file name and offset as contents, or null
+     * for files named missing.arc.
+     */
+    private static class CountingArcRepositoryClient
+            extends TestArcRepositoryClient {
+        /** If set, gets wait until it is counted down. */
+        CountDownLatch gate;
+        /** The number of gets of each record. */
+        private final Map<String, Integer> counts
+                = new HashMap<String, Integer>();
+
+        public CountingArcRepositoryClient() {
+            super(TestInfo.WORKING_DIR);
+        }
+
+        public synchronized int getCount(String arcFile, long index) {
+            Integer count = counts.get(arcFile + ":" + index);
+            return count == null ? 0 : count;
+        }
+
+        public BitarchiveRecord get(String arcFile, long index) {
+            synchronized (this) {
+                counts.put(arcFile + ":" + index,
+                           getCount(arcFile, index) + 1);
+            }
+            if (gate != null) {
+                try {
+                    assertTrue("Should be released",
+                               gate.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    fail("Interrupted");
+                }
+            }
+            if (arcFile.equals("missing.arc")) {
+                return null;
+            }
+            final Map<String, Object> metadata = new HashMap<String, Object>();
+            for (String header_field : (List<String>)
+                    ARCConstants.REQUIRED_VERSION_1_HEADER_FIELDS) {
+                metadata.put(header_field, "");
+            }
+            StringBuilder contents = new StringBuilder(arcFile + " " + index);
+            while (contents.length() < RECORD_LENGTH) {
+                contents.append(' ');
+            }
+            byte[] data = contents.toString().getBytes();
+            metadata.put(ARCConstants.LENGTH_FIELD_KEY,
+                         Integer.toString(data.length));
+            metadata.put(ARCConstants.ABSOLUTE_OFFSET_KEY, Long.valueOf(0L));
+            try {
+                return new BitarchiveRecord(
+                        new ARCRecord(new ByteArrayInputStream(data),
+                                      new ARCRecordMetaData(arcFile,
+                                                            metadata)),
+                        arcFile);
+            } catch (IOException e) {
+                fail("Can't create metadata record");
+                return null;
+            }
+        }
+    }
+}
@@ -51,6 +51,7 @@ public class ViewerProxyTesterSuite {
      */
     public static void addToSuite(TestSuite suite) {
         suite.addTestSuite(ARCArchiveAccessTester.class);
+        suite.addTestSuite(CachingViewerArcRepositoryClientTester.class);
         suite.addTestSuite(CommandResolverTester.class);
         suite.addTestSuite(CrawlLogLinesMatchingRegexpTester.class);
         suite.addTestSuite(DelegatingControllerTester.class);
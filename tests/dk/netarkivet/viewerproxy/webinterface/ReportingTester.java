@@ -26,7 +26,13 @@
 package dk.netarkivet.viewerproxy.webinterface;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
 
@@ -37,6 +43,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.CollectionAsserts;
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.StringAsserts;
@@ -62,6 +69,8 @@ public class ReportingTester extends TestCase {
         working.mkdirs();
         Settings.set(CommonSettings.DIR_COMMONTEMPDIR,
                 tempdir.getAbsolutePath());
+        Settings.set(CommonSettings.CACHE_DIR,
+                new File(working, "cache").getAbsolutePath());
               Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT,
                      TrivialArcRepositoryClient.class.getName());
         ArcRepositoryClientFactory.getViewerInstance().close();
@@ -190,4 +199,109 @@ public class ReportingTester extends TestCase {
         assertEquals("Should be empty, no job 4", 0, lines.size());
     }
 
+    /**
+     * Tests that the QA data of a job is answered from the cache once it
+     * has been fetched from the archive.
+     */
+    public void testCachedJob() throws Exception {
+        List<String> files = Reporting.getFilesForJob(2, "2-1");
+        List<CDXRecord> records = Reporting.getMetadataCDXRecordsForJob(2);
+        List<String> domainLines = FileUtils.readListFromFile(
+                Reporting.getCrawlLogForDomainInJob("kaarefc.dk", 2));
+        List<String> regexpLines = FileUtils.readListFromFile(
+                Reporting.getCrawlLoglinesMatchingRegexp(2,
+                        ".*kaarefc\\.dk.*"));
+        assertTrue("Should have found lines", regexpLines.size() > 0);
+
+        // Empty the archive
+        FileUtils.removeRecursively(dir);
+        FileUtils.createDir(dir);
+
+        assertEquals("Should get the cached files", files,
+                Reporting.getFilesForJob(2, "2-1"));
+        assertEquals("Should get the cached cdx", records.size(),
+                Reporting.getMetadataCDXRecordsForJob(2).size());
+        assertEquals("Should get the lines from the cached crawl.log",
+                domainLines, FileUtils.readListFromFile(
+                        Reporting.getCrawlLogForDomainInJob("kaarefc.dk", 2)));
+        assertEquals("Should get the lines from the cached crawl.log",
+                regexpLines, FileUtils.readListFromFile(
+                        Reporting.getCrawlLoglinesMatchingRegexp(2,
+                                ".*kaarefc\\.dk.*")));
+        assertEquals("Should have no lines for an unknown domain", 0,
+                FileUtils.readListFromFile(Reporting.getCrawlLogForDomainInJob(
+                        "doesnotexist.dk", 2)).size());
+
+        // A job without metadata is not cached
+        assertEquals("Job 4 should have no files", 0,
+                Reporting.getFilesForJob(4, "4-1").size());
+        TestFileUtils.copyDirectoryNonCVS(TestInfo.ORIGINALS_DIR, dir);
+        for (File f : dir.listFiles()) {
+            f.renameTo(new File(dir, f.getName().replaceFirst("^2-", "4-")));
+        }
+        assertEquals("Job 4 should now have files", 2,
+                Reporting.getFilesForJob(4, "4-1").size());
+    }
+
+    /**
+     * Tests that reading the cached crawl.log of a job neither blocks the
+     * cache nor lets the job be removed from it.
+     */
+    public void testCachedJobInUse() throws Exception {
+        Reporting.getCrawlLoglinesMatchingRegexp(2, ".*");
+        Settings.set(HarvesterSettings.QA_CACHE_SIZE, "1");
+        final File jobDir = new File(new File(working, "cache"), "qa/2");
+        assertTrue("Should have cached the crawl.log",
+                new File(jobDir, "crawl.log").isFile());
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final boolean[] found = new boolean[1];
+        Thread reader = new Thread() {
+            public void run() {
+                found[0] = JobQACache.writeCrawlLogLinesMatching(2,
+                        Pattern.compile(".*"), new OutputStream() {
+                            public void write(int b) throws IOException {
+                                writing.countDown();
+                                try {
+                                    release.await(10, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    throw new IOException("Interrupted");
+                                }
+                            }
+                        });
+            }
+        };
+        reader.start();
+        try {
+            assertTrue("Should be reading the crawl.log",
+                    writing.await(10, TimeUnit.SECONDS));
+
+            Thread storer = new Thread() {
+                public void run() {
+                    File f = new File(working, "files");
+                    FileUtils.writeCollectionToFile(f,
+                            Collections.singletonList("3-1.arc"));
+                    JobQACache.store(3, "files", f);
+                }
+            };
+            storer.start();
+            storer.join(10000L);
+            assertFalse("Storing should not wait for the reader",
+                    storer.isAlive());
+            assertTrue("The job being read should be kept in the cache",
+                    new File(jobDir, "crawl.log").isFile());
+        } finally {
+            release.countDown();
+        }
+        reader.join(10000L);
+        assertTrue("Should have read the crawl.log", found[0]);
+        File f = new File(working, "files");
+        FileUtils.writeCollectionToFile(f,
+                Collections.singletonList("4-1.arc"));
+        JobQACache.store(4, "files", f);
+        assertFalse("The job should be removed when no longer read",
+                jobDir.exists());
+    }
+
 }
@@ -62,6 +62,8 @@ public class ReportingWarcTester extends TestCase {
         working.mkdirs();
         Settings.set(CommonSettings.DIR_COMMONTEMPDIR,
                 tempdir.getAbsolutePath());
+        Settings.set(CommonSettings.CACHE_DIR,
+                new File(working, "cache").getAbsolutePath());
               Settings.set(CommonSettings.ARC_REPOSITORY_CLIENT,
                      TrivialArcRepositoryClient.class.getName());
         ArcRepositoryClientFactory.getViewerInstance().close();
@@ -0,0 +1,198 @@
+/* $Id$
+ * $Revision$
+ * $Date$
+ * $Author$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package dk.netarkivet.wayback;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the ArchiveFileCache.
+ */
+public class ArchiveFileCacheTester extends TestCase {
+    private static final File CACHE_DIR = new File(TestInfo.WORKING_DIR,
+                                                   "archivefilecache");
+
+    /** Fetches files of 100 bytes and counts the fetches. */
+    private static class CountingFetcher
+            implements ArchiveFileCache.FileFetcher {
+        final AtomicInteger fetches = new AtomicInteger();
+        volatile CountDownLatch release = new CountDownLatch(0);
+
+        public void fetch(String filename, File toFile) {
+            fetches.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOFailure("Interrupted", e);
+            }
+            FileUtils.writeBinaryFile(toFile, new byte[100]);
+        }
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        FileUtils.removeRecursively(CACHE_DIR);
+    }
+
+    public void tearDown() throws Exception {
+        FileUtils.removeRecursively(CACHE_DIR);
+        super.tearDown();
+    }
+
+    /** Test that files are fetched once and counted as hits afterwards. */
+    public void testHitsAndMisses() {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 1000, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+        File file = cache.get("1.arc", fetcher);
+        assertEquals("Should have fetched file", 100, file.length());
+        assertEquals("Should return the same file", file,
+                     cache.get("1.arc", fetcher));
+        assertEquals("Should fetch only once", 1, fetcher.fetches.get());
+        assertEquals("Should count a hit", 1, cache.getHits());
+        assertEquals("Should count a miss", 1, cache.getMisses());
+        assertEquals("Should count fetched bytes", 100,
+                     cache.getBytesFetched());
+    }
+
+    /**
+     * Test that concurrent requests for a missing file cause a single fetch,
+     * and that requests for cached files are answered meanwhile.
+     */
+    public void testSingleFetchPerFile() throws Exception {
+        final ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 10000,
+                                                            100);
+        final CountingFetcher fetcher = new CountingFetcher();
+        cache.get("cached.arc", fetcher);
+        fetcher.release = new CountDownLatch(1);
+        final List<File> results = new ArrayList<File>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    File f = cache.get("missing.arc", fetcher);
+                    synchronized (results) {
+                        results.add(f);
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        while (fetcher.fetches.get() < 2) {
+            Thread.sleep(10);
+        }
+        assertTrue("Cached file should be available during the fetch",
+                   cache.get("cached.arc", fetcher).exists());
+        fetcher.release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals("All requests should get the file", 10, results.size());
+        assertEquals("Should only fetch the missing file once", 2,
+                     fetcher.fetches.get());
+    }
+
+    /** Test that the least recently used files are evicted by size. */
+    public void testEvictionByBytes() {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 250, 100);
+        CountingFetcher fetcher = new CountingFetcher();
+        File first = cache.get("1.arc", fetcher);
+        File second = cache.get("2.arc", fetcher);
+        cache.get("1.arc", fetcher);
+        cache.get("3.arc", fetcher);
+        assertTrue("Recently used file should be kept", first.exists());
+        assertFalse("Least recently used file should be evicted",
+                    second.exists());
+        assertEquals("Should be within the size limit", 200,
+                     cache.getCachedBytes());
+        assertEquals("Should count the eviction", 1, cache.getEvictions());
+    }
+
+    /**
+     * Test that the cache is restored from the cache dir, and that partial
+     * files are removed.
+     */
+    public void testRestart() {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 1000, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+        cache.get("1.arc", fetcher);
+        File partial = new File(CACHE_DIR, "2.arc"
+                                           + ArchiveFileCache.PARTIAL_SUFFIX);
+        FileUtils.writeBinaryFile(partial, new byte[10]);
+
+        cache = new ArchiveFileCache(CACHE_DIR, 1000, 10);
+        assertFalse("Partial file should be deleted", partial.exists());
+        assertEquals("Cached file should be known", 1, cache.getCachedFiles());
+        cache.get("1.arc", fetcher);
+        assertEquals("Cached file should not be fetched again", 1,
+                     fetcher.fetches.get());
+    }
+
+    /** Test that a failed fetch leaves no file and can be retried. */
+    public void testFailedFetch() {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 1000, 10);
+        try {
+            cache.get("1.arc", new ArchiveFileCache.FileFetcher() {
+                public void fetch(String filename, File toFile) {
+                    FileUtils.writeBinaryFile(toFile, new byte[10]);
+                    throw new IOFailure("Failed");
+                }
+            });
+            fail("Should throw IOFailure on failed fetch");
+        } catch (IOFailure e) {
+            // Expected
+        }
+        assertEquals("No files should be left", 0, CACHE_DIR.list().length);
+        assertEquals("Should count the failure", 1, cache.getFetchFailures());
+        assertEquals("Should be able to fetch again", 100,
+                     cache.get("1.arc", new CountingFetcher()).length());
+    }
+
+    /** Test that records of the same file are cached separately. */
+    public void testRecordNames() {
+        ArchiveFileCache cache = new ArchiveFileCache(CACHE_DIR, 1000, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+        String first = ArchiveFileCache.getRecordName("1.arc", 0L);
+        String second = ArchiveFileCache.getRecordName("1.arc", 1234L);
+        assertEquals("Record name should contain file and offset",
+                     "1.arc" + ArchiveFileCache.RECORD_SEPARATOR + "1234",
+                     second);
+        cache.get(first, fetcher);
+        cache.get(second, fetcher);
+        cache.get(second, fetcher);
+        assertEquals("Each record should be fetched once", 2,
+                     fetcher.fetches.get());
+        assertEquals("Both records should be cached", 2,
+                     cache.getCachedFiles());
+    }
+}
@@ -25,6 +25,7 @@ package dk.netarkivet.wayback;
 
 import dk.netarkivet.wayback.aggregator.AggregationWorkerTest;
 import dk.netarkivet.wayback.aggregator.IndexAggregatorTest;
+import dk.netarkivet.wayback.aggregator.IndexFileSorterTest;
 import dk.netarkivet.wayback.batch.DeduplicateToCDXAdapterTester;
 import dk.netarkivet.wayback.batch.DeduplicationCDXExtractionBatchJobTester;
 import dk.netarkivet.wayback.batch.WaybackCDXExtractionArcAndWarcBatchJobTester;
@@ -74,7 +75,9 @@ public class WaybackTesterSuite {
         suite.addTestSuite(WaybackIndexerTester.class);
         suite.addTestSuite(IndexAggregatorTest.class);
         suite.addTestSuite(AggregationWorkerTest.class);
+        suite.addTestSuite(IndexFileSorterTest.class);
         suite.addTestSuite(LRUCacheTester.class);
+        suite.addTestSuite(ArchiveFileCacheTester.class);
     }
 
     public static void main(String args[]) {
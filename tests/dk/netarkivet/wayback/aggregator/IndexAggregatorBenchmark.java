@@ -0,0 +1,157 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.wayback.WaybackSettings;
+
+/**
+ * Compares the throughput of the in-process <code>IndexFileSorter</code> with
+ * the Unix sort command when aggregating generated CDX files. This is not a
+ * unit test, run it with
+ * <pre>
+ * java dk.netarkivet.wayback.aggregator.IndexAggregatorBenchmark workdir sizeInMB [files]
+ * </pre>
+ * Each engine first sorts the generated files into one index and then
+ * merges that index with a second, separately sorted one, like the
+ * AggregationWorker does.
+ */
+public class IndexAggregatorBenchmark {
+    /** Number of bytes in a MB. */
+    private static final long MB = 1024L * 1024L;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: IndexAggregatorBenchmark workdir "
+                               + "sizeInMB [files]");
+            System.exit(1);
+        }
+        File workDir = new File(args[0]);
+        long size = Long.parseLong(args[1]) * MB;
+        int fileCount = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        FileUtils.removeRecursively(workDir);
+        File inputDir = new File(workDir, "input");
+        File tempDir = new File(workDir, "temp");
+        FileUtils.createDir(inputDir);
+        FileUtils.createDir(tempDir);
+        System.setProperty(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR,
+                           tempDir.getAbsolutePath());
+
+        File[] inputs = generateCDXFiles(inputDir, fileCount, size);
+        IndexAggregator aggregator = new IndexAggregator();
+        for (String useUnixSort : new String[]{"true", "false"}) {
+            System.setProperty(WaybackSettings.WAYBACK_AGGREGATOR_USE_UNIX_SORT,
+                               useUnixSort);
+            String engine = "true".equals(useUnixSort)
+                            ? "unix sort" : "IndexFileSorter";
+            File firstHalf = new File(workDir, "first.cdx");
+            File secondHalf = new File(workDir, "second.cdx");
+            File merged = new File(workDir, "merged.cdx");
+            int half = inputs.length / 2;
+            File[] firstInputs = new File[half];
+            File[] secondInputs = new File[inputs.length - half];
+            System.arraycopy(inputs, 0, firstInputs, 0, half);
+            System.arraycopy(inputs, half, secondInputs, 0,
+                             secondInputs.length);
+
+            long start = System.currentTimeMillis();
+            aggregator.sortAndMergeFiles(firstInputs, firstHalf);
+            aggregator.sortAndMergeFiles(secondInputs, secondHalf);
+            long sorted = System.currentTimeMillis();
+            aggregator.mergeFiles(new File[]{firstHalf, secondHalf}, merged);
+            long done = System.currentTimeMillis();
+
+            report(engine, "sort", size, sorted - start);
+            report(engine, "merge", merged.length(), done - sorted);
+            FileUtils.remove(firstHalf);
+            FileUtils.remove(secondHalf);
+            FileUtils.remove(merged);
+        }
+        FileUtils.removeRecursively(workDir);
+    }
+
+    /**
+     * Write a number of files with random CDX lines.
+     *
+     * @param dir Directory to place the files in
+     * @param fileCount The number of files
+     * @param totalSize The approximate total size of the files in bytes
+     * @return The generated files
+     * @throws IOException If the files could not be written
+     */
+    private static File[] generateCDXFiles(File dir, int fileCount,
+                                           long totalSize) throws IOException {
+        Random random = new Random(0);
+        File[] files = new File[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = new File(dir, "raw" + i + ".cdx");
+            BufferedWriter writer = new BufferedWriter(
+                    new FileWriter(files[i]));
+            try {
+                long written = 0;
+                while (written < totalSize / fileCount) {
+                    String line = "dk,domain" + random.nextInt(1000000)
+                            + ")/path/" + Long.toHexString(random.nextLong())
+                            + ".html 2012" + (10000000000L
+                            + (random.nextLong() & 0xffffffffL))
+                            + " http://www.domain.dk/ text/html 200 "
+                            + Long.toHexString(random.nextLong())
+                            + " - - " + random.nextInt(100000000)
+                            + " 1-1-20120101000000-00000-sb-test.arc";
+                    writer.write(line);
+                    writer.newLine();
+                    written += line.length() + 1;
+                }
+            } finally {
+                writer.close();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Print the throughput of an operation.
+     *
+     * @param engine The sort engine used
+     * @param operation The operation measured
+     * @param bytes The number of bytes processed
+     * @param millis The time spent
+     */
+    private static void report(String engine, String operation, long bytes,
+                               long millis) {
+        System.out.println(engine + " " + operation + ": " + bytes / MB
+                           + " MB in " + millis + " ms ("
+                           + (bytes / MB * 1000 / Math.max(1, millis))
+                           + " MB/s)");
+    }
+}
@@ -0,0 +1,181 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Verifies that the <code>IndexFileSorter</code> sorts and merges lines in
+ * byte order, also when the input must be split into several runs and merged
+ * in several passes.
+ */
+public class IndexFileSorterTest extends TestCase {
+    private File workDir = new File(AggregatorTestCase.testWorkingDirectory,
+                                    "sorter");
+    private File tempDir = new File(workDir, "temp");
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        FileUtils.removeRecursively(workDir);
+        workDir.mkdirs();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.removeRecursively(workDir);
+        super.tearDown();
+    }
+
+    /**
+     * Sorting files which must be split into many small runs gives the same
+     * result as sorting all the lines in memory, including duplicate lines.
+     */
+    public void testSortManyRuns() throws IOException {
+        Random random = new Random(42);
+        List<byte[]> expected = new ArrayList<byte[]>();
+        List<File> unsorted = new ArrayList<File>();
+        for (int i = 0; i < 5; i++) {
+            List<byte[]> lines = new ArrayList<byte[]>();
+            for (int j = 0; j < 1000; j++) {
+                lines.add(("dk,test" + random.nextInt(500) + ")/ 2010"
+                          + random.nextInt(10)).getBytes("UTF-8"));
+            }
+            expected.addAll(lines);
+            unsorted.add(writeLines("unsorted" + i, lines, false));
+        }
+        Collections.sort(expected, IndexFileSorter.BYTE_ORDER);
+
+        File output = new File(workDir, "output");
+        new IndexFileSorter(tempDir, 3, 200).sortAndMerge(
+                unsorted, Collections.<File>emptyList(), output);
+
+        assertLines(expected, output);
+        assertEquals("No temporary files should remain",
+                     0, tempDir.list().length);
+    }
+
+    /**
+     * Merging more files than the maximum fan-in, and with some unsorted
+     * input, gives a completely sorted result.
+     */
+    public void testMergeSeveralPasses() throws IOException {
+        List<byte[]> expected = new ArrayList<byte[]>();
+        List<File> sorted = new ArrayList<File>();
+        for (int i = 0; i < IndexFileSorter.MAX_MERGE_FAN_IN + 10; i++) {
+            List<byte[]> lines = new ArrayList<byte[]>();
+            for (int j = 0; j < 5; j++) {
+                lines.add(("line " + ((j * 7919 + i) % 1000)).getBytes());
+            }
+            Collections.sort(lines, IndexFileSorter.BYTE_ORDER);
+            expected.addAll(lines);
+            sorted.add(writeLines("sorted" + i, lines, true));
+        }
+        List<byte[]> unsortedLines = Arrays.asList("zzz".getBytes(),
+                                                   "aaa".getBytes());
+        expected.addAll(unsortedLines);
+        Collections.sort(expected, IndexFileSorter.BYTE_ORDER);
+
+        File output = new File(workDir, "output");
+        new IndexFileSorter(tempDir, 2, 1024 * 1024).sortAndMerge(
+                Arrays.asList(writeLines("unsorted", unsortedLines, false)),
+                sorted, output);
+
+        assertLines(expected, output);
+    }
+
+    /**
+     * Lines are ordered by unsigned bytes, as by the Unix sort command with
+     * LC_ALL=C, and the output may replace one of the inputs.
+     */
+    public void testByteOrderAndInPlaceMerge() throws IOException {
+        List<byte[]> lines = Arrays.asList("Zebra".getBytes("UTF-8"),
+                                           "zebra".getBytes("UTF-8"),
+                                           "æbler".getBytes("UTF-8"));
+        File file = writeLines("inplace", lines, true);
+        new IndexFileSorter(tempDir, 1, 1024).sortAndMerge(
+                Arrays.asList(writeLines("new", Arrays.asList(
+                        "abc".getBytes()), true)),
+                Arrays.asList(file), file);
+
+        assertLines(Arrays.asList("Zebra".getBytes("UTF-8"),
+                                  "abc".getBytes("UTF-8"),
+                                  "zebra".getBytes("UTF-8"),
+                                  "æbler".getBytes("UTF-8")), file);
+    }
+
+    private File writeLines(String name, List<byte[]> lines,
+                            boolean lastNewline) throws IOException {
+        File file = new File(workDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < lines.size(); i++) {
+                out.write(lines.get(i));
+                if (lastNewline || i < lines.size() - 1) {
+                    out.write('\n');
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void assertLines(List<byte[]> expected, File file)
+            throws IOException {
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                actual.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        ByteArrayOutputStream wanted = new ByteArrayOutputStream();
+        for (byte[] line : expected) {
+            wanted.write(line, 0, line.length);
+            wanted.write('\n');
+        }
+        assertTrue("The output should contain the expected lines in order",
+                   Arrays.equals(wanted.toByteArray(), actual.toByteArray()));
+    }
+}
@@ -0,0 +1,178 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Base32;
+
+import dk.netarkivet.common.utils.AllDocsCollector;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Compares the time spent looking up URLs in a deduplication index with
+ * the former term range filter, which loaded the whole document of each
+ * hit, and with the term query and digest-only loading of
+ * <code>DeDuplicator.lookupByURL</code>. This is not a unit test, run it
+ * with
+ * <pre>
+ * java is.hi.bok.deduplicator.DeDuplicatorBenchmark documents [lookups]
+ * </pre>
+ * Half of the lookups are for URLs in the index, half of those with the
+ * indexed digest. Each engine is run once to warm up before it is timed.
+ */
+public class DeDuplicatorBenchmark {
+    /** The engines compared. */
+    private static final String[] ENGINES = {"range", "term"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: DeDuplicatorBenchmark documents "
+                               + "[lookups]");
+            System.exit(1);
+        }
+        int documents = Integer.parseInt(args[0]);
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        File indexDir = DeDuplicatorTester.WORKING_DIR;
+        FileUtils.removeRecursively(indexDir);
+        FileUtils.createDir(indexDir);
+        List<CrawlDataItem> items = new ArrayList<CrawlDataItem>(documents);
+        for (int i = 0; i < documents; i++) {
+            items.add(new CrawlDataItem(makeURL(i),
+                    DeDuplicatorTester.digest(i), "20120101000000", null,
+                    "text/html", null, false));
+        }
+        DeDuplicatorTester.writeIndex(indexDir, items.iterator());
+        items = null;
+
+        Random random = new Random(0);
+        CrawlURI[] curis = new CrawlURI[lookups];
+        for (int i = 0; i < lookups; i++) {
+            int document = random.nextInt(2 * documents);
+            curis[i] = new CrawlURI(UURIFactory.getInstance(
+                    makeURL(document)));
+            curis[i].setContentDigest("sha1", Base32.decode(
+                    DeDuplicatorTester.digest(random.nextBoolean()
+                                              ? document : -document)));
+        }
+
+        DirectoryReader reader = DirectoryReader.open(
+                FSDirectory.open(indexDir));
+        try {
+            DeDuplicator deduplicator = new DeDuplicator("deduplicator");
+            deduplicator.index = new IndexSearcher(reader);
+            deduplicator.stats = new Statistics();
+            for (String engine : ENGINES) {
+                run(engine, curis, deduplicator);
+                long start = System.currentTimeMillis();
+                int found = run(engine, curis, deduplicator);
+                long millis = System.currentTimeMillis() - start;
+                System.out.println(engine + ": " + lookups + " lookups in "
+                        + documents + " documents in " + millis + " ms ("
+                        + (millis * 1000000L / Math.max(1, lookups))
+                        + " ns/lookup, " + found + " duplicates found)");
+            }
+        } finally {
+            reader.close();
+            FileUtils.removeRecursively(indexDir);
+        }
+    }
+
+    /**
+     * Look up the CrawlURIs with an engine.
+     *
+     * @param engine The engine to use
+     * @param curis The CrawlURIs
+     * @param deduplicator A DeDuplicator searching the index
+     * @return The number of duplicates found
+     * @throws Exception If the index cannot be searched
+     */
+    private static int run(String engine, CrawlURI[] curis,
+                           DeDuplicator deduplicator) throws Exception {
+        int found = 0;
+        for (CrawlURI curi : curis) {
+            Document duplicate;
+            if ("range".equals(engine)) {
+                duplicate = lookupByRange(curi, deduplicator.index);
+            } else {
+                duplicate = deduplicator.lookupByURL(curi, null);
+            }
+            if (duplicate != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The former lookup of a CrawlURI, with a term range filter and loading
+     * the whole document of each hit.
+     *
+     * @param curi The CrawlURI
+     * @param index The index
+     * @return The duplicate, or null
+     * @throws Exception If the index cannot be searched
+     */
+    private static Document lookupByRange(CrawlURI curi, IndexSearcher index)
+            throws Exception {
+        BytesRef valueRef = new BytesRef(curi.toString().getBytes());
+        Query query = new ConstantScoreQuery(new TermRangeFilter(
+                DigestIndexer.FIELD_URL, valueRef, valueRef, true, true));
+        AllDocsCollector collector = new AllDocsCollector();
+        index.search(query, collector);
+        String digest = Base32.encode((byte[]) curi.getContentDigest());
+        for (ScoreDoc hit : collector.getHits()) {
+            Document doc = index.doc(hit.doc);
+            if (doc.get(DigestIndexer.FIELD_DIGEST).equalsIgnoreCase(digest)) {
+                return doc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param i A number
+     * @return An URL made from the number
+     */
+    private static String makeURL(int i) {
+        return "http://www.domain" + (i % 1000) + ".dk/page" + i + ".html";
+    }
+}
@@ -0,0 +1,228 @@
+/* File:   $Id$
+ * Revision: $Revision$
+ * Author:   $Author$
+ * Date:     $Date$
+ *
+ * The Netarchive Suite - Software to harvest and preserve websites
+ * Copyright 2004-2012 The Royal Danish Library, the Danish State and
+ * University Library, the National Library of France and the Austrian
+ * National Library.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *  USA
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+import org.archive.crawler.datamodel.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Base32;
+
+import dk.netarkivet.common.utils.AllDocsCollector;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the lookups of the DeDuplicator in a deduplication index.
+ */
+public class DeDuplicatorTester extends TestCase {
+    /** The directory holding the index. */
+    static final File WORKING_DIR = new File(
+            "tests/is/hi/bok/deduplicator/working");
+    /** An URL in the index. */
+    private static final String URL = "http://www.netarkivet.dk/index.html";
+    /** An URL in the index with characters that are not ASCII. */
+    private static final String NON_ASCII_URL =
+            "http://www.netarkivet.dk/søg/æblerå.html";
+    /** The digest of URL. */
+    private static final String DIGEST = digest(1);
+    /** The digest of NON_ASCII_URL. */
+    private static final String NON_ASCII_DIGEST = digest(2);
+
+    private DirectoryReader reader;
+    private DeDuplicator deduplicator;
+
+    public DeDuplicatorTester(String s) {
+        super(s);
+    }
+
+    public void setUp() throws Exception {
+        FileUtils.removeRecursively(WORKING_DIR);
+        FileUtils.createDir(WORKING_DIR);
+        writeIndex(WORKING_DIR, Arrays.asList(
+                new CrawlDataItem(URL, DIGEST, "20120101000000", null,
+                                  "text/html", null, false),
+                new CrawlDataItem(NON_ASCII_URL, NON_ASCII_DIGEST,
+                                  "20120101000000", null, "text/html", null,
+                                  false)).iterator());
+        reader = DirectoryReader.open(FSDirectory.open(WORKING_DIR));
+        deduplicator = new DeDuplicator("deduplicator");
+        deduplicator.index = new IndexSearcher(reader);
+        deduplicator.stats = new Statistics();
+    }
+
+    public void tearDown() throws Exception {
+        reader.close();
+        FileUtils.removeRecursively(WORKING_DIR);
+    }
+
+    /**
+     * Test that the query for a field only matches the exact value.
+     */
+    public void testQueryField() throws IOException {
+        assertEquals("The URL should be found", 1,
+                countHits(DigestIndexer.FIELD_URL, URL));
+        assertEquals("An URL with characters that are not ASCII should be "
+                     + "found", 1,
+                countHits(DigestIndexer.FIELD_URL, NON_ASCII_URL));
+        assertEquals("The digest should be found", 1,
+                countHits(DigestIndexer.FIELD_DIGEST, DIGEST));
+        assertEquals("The digest should be found", 1,
+                countHits(DigestIndexer.FIELD_DIGEST, NON_ASCII_DIGEST));
+
+        assertEquals("A prefix of the URL should not be found", 0,
+                countHits(DigestIndexer.FIELD_URL,
+                          URL.substring(0, URL.length() - 1)));
+        assertEquals("A longer URL should not be found", 0,
+                countHits(DigestIndexer.FIELD_URL, URL + "x"));
+        assertEquals("The URL with other characters should not be found", 0,
+                countHits(DigestIndexer.FIELD_URL,
+                          NON_ASCII_URL.replace('ø', 'o')));
+        assertEquals("The digest in lower case should not be found", 0,
+                countHits(DigestIndexer.FIELD_DIGEST, DIGEST.toLowerCase()));
+        assertEquals("The URL should not be found in the digest field", 0,
+                countHits(DigestIndexer.FIELD_DIGEST, URL));
+    }
+
+    /**
+     * Test that a CrawlURI is only a duplicate when both the URL and the
+     * digest match.
+     */
+    public void testLookupByURL() throws Exception {
+        Document doc = deduplicator.lookupByURL(makeCrawlURI(URL, DIGEST),
+                                                null);
+        assertNotNull("The URL with the same digest should be a duplicate",
+                doc);
+        assertEquals("The whole document should be loaded", "20120101000000",
+                doc.get(DigestIndexer.FIELD_TIMESTAMP));
+        assertEquals("The duplicate should be counted", 1,
+                deduplicator.stats.exactURLDuplicates);
+
+        assertNull("The URL with another digest should not be a duplicate",
+                deduplicator.lookupByURL(makeCrawlURI(URL, NON_ASCII_DIGEST),
+                                         null));
+        assertNull("Another URL should not be a duplicate",
+                deduplicator.lookupByURL(makeCrawlURI(URL + "x", DIGEST),
+                                         null));
+    }
+
+    /**
+     * Test that a CrawlURI is a duplicate when its digest is in the index.
+     */
+    public void testLookupByDigest() throws Exception {
+        assertNotNull("The URL with the same digest should be a duplicate",
+                deduplicator.lookupByDigest(makeCrawlURI(URL, DIGEST),
+                                            null));
+        assertEquals("The duplicate should be counted", 1,
+                deduplicator.stats.exactURLDuplicates);
+        assertNull("Another digest should not be a duplicate",
+                deduplicator.lookupByDigest(makeCrawlURI(URL, digest(3)),
+                                            null));
+    }
+
+    /**
+     * Count the documents found by the query for a value in a field.
+     *
+     * @param field The field.
+     * @param value The value.
+     * @return The number of documents found.
+     * @throws IOException If the index cannot be searched.
+     */
+    private int countHits(String field, String value) throws IOException {
+        AllDocsCollector collector = new AllDocsCollector();
+        deduplicator.index.search(deduplicator.queryField(field, value),
+                                  collector);
+        return collector.getHits().size();
+    }
+
+    /**
+     * Make a CrawlURI with a content digest.
+     *
+     * @param url The URL.
+     * @param digest The Base32 encoded SHA-1 digest.
+     * @return The CrawlURI.
+     * @throws Exception If the URL is not valid.
+     */
+    private static CrawlURI makeCrawlURI(String url, String digest)
+            throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(url));
+        curi.setContentDigest("sha1", Base32.decode(digest));
+        return curi;
+    }
+
+    /**
+     * Make a Base32 encoded SHA-1 digest.
+     *
+     * @param seed The value of the bytes of the digest.
+     * @return The digest.
+     */
+    static String digest(int seed) {
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return Base32.encode(bytes);
+    }
+
+    /**
+     * Write a deduplication index, indexing both URLs and digests.
+     *
+     * @param dir The directory of the index.
+     * @param items The items to index.
+     * @throws IOException If the index cannot be written.
+     */
+    static void writeIndex(File dir, final Iterator<CrawlDataItem> items)
+            throws IOException {
+        DigestIndexer indexer = new DigestIndexer(dir.getAbsolutePath(),
+                DigestIndexer.MODE_BOTH, true, true, false, false);
+        indexer.writeToIndex(new CrawlDataIterator(dir.getName()) {
+            public boolean hasNext() {
+                return items.hasNext();
+            }
+
+            public CrawlDataItem next() {
+                return items.next();
+            }
+
+            public void close() {
+            }
+
+            public String getSourceType() {
+                return "test items";
+            }
+        }, "^text/.*", false, null, false);
+        indexer.close();
+    }
+}